@@ -0,0 +1,32 @@
+package org.dancres.blitz.bench;
+
+import net.jini.core.entry.Entry;
+
+/**
+   Entry used by all benchmarks.  <code>key</code> is used for exact match
+   templates whilst <code>group</code> gives a second, less selective field
+   for multi-field templates.
+ */
+public class BenchEntry implements Entry {
+    public Integer key;
+    public Integer group;
+    public String payload;
+    public Long stamp;
+
+    public BenchEntry() {
+    }
+
+    public BenchEntry(int aKey, int aGroup, String aPayload) {
+        key = new Integer(aKey);
+        group = new Integer(aGroup);
+        payload = aPayload;
+        stamp = new Long(aKey);
+    }
+
+    public static BenchEntry template(int aKey) {
+        BenchEntry myTemplate = new BenchEntry();
+        myTemplate.key = new Integer(aKey);
+
+        return myTemplate;
+    }
+}
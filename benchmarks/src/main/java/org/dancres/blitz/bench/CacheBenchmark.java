@@ -0,0 +1,110 @@
+package org.dancres.blitz.bench;
+
+import java.io.IOException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.dancres.blitz.arc.ArcCache;
+import org.dancres.blitz.arc.BackingStore;
+import org.dancres.blitz.arc.BlockCache;
+import org.dancres.blitz.arc.CacheBlockDescriptor;
+import org.dancres.blitz.arc.ClockCache;
+
+import org.dancres.blitz.cache.Identifiable;
+import org.dancres.blitz.cache.Identifier;
+
+import org.dancres.blitz.oid.OID;
+import org.dancres.blitz.oid.OIDFactory;
+
+/**
+   <p>Measures <code>find</code> against the entry caches over an in-memory
+   BackingStore so only the cost of the cache itself is measured.</p>
+
+   <p><code>working</code> is the number of distinct ids looked up, when
+   larger than <code>size</code> the cache must evict and reload.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+    @Param({"arc", "clock"})
+    public String cache;
+
+    @Param({"1024"})
+    public int size;
+
+    @Param({"512", "4096"})
+    public int working;
+
+    private BlockCache theCache;
+    private OID[] theIds;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        BackingStore myStore = new StoreImpl();
+
+        if (cache.equals("clock"))
+            theCache = new ClockCache(myStore, size);
+        else
+            theCache = new ArcCache(myStore, size);
+
+        theIds = new OID[working];
+
+        for (int i = 0; i < working; i++) {
+            theIds[i] = OIDFactory.newOID(1, i);
+            theCache.insert(new Element(theIds[i])).release();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int theNext;
+
+        int next(int aRange) {
+            theNext = (theNext + 7919) % aRange;
+
+            return theNext;
+        }
+    }
+
+    @Benchmark
+    public Object find(Cursor aCursor) throws Exception {
+        CacheBlockDescriptor myCBD =
+            theCache.find(theIds[aCursor.next(working)]);
+
+        Object myContent = myCBD.getContent();
+        myCBD.release();
+
+        return myContent;
+    }
+
+    private static class Element implements Identifiable {
+        private Identifier theId;
+
+        Element(Identifier anId) {
+            theId = anId;
+        }
+
+        public Identifier getId() {
+            return theId;
+        }
+    }
+
+    private static class StoreImpl implements BackingStore {
+        public Identifiable load(Identifier anId) throws IOException {
+            return new Element(anId);
+        }
+
+        public void save(Identifiable anIdentifiable) throws IOException {
+        }
+
+        public String getName() {
+            return "BenchStore";
+        }
+    }
+}
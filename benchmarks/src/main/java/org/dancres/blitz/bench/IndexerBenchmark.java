@@ -0,0 +1,129 @@
+package org.dancres.blitz.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.dancres.blitz.cache.Identifiable;
+import org.dancres.blitz.cache.Identifier;
+
+import org.dancres.blitz.config.EntryConstraints;
+
+import org.dancres.blitz.entry.EntrySleeve;
+import org.dancres.blitz.entry.TupleLocator;
+
+import org.dancres.blitz.entry.ci.CacheIndexer;
+
+import org.dancres.blitz.mangler.EntryMangler;
+import org.dancres.blitz.mangler.MangledEntry;
+
+import org.dancres.blitz.oid.OID;
+import org.dancres.blitz.oid.OIDFactory;
+
+/**
+   Measures <code>CacheIndexer.find</code> (including iteration of the
+   returned ids) for a single field template and a two field template over
+   a populated in-memory index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class IndexerBenchmark {
+    @Param({"10000"})
+    public int population;
+
+    private CacheIndexer theIndexer;
+
+    private MangledEntry theKeyTemplate;
+    private MangledEntry theGroupTemplate;
+    private MangledEntry theKeyGroupTemplate;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        EntryMangler myMangler = new EntryMangler();
+
+        String myType = BenchEntry.class.getName();
+
+        theIndexer = CacheIndexer.newIndexer(myType,
+                                             EntryConstraints.MINIMUM);
+
+        for (int i = 0; i < population; i++) {
+            MangledEntry myEntry =
+                myMangler.mangle(new BenchEntry(i, i % 16, "payload"));
+
+            theIndexer.loaded(new Sleeve(OIDFactory.newOID(1, i), myEntry));
+        }
+
+        theKeyTemplate = myMangler.mangle(BenchEntry.template(population / 2));
+
+        BenchEntry myTemplate = new BenchEntry();
+        myTemplate.group = new Integer(3);
+        theGroupTemplate = myMangler.mangle(myTemplate);
+
+        myTemplate.payload = "payload";
+        myTemplate.key = new Integer(3);
+        theKeyGroupTemplate = myMangler.mangle(myTemplate);
+    }
+
+    @Benchmark
+    public void findByKey(Blackhole aHole) throws Exception {
+        drain(theIndexer.find(theKeyTemplate), aHole);
+    }
+
+    @Benchmark
+    public void findByGroup(Blackhole aHole) throws Exception {
+        drain(theIndexer.find(theGroupTemplate), aHole);
+    }
+
+    @Benchmark
+    public void findByKeyAndGroup(Blackhole aHole) throws Exception {
+        drain(theIndexer.find(theKeyGroupTemplate), aHole);
+    }
+
+    private void drain(TupleLocator aLocator, Blackhole aHole)
+        throws Exception {
+
+        while (aLocator.fetchNext())
+            aHole.consume(aLocator.getOID());
+
+        aLocator.release();
+    }
+
+    private static class Sleeve implements EntrySleeve, Identifiable {
+        private OID theId;
+        private MangledEntry theEntry;
+
+        Sleeve(OID anId, MangledEntry anEntry) {
+            theId = anId;
+            theEntry = anEntry;
+        }
+
+        public Identifier getId() {
+            return theId;
+        }
+
+        public OID getOID() {
+            return theId;
+        }
+
+        public String getType() {
+            return theEntry.getType();
+        }
+
+        public MangledEntry getEntry() {
+            return theEntry;
+        }
+
+        public boolean isDeleted() {
+            return false;
+        }
+
+        public int getHashCodeForField(int anOffset) {
+            return theEntry.getField(anOffset).hashCode();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.dancres.blitz.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import net.jini.core.entry.Entry;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.dancres.blitz.mangler.EntryMangler;
+import org.dancres.blitz.mangler.MangledEntry;
+
+/**
+   Micro-benchmarks for packing, unpacking and matching of entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ManglerBenchmark {
+    private EntryMangler theMangler;
+
+    private BenchEntry theEntry;
+    private MangledEntry theMangled;
+    private MangledEntry theHitTemplate;
+    private MangledEntry theMissTemplate;
+    private MangledEntry theWildcard;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        theMangler = new EntryMangler();
+
+        theEntry = new BenchEntry(42, 7, "a payload of modest length");
+        theMangled = theMangler.mangle(theEntry);
+
+        BenchEntry myTemplate = BenchEntry.template(42);
+        myTemplate.group = new Integer(7);
+        theHitTemplate = theMangler.mangle(myTemplate);
+
+        myTemplate.group = new Integer(8);
+        theMissTemplate = theMangler.mangle(myTemplate);
+
+        theWildcard = theMangler.mangle(new BenchEntry());
+    }
+
+    @Benchmark
+    public MangledEntry mangle() {
+        return theMangler.mangle(theEntry);
+    }
+
+    @Benchmark
+    public Entry unMangle() throws Exception {
+        return theMangler.unMangle(theMangled);
+    }
+
+    @Benchmark
+    public boolean matchHit() {
+        return theHitTemplate.match(theMangled);
+    }
+
+    @Benchmark
+    public boolean matchMiss() {
+        return theMissTemplate.match(theMangled);
+    }
+
+    @Benchmark
+    public boolean matchWildcard() {
+        return theWildcard.match(theMangled);
+    }
+}
@@ -0,0 +1,87 @@
+package org.dancres.blitz.bench;
+
+import java.rmi.MarshalledObject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jini.core.event.RemoteEvent;
+import net.jini.core.event.RemoteEventListener;
+import net.jini.core.lease.Lease;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.dancres.blitz.SpaceImpl;
+
+import org.dancres.blitz.mangler.EntryMangler;
+import org.dancres.blitz.mangler.MangledEntry;
+
+/**
+   Measures write/take throughput with a number of notify registrations
+   matching every write, thus the cost of fanning out events.  Events are
+   delivered to in-process listeners so no remote call costs are included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class NotifyBenchmark {
+    @Param({Spaces.TRANSIENT})
+    public String storage;
+
+    @Param({"1", "16", "256"})
+    public int listeners;
+
+    private Spaces theSpaces;
+    private SpaceImpl theSpace;
+
+    private MangledEntry theEntry;
+    private MangledEntry theTemplate;
+
+    private AtomicLong theEvents = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        theSpaces = new Spaces(storage);
+        theSpace = theSpaces.getSpace();
+
+        EntryMangler myMangler = new EntryMangler();
+
+        theEntry = myMangler.mangle(new BenchEntry(1, 1, "payload"));
+        theTemplate = myMangler.mangle(BenchEntry.template(1));
+
+        MangledEntry myWildcard = myMangler.mangle(new BenchEntry());
+
+        for (int i = 0; i < listeners; i++) {
+            theSpace.notify(myWildcard, null, new Listener(theEvents),
+                            Lease.FOREVER,
+                            new MarshalledObject(new Integer(i)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        theSpaces.stop();
+    }
+
+    @Benchmark
+    public MangledEntry writeTake() throws Exception {
+        theSpace.write(theEntry, null, Lease.FOREVER);
+
+        return theSpace.take(theTemplate, null, 0);
+    }
+
+    private static class Listener implements RemoteEventListener {
+        private AtomicLong theCount;
+
+        Listener(AtomicLong aCount) {
+            theCount = aCount;
+        }
+
+        public void notify(RemoteEvent anEvent) {
+            theCount.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.dancres.blitz.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jini.core.lease.Lease;
+import net.jini.core.transaction.server.ServerTransaction;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import org.dancres.blitz.SpaceImpl;
+
+import org.dancres.blitz.mangler.EntryMangler;
+import org.dancres.blitz.mangler.MangledEntry;
+
+import org.dancres.blitz.remote.LocalTxnMgr;
+
+/**
+   <p>Drives SpaceImpl directly (no remote layer) for each of the storage
+   models.  A population of entries is written at setup and each benchmark
+   leaves the population as it found it (e.g. a take is followed by writing
+   the entry back) so results are not skewed by the space filling or
+   draining as the run progresses.  The exception is <code>write</code>
+   which measures pure write cost and grows the space.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class SpaceBenchmark {
+    private static final int BATCH_SIZE = 32;
+
+    @Param({Spaces.TRANSIENT, Spaces.PERSISTENT})
+    public String storage;
+
+    @Param({"10000"})
+    public int population;
+
+    private Spaces theSpaces;
+    private SpaceImpl theSpace;
+    private LocalTxnMgr theTxnMgr;
+
+    private MangledEntry[] theEntries;
+    private MangledEntry[] theTemplates;
+
+    private AtomicInteger theNextWrite;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        theSpaces = new Spaces(storage);
+        theSpace = theSpaces.getSpace();
+        theTxnMgr = new LocalTxnMgr(1, theSpace.getTxnControl());
+
+        EntryMangler myMangler = new EntryMangler();
+
+        theEntries = new MangledEntry[population];
+        theTemplates = new MangledEntry[population];
+
+        for (int i = 0; i < population; i++) {
+            theEntries[i] = myMangler.mangle(new BenchEntry(i, i % 16,
+                                                            "payload"));
+            theTemplates[i] = myMangler.mangle(BenchEntry.template(i));
+
+            theSpace.write(theEntries[i], null, Lease.FOREVER);
+        }
+
+        theNextWrite = new AtomicInteger(population);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        theSpaces.stop();
+    }
+
+    /**
+       Each thread works on its own slice of the keys so concurrent takes
+       don't conflict.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int theBase;
+        private int theOffset;
+        private int theRange;
+
+        @Setup(Level.Trial)
+        public void setup(SpaceBenchmark aBench, ThreadParams aParams) {
+            theRange = Math.max(1,
+                aBench.population / aParams.getThreadCount());
+            theBase = aParams.getThreadIndex() * theRange;
+        }
+
+        int next() {
+            theOffset = (theOffset + 1) % theRange;
+
+            return theBase + theOffset;
+        }
+    }
+
+    @Benchmark
+    public Object write() throws Exception {
+        int myKey = theNextWrite.getAndIncrement();
+
+        return theSpace.write(theEntries[myKey % population], null,
+                              Lease.FOREVER);
+    }
+
+    @Benchmark
+    public MangledEntry read(Cursor aCursor) throws Exception {
+        return theSpace.read(theTemplates[aCursor.next()], null, 0);
+    }
+
+    @Benchmark
+    public MangledEntry readIfExists(Cursor aCursor) throws Exception {
+        return theSpace.readIfExists(theTemplates[aCursor.next()],
+                                     null, 0);
+    }
+
+    @Benchmark
+    public MangledEntry takeWrite(Cursor aCursor) throws Exception {
+        int myKey = aCursor.next();
+
+        MangledEntry myEntry = theSpace.take(theTemplates[myKey], null, 0);
+
+        if (myEntry != null)
+            theSpace.write(myEntry, null, Lease.FOREVER);
+
+        return myEntry;
+    }
+
+    @Benchmark
+    public MangledEntry takeIfExistsWrite(Cursor aCursor) throws Exception {
+        int myKey = aCursor.next();
+
+        MangledEntry myEntry =
+            theSpace.takeIfExists(theTemplates[myKey], null, 0);
+
+        if (myEntry != null)
+            theSpace.write(myEntry, null, Lease.FOREVER);
+
+        return myEntry;
+    }
+
+    /**
+       Takes a batch of entries via the multi-template take and writes
+       them back via bulk write.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List bulkTakeWrite(Cursor aCursor) throws Exception {
+        MangledEntry[] myTemplates = new MangledEntry[BATCH_SIZE];
+
+        for (int i = 0; i < BATCH_SIZE; i++)
+            myTemplates[i] = theTemplates[aCursor.next()];
+
+        List myTaken = theSpace.take(myTemplates, null, 0, BATCH_SIZE);
+
+        if (myTaken.size() == 0)
+            return myTaken;
+
+        List myLeases = new ArrayList();
+
+        for (int i = 0; i < myTaken.size(); i++)
+            myLeases.add(new Long(Lease.FOREVER));
+
+        return theSpace.write(myTaken, null, myLeases);
+    }
+
+    /**
+       Take and write back under a transaction which is then committed,
+       exercising prepare/commit and the log.
+     */
+    @Benchmark
+    public MangledEntry txnTakeWriteCommit(Cursor aCursor) throws Exception {
+        int myKey = aCursor.next();
+
+        ServerTransaction myTxn = theTxnMgr.newTxn();
+
+        MangledEntry myEntry = theSpace.take(theTemplates[myKey], myTxn, 0);
+
+        if (myEntry != null)
+            theSpace.write(myEntry, myTxn, Lease.FOREVER);
+
+        myTxn.commit();
+
+        return myEntry;
+    }
+}
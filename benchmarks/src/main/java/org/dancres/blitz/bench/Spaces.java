@@ -0,0 +1,114 @@
+package org.dancres.blitz.bench;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.jini.core.transaction.UnknownTransactionException;
+import net.jini.core.transaction.server.TransactionConstants;
+
+import org.dancres.blitz.SpaceImpl;
+
+import org.dancres.blitz.config.ConfigurationFactory;
+
+import org.dancres.blitz.txn.TxnGateway;
+import org.dancres.blitz.txn.TxnId;
+
+/**
+   <p>Boots a SpaceImpl against one of the storage models.  The base
+   configuration (<code>config/blitz.config</code> unless the
+   <code>org.dancres.blitz.bench.config</code> property says otherwise) is
+   used with the storage model and directories overridden so that each
+   benchmark fork starts from an empty space in a private directory.</p>
+
+   <p>Blitz configuration is static and loaded once per JVM so JMH must fork
+   each benchmark (which is the default).</p>
+ */
+class Spaces {
+    static final String TRANSIENT = "transient";
+    static final String PERSISTENT = "persistent";
+
+    private static final String MODULE = ConfigurationFactory.BLITZ_MODULE;
+
+    private static final String PERSISTENT_MODEL =
+        "new org.dancres.blitz.config.Persistent(true, true, 0, true, " +
+        "100000, 65536)";
+
+    private static final String TRANSIENT_MODEL =
+        "new org.dancres.blitz.config.Transient()";
+
+    private SpaceImpl theSpace;
+    private File theDir;
+
+    Spaces(String aModel) throws Exception {
+        theDir = File.createTempFile("blitzbench", "");
+        theDir.delete();
+
+        if (! theDir.mkdirs())
+            throw new IOException("Couldn't create: " + theDir);
+
+        String myModel;
+
+        if (aModel.equals(TRANSIENT))
+            myModel = TRANSIENT_MODEL;
+        else if (aModel.equals(PERSISTENT))
+            myModel = PERSISTENT_MODEL;
+        else
+            throw new IllegalArgumentException("Unknown model: " + aModel);
+
+        String myBase = System.getProperty("org.dancres.blitz.bench.config",
+                                           "config/blitz.config");
+
+        ConfigurationFactory.setup(new String[] {
+            myBase,
+            MODULE + ".storageModel=" + myModel,
+            MODULE + ".persistDir=" + quote(new File(theDir, "db")),
+            MODULE + ".logDir=" + quote(new File(theDir, "log")),
+            MODULE + ".statsDump=0L"
+        });
+
+        new File(theDir, "db").mkdirs();
+        new File(theDir, "log").mkdirs();
+
+        theSpace = new SpaceImpl(new GatewayImpl());
+    }
+
+    SpaceImpl getSpace() {
+        return theSpace;
+    }
+
+    void stop() throws Exception {
+        try {
+            theSpace.stop();
+        } finally {
+            delete(theDir);
+        }
+    }
+
+    private static String quote(File aFile) {
+        return "\"" + aFile.getAbsolutePath().replace('\\', '/') + "\"";
+    }
+
+    private static void delete(File aFile) {
+        File[] myFiles = aFile.listFiles();
+
+        if (myFiles != null) {
+            for (int i = 0; i < myFiles.length; i++)
+                delete(myFiles[i]);
+        }
+
+        aFile.delete();
+    }
+
+    /**
+       Only LocalTxnMgr transactions are used so there's never a need to
+       resolve anything remotely.
+     */
+    private static class GatewayImpl implements TxnGateway {
+        public int getState(TxnId anId) throws UnknownTransactionException {
+            return TransactionConstants.COMMITTED;
+        }
+
+        public void join(TxnId anId) {
+        }
+    }
+}
@@ -311,6 +311,10 @@ class BulkTakeVisitor implements BulkMatchTask, SearchVisitor {
             return false;
         }
 
+        public MangledEntry[] getTemplates() {
+            return theTemplates;
+        }
+
         public boolean renew(long aTime) {
             // Nothing to do as we expire by being tainted by the enclosing
             // class only
@@ -12,7 +12,6 @@ import org.dancres.blitz.txn.TxnState;
 import org.dancres.blitz.txnlock.*;
 
 import org.dancres.blitz.notify.QueueEvent;
-import org.dancres.blitz.notify.EventQueue;
 
 /**
    Each operation against an Entry is represented by an instance of this class.
@@ -49,6 +48,14 @@ class EntryTxnOp implements TxnOp {
         theTxnLock = aLock;
     }
 
+    int getOp() {
+        return theOp;
+    }
+
+    OpInfo getInfo() {
+        return theInfo;
+    }
+
     public void restore(TxnState aState) throws IOException {
         if (theInfo.isDebugOp())
             return;
@@ -108,7 +115,7 @@ class EntryTxnOp implements TxnOp {
                                        new QueueEvent.Context(anEntry,
                                            theInfo.getOID()));
             
-                    EventQueue.get().add(myEvent);        
+                    aState.postEvent(myEvent);
                 }
 
                 break;
@@ -124,7 +131,7 @@ class EntryTxnOp implements TxnOp {
                                 new QueueEvent.Context(anEntry,
                                     theInfo.getOID()));
 
-                        EventQueue.get().add(myEvent);
+                        aState.postEvent(myEvent);
                     }
                 }
                 break;
@@ -142,7 +149,7 @@ class EntryTxnOp implements TxnOp {
                         new QueueEvent(QueueEvent.ENTRY_WRITTEN,
                             aState,
                             new QueueEvent.Context(anEntry, theInfo.getOID()));
-                    EventQueue.get().add(myEvent);
+                    aState.postEvent(myEvent);
                 }
                 break;
             }
@@ -0,0 +1,33 @@
+package org.dancres.blitz;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.dancres.blitz.entry.OpInfoCodec;
+
+import org.dancres.blitz.txn.TxnOp;
+import org.dancres.blitz.txn.TxnOpCodec;
+
+/**
+   Writes and reads EntryTxnOp's for the transaction log.
+ */
+public class EntryTxnOpCodec implements TxnOpCodec {
+    public boolean handles(TxnOp anOp) {
+        return ((anOp instanceof EntryTxnOp) &&
+                (OpInfoCodec.canWrite(((EntryTxnOp) anOp).getInfo())));
+    }
+
+    public void write(TxnOp anOp, DataOutput anOut) throws IOException {
+        EntryTxnOp myOp = (EntryTxnOp) anOp;
+
+        anOut.writeInt(myOp.getOp());
+        OpInfoCodec.write(myOp.getInfo(), anOut);
+    }
+
+    public TxnOp read(DataInput anIn) throws IOException {
+        int myOp = anIn.readInt();
+
+        return new EntryTxnOp(myOp, OpInfoCodec.read(anIn), null);
+    }
+}
@@ -365,6 +365,10 @@ class FifoSearchVisitorImpl implements SingleMatchTask,
                 theTemplate.match(anEntry);
         }
 
+        public MangledEntry[] getTemplates() {
+            return new MangledEntry[] {theTemplate};
+        }
+
         public boolean renew(long aTime) {
             // Nothing to do as we expire by being tainted by the enclosing
             // class only
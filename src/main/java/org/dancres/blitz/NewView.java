@@ -127,6 +127,10 @@ class NewView {
             return false;
         }
 
+        public MangledEntry[] getTemplates() {
+            return theTemplates;
+        }
+
         public boolean renew(long aTime) {
             // Nothing to do as we expire by being tainted by the enclosing
             // class only
@@ -315,6 +315,10 @@ class SearchVisitorImpl implements SingleMatchTask,
                 theTemplate.match(anEntry);
         }
 
+        public MangledEntry[] getTemplates() {
+            return new MangledEntry[] {theTemplate};
+        }
+
         public boolean renew(long aTime) {
             // Nothing to do as we expire by being tainted by the enclosing
             // class only
@@ -414,7 +414,7 @@ public class SpaceImpl {
 
         WriteEscortImpl myEscort = new WriteEscortImpl(myJiniTxn);
 
-        int myLast = aMangledEntries.size() - 1;
+        QueueEvent[] myEvents = new QueueEvent[aMangledEntries.size()];
 
         for (int i = 0; i < aMangledEntries.size(); i++) {
             MangledEntry myEntry = (MangledEntry) aMangledEntries.get(i);
@@ -459,25 +459,22 @@ public class SpaceImpl {
             myOID = myResult.getOID();
 
             /*
-              Post an event for notifies and blockers
+              Batch up an event for notifies and blockers
             */
-            QueueEvent myEvent =
+            myEvents[i] =
                     new QueueEvent(QueueEvent.ENTRY_WRITE,
                             myJiniTxn,
                             new QueueEvent.Context(myEntry, myOID));
 
-            /*
-              Only need to post synchronously on the last write
-            */
-            if ((isSynchronousNotify) && (i == myLast))
-                EventQueue.get().add(myEvent, true);
-            else
-                EventQueue.get().add(myEvent);
-
             SpaceUID mySUID = new SpaceEntryUID(myEntry.getType(), myOID);
             myTickets.add(new WriteTicketImpl(mySUID, myLeaseTime));
         }
 
+        /*
+          Post all the events as a single batch, synchronously if required
+        */
+        EventQueue.get().add(myEvents, isSynchronousNotify);
+
         if (myJiniTxn.isNull()) {
             TxnDispatcher.get().prepareAndCommit(myJiniTxn);
         }
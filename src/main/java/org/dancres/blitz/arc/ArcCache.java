@@ -15,7 +15,6 @@ import org.dancres.blitz.entry.ci.CacheIndexer;
 
 import org.dancres.blitz.cache.Identifiable;
 import org.dancres.blitz.cache.Identifier;
-import org.dancres.blitz.cache.Cache;
 import org.dancres.blitz.cache.CacheListener;
 import org.dancres.blitz.cache.CacheListenerSet;
 
@@ -24,7 +23,7 @@ import org.dancres.blitz.cache.CacheListenerSet;
    Replacement Cache" in USENIX FAST '03) or, try,
    <a href="http://citeseer.nj.nec.com/megiddo03arc.html"> CiteSeer</a>. <p>
  */
-public class ArcCache implements Cache {
+public class ArcCache implements BlockCache {
     static Logger theLogger =
         Logging.newLogger("org.dancres.blitz.arc.cache");
     /**
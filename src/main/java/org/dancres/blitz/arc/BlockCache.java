@@ -0,0 +1,60 @@
+package org.dancres.blitz.arc;
+
+import java.io.IOException;
+
+import org.dancres.blitz.cache.Cache;
+import org.dancres.blitz.cache.Identifiable;
+import org.dancres.blitz.cache.Identifier;
+
+/**
+   A Cache which hands out locked CacheBlockDescriptors for Identifiables
+   loaded from, and destaged to, a BackingStore.  Implementations are
+   expected to honour the same locking and listener contract as ArcCache so
+   they can be used interchangeably.
+
+   @see org.dancres.blitz.arc.ArcCache
+   @see org.dancres.blitz.arc.ClockCache
+ */
+public interface BlockCache extends Cache {
+    /**
+       @return the number of descriptors currently held by the cache
+     */
+    public int getActiveSize();
+
+    /**
+       For recovery purposes, ensure the Identifiable has made it to disk
+       and, if it hasn't, re-insert it to the cache.
+     */
+    public RecoverySummary recover(Identifiable anIdentifiable)
+        throws IOException;
+
+    /**
+       Add a newly written Identifiable to the cache.
+
+       @return a CBD with the lock asserted
+     */
+    public CacheBlockDescriptor insert(Identifiable anIdentifiable)
+        throws IOException;
+
+    /**
+       Locate an Identifiable associated with Identifier - loading from
+       disk if necessary.
+
+       @return a CBD with the lock asserted or <code>null</code> if the
+       Identifiable does not exist.
+     */
+    public CacheBlockDescriptor find(Identifier anId) throws IOException;
+
+    /**
+       Save all cached content to the BackingStore
+     */
+    public void sync() throws IOException;
+
+    /**
+       Save the content of the passed CBD to the BackingStore.  The CBD should
+       be locked by the caller.
+     */
+    public void forceSync(CacheBlockDescriptor aCBD) throws IOException;
+
+    public void dump();
+}
@@ -19,6 +19,12 @@ public class CacheBlockDescriptor implements LinkedInstance {
 
     private int isWhere;
 
+    /**
+       Used by ClockCache to give recently accessed descriptors a second
+       chance before eviction
+     */
+    private volatile boolean isReferenced;
+
     private ReentrantLock theLock = new ReentrantLock();
 
     CacheBlockDescriptor() {
@@ -28,6 +34,19 @@ public class CacheBlockDescriptor implements LinkedInstance {
         theLock.lock();
     }
 
+    /**
+       Non-blocking, non-reentrant attempt to lock this CBD.
+
+       @return <code>false</code> if the lock is held by anyone including
+       the current thread.
+     */
+    boolean tryAcquire() {
+        if (theLock.isHeldByCurrentThread())
+            return false;
+
+        return theLock.tryLock();
+    }
+
     public void release() {
         theLock.unlock();
     }
@@ -85,4 +104,20 @@ public class CacheBlockDescriptor implements LinkedInstance {
     int getWhere() {
         return isWhere;
     }
+
+    void setReferenced() {
+        isReferenced = true;
+    }
+
+    /**
+       @return <code>true</code> if this CBD was referenced since the last
+       call to this method.
+     */
+    boolean clearReferenced() {
+        boolean wasReferenced = isReferenced;
+
+        isReferenced = false;
+
+        return wasReferenced;
+    }
 }
@@ -0,0 +1,315 @@
+package org.dancres.blitz.arc;
+
+import java.io.IOException;
+
+import java.util.Iterator;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.dancres.blitz.Logging;
+
+import org.dancres.blitz.cache.Identifiable;
+import org.dancres.blitz.cache.Identifier;
+import org.dancres.blitz.cache.CacheListener;
+import org.dancres.blitz.cache.CacheListenerSet;
+
+/**
+   <p>A concurrent alternative to ArcCache which approximates ARC with a
+   CLOCK (second-chance) policy.  Newly loaded blocks start unreferenced and
+   are thus the first to go (as per ARC's T1) whilst blocks that are hit
+   again are given a second chance (as per ARC's T2).</p>
+
+   <p>Unlike ArcCache, there is no cache-wide monitor.  Lookups go through a
+   concurrent index, loads from the BackingStore are performed holding only
+   the lock of the CBD being loaded and eviction (which calls
+   <code>BackingStore.save</code>) is normally performed by the
+   ClockEvictor thread.  Eviction never blocks on a pinned CBD, it simply
+   moves on to the next candidate.  Should the cache overflow beyond twice
+   its size (or the evictor not be running, e.g. during recovery) callers
+   perform eviction themselves.</p>
+
+   <p>Enable on a per-type basis using the
+   <code>org.dancres.blitz.config.ConcurrentCache</code> constraint.</p>
+
+   @see org.dancres.blitz.arc.ClockEvictor
+ */
+public class ClockCache implements BlockCache {
+    static Logger theLogger =
+        Logging.newLogger("org.dancres.blitz.arc.clock");
+
+    /**
+       CBD is present in the cache and can be used
+     */
+    static final int RESIDENT = 4;
+
+    /**
+       CBD has been discarded, any thread that was waiting on it's lock must
+       go back to the index
+     */
+    static final int EVICTED = 5;
+
+    private ConcurrentHashMap<Identifier, CacheBlockDescriptor> theBlockIndex =
+        new ConcurrentHashMap<Identifier, CacheBlockDescriptor>();
+
+    private ConcurrentLinkedQueue<CacheBlockDescriptor> theClock =
+        new ConcurrentLinkedQueue<CacheBlockDescriptor>();
+
+    private AtomicInteger theActiveSize = new AtomicInteger();
+
+    private AtomicBoolean isEvictionPending = new AtomicBoolean(false);
+
+    private int theCacheSize;
+
+    private BackingStore theStore;
+
+    private CacheListenerSet theListeners = new CacheListenerSet();
+
+    public ClockCache(BackingStore aStore, int aCacheSize) {
+        theStore = aStore;
+        theCacheSize = aCacheSize;
+    }
+
+    public void add(CacheListener aListener) {
+        theListeners.add(aListener);
+    }
+
+    public int getSize() {
+        return theCacheSize;
+    }
+
+    public int getActiveSize() {
+        return theActiveSize.get();
+    }
+
+    public RecoverySummary recover(Identifiable anIdentifiable)
+        throws IOException {
+
+        Identifiable myIdentifiable = theStore.load(anIdentifiable.getId());
+
+        if (myIdentifiable == null) {
+            return new RecoverySummary(insert(anIdentifiable), false);
+        } else {
+            return new RecoverySummary(find(myIdentifiable.getId(),
+                    myIdentifiable), true);
+        }
+    }
+
+    public CacheBlockDescriptor insert(Identifiable anIdentifiable)
+        throws IOException {
+        CacheBlockDescriptor myCBD = find(anIdentifiable.getId(),
+                                          anIdentifiable);
+
+        theListeners.signal(CacheListenerSet.LOADED, anIdentifiable);
+
+        return myCBD;
+    }
+
+    public CacheBlockDescriptor find(Identifier anId) throws IOException {
+        CacheBlockDescriptor myCBD = find(anId, null);
+
+        if (myCBD.isEmpty()) {
+            myCBD.release();
+            return null;
+        } else {
+            return myCBD;
+        }
+    }
+
+    private CacheBlockDescriptor find(Identifier anId,
+                                      Identifiable aPreLoad)
+        throws IOException {
+
+        try {
+            while (true) {
+                CacheBlockDescriptor myDesc = theBlockIndex.get(anId);
+
+                if (myDesc != null) {
+                    myDesc.acquire();
+
+                    if (myDesc.getWhere() == RESIDENT) {
+                        myDesc.setReferenced();
+                        return myDesc;
+                    }
+
+                    // Evicted whilst we waited for the lock, try again
+                    myDesc.release();
+                } else {
+                    myDesc = new CacheBlockDescriptor();
+                    myDesc.acquire();
+                    myDesc.setId(anId);
+
+                    if (theBlockIndex.putIfAbsent(anId, myDesc) != null) {
+                        // Someone beat us to it, use theirs
+                        myDesc.release();
+                        continue;
+                    }
+
+                    try {
+                        myDesc.setContent(fetch(anId, aPreLoad));
+                    } catch (IOException anIOE) {
+                        theBlockIndex.remove(anId, myDesc);
+                        myDesc.setWhere(EVICTED);
+                        myDesc.release();
+                        throw anIOE;
+                    }
+
+                    myDesc.setWhere(RESIDENT);
+                    theClock.add(myDesc);
+
+                    if (theActiveSize.incrementAndGet() > theCacheSize)
+                        reclaim();
+
+                    return myDesc;
+                }
+            }
+        } catch (InterruptedException anIE) {
+            theLogger.log(Level.SEVERE, "Couldn't lock CDB", anIE);
+
+            IOException myIOE = new IOException("Couldn't lock CDB");
+            myIOE.initCause(anIE);
+            throw myIOE;
+        }
+    }
+
+    /**
+       Ask the evictor to make room or, if we've overflowed badly or there's
+       no evictor, do it ourselves.
+     */
+    private void reclaim() throws IOException {
+        if ((theActiveSize.get() > (theCacheSize << 1)) ||
+            (! ClockEvictor.schedule(this)))
+            evict();
+    }
+
+    /**
+       @return <code>true</code> if the caller should queue this cache for
+       eviction, <code>false</code> if it's already queued.
+     */
+    boolean markEvictionPending() {
+        return isEvictionPending.compareAndSet(false, true);
+    }
+
+    /**
+       Sweep the clock, destaging and discarding unreferenced, unlocked CBDs
+       until we're back within size.  Gives up after two full rotations so
+       that a cache full of pinned CBDs cannot spin the caller.
+     */
+    void evict() throws IOException {
+        isEvictionPending.set(false);
+
+        int myBudget = theActiveSize.get() << 1;
+
+        while ((theActiveSize.get() > theCacheSize) && (myBudget-- > 0)) {
+            CacheBlockDescriptor myDesc = theClock.poll();
+
+            if (myDesc == null)
+                break;
+
+            if (myDesc.clearReferenced()) {
+                theClock.add(myDesc);
+                continue;
+            }
+
+            if (! myDesc.tryAcquire()) {
+                theClock.add(myDesc);
+                continue;
+            }
+
+            try {
+                try {
+                    destage(myDesc);
+                } catch (IOException anIOE) {
+                    // Still resident, keep it on the clock
+                    theClock.add(myDesc);
+                    throw anIOE;
+                }
+
+                theBlockIndex.remove(myDesc.getId(), myDesc);
+                myDesc.setWhere(EVICTED);
+                myDesc.setContent(null);
+
+                theActiveSize.decrementAndGet();
+            } finally {
+                myDesc.release();
+            }
+        }
+    }
+
+    private void destage(CacheBlockDescriptor aCBD) throws IOException {
+        theStore.save(aCBD.getContent());
+    }
+
+    private Identifiable fetch(Identifier anId, Identifiable aPreLoad)
+        throws IOException {
+
+        if (aPreLoad != null)
+            return aPreLoad;
+        else
+            return theStore.load(anId);
+    }
+
+    public void dump() {
+        Iterator<CacheBlockDescriptor> myDescs =
+            theBlockIndex.values().iterator();
+
+        theLogger.log(Level.FINE, "CC: " + theStore.getName());
+
+        while (myDescs.hasNext()) {
+            CacheBlockDescriptor myCBD = myDescs.next();
+
+            theLogger.log(Level.FINE, myCBD.getId() + ", " +
+                          myCBD.getId().hashCode() + ", ");
+        }
+    }
+
+    public void sync() throws IOException {
+        long myStart = 0;
+
+        if (theLogger.isLoggable(Level.FINE)) {
+            theLogger.log(Level.FINE, "Syncing: " + theStore.getName());
+
+            myStart = System.currentTimeMillis();
+        }
+
+        Iterator<CacheBlockDescriptor> myDescs =
+            theBlockIndex.values().iterator();
+
+        while (myDescs.hasNext()) {
+            CacheBlockDescriptor myCBD = myDescs.next();
+
+            try {
+                myCBD.acquire();
+            } catch (InterruptedException anIE) {
+                throw new IOException();
+            }
+
+            try {
+                if (myCBD.getWhere() == RESIDENT)
+                    destage(myCBD);
+            } finally {
+                myCBD.release();
+            }
+        }
+
+        if (theLogger.isLoggable(Level.FINE)) {
+            long myEnd = System.currentTimeMillis();
+
+            theLogger.log(Level.FINE,
+                "Time to scan index: " + (myEnd - myStart));
+        }
+    }
+
+    public void forceSync(CacheBlockDescriptor aCBD) throws IOException {
+        destage(aCBD);
+    }
+
+    public String toString() {
+        return "ClockCache: " + theStore.getName();
+    }
+}
@@ -0,0 +1,111 @@
+package org.dancres.blitz.arc;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import java.util.logging.Level;
+
+import org.dancres.blitz.ActiveObject;
+import org.dancres.blitz.ActiveObjectRegistry;
+import org.dancres.blitz.Lifecycle;
+import org.dancres.blitz.LifecycleRegistry;
+
+/**
+   Background thread shared by all ClockCache instances which performs
+   eviction (and thus the associated <code>BackingStore.save</code> work) off
+   the critical path of cache lookups.  Caches queue themselves when they
+   exceed their size and are then swept in turn.
+ */
+class ClockEvictor implements ActiveObject, Runnable {
+    private static class LifecycleImpl implements Lifecycle {
+        public void init() {
+            theEvictor = new ClockEvictor();
+        }
+
+        public void deinit() {
+            theEvictor = null;
+        }
+    }
+
+    static {
+        LifecycleRegistry.add(new LifecycleImpl());
+    }
+
+    private static final long POLL_INTERVAL = 500;
+
+    private static volatile ClockEvictor theEvictor;
+
+    private LinkedBlockingQueue<ClockCache> theCaches =
+        new LinkedBlockingQueue<ClockCache>();
+
+    private Thread theThread;
+
+    private volatile boolean isActive;
+
+    private ClockEvictor() {
+        ActiveObjectRegistry.add(this);
+    }
+
+    /**
+       @return <code>false</code> if the evictor is not running in which case
+       the cache must perform eviction itself.
+     */
+    static boolean schedule(ClockCache aCache) {
+        ClockEvictor myEvictor = theEvictor;
+
+        if ((myEvictor == null) || (! myEvictor.isActive))
+            return false;
+
+        if (aCache.markEvictionPending())
+            myEvictor.theCaches.add(aCache);
+
+        return true;
+    }
+
+    public void begin() {
+        isActive = true;
+
+        theThread = new Thread(this, "ClockEvictor");
+        theThread.setDaemon(true);
+        theThread.start();
+    }
+
+    public void halt() {
+        /*
+          We don't interrupt as that might abandon an eviction after the
+          CBD has been discarded but before it's content is saved
+         */
+        isActive = false;
+
+        try {
+            theThread.join();
+        } catch (InterruptedException anIE) {
+            ClockCache.theLogger.log(Level.SEVERE,
+                "Couldn't wait for evictor", anIE);
+        }
+    }
+
+    public void run() {
+        while (isActive) {
+            ClockCache myCache;
+
+            try {
+                myCache = theCaches.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException anIE) {
+                break;
+            }
+
+            if (myCache == null)
+                continue;
+
+            try {
+                myCache.evict();
+            } catch (Throwable aT) {
+                ClockCache.theLogger.log(Level.SEVERE,
+                    "Evictor encountered exception: " + myCache, aT);
+            }
+        }
+
+        ClockCache.theLogger.log(Level.INFO, "Evictor exited");
+    }
+}
@@ -0,0 +1,35 @@
+package org.dancres.blitz.config;
+
+/**
+   <p>Selects by-reference mangling for an Entry type written and read by
+   colocated clients (<code>LocalSpace</code> or a
+   <code>ColocatedAgent</code>).  Fields holding immutable JDK values
+   (String, boxed primitives, UUID and enums) are held as the objects
+   themselves and matched using <code>equals</code>, they are only
+   serialized if the Entry must be written to disk or sent to another
+   JVM.  Other fields are mangled as normal.</p>
+
+   <p>By-reference fields hash differently from serialized fields and thus
+   a type with this constraint should only be used by clients within the
+   Blitz JVM.  Remote clients will not match Entry's written locally and
+   vice versa.</p>
+
+   <pre>
+   org_dancres_blitz_test_DummyEntry =
+            new EntryConstraint[] {new ByReference()};
+   </pre>
+ */
+public class ByReference implements EntryConstraint {
+    private static final String TYPE = "BYREFERENCE";
+
+    public ByReference() {
+    }
+
+    public int hashCode() {
+        return TYPE.hashCode();
+    }
+
+    public boolean equals(Object anObject) {
+        return (anObject instanceof ByReference);
+    }
+}
@@ -0,0 +1,33 @@
+package org.dancres.blitz.config;
+
+/**
+   <p>Selects the concurrent, CLOCK-based entry cache (see
+   <code>org.dancres.blitz.arc.ClockCache</code>) in place of the default
+   ArcCache for an Entry type.</p>
+
+   <p>ArcCache serializes all lookups within a cache partition and may
+   perform eviction work whilst doing so.  The concurrent cache permits
+   lookups to proceed in parallel and performs eviction in the background
+   at the cost of a less precise replacement policy.  The cache size is
+   still determined by <code>CacheSize</code> or
+   <code>entryReposCacheSize</code>.</p>
+
+   <pre>
+   org_dancres_blitz_test_DummyEntry =
+            new EntryConstraint[] {new ConcurrentCache()};
+   </pre>
+ */
+public class ConcurrentCache implements EntryConstraint {
+    private static final String TYPE = "CONCURRENTCACHE";
+
+    public ConcurrentCache() {
+    }
+
+    public int hashCode() {
+        return TYPE.hashCode();
+    }
+
+    public boolean equals(Object anObject) {
+        return (anObject instanceof ConcurrentCache);
+    }
+}
@@ -0,0 +1,79 @@
+package org.dancres.blitz.config;
+
+import java.util.ArrayList;
+
+/**
+   <p>Declares which fields of an Entry type should be indexed.  By default
+   every field of a type is indexed on disk and in the cache which costs a
+   secondary database update per field on every write even for fields that
+   are never used in templates.</p>
+
+   <p>Each element names an index.  A single field name produces an index on
+   that field, field names joined with <code>+</code> produce a composite
+   index which is used for templates that specify all of those fields.
+   Templates which specify none of the indexed fields are resolved by a
+   scan of all Entry's of the type.</p>
+
+   <p>Indexes are created when the type is first written to the space,
+   changing this constraint for an existing type has no effect until the
+   type's storage is deleted.</p>
+
+   <pre>
+   org_dancres_blitz_test_DummyEntry =
+            new EntryConstraint[] {new Indexes(
+                new String[] {"rank", "name+rank"})};
+   </pre>
+ */
+public class Indexes implements EntryConstraint {
+    public static final String COMPOSITE_SEPARATOR = "+";
+
+    private String[] theIndexes;
+
+    public Indexes(String[] anIndexes) {
+        theIndexes = anIndexes;
+    }
+
+    /**
+       @return the names of the indexes, composite indexes are named by
+       joining their field names with <code>COMPOSITE_SEPARATOR</code>.
+     */
+    public String[] getIndexes() {
+        return theIndexes;
+    }
+
+    /**
+       @return the field names which make up the specified index
+     */
+    public static String[] getFieldNames(String anIndex) {
+        ArrayList myNames = new ArrayList();
+        int myStart = 0;
+        int myEnd;
+
+        while ((myEnd = anIndex.indexOf(COMPOSITE_SEPARATOR, myStart)) != -1) {
+            myNames.add(anIndex.substring(myStart, myEnd).trim());
+            myStart = myEnd + COMPOSITE_SEPARATOR.length();
+        }
+
+        myNames.add(anIndex.substring(myStart).trim());
+
+        String[] myResult = new String[myNames.size()];
+        return (String[]) myNames.toArray(myResult);
+    }
+
+    /**
+       @return <code>true</code> if the field is part of any of the declared
+       indexes.
+     */
+    public boolean isIndexed(String aFieldName) {
+        for (int i = 0; i < theIndexes.length; i++) {
+            String[] myNames = getFieldNames(theIndexes[i]);
+
+            for (int j = 0; j < myNames.length; j++) {
+                if (myNames[j].equals(aFieldName))
+                    return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -137,6 +137,14 @@ public class Disk {
         isTransient = transientDisk;
     }
 
+    /**
+       @return <code>true</code> if we're running with the transient storage
+       model in which case nothing need survive a restart.
+     */
+    public static boolean isTransient() {
+        return isTransient;
+    }
+
     public static void init() {
         try {
             new File(theLocation).mkdirs();
@@ -1,6 +1,7 @@
 package org.dancres.blitz.disk;
 
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.*;
 
 import net.jini.config.ConfigurationException;
@@ -24,18 +25,20 @@ import org.dancres.blitz.stats.IOStat;
 
    <p> We stop when Disk is stop'd which allows for proper sync'ing </p>
 
-   <p>We can only have one thread for writing at this moment because:
+   <p>Writing is spread across a number of lanes (set via
+   <code>maxWriteThreads</code>), each of which is serviced by a single
+   thread.  This is safe because:
    <ol>
-   <li>WriteBuffer assumes serialized updating of images.  If two threads
-   start performing jobs on the same UID, then there's currently scope for
-   a collision.  The problem is compounded by the fact that we can't simply
-   requeue the job because that will break checkpointing/sync'ing</li>
-   <li>Sync'ing assumes that there's only one thread which will execute the
-   appropriate callback placed in the queue once all prior Jobs have been
-   dispatched.  This ordering dependency is what complicates the WriteBuffer
-   issue above.</li>
+   <li>WriteBuffer assumes serialized updating of images.  Updates are
+   <code>queue</code>'d with a key (the UID) which is hashed to a fixed
+   lane so all jobs for one UID are dispatched in order by one thread.</li>
+   <li>Sync'ing assumes that the callback placed in the queue executes once
+   all prior Jobs have been dispatched.  Callbacks and un-keyed tasks are
+   placed at the end of every lane as a barrier and only run once all lanes
+   have reached the barrier.</li>
    <li>There's an ordering issue - we must write before we decide to then
-   delete something that is on disk.</li>
+   delete something that is on disk.  This is per-UID and thus handled by
+   (1).</li>
    </ol>
    </p>
 
@@ -83,7 +86,7 @@ public class WriteDaemon implements StatGenerator {
     private int thePendingCount;
     private LinkedBlockingQueue thePendingUpdates = new LinkedBlockingQueue();
 
-    private ExecutorService theWriters;
+    private ExecutorService[] theWriters;
     private ExecutorService theCompleters;
 
     private IOStats theIOStats = new IOStats();
@@ -92,9 +95,21 @@ public class WriteDaemon implements StatGenerator {
     private int theThrottleCount = 0;
 
     private WriteDaemon() {
-        theWriters = Executors.newFixedThreadPool(MAX_WRITE_THREADS);
+        this(MAX_WRITE_THREADS);
+    }
+
+    /**
+       Tests use this to run with several lanes whatever the configuration
+     */
+    WriteDaemon(int aLanes) {
+        theWriters = new ExecutorService[Math.max(1, aLanes)];
+
+        for (int i = 0; i < theWriters.length; i++)
+            theWriters[i] = Executors.newFixedThreadPool(1);
+
         theCompleters = Executors.newFixedThreadPool(1);
 
+        theLogger.log(Level.INFO, "Write lanes: " + theWriters.length);
         theLogger.log(Level.INFO, "Async keepalive: " + THREAD_KEEPALIVE);
         theLogger.log(Level.INFO, "Pending write size: " +
                       DESIRED_PENDING_WRITES);
@@ -115,10 +130,52 @@ public class WriteDaemon implements StatGenerator {
     }
 
     /**
-       Queue a task for execution by the WriteDaemon thread.
+       Queue a task for execution by the WriteDaemon after all previously
+       queued tasks have completed.  No further tasks will be executed until
+       this task has completed.  The queue is forced as a result.
      */
     public void queue(Runnable anUpdate) {
+        throttle();
+
+        synchronized(this) {
+            Barrier myBarrier =
+                new Barrier(new OutputTracker(anUpdate), true);
+
+            for (int i = 0; i < theWriters.length; i++)
+                add(new Dispatch(i, myBarrier));
 
+            // Lanes block at the barrier so it must be dispatched in full
+            pushImpl();
+        }
+
+        theIOStats.incAsyncInCount();
+    }
+
+    /**
+       Queue a task for execution by the WriteDaemon.  All tasks
+       <code>queue</code>'d with equal keys are executed in order, tasks with
+       different keys may be executed concurrently.
+     */
+    public void queue(Object aKey, Runnable anUpdate) {
+        throttle();
+
+        synchronized(this) {
+            add(new Dispatch(getLane(aKey), new OutputTracker(anUpdate)));
+        }
+
+        theIOStats.incAsyncInCount();
+    }
+
+    private int getLane(Object aKey) {
+        int myHash = aKey.hashCode();
+
+        // Spread the bits as keys such as OIDs tend to be sequential
+        myHash ^= (myHash >>> 16);
+
+        return (myHash & 0x7FFFFFFF) % theWriters.length;
+    }
+
+    private void throttle() {
         // If the write queue is getting too large, start stalling
         if (theIOStats.getQueueSize() > THROTTLE_PENDING_WRITES) {
             ++theThrottleCount;
@@ -132,32 +189,35 @@ public class WriteDaemon implements StatGenerator {
                 theLogger.log(Level.SEVERE, "Throttle broken!");
             }
         }
+    }
 
-        synchronized(this) {
-            try {
-                thePendingUpdates.put(new OutputTracker(anUpdate));
-                ++thePendingCount;
+    /**
+       Should only be called from within a sync block.
+     */
+    private void add(Dispatch aDispatch) {
+        try {
+            thePendingUpdates.put(aDispatch);
+            ++thePendingCount;
 
-                if (thePendingCount >= DESIRED_PENDING_WRITES) {
-                    pushImpl();
-                }
-            } catch (InterruptedException anIE) {
-                theLogger.log(Level.SEVERE, "Failed to queue update", anIE);
+            if (thePendingCount >= DESIRED_PENDING_WRITES) {
+                pushImpl();
             }
+        } catch (InterruptedException anIE) {
+            theLogger.log(Level.SEVERE, "Failed to queue update", anIE);
         }
-
-        theIOStats.incAsyncInCount();
     }
 
     /**
        Should only be called from within a sync block.
      */
     private void pushImpl() {
-        Object myTask;
+        Dispatch myDispatch;
 
         try {
-            while ((myTask = thePendingUpdates.poll(0, TimeUnit.MILLISECONDS)) != null) {
-                theWriters.execute((Runnable) myTask);
+            while ((myDispatch = (Dispatch)
+                    thePendingUpdates.poll(0, TimeUnit.MILLISECONDS)) != null) {
+                theWriters[myDispatch.getLane()].execute(
+                    myDispatch.getTask());
             }
         } catch (InterruptedException anIE) {
         }
@@ -177,7 +237,7 @@ public class WriteDaemon implements StatGenerator {
     /**
        <p>Force the updates in the queue to disk.  On completion, invoke the
        passed task.  Note this task is processed asynchronously outside
-       of the WriteDaemon thread.  This allows the WriteDaemon to continue
+       of the WriteDaemon threads.  This allows the WriteDaemon to continue
        processing updates whilst the completion task runs.</p>
 
        <p>If you want a task to be performed synchronously by the WriteDaemon
@@ -188,27 +248,93 @@ public class WriteDaemon implements StatGenerator {
         if (aCompletionTask == null)
             throw new IllegalArgumentException();
         else {
+            throttle();
+
             synchronized(this) {
                 /*
                   We ensure the passed task doesn't execute until the
                   queue has been emptied by putting a barrier task at the end 
-                  of the queue.  Thus, when we force the queue, this barrier
-                  will only execute once all preceeding updates have been
-                  performed.
+                  of each lane.  Thus, when we force the queue, the barrier
+                  will only complete once all preceeding updates have been
+                  performed.  Lanes need not wait for the completion task
+                  so they can carry on with subsequent updates.
                  */
-                queue(new Scheduler(aCompletionTask));
+                Barrier myBarrier =
+                    new Barrier(new OutputTracker(
+                        new Scheduler(aCompletionTask)), false);
+
+                for (int i = 0; i < theWriters.length; i++)
+                    add(new Dispatch(i, myBarrier));
+
                 pushImpl();
             }
+
+            theIOStats.incAsyncInCount();
         }
     }
 
     void halt() {
         theLogger.log(Level.INFO, "WriteDaemon doing halt");
-        theWriters.shutdown();
+
+        for (int i = 0; i < theWriters.length; i++)
+            theWriters[i].shutdown();
+
         theCompleters.shutdown();
         theLogger.log(Level.INFO, "WriteDaemon done halt");
     }
 
+    private static class Dispatch {
+        private int theLane;
+        private Runnable theTask;
+
+        Dispatch(int aLane, Runnable aTask) {
+            theLane = aLane;
+            theTask = aTask;
+        }
+
+        int getLane() {
+            return theLane;
+        }
+
+        Runnable getTask() {
+            return theTask;
+        }
+    }
+
+    /**
+       Placed in every lane, the last lane to reach the barrier runs the
+       associated task.  If blocking, the other lanes wait for the task to
+       complete before continuing.
+     */
+    private class Barrier implements Runnable {
+        private Runnable theTask;
+        private boolean isBlocking;
+        private AtomicInteger theRemaining =
+            new AtomicInteger(theWriters.length);
+        private CountDownLatch theDone = new CountDownLatch(1);
+
+        Barrier(Runnable aTask, boolean shouldBlock) {
+            theTask = aTask;
+            isBlocking = shouldBlock;
+        }
+
+        public void run() {
+            if (theRemaining.decrementAndGet() == 0) {
+                try {
+                    theTask.run();
+                } finally {
+                    theDone.countDown();
+                }
+            } else if (isBlocking) {
+                try {
+                    theDone.await();
+                } catch (InterruptedException anIE) {
+                    theLogger.log(Level.SEVERE, "Barrier broken!", anIE);
+                }
+            }
+        }
+    }
+
     /**
        We do not run the completion task in-line.  This is potentially time
        consuming and we have more important things to do (write updates) so
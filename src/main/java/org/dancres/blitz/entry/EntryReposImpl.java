@@ -226,6 +226,7 @@ class EntryReposImpl implements EntryReposRecovery, Reapable {
         theLogger.log(Level.FINE, "Syncing to disk: " + theStore.getType());
         // System.err.println("Syncing to disk: " + theStore.getType());
         theSleeveCache.sync();
+        theStore.sync();
     }
 
     void close() throws IOException {
@@ -9,6 +9,8 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.Collection;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 import java.util.logging.*;
 
 import net.jini.config.ConfigurationFile;
@@ -33,6 +35,11 @@ import org.prevayler.SnapshotContributor;
 public class EntryRepositoryFactory implements Syncable, SnapshotContributor {
     private static final String LOG_COUNTS = "logCounts";
 
+    /**
+       Maximum number of types remembered as having no storage
+     */
+    private static final int MAX_MISSES = 1024;
+
     private static LeaseReaper theReaper;
 
     private static final Logger theLogger =
@@ -40,10 +47,23 @@ public class EntryRepositoryFactory implements Syncable, SnapshotContributor {
 
     private static EntryRepositoryFactory theReposFactory;
 
-    private Map theRepositories = new HashMap();
+    /*
+      Copy-on-write, replaced wholesale (under the factory's lock) each time
+      a repository is added so lookups need no lock at all.
+     */
+    private volatile Map theRepositories = new HashMap();
+
+    /*
+      Types for which find has found no storage.  A type is removed when
+      it's created via get.  The types come from clients' templates (and
+      notify registrations) which may name any number of types that are never
+      written so, once MAX_MISSES is reached, we forget them all and start
+      again.  A forgotten type just costs another storage lookup.
+     */
+    private ConcurrentHashMap theMisses = new ConcurrentHashMap();
 
     private boolean logCountOnBoot;
-    private boolean haveRegisteredForSnapshot;
+    private volatile boolean haveRegisteredForSnapshot;
     private Object theLogLock = new Object();
 
     private static class LifecycleImpl implements Lifecycle {
@@ -142,6 +162,10 @@ public class EntryRepositoryFactory implements Syncable, SnapshotContributor {
       registration of our SnapshotContributor until recovery is completed.
      */
     private void registerBarrier() {
+        // Fast path, nothing to do once we've registered (or if we never will)
+        if ((!logCountOnBoot) || haveRegisteredForSnapshot)
+            return;
+
         synchronized(theLogLock) {
             if (!logCountOnBoot || TxnDispatcher.get().isRecovery())
                 return;
@@ -177,40 +201,71 @@ public class EntryRepositoryFactory implements Syncable, SnapshotContributor {
        Locate the EntryRepository instance for the specified type, creating
        a new, empty one, if it's not already present
      */
-    public synchronized EntryRepository get(String aType) 
+    public EntryRepository get(String aType) 
         throws IOException {
         EntryReposImpl myRepos = (EntryReposImpl) theRepositories.get(aType);
 
-        if (myRepos == null) {
-            Storage myStore = StorageFactory.getStorage(aType);
-            myStore.init(false);
+        if (myRepos != null)
+            return myRepos;
 
-            myRepos = new EntryReposImpl(myStore);
-            theRepositories.put(aType, myRepos);
-        }
+        synchronized(this) {
+            myRepos = (EntryReposImpl) theRepositories.get(aType);
+
+            if (myRepos == null) {
+                Storage myStore = StorageFactory.getStorage(aType);
+                myStore.init(false);
+
+                myRepos = new EntryReposImpl(myStore);
+                add(aType, myRepos);
+            }
 
-        return myRepos;
+            return myRepos;
+        }
     }
 
     /**
        Locate the EntryRepository instance for the specified type.
        If it doesn't already exist, return <code>null</code>.
      */
-    public synchronized EntryRepository find(String aType)
+    public EntryRepository find(String aType)
         throws IOException {
 
         EntryReposImpl myRepos = (EntryReposImpl) theRepositories.get(aType);
 
-        if (myRepos == null) {
+        if ((myRepos != null) || (theMisses.containsKey(aType)))
+            return myRepos;
+
+        synchronized(this) {
+            myRepos = (EntryReposImpl) theRepositories.get(aType);
+
+            if ((myRepos != null) || (theMisses.containsKey(aType)))
+                return myRepos;
+
             Storage myStore = StorageFactory.getStorage(aType);
 
             if (myStore.init(true)) {
                 myRepos = new EntryReposImpl(myStore);
-                theRepositories.put(aType, myRepos);
+                add(aType, myRepos);
+            } else {
+                if (theMisses.size() >= MAX_MISSES)
+                    theMisses.clear();
+
+                theMisses.put(aType, aType);
             }
+
+            return myRepos;
         }
+    }
 
-        return myRepos;
+    /**
+       Must be called holding the factory's lock
+     */
+    private void add(String aType, EntryReposImpl aRepos) {
+        Map myRepositories = new HashMap(theRepositories);
+        myRepositories.put(aType, aRepos);
+
+        theRepositories = myRepositories;
+        theMisses.remove(aType);
     }
 
     synchronized EntryReposRecovery getAdmin(String aType)
@@ -235,14 +290,12 @@ public class EntryRepositoryFactory implements Syncable, SnapshotContributor {
     }
 
     private EntryReposImpl[] getRepositoriesSnapshot() {
-        synchronized(this) {
-            Collection myRepositories = theRepositories.values();
+        Collection myRepositories = theRepositories.values();
 
-            EntryReposImpl[] myResult =
-                new EntryReposImpl[myRepositories.size()];
+        EntryReposImpl[] myResult =
+            new EntryReposImpl[myRepositories.size()];
 
-            return (EntryReposImpl[]) myRepositories.toArray(myResult);
-        }
+        return (EntryReposImpl[]) myRepositories.toArray(myResult);
     }
 
     public void deleteAllEntrys() throws IOException {
@@ -263,7 +316,8 @@ public class EntryRepositoryFactory implements Syncable, SnapshotContributor {
                 myRepos[i].delete();
             }
 
-            theRepositories.clear();
+            theRepositories = new HashMap();
+            theMisses.clear();
         }
     }
 
@@ -154,13 +154,29 @@ final class EntrySleeveImpl implements EntrySleeve, Identifiable,
     }
 
     public String getType() {
-        return getEntry().getType();
+        return theEntry.getType();
     }
 
     public MangledEntry getEntry() {
         return theEntry.getEntry();
     }
 
+    /**
+       @return <code>true</code> if the template matches this sleeve's Entry,
+       avoids unpacking the Entry where possible.
+     */
+    boolean matches(MangledEntry aTemplate) {
+        return theEntry.matches(aTemplate);
+    }
+
+    /**
+       @return <code>true</code> if <code>matches</code> can be done without
+       unpacking this sleeve's Entry.
+     */
+    boolean isPacked() {
+        return theEntry.isPacked();
+    }
+
     public boolean equals(Object anObject) {
         if (anObject instanceof EntrySleeveImpl) {
             EntrySleeveImpl myOther = (EntrySleeveImpl) anObject;
@@ -181,6 +197,7 @@ final class EntrySleeveImpl implements EntrySleeve, Identifiable,
 
         if (isDeleted()) {
             CacheIndexer.getIndexer(getType()).flushed(this);
+            FifoQueue.deleted(getType(), getOID());
         }
     }
 
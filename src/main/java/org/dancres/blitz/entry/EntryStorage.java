@@ -41,6 +41,7 @@ import org.dancres.blitz.cache.Identifiable;
 import org.dancres.blitz.cache.Identifier;
 
 import org.dancres.blitz.config.Fifo;
+import org.dancres.blitz.config.Indexes;
 import org.dancres.blitz.config.ReadAhead;
 import org.dancres.blitz.config.EntryConstraints;
 
@@ -56,25 +57,13 @@ import org.dancres.blitz.stats.FieldsStat;
    <p>MetaDB contains a list of known sub-types, a set of KeyIndex instances.
    </p>
 
+   <p>By default there is a KeyIndex for each field of the type.  If the type
+   has an <code>Indexes</code> constraint, only the declared (possibly
+   composite) indexes are created.</p>
+
    @see org.dancres.blitz.entry.RootStorage
  */
 class EntryStorage implements Storage, EntryEditor {
-    /*
-      Used in searching to indicate various results
-     */
-
-    /**
-       Indicates a particular search field was null and therefore wildcard
-       and thus doesn't filter matches
-     */
-    private static final int WAS_NULL = -1;
-
-    /**
-       Indicates a field was not wildcard and thus filters matches but
-       when queries produced no hits
-     */
-    private static final int NO_HITS = -2;
-
     static Logger theLogger =
         Logging.newLogger("org.dancres.blitz.disk.Storage");
 
@@ -178,6 +167,9 @@ class EntryStorage implements Storage, EntryEditor {
                 myTxn.commit();
             }
 
+            if (! noSchemaDefined)
+                loadStats();
+
             myTxn = DiskTxn.newStandalone();
 
             try {
@@ -259,13 +251,22 @@ class EntryStorage implements Storage, EntryEditor {
 
         ArrayList myFields = new ArrayList();
 
-        theIndexes = new KeyIndex[aSetOfFields.length];
-
         // Fields are always in the same order
         for (int i = 0; i < aSetOfFields.length; i++) {
             myFields.add(aSetOfFields[i].getName());
-            KeyIndex myIndex = newIndex(aSetOfFields[i].getName(), i);
-            theIndexes[i] = myIndex;
+        }
+
+        Indexes myDeclared = (Indexes) theConstraints.get(Indexes.class);
+
+        if (myDeclared == null) {
+            theIndexes = new KeyIndex[aSetOfFields.length];
+
+            for (int i = 0; i < aSetOfFields.length; i++) {
+                theIndexes[i] = newIndex(aSetOfFields[i].getName(),
+                                         new int[] {i});
+            }
+        } else {
+            theIndexes = newIndexes(myDeclared, myFields);
         }
 
         theMetaData.getAccessor().save(FixedOIDs.INDEXES_KEY, theIndexes);
@@ -275,11 +276,70 @@ class EntryStorage implements Storage, EntryEditor {
         StatsBoard.get().add(new FieldsStat(theType, myFields));
     }
 
+    /**
+       Restore the statistics for each index as saved at the last checkpoint
+       or rebuild them if they're missing.  Statistics are only used to rank
+       indexes so it doesn't matter if they're a little out of date after a
+       failure.
+     */
+    private void loadStats() throws IOException {
+        IndexStats[] myStats;
+        DiskTxn myTxn = DiskTxn.newStandalone();
+
+        try {
+            myStats = (IndexStats[])
+                theMetaData.getAccessor(myTxn).load(FixedOIDs.INDEX_STATS_KEY);
+        } finally {
+            myTxn.commit();
+        }
+
+        if ((myStats == null) || (myStats.length != theIndexes.length)) {
+            theLogger.log(Level.INFO, "Rebuilding index stats for: " +
+                          theType);
+
+            for (int i = 0; i < theIndexes.length; i++) {
+                theIndexes[i].rebuildStats();
+            }
+        } else {
+            for (int i = 0; i < theIndexes.length; i++) {
+                theIndexes[i].setStats(myStats[i]);
+            }
+        }
+    }
+
+    private void saveStats() throws IOException {
+        KeyIndex[] myIndexes;
+
+        synchronized(this) {
+            myIndexes = theIndexes;
+        }
+
+        if (myIndexes == null)
+            return;
+
+        IndexStats[] myStats = new IndexStats[myIndexes.length];
+
+        for (int i = 0; i < myIndexes.length; i++) {
+            myStats[i] = myIndexes[i].getStats();
+        }
+
+        DiskTxn myTxn = DiskTxn.newStandalone();
+
+        try {
+            theMetaData.getAccessor(myTxn).save(FixedOIDs.INDEX_STATS_KEY,
+                                                myStats);
+        } finally {
+            myTxn.commit();
+        }
+    }
+
     public boolean noSchemaDefined() {
         return noSchemaDefined;
     }
 
     public void close() throws IOException {
+        saveStats();
+
         try {
 
             theTracker.close();
@@ -300,6 +360,10 @@ class EntryStorage implements Storage, EntryEditor {
         theMetaData.close();
     }
 
+    public void sync() throws IOException {
+        saveStats();
+    }
+
     public void delete() throws IOException {
         theTracker.delete();
 
@@ -324,13 +388,59 @@ class EntryStorage implements Storage, EntryEditor {
         theTracker.bringOutTheDead(aReaper);
     }
 
-    private KeyIndex newIndex(String aName, int anOffset) throws IOException {
-        KeyIndex myIndex = new KeyIndex(theType, aName, anOffset);
+    private KeyIndex newIndex(String aName, int[] anOffsets)
+        throws IOException {
+        KeyIndex myIndex = new KeyIndex(theType, aName, anOffsets);
         myIndex.init();
 
         return myIndex;
     }
 
+    /**
+       Create the indexes declared by an Indexes constraint, ignoring (with
+       a warning) any which refer to fields the type doesn't have.
+     */
+    private KeyIndex[] newIndexes(Indexes aDeclared, ArrayList aFields)
+        throws IOException {
+
+        ArrayList myIndexes = new ArrayList();
+        String[] myDeclared = aDeclared.getIndexes();
+
+        for (int i = 0; i < myDeclared.length; i++) {
+            String[] myNames = Indexes.getFieldNames(myDeclared[i]);
+            int[] myOffsets = new int[myNames.length];
+            StringBuffer myIndexName = new StringBuffer();
+
+            for (int j = 0; j < myNames.length; j++) {
+                myOffsets[j] = aFields.indexOf(myNames[j]);
+
+                if (myOffsets[j] == -1) {
+                    myOffsets = null;
+                    break;
+                }
+
+                if (j != 0)
+                    myIndexName.append(Indexes.COMPOSITE_SEPARATOR);
+
+                myIndexName.append(myNames[j]);
+            }
+
+            if (myOffsets == null) {
+                theLogger.log(Level.WARNING, "Ignoring index: " +
+                              myDeclared[i] + " no such field in " + theType);
+                continue;
+            }
+
+            theLogger.log(Level.INFO, "Creating index: " + myIndexName +
+                          " for " + theType);
+
+            myIndexes.add(newIndex(myIndexName.toString(), myOffsets));
+        }
+
+        KeyIndex[] myResult = new KeyIndex[myIndexes.size()];
+        return (KeyIndex[]) myIndexes.toArray(myResult);
+    }
+
     private void loadIndexes(byte[] aSetOfIndexes)
         throws IOException {
 
@@ -343,6 +453,13 @@ class EntryStorage implements Storage, EntryEditor {
             theIndexes[i].init();
         }
 
+        Indexes myDeclared = (Indexes) theConstraints.get(Indexes.class);
+
+        if (myDeclared != null)
+            theLogger.log(Level.INFO, "Indexes for existing type: " +
+                          theType + " are " + myFields +
+                          " (Indexes constraint applies to new types only)");
+
         StatsBoard.get().add(new FieldsStat(theType, myFields));
     }
 
@@ -374,6 +491,19 @@ class EntryStorage implements Storage, EntryEditor {
         }
     }
 
+    public int[] getHashCodes(OID anId) throws IOException {
+        EntrySleeveImpl mySleeve = theWriteScheduler.dirtyRead(anId);
+
+        if (mySleeve != null)
+            return (mySleeve.isDeleted()) ? null :
+                mySleeve.getPersistentRep().getFieldHashes();
+
+        byte[] myRecord = load(anId);
+
+        return (myRecord == null) ? null :
+            PersistentEntry.getFieldHashes(myRecord);
+    }
+
     private byte[] load(final OID anId) throws IOException {
         if (theLogger.isLoggable(Level.FINEST))
             theLogger.log(Level.FINEST, "Sload: " + anId);
@@ -517,6 +647,10 @@ class EntryStorage implements Storage, EntryEditor {
             };
 
         new RetryingUpdate(myOp).commit();
+
+        for (int i = 0; i < theIndexes.length; i++) {
+            theIndexes[i].indexed(myKeys);
+        }
     }
 
     /* *********************************************************************
@@ -540,23 +674,7 @@ class EntryStorage implements Storage, EntryEditor {
             if ((anEntry == null) || (anEntry.isWildcard())) {
                 theLogger.log(Level.FINEST, "wildcard");
 
-                Cursor myCursor =
-                    theMainDb.openCursor(null, null);
-
-                OperationStatus myStatus =
-                    myCursor.getNext(new DatabaseEntry(),
-                                     new DatabaseEntry(), null);
-
-                if (myStatus.equals(OperationStatus.NOTFOUND)) {
-                    myCursor.close();
-                    return null;
-                } else {
-                    ReadAhead myRead =
-                            (ReadAhead) theConstraints.get(ReadAhead.class);
-
-                    return new PrimaryLocatorImpl(myCursor, anEntry,
-                        myRead.getSize());
-                }
+                return scan(anEntry);
             } else {
                 theLogger.log(Level.FINEST, "index");
             
@@ -565,95 +683,73 @@ class EntryStorage implements Storage, EntryEditor {
                 MangledField[] myFields = anEntry.getFields();
                 byte[] myPackedKey = new byte[4];
                 BytePacker myPacker = BytePacker.getMSBPacker(myPackedKey);
-            
-                int[] mySizes = new int[myFields.length];
 
-                if ((anEntry.getType().equals(theType)) &&
-                    (myFields.length != theIndexes.length))
-                    theLogger.log(Level.WARNING, "Possible schema change detected - matching may fail" + theType);
+                int mySmallestSize = Integer.MAX_VALUE;
+                int myChoice = -1;
+                boolean isMismatched = false;
 
-                // Do the analysis in reverse
-                for (int i = (myFields.length - 1); i >= 0; i--) {
-                    MangledField myField = myFields[i];
-                
-                    if (myField.isNull())
-                        mySizes[i] = WAS_NULL;
-                    else {
-                        theLogger.log(Level.FINEST, "scanning: " +
-                                      myField.getName());
-                    
-                        int myHashCode = myField.hashCode();
-                        myPacker.putInt(myHashCode, 0);
-                    
-                        DiskTxn myStandalone = DiskTxn.newStandalone();
+                for (int i = 0; i < theIndexes.length; i++) {
+                    KeyIndex myIndex = theIndexes[i];
 
-                        myCursor = theIndexes[i].newCursor(null);
+                    if ((anEntry.getType().equals(theType)) &&
+                        (! myIndex.fits(myFields)))
+                        isMismatched = true;
 
-                        OperationStatus myStatus =
-                            myCursor.getSearchKey(new DatabaseEntry(myPackedKey), new DatabaseEntry(), null);
+                    /*
+                      If any of the fields the index covers is wildcard the
+                      index can't be used to filter matches, ignore it.
+                     */
+                    if (! myIndex.covers(myFields))
+                        continue;
 
-                        // If we get results back we can do a compare
-                        if (! myStatus.equals(OperationStatus.NOTFOUND)) {
-                        
-                            theLogger.log(Level.FINEST, "Got: " +
-                                          myCursor.count() + " entries");
-                            
-                            mySizes[i] = myCursor.count();
-                        } else {
-                            theLogger.log(Level.FINEST, "Got 0 entries");
-                            mySizes[i] = NO_HITS;
-                        }
-                    
-                        myCursor.close();
-                        myStandalone.commit();
-                    }
-                }
-            
-                int mySmallestSize = Integer.MAX_VALUE;
-                int myChoice = -1;
-            
-                for (int i = 0; i < mySizes.length; i++) {
                     /*
-                      If the field contributed no filtering because it was
-                      wildcard, ignore it.  Note that _at least one_ of the
-                      fields must be non-null because we aren't wildcard
-                      matching (caught and handled above)
+                      Use the statistics to rank the indexes, the chosen
+                      index will be consulted below and will tell us if
+                      there are truly no hits
                      */
-                    if (mySizes[i] != WAS_NULL) {
-                        /*
-                          If any contributing index returned no hits, we know
-                          there is going to be no match so we can stop right
-                          now
-                         */
-                        if (mySizes[i] == NO_HITS) {
-                            theLogger.log(Level.FINEST, "Aborting search, one field didn't match");
-                            return null;
-                        } else if (mySizes[i] < mySmallestSize) {
-                            /*
-                              The index under consideration produced fewer
-                              matches than our previous choice
-                             */
-                            myChoice = i;
-                            mySmallestSize = mySizes[i];
-                        }
+                    int mySize = myIndex.estimate(myIndex.hashFor(myFields));
+
+                    if (theLogger.isLoggable(Level.FINEST))
+                        theLogger.log(Level.FINEST, "estimate: " +
+                                      myIndex.getName() + ", " + mySize);
+
+                    /*
+                      Prefer the index estimated to produce the fewest
+                      matches and, all else being equal, the one covering
+                      the most fields as it's less prone to collisions
+                     */
+                    if ((mySize < mySmallestSize) ||
+                        ((mySize == mySmallestSize) &&
+                         (myIndex.getWidth() >
+                          theIndexes[myChoice].getWidth()))) {
+                        myChoice = i;
+                        mySmallestSize = mySize;
                     }
                 }
-            
+
+                if (isMismatched)
+                    theLogger.log(Level.WARNING, "Possible schema change detected - matching may fail" + theType);
+
                 /*
-                  If an Entry has all null fields, it's a wildcard which is
-                  handled above.  If the Entry is not wildcard and any one
-                  of the indexes yielded no hits, we will have already
-                  exited above.
-
-                  Thus we are left with whichever index yielded the lowest
-                  number of hits.  So we now load up that index and return
-                  it.
+                  None of the non-null fields of the template is indexed,
+                  we must consider every Entry of this type
+                 */
+                if (myChoice == -1) {
+                    theLogger.log(Level.FINEST, "no index, scanning");
+
+                    return scan(anEntry);
+                }
+
+                /*
+                  Thus we are left with whichever index is estimated to yield
+                  the lowest number of hits.  So we now load up that index
+                  and return it (if it truly has hits).
                  */
                 theLogger.log(Level.FINEST, "Searching: " +
                                    mySmallestSize + " from " +
                                    theIndexes[myChoice].getName());
 
-                myPacker.putInt(myFields[myChoice].hashCode(), 0);
+                myPacker.putInt(theIndexes[myChoice].hashFor(myFields), 0);
 
                 /*
                   Now we've decided on the cursor we wish to use, we can
@@ -687,4 +783,28 @@ class EntryStorage implements Storage, EntryEditor {
             throw new IOException("Dbe");
         }
     }
-}
+
+    /**
+       @return a TupleLocator over every Entry in the main db or
+       <code>null</code> if there are none.
+     */
+    private TupleLocator scan(MangledEntry anEntry) throws DatabaseException {
+        Cursor myCursor =
+            theMainDb.openCursor(null, null);
+
+        OperationStatus myStatus =
+            myCursor.getNext(new DatabaseEntry(),
+                             new DatabaseEntry(), null);
+
+        if (myStatus.equals(OperationStatus.NOTFOUND)) {
+            myCursor.close();
+            return null;
+        } else {
+            ReadAhead myRead =
+                    (ReadAhead) theConstraints.get(ReadAhead.class);
+
+            return new PrimaryLocatorImpl(myCursor, anEntry,
+                myRead.getSize());
+        }
+    }
+}
\ No newline at end of file
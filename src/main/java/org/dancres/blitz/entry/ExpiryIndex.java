@@ -0,0 +1,357 @@
+package org.dancres.blitz.entry;
+
+import java.io.IOException;
+
+import net.jini.core.lease.Lease;
+
+import org.dancres.blitz.oid.OID;
+
+/**
+   <p>In-memory view of the lease database for a particular type which allows
+   LeaseTrackerImpl to find expired Entry's without scanning all lease
+   records.</p>
+
+   <p>Expiries are held in a binary min-heap so a reap need only visit
+   those nodes with an expiry at or before the current time (plus their
+   immediate children), making the cost of a reap proportional to the
+   number of expired Entry's rather than the number of live leases.  We
+   also track the current expiry of each OID in an open-addressed table
+   which allows LeaseTrackerImpl to locate an existing lease record
+   directly.</p>
+
+   <p>Both structures are held in parallel primitive arrays rather than
+   collections so there's no per-lease allocation of boxed keys and map
+   entries.  Removing or changing an expiry only updates the table, the
+   heap node it leaves behind is recognised as stale by its stamp and
+   discarded when the heap is next compacted.</p>
+
+   <p>Entry's with a <code>Lease.FOREVER</code> lease never expire and are
+   not tracked at all.</p>
+ */
+class ExpiryIndex {
+    private static final int INITIAL_CAPACITY = 64;
+
+    /*
+      OID table, open-addressed with linear probing.  theSlots is null where
+      a slot is free.
+     */
+    private OID[] theSlots = new OID[INITIAL_CAPACITY];
+    private long[] theSlotExpiries = new long[INITIAL_CAPACITY];
+    private int[] theSlotStamps = new int[INITIAL_CAPACITY];
+    private int theSize;
+
+    /*
+      Min-heap ordered by expiry, nodes are live only whilst their stamp
+      matches that of their OID in the table
+     */
+    private OID[] theHeapOIDs = new OID[INITIAL_CAPACITY];
+    private long[] theHeapExpiries = new long[INITIAL_CAPACITY];
+    private int[] theHeapStamps = new int[INITIAL_CAPACITY];
+    private int theHeapSize;
+
+    private int theNextStamp;
+
+    /**
+       Record (or replace) the expiry for an OID
+     */
+    synchronized void add(OID anOID, long anExpiry) {
+        remove(anOID);
+
+        if (anExpiry == Lease.FOREVER)
+            return;
+
+        int myStamp = theNextStamp++;
+
+        if ((theSize + 1) * 4 > theSlots.length * 3)
+            resize(theSlots.length * 2);
+
+        int mySlot = slotFor(anOID);
+
+        theSlots[mySlot] = anOID;
+        theSlotExpiries[mySlot] = anExpiry;
+        theSlotStamps[mySlot] = myStamp;
+        ++theSize;
+
+        push(anOID, anExpiry, myStamp);
+    }
+
+    /**
+       @return the expiry previously recorded for the OID or
+       <code>Lease.FOREVER</code> if there was none.
+     */
+    synchronized long remove(OID anOID) {
+        int mySlot = slotFor(anOID);
+
+        if (theSlots[mySlot] == null)
+            return Lease.FOREVER;
+
+        long myExpiry = theSlotExpiries[mySlot];
+
+        deleteSlot(mySlot);
+        --theSize;
+
+        // The heap node is now stale, compact once they dominate
+        if ((theHeapSize > INITIAL_CAPACITY) && (theHeapSize > theSize * 2))
+            compact();
+
+        return myExpiry;
+    }
+
+    synchronized int size() {
+        return theSize;
+    }
+
+    /**
+       @return a TupleLocator for all OIDs with an expiry at or before the
+       specified time.  The locator is a snapshot and is unaffected by
+       subsequent changes to the index.
+     */
+    synchronized TupleLocator getExpired(long aTime) {
+        OID[] myExpired = new OID[16];
+        int myCount = 0;
+
+        int[] myPending = new int[16];
+        int myPendingCount = 0;
+
+        if (theHeapSize > 0)
+            myPending[myPendingCount++] = 0;
+
+        while (myPendingCount > 0) {
+            int myNode = myPending[--myPendingCount];
+
+            // Nothing below this node can have expired
+            if (theHeapExpiries[myNode] > aTime)
+                continue;
+
+            if (isLive(myNode)) {
+                if (myCount == myExpired.length)
+                    myExpired = grow(myExpired);
+
+                myExpired[myCount++] = theHeapOIDs[myNode];
+            }
+
+            if (myPendingCount + 2 > myPending.length) {
+                int[] myNew = new int[myPending.length * 2];
+                System.arraycopy(myPending, 0, myNew, 0, myPendingCount);
+                myPending = myNew;
+            }
+
+            int myChild = (myNode * 2) + 1;
+
+            if (myChild < theHeapSize)
+                myPending[myPendingCount++] = myChild;
+
+            if (myChild + 1 < theHeapSize)
+                myPending[myPendingCount++] = myChild + 1;
+        }
+
+        OID[] myResult = new OID[myCount];
+        System.arraycopy(myExpired, 0, myResult, 0, myCount);
+
+        return new LocatorImpl(myResult);
+    }
+
+    private boolean isLive(int aNode) {
+        int mySlot = slotFor(theHeapOIDs[aNode]);
+
+        return ((theSlots[mySlot] != null) &&
+                (theSlotStamps[mySlot] == theHeapStamps[aNode]));
+    }
+
+    /**
+       @return the slot holding the OID or the free slot at which it
+       should be inserted.
+     */
+    private int slotFor(OID anOID) {
+        int myMask = theSlots.length - 1;
+        int mySlot = hash(anOID) & myMask;
+
+        while ((theSlots[mySlot] != null) && (! theSlots[mySlot].equals(anOID)))
+            mySlot = (mySlot + 1) & myMask;
+
+        return mySlot;
+    }
+
+    private static int hash(OID anOID) {
+        int myHash = anOID.hashCode();
+
+        return myHash ^ (myHash >>> 16);
+    }
+
+    /**
+       Remove the content of a slot, shifting back any subsequent entries of
+       its probe sequence so that lookups needn't check for deleted slots.
+     */
+    private void deleteSlot(int aSlot) {
+        int myMask = theSlots.length - 1;
+        int myFree = aSlot;
+        int mySlot = aSlot;
+
+        while (true) {
+            mySlot = (mySlot + 1) & myMask;
+
+            if (theSlots[mySlot] == null)
+                break;
+
+            int myHome = hash(theSlots[mySlot]) & myMask;
+
+            // Can only move back if its home isn't between free and here
+            boolean canMove = (myFree <= mySlot) ?
+                ((myHome <= myFree) || (myHome > mySlot)) :
+                ((myHome <= myFree) && (myHome > mySlot));
+
+            if (canMove) {
+                theSlots[myFree] = theSlots[mySlot];
+                theSlotExpiries[myFree] = theSlotExpiries[mySlot];
+                theSlotStamps[myFree] = theSlotStamps[mySlot];
+                myFree = mySlot;
+            }
+        }
+
+        theSlots[myFree] = null;
+    }
+
+    private void resize(int aCapacity) {
+        OID[] myOIDs = theSlots;
+        long[] myExpiries = theSlotExpiries;
+        int[] myStamps = theSlotStamps;
+
+        theSlots = new OID[aCapacity];
+        theSlotExpiries = new long[aCapacity];
+        theSlotStamps = new int[aCapacity];
+
+        for (int i = 0; i < myOIDs.length; i++) {
+            if (myOIDs[i] != null) {
+                int mySlot = slotFor(myOIDs[i]);
+
+                theSlots[mySlot] = myOIDs[i];
+                theSlotExpiries[mySlot] = myExpiries[i];
+                theSlotStamps[mySlot] = myStamps[i];
+            }
+        }
+    }
+
+    private void push(OID anOID, long anExpiry, int aStamp) {
+        if (theHeapSize == theHeapOIDs.length) {
+            int myCapacity = theHeapOIDs.length * 2;
+
+            theHeapOIDs = grow(theHeapOIDs);
+
+            long[] myExpiries = new long[myCapacity];
+            System.arraycopy(theHeapExpiries, 0, myExpiries, 0, theHeapSize);
+            theHeapExpiries = myExpiries;
+
+            int[] myStamps = new int[myCapacity];
+            System.arraycopy(theHeapStamps, 0, myStamps, 0, theHeapSize);
+            theHeapStamps = myStamps;
+        }
+
+        int myNode = theHeapSize++;
+
+        while (myNode > 0) {
+            int myParent = (myNode - 1) / 2;
+
+            if (theHeapExpiries[myParent] <= anExpiry)
+                break;
+
+            moveNode(myParent, myNode);
+            myNode = myParent;
+        }
+
+        theHeapOIDs[myNode] = anOID;
+        theHeapExpiries[myNode] = anExpiry;
+        theHeapStamps[myNode] = aStamp;
+    }
+
+    /**
+       Rebuild the heap from the table, dropping all stale nodes
+     */
+    private void compact() {
+        int myCapacity = INITIAL_CAPACITY;
+
+        while (myCapacity < theSize)
+            myCapacity *= 2;
+
+        theHeapOIDs = new OID[myCapacity];
+        theHeapExpiries = new long[myCapacity];
+        theHeapStamps = new int[myCapacity];
+        theHeapSize = 0;
+
+        for (int i = 0; i < theSlots.length; i++) {
+            if (theSlots[i] != null) {
+                theHeapOIDs[theHeapSize] = theSlots[i];
+                theHeapExpiries[theHeapSize] = theSlotExpiries[i];
+                theHeapStamps[theHeapSize] = theSlotStamps[i];
+                ++theHeapSize;
+            }
+        }
+
+        for (int i = (theHeapSize / 2) - 1; i >= 0; i--)
+            siftDown(i);
+    }
+
+    private void siftDown(int aNode) {
+        OID myOID = theHeapOIDs[aNode];
+        long myExpiry = theHeapExpiries[aNode];
+        int myStamp = theHeapStamps[aNode];
+        int myNode = aNode;
+
+        while (true) {
+            int myChild = (myNode * 2) + 1;
+
+            if (myChild >= theHeapSize)
+                break;
+
+            if ((myChild + 1 < theHeapSize) &&
+                (theHeapExpiries[myChild + 1] < theHeapExpiries[myChild]))
+                ++myChild;
+
+            if (theHeapExpiries[myChild] >= myExpiry)
+                break;
+
+            moveNode(myChild, myNode);
+            myNode = myChild;
+        }
+
+        theHeapOIDs[myNode] = myOID;
+        theHeapExpiries[myNode] = myExpiry;
+        theHeapStamps[myNode] = myStamp;
+    }
+
+    private void moveNode(int aFrom, int aTo) {
+        theHeapOIDs[aTo] = theHeapOIDs[aFrom];
+        theHeapExpiries[aTo] = theHeapExpiries[aFrom];
+        theHeapStamps[aTo] = theHeapStamps[aFrom];
+    }
+
+    private static OID[] grow(OID[] anOIDs) {
+        OID[] myNew = new OID[anOIDs.length * 2];
+        System.arraycopy(anOIDs, 0, myNew, 0, anOIDs.length);
+
+        return myNew;
+    }
+
+    private static class LocatorImpl implements TupleLocator {
+        private OID[] theOIDs;
+        private int theIndex = -1;
+
+        LocatorImpl(OID[] anOIDs) {
+            theOIDs = anOIDs;
+        }
+
+        public boolean fetchNext() throws IOException {
+            if (theIndex < theOIDs.length)
+                ++theIndex;
+
+            return (theIndex < theOIDs.length);
+        }
+
+        public OID getOID() {
+            return theOIDs[theIndex];
+        }
+
+        public void release() throws IOException {
+            // Nothing to do
+        }
+    }
+}
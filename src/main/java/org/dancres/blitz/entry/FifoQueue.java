@@ -0,0 +1,652 @@
+package org.dancres.blitz.entry;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NavigableSet;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import java.util.logging.Level;
+
+import net.jini.config.ConfigurationException;
+
+import org.dancres.blitz.Lifecycle;
+import org.dancres.blitz.LifecycleRegistry;
+
+import org.dancres.blitz.config.ConfigurationFactory;
+
+import org.dancres.blitz.mangler.MangledEntry;
+import org.dancres.blitz.mangler.MangledField;
+
+import org.dancres.blitz.oid.OID;
+
+import org.dancres.blitz.task.Task;
+import org.dancres.blitz.task.Tasks;
+
+/**
+   <p>Holds the head of the FIFO (OID) ordered queue of live Entry's of a
+   type with the <code>Fifo</code> constraint, both overall and per field
+   hashcode.  SleeveCache uses it so that the oldest candidates for a
+   template are found in memory rather than by merging a disk cursor, storage
+   and the CacheIndexer.</p>
+
+   <p>At most <code>fifoQueueHeadSize</code> OIDs (and their field hashcodes)
+   are held.  Beyond that the queue is spilled: the in-memory head holds
+   every live OID up to and including <code>theLimit</code> and the rest are
+   left in storage and the cache.  A search that gets past the head reads
+   the spilled OIDs from those sources, in FIFO order, via a SpillLocator.
+   When takes have drained the head to half its size, the next search
+   schedules a background task to page in another head's worth from the
+   spill.  Paging needs only the field hashcodes which are read from
+   storage where possible rather than loading each Entry through the cache.
+   The queue starts out spilled with an empty head so nothing is paged in
+   until a type is first searched.</p>
+
+   <p>An OID is removed only once its Entry is known to be deleted which
+   EntrySleeveImpl reports via <code>deleted</code> (or a search finds it
+   so).  An Entry that can't be found (a miss) is left in the queue to be
+   tried again by later searches.  When paging, an Entry that can't be
+   found has been deleted and is skipped.</p>
+
+   <p>Matches are speculative, as for any TupleLocator.</p>
+ */
+class FifoQueue {
+    private static int HEAD_SIZE = 16384;
+
+    static {
+        try {
+            HEAD_SIZE = ((Integer)
+                ConfigurationFactory.getEntry("fifoQueueHeadSize", int.class,
+                                              new Integer(HEAD_SIZE))).intValue();
+
+            if (HEAD_SIZE < 2)
+                HEAD_SIZE = 2;
+        } catch (ConfigurationException aCE) {
+            SleeveCache.theLogger.log(Level.SEVERE,
+                                      "Failed to load fifoQueueHeadSize", aCE);
+        }
+    }
+
+    static class LifecycleImpl implements Lifecycle {
+        public void init() {
+        }
+
+        public void deinit() {
+            theQueues.clear();
+        }
+    }
+
+    static {
+        LifecycleRegistry.add(new LifecycleImpl());
+    }
+
+    private static ConcurrentHashMap<String, FifoQueue> theQueues =
+        new ConcurrentHashMap<String, FifoQueue>();
+
+    /**
+       Where the spilled part of the queue is found.
+     */
+    interface Source {
+        /**
+           @return locators, each in FIFO order, which together cover every
+           live Entry that might match the template.  Empty if there are
+           none.
+         */
+        TupleLocator[] findAll(MangledEntry aTemplate) throws IOException;
+
+        /**
+           @return the field hashcodes of the Entry or <code>null</code> if
+           it's deleted or can't be found
+         */
+        int[] hashesFor(OID anId) throws IOException;
+    }
+
+    static FifoQueue newQueue(String aType, Source aSource) {
+        FifoQueue myQueue = new FifoQueue(aSource, HEAD_SIZE);
+
+        theQueues.put(aType, myQueue);
+
+        return myQueue;
+    }
+
+    /**
+       Invoked when an Entry is marked deleted.  This may be called with the
+       Entry's CacheBlockDescriptor held so mustn't block on the queue, the
+       removal is applied by the next thread to modify the queue.
+     */
+    static void deleted(String aType, OID anId) {
+        FifoQueue myQueue = theQueues.get(aType);
+
+        if (myQueue != null)
+            myQueue.deleted(anId);
+    }
+
+    private final Source theSource;
+    private final int theCapacity;
+
+    private ConcurrentSkipListSet<OID> theAll =
+        new ConcurrentSkipListSet<OID>();
+
+    /*
+      Keyed by field offset and hashcode, see keyFor
+     */
+    private ConcurrentHashMap<Long, Line> theLines =
+        new ConcurrentHashMap<Long, Line>();
+
+    private ConcurrentHashMap<OID, int[]> theHashes =
+        new ConcurrentHashMap<OID, int[]>();
+
+    private ConcurrentLinkedQueue<OID> theDeletions =
+        new ConcurrentLinkedQueue<OID>();
+
+    /*
+      The remaining fields are only changed whilst holding our lock.
+      If isSpilled, the head holds all live OIDs <= theLimit (null meaning
+      none) and no others.
+     */
+    private volatile boolean isSpilled = true;
+    private volatile OID theLimit;
+
+    /*
+      Tracks what happens whilst a refill is loading outside our lock
+     */
+    private ReentrantLock theRefillLock = new ReentrantLock();
+    private AtomicBoolean isRefillQueued = new AtomicBoolean();
+    private boolean isRefilling;
+    private OID theLowestDropped;
+    private HashSet<OID> theRefillDeletions = new HashSet<OID>();
+
+    /**
+       Maintains the OIDs for a field hashcode plus the size which a
+       ConcurrentSkipListSet can't provide cheaply.  Size is only changed
+       whilst holding the FifoQueue's lock.
+     */
+    private static class Line {
+        private ConcurrentSkipListSet<OID> theIds =
+            new ConcurrentSkipListSet<OID>();
+
+        private volatile int theSize;
+    }
+
+    FifoQueue(Source aSource, int aCapacity) {
+        theSource = aSource;
+        theCapacity = aCapacity;
+    }
+
+    /**
+       A newly written or recovered Entry.  If the queue has spilled and the
+       OID falls beyond the head it's left to be found in the spill.
+     */
+    synchronized void add(OID anId, MangledEntry anEntry) {
+        drain();
+
+        if (theHashes.containsKey(anId))
+            return;
+
+        if ((! isSpilled) && (theHashes.size() >= theCapacity)) {
+            isSpilled = true;
+            theLimit = theAll.isEmpty() ? null : theAll.last();
+        }
+
+        if (isSpilled && ((theLimit == null) || (anId.compareTo(theLimit) > 0))) {
+            if (isRefilling && ((theLowestDropped == null) ||
+                                (anId.compareTo(theLowestDropped) < 0)))
+                theLowestDropped = anId;
+
+            return;
+        }
+
+        insert(anId, hashesFor(anEntry));
+    }
+
+    private void deleted(OID anId) {
+        theDeletions.add(anId);
+    }
+
+    synchronized void clear() {
+        theDeletions.clear();
+        theAll.clear();
+        theLines.clear();
+        theHashes.clear();
+
+        isSpilled = false;
+        theLimit = null;
+    }
+
+    /**
+       @return the number of OIDs held in memory
+     */
+    int size() {
+        return theHashes.size();
+    }
+
+    /**
+       @return a locator over the OIDs which might match the template in
+       FIFO order or <code>null</code> if there are none.
+     */
+    TupleLocator find(MangledEntry anEntry) throws IOException {
+        if (! theDeletions.isEmpty()) {
+            synchronized(this) {
+                drain();
+            }
+        }
+
+        if (isSpilled && (theHashes.size() <= (theCapacity / 2)))
+            scheduleRefill();
+
+        boolean spilled;
+        OID myLimit;
+
+        synchronized(this) {
+            spilled = isSpilled;
+            myLimit = theLimit;
+        }
+
+        NavigableSet<OID> myHead = headFor(anEntry);
+
+        if (spilled) {
+            if (myLimit == null)
+                myHead = null;
+            else if (myHead != null)
+                myHead = myHead.headSet(myLimit, true);
+
+            return new LocatorImpl((myHead == null) ? null : myHead.iterator(),
+                                   (anEntry == null) ?
+                                   MangledEntry.NULL_TEMPLATE : anEntry,
+                                   myLimit);
+        }
+
+        if ((myHead == null) || (myHead.isEmpty()))
+            return null;
+
+        return new LocatorImpl(myHead.iterator(), null, null);
+    }
+
+    /**
+       @return the set of OIDs in the head that might match the template or
+       <code>null</code> if there are none.
+     */
+    private NavigableSet<OID> headFor(MangledEntry anEntry) {
+        if ((anEntry == null) || (anEntry.isWildcard()))
+            return theAll;
+
+        MangledField[] myFields = anEntry.getFields();
+        Line myChoice = null;
+        int mySmallest = Integer.MAX_VALUE;
+
+        for (int i = 0; i < myFields.length; i++) {
+            if (myFields[i].isNull())
+                continue;
+
+            Line myLine = theLines.get(keyFor(i, myFields[i].hashCode()));
+
+            // No Entry in the head has this field value
+            if (myLine == null)
+                return null;
+
+            int mySize = myLine.theSize;
+
+            if (mySize < mySmallest) {
+                myChoice = myLine;
+                mySmallest = mySize;
+            }
+        }
+
+        if (myChoice == null)
+            return theAll;
+
+        return myChoice.theIds;
+    }
+
+    /**
+       Queue a refill unless one is already pending.  Searches don't wait
+       for it, until it completes they find more of the queue in the spill.
+     */
+    private void scheduleRefill() {
+        if (! isRefillQueued.compareAndSet(false, true))
+            return;
+
+        try {
+            Tasks.queue(new RefillTask());
+        } catch (InterruptedException anIE) {
+            isRefillQueued.set(false);
+            SleeveCache.theLogger.log(Level.WARNING,
+                                      "Failed to queue fifo refill", anIE);
+        }
+    }
+
+    private class RefillTask implements Task {
+        public void run() {
+            try {
+                refill();
+            } catch (IOException anIOE) {
+                SleeveCache.theLogger.log(Level.SEVERE,
+                                          "Fifo queue refill failed", anIOE);
+            } finally {
+                isRefillQueued.set(false);
+            }
+        }
+    }
+
+    /**
+       Page the next part of the spill into the head.  Hashcodes are read
+       without holding our lock (loading may need a CacheBlockDescriptor
+       whose holder is waiting to add to this queue) so we track what's
+       added or deleted meanwhile and reconcile when we're done.
+     */
+    private void refill() throws IOException {
+        if (! theRefillLock.tryLock())
+            return;
+
+        try {
+            OID myStart;
+            int myRoom;
+
+            synchronized(this) {
+                if ((! isSpilled) || (theHashes.size() > (theCapacity / 2)))
+                    return;
+
+                isRefilling = true;
+                theLowestDropped = null;
+                theRefillDeletions.clear();
+
+                myStart = theLimit;
+                myRoom = theCapacity - theHashes.size();
+            }
+
+            ArrayList<OID> myIds = new ArrayList<OID>();
+            ArrayList<int[]> myHashes = new ArrayList<int[]>();
+
+            try {
+                boolean isExhausted = false;
+                OID myLast = myStart;
+
+                TupleLocator myLocator =
+                    new SpillLocator(
+                        theSource.findAll(MangledEntry.NULL_TEMPLATE), myStart);
+
+                try {
+                    while (myIds.size() < myRoom) {
+                        if (! myLocator.fetchNext()) {
+                            isExhausted = true;
+                            break;
+                        }
+
+                        OID myId = myLocator.getOID();
+
+                        /*
+                          Anything we can't find has been deleted, we step
+                          over it (null hashes) so it doesn't hold up the
+                          refill.
+                         */
+                        myIds.add(myId);
+                        myHashes.add(theSource.hashesFor(myId));
+                    }
+                } finally {
+                    myLocator.release();
+                }
+
+                synchronized(this) {
+                    drain();
+
+                    /*
+                      An add dropped whilst we were loading may not have been
+                      seen by our locator so we can only cover up to it.
+                     */
+                    OID myDropped = theLowestDropped;
+
+                    for (int i = 0; i < myIds.size(); i++) {
+                        OID myId = myIds.get(i);
+
+                        if ((myDropped != null) &&
+                            (myId.compareTo(myDropped) >= 0))
+                            break;
+
+                        if ((myHashes.get(i) != null) &&
+                            (! theRefillDeletions.contains(myId)))
+                            insert(myId, myHashes.get(i));
+
+                        myLast = myId;
+                    }
+
+                    if (myDropped == null) {
+                        theLimit = myLast;
+
+                        if (isExhausted)
+                            isSpilled = false;
+                    } else if ((myLast != null) &&
+                               (myLast.compareTo(myDropped) < 0)) {
+                        theLimit = myLast;
+                    }
+                }
+            } finally {
+                synchronized(this) {
+                    isRefilling = false;
+                    theLowestDropped = null;
+                    theRefillDeletions.clear();
+                }
+            }
+
+            SleeveCache.theLogger.log(Level.FINE, "Fifo queue refilled: " +
+                                      myIds.size() + " head: " + size() +
+                                      " spilled: " + isSpilled);
+        } finally {
+            theRefillLock.unlock();
+        }
+    }
+
+    /**
+       Apply deletions reported via <code>deleted</code>.  Must be called
+       holding our lock.
+     */
+    private void drain() {
+        OID myId;
+
+        while ((myId = theDeletions.poll()) != null) {
+            if (isRefilling)
+                theRefillDeletions.add(myId);
+
+            remove(myId);
+        }
+    }
+
+    private void insert(OID anId, int[] aHashes) {
+        if (theHashes.containsKey(anId))
+            return;
+
+        for (int i = 0; i < aHashes.length; i++) {
+            Long myKey = keyFor(i, aHashes[i]);
+            Line myLine = theLines.get(myKey);
+
+            if (myLine == null) {
+                myLine = new Line();
+                theLines.put(myKey, myLine);
+            }
+
+            myLine.theIds.add(anId);
+            ++myLine.theSize;
+        }
+
+        theHashes.put(anId, aHashes);
+        theAll.add(anId);
+    }
+
+    private void remove(OID anId) {
+        int[] myHashes = theHashes.remove(anId);
+
+        if (myHashes == null)
+            return;
+
+        theAll.remove(anId);
+
+        for (int i = 0; i < myHashes.length; i++) {
+            Long myKey = keyFor(i, myHashes[i]);
+            Line myLine = theLines.get(myKey);
+
+            myLine.theIds.remove(anId);
+
+            if (--myLine.theSize == 0)
+                theLines.remove(myKey);
+        }
+    }
+
+    private static int[] hashesFor(MangledEntry anEntry) {
+        MangledField[] myFields = anEntry.getFields();
+        int[] myHashes = new int[myFields.length];
+
+        for (int i = 0; i < myFields.length; i++) {
+            myHashes[i] = myFields[i].hashCode();
+        }
+
+        return myHashes;
+    }
+
+    private static Long keyFor(int anOffset, int aHashCode) {
+        return new Long((((long) anOffset) << 32) |
+                        (aHashCode & 0xFFFFFFFFL));
+    }
+
+    /**
+       Walks the head and then, if the queue had spilled, the spill.  The
+       head iterator is weakly consistent, it's unaffected by removals and
+       may or may not see additions made during the walk.
+     */
+    private class LocatorImpl implements TupleLocator {
+        private Iterator<OID> theHead;
+        private MangledEntry theTemplate;
+        private OID theSpillStart;
+        private boolean hasSpill;
+
+        private TupleLocator theSpill;
+        private OID theCurrent;
+
+        /**
+           @param aTemplate if the queue had spilled, the template to search
+           the spill with
+         */
+        LocatorImpl(Iterator<OID> aHead, MangledEntry aTemplate,
+                    OID aSpillStart) {
+            theHead = aHead;
+            theTemplate = aTemplate;
+            theSpillStart = aSpillStart;
+            hasSpill = (aTemplate != null);
+        }
+
+        public boolean fetchNext() throws IOException {
+            if ((theHead != null) && (theHead.hasNext())) {
+                theCurrent = theHead.next();
+                return true;
+            }
+
+            theHead = null;
+
+            if (! hasSpill)
+                return false;
+
+            if (theSpill == null)
+                theSpill = new SpillLocator(theSource.findAll(theTemplate),
+                                            theSpillStart);
+
+            if (! theSpill.fetchNext())
+                return false;
+
+            theCurrent = theSpill.getOID();
+
+            return true;
+        }
+
+        public OID getOID() {
+            return theCurrent;
+        }
+
+        public void release() throws IOException {
+            if (theSpill != null)
+                theSpill.release();
+        }
+    }
+
+    /**
+       Merges locators which are each in FIFO order into a single FIFO
+       ordered sequence without duplicates, skipping all OIDs up to and
+       including a starting point.
+     */
+    private static class SpillLocator implements TupleLocator {
+        private TupleLocator[] theLocators;
+        private OID[] theHeads;
+        private OID theStart;
+        private OID theNext;
+
+        /**
+           @param aStart skip OIDs up to and including this one, may be
+           <code>null</code>
+         */
+        SpillLocator(TupleLocator[] aLocators, OID aStart) {
+            theLocators = aLocators;
+            theStart = aStart;
+        }
+
+        public boolean fetchNext() throws IOException {
+            if (theHeads == null) {
+                theHeads = new OID[theLocators.length];
+
+                for (int i = 0; i < theLocators.length; i++) {
+                    advance(i);
+                }
+            } else {
+                if (theNext == null)
+                    return false;
+
+                // Step past the OID just returned in each locator holding it
+                for (int i = 0; i < theHeads.length; i++) {
+                    if ((theHeads[i] != null) && (theHeads[i].equals(theNext)))
+                        advance(i);
+                }
+            }
+
+            OID myOldest = null;
+
+            for (int i = 0; i < theHeads.length; i++) {
+                if ((theHeads[i] != null) &&
+                    ((myOldest == null) ||
+                     (theHeads[i].compareTo(myOldest) < 0)))
+                    myOldest = theHeads[i];
+            }
+
+            theNext = myOldest;
+
+            return (theNext != null);
+        }
+
+        private void advance(int anIndex) throws IOException {
+            TupleLocator myLocator = theLocators[anIndex];
+
+            while (myLocator.fetchNext()) {
+                OID myId = myLocator.getOID();
+
+                if ((theStart == null) || (myId.compareTo(theStart) > 0)) {
+                    theHeads[anIndex] = myId;
+                    return;
+                }
+            }
+
+            theHeads[anIndex] = null;
+        }
+
+        public OID getOID() {
+            return theNext;
+        }
+
+        public void release() throws IOException {
+            for (int i = 0; i < theLocators.length; i++) {
+                theLocators[i].release();
+            }
+        }
+    }
+}
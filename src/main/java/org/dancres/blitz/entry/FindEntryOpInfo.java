@@ -23,6 +23,10 @@ static final long serialVersionUID = -7864125234426980910L;
         theOID = aOID;
     }
 
+    boolean isTake() {
+        return isTake;
+    }
+
     public boolean isDebugOp() {
         // Find's are always non-null so never false though they can be aborted
         //
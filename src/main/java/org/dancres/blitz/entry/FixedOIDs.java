@@ -10,6 +10,7 @@ import org.dancres.util.BytePacker;
 class FixedOIDs {
     private static final long INDEXES_OID = 0;
     private static final long SUBTYPES_OID = 1;
+    private static final long INDEX_STATS_OID = 2;
 
     static final byte[] INDEXES_KEY =
         keyFor(INDEXES_OID);
@@ -17,6 +18,9 @@ class FixedOIDs {
     static final byte[] SUBTYPES_KEY =
         keyFor(SUBTYPES_OID);
 
+    static final byte[] INDEX_STATS_KEY =
+        keyFor(INDEX_STATS_OID);
+
     static byte[] keyFor(long anId) {
         byte[] myKey = new byte[8];
 
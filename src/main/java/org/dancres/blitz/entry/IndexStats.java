@@ -0,0 +1,77 @@
+package org.dancres.blitz.entry;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+   <p>Maintains an estimate of the number of entries held in a KeyIndex under
+   each hashcode.  This allows EntryStorage to choose the most selective
+   index for a template without consulting disk.</p>
+
+   <p>Estimates are produced using a count-min sketch.  Each hashcode is
+   counted in one cell of each of <code>DEPTH</code> rows and the estimate is
+   the smallest of those cells.  Collisions can only inflate an estimate, they
+   never reduce it.  Estimates are used only to rank indexes, the chosen index
+   is always consulted for the definitive answer.</p>
+ */
+class IndexStats implements Serializable {
+    static final long serialVersionUID = 4316253064373622818L;
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 1024;
+
+    private static final int[] SEEDS =
+        new int[] {0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F};
+
+    private int[] theCounts = new int[DEPTH * WIDTH];
+
+    synchronized void add(int aHashCode) {
+        add(aHashCode, 1);
+    }
+
+    synchronized void add(int aHashCode, int aCount) {
+        for (int i = 0; i < DEPTH; i++) {
+            theCounts[cellFor(i, aHashCode)] += aCount;
+        }
+    }
+
+    synchronized void remove(int aHashCode) {
+        for (int i = 0; i < DEPTH; i++) {
+            int myCell = cellFor(i, aHashCode);
+
+            if (theCounts[myCell] > 0)
+                --theCounts[myCell];
+        }
+    }
+
+    /**
+       @return an upper-bound estimate of the number of entries with the
+       specified hashcode.
+     */
+    synchronized int estimate(int aHashCode) {
+        int myEstimate = Integer.MAX_VALUE;
+
+        for (int i = 0; i < DEPTH; i++) {
+            int myCount = theCounts[cellFor(i, aHashCode)];
+
+            if (myCount < myEstimate)
+                myEstimate = myCount;
+        }
+
+        return myEstimate;
+    }
+
+    private synchronized void writeObject(ObjectOutputStream anOutput)
+        throws IOException {
+        anOutput.defaultWriteObject();
+    }
+
+    private static int cellFor(int aRow, int aHashCode) {
+        int myHash = aHashCode * SEEDS[aRow];
+
+        myHash ^= (myHash >>> 16);
+
+        return (aRow * WIDTH) + (myHash & (WIDTH - 1));
+    }
+}
@@ -19,6 +19,8 @@ import com.sleepycat.je.LockConflictException;
 
 import org.dancres.util.BytePacker;
 
+import org.dancres.blitz.config.Indexes;
+
 import org.dancres.blitz.mangler.MangledEntry;
 import org.dancres.blitz.mangler.MangledField;
 
@@ -34,9 +36,20 @@ import org.dancres.blitz.oid.OIDFactory;
    to associate with the main db. <P>
 
    Note that duplicate keys are allowed in these databases because various
-   key values can, of course, hash to the same value.
+   key values can, of course, hash to the same value. <P>
+
+   An index may cover more than one field in which case the key is a
+   combination of the hashcodes of those fields and an Entry is only indexed
+   if all of those fields are non-null.  The index is named after its fields
+   as per <code>org.dancres.blitz.config.Indexes</code>. <P>
+
+   Each KeyIndex maintains IndexStats which are used to estimate the number
+   of entries under a hashcode without consulting disk.  These are
+   persisted separately by EntryStorage.
  */
 class KeyIndex implements Serializable {
+    static final long serialVersionUID = -2966567076843573364L;
+
     private static Logger theLogger =
         Logger.getLogger("org.dancres.disk.KeyIndex");
 
@@ -44,12 +57,24 @@ class KeyIndex implements Serializable {
     private String theIndexName;
     private int theOffset;
 
+    /**
+       Offsets of all fields covered by this index, <code>null</code> for
+       indexes created by earlier versions which only cover
+       <code>theOffset</code>.
+     */
+    private int[] theOffsets;
+
+    private transient String[] theFieldNames;
+
     private transient Database theSecondaryDb;
 
-    KeyIndex(String aType, String anIndexName, int anOffset) {
+    private transient IndexStats theStats;
+
+    KeyIndex(String aType, String anIndexName, int[] anOffsets) {
         theType = aType;
         theIndexName = anIndexName;
-        theOffset = anOffset;
+        theOffset = anOffsets[0];
+        theOffsets = anOffsets;
     }
 
     public String getName() {
@@ -77,6 +102,10 @@ class KeyIndex implements Serializable {
             theSecondaryDb = Disk.newDb(null, theType + "_" + theIndexName,
                                         myConfig);
 
+            theStats = new IndexStats();
+
+            theFieldNames = Indexes.getFieldNames(theIndexName);
+
         } catch (DatabaseException aDbe) {
             theLogger.log(Level.SEVERE, "Got Dbe", aDbe);
             throw new IOException("Dbe");
@@ -86,16 +115,14 @@ class KeyIndex implements Serializable {
     void index(OID anId, MangledField[] aFields, DiskTxn aTxn)
         throws DatabaseException {
 
-        MangledField myField = aFields[theOffset];
-
-        if (myField.isNull())
+        if (! covers(aFields))
             return;
 
         // Safety check
-        if (myField.getName().equals(theIndexName)) {
+        if (fits(aFields)) {
             byte[] myHash = new byte[4];
             BytePacker myPacker = BytePacker.getMSBPacker(myHash);
-            myPacker.putInt(myField.hashCode(), 0);
+            myPacker.putInt(hashFor(aFields), 0);
 
             byte[] myTarget = OIDFactory.getKey(anId);
 
@@ -107,18 +134,133 @@ class KeyIndex implements Serializable {
         }
     }
 
+    private int[] getOffsets() {
+        if (theOffsets == null)
+            theOffsets = new int[] {theOffset};
+
+        return theOffsets;
+    }
+
+    /**
+       @return the number of fields covered by this index
+     */
+    int getWidth() {
+        return getOffsets().length;
+    }
+
+    /**
+       @return <code>true</code> if all the fields covered by this index are
+       present and non-null such that the index can be searched (for a
+       template) or updated (for an Entry).
+     */
+    boolean covers(MangledField[] aFields) {
+        int[] myOffsets = getOffsets();
+
+        for (int i = 0; i < myOffsets.length; i++) {
+            if ((myOffsets[i] >= aFields.length) ||
+                (aFields[myOffsets[i]].isNull()))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+       @return <code>true</code> if the fields covered by this index have the
+       names we expect - if not, there's been a schema change.
+     */
+    boolean fits(MangledField[] aFields) {
+        int[] myOffsets = getOffsets();
+
+        for (int i = 0; i < myOffsets.length; i++) {
+            if ((myOffsets[i] >= aFields.length) ||
+                (! aFields[myOffsets[i]].getName().equals(theFieldNames[i])))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+       @return the key under which an Entry (or template) with the specified
+       fields is held in this index.  For a single field index this is the
+       field's hashcode.
+     */
+    int hashFor(MangledField[] aFields) {
+        int[] myOffsets = getOffsets();
+        int myHash = 0;
+
+        for (int i = 0; i < myOffsets.length; i++) {
+            myHash = (myHash * 31) + aFields[myOffsets[i]].hashCode();
+        }
+
+        return myHash;
+    }
+
+    /**
+       Update statistics to reflect a successful (committed) call to
+       <code>index</code>.
+     */
+    void indexed(MangledField[] aFields) {
+        if (covers(aFields))
+            theStats.add(hashFor(aFields));
+    }
+
+    /**
+       @return an upper-bound estimate of the number of entries indexed under
+       the specified hashcode.
+     */
+    int estimate(int aHashCode) {
+        return theStats.estimate(aHashCode);
+    }
+
+    IndexStats getStats() {
+        return theStats;
+    }
+
+    void setStats(IndexStats aStats) {
+        theStats = aStats;
+    }
+
+    /**
+       Recompute statistics from the contents of the index.
+     */
+    void rebuildStats() throws IOException {
+        IndexStats myStats = new IndexStats();
+
+        try {
+            Cursor myCursor = theSecondaryDb.openCursor(null, null);
+            DatabaseEntry myKey = new DatabaseEntry();
+            DatabaseEntry myData = new DatabaseEntry();
+
+            while (myCursor.getNextNoDup(myKey, myData, null).equals(
+                       OperationStatus.SUCCESS)) {
+                BytePacker myPacker = BytePacker.getMSBPacker(myKey.getData());
+
+                myStats.add(myPacker.getInt(0), myCursor.count());
+            }
+
+            myCursor.close();
+        } catch (DatabaseException aDbe) {
+            theLogger.log(Level.SEVERE, "Got Dbe", aDbe);
+            throw new IOException("Dbe");
+        }
+
+        theStats = myStats;
+    }
+
     void unIndex(OID anId, MangledField[] aFields)
         throws IOException {
 
-        MangledField myField = aFields[theOffset];
-        
-        if (myField.isNull())
+        if (! covers(aFields))
             return;
 
+        int myHashCode = hashFor(aFields);
+
         // Pack the hash as key into secondary index
         byte[] myHash = new byte[4];
         BytePacker myPacker = BytePacker.getMSBPacker(myHash);
-        myPacker.putInt(myField.hashCode(), 0);
+        myPacker.putInt(myHashCode, 0);
         DatabaseEntry myHashKey = new DatabaseEntry(myHash);
 
         // We'll need to compare the data of each index entry with the key
@@ -145,10 +287,11 @@ class KeyIndex implements Serializable {
                     (myResult.equals(OperationStatus.KEYEMPTY)))
                     theLogger.log(Level.SEVERE,
                                   "Warning, didn't find an index entry " + anId +
-                                  ", " + myField.hashCode() + ", " +
+                                  ", " + myHashCode + ", " +
                                   myResult.equals(OperationStatus.NOTFOUND));
                 else {
                     myCursor.delete();
+                    theStats.remove(myHashCode);
                 }
                 
                 myCursor.close();
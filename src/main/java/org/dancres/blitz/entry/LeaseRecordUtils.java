@@ -14,11 +14,15 @@ class LeaseRecordUtils {
     }
 
     static byte[] getLeaseEntry(PersistentEntry anEntry) {
+        return getLeaseEntry(anEntry.getExpiry(), anEntry.getKey());
+    }
+
+    static byte[] getLeaseEntry(long anExpiry, byte[] aPackedOid) {
         byte[] myEntry = new byte[8 + OIDFactory.KEY_SIZE];
         BytePacker myPacker = BytePacker.getMSBPacker(myEntry);
 
-        myPacker.putLong(anEntry.getExpiry(), 0);
-        myPacker.putArray(anEntry.getKey(), 8);
+        myPacker.putLong(anExpiry, 0);
+        myPacker.putArray(aPackedOid, 8);
 
         // dumpHex("leaseentry", myEntry);
 
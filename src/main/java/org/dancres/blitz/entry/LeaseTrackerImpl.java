@@ -17,6 +17,9 @@ import org.dancres.blitz.disk.DiskTxn;
 
 import org.dancres.blitz.lease.ReapFilter;
 
+import org.dancres.blitz.oid.OID;
+import org.dancres.blitz.oid.OIDFactory;
+
 /**
    Database layout:
 
@@ -32,6 +35,13 @@ import org.dancres.blitz.lease.ReapFilter;
    Thus, if we configure sufficient allocators (good for concurrency anyway)
    we can ensure we get efficient grouping of entries against pages which
    allows.for good cache behaviour.</p>
+
+   <p>The database is the durable record but is only read at startup to
+   rebuild an ExpiryIndex.  Reaps are driven from the index such that only
+   expired leases are visited and the index also provides the current
+   expiry of a lease which allows us to locate its record directly when
+   updating or deleting.  <code>Lease.FOREVER</code> leases can never be
+   reaped and are not indexed.</p>
 */
 class LeaseTrackerImpl implements LeaseTracker {
     private Database theLeasesDb;
@@ -39,6 +49,8 @@ class LeaseTrackerImpl implements LeaseTracker {
 
     private int theMaxAllocId;
 
+    private ExpiryIndex theIndex = new ExpiryIndex();
+
     LeaseTrackerImpl(String aType, int aMaxAllocId) throws IOException {
         EntryStorage.theLogger.log(Level.FINE, "Tracker created: " + aType);
 
@@ -58,40 +70,54 @@ class LeaseTrackerImpl implements LeaseTracker {
                                        aDbe);
             throw new IOException();
         }
+
+        rebuildIndex();
     }
 
-    public void bringOutTheDead(EntryReaper aReaper) throws IOException {
-        /*
-          Read blocks from disk recovering all necessary entries which
-          are expired at this point in time.  Then we can release the
-          txn and schedule up some deletes in cache via the ReapFilter.
-          Repeat for each bucket - we don't even need to expire all dead items
-          in a block...
-         */
+    private void rebuildIndex() throws IOException {
+        try {
+            Cursor myCursor = theLeasesDb.openCursor(null, null);
+            DatabaseEntry myBucket = new DatabaseEntry();
+            DatabaseEntry myRecord = new DatabaseEntry();
+
+            while (myCursor.getNext(myBucket, myRecord, null).equals(
+                       OperationStatus.SUCCESS)) {
+                byte[] myData = myRecord.getData();
 
+                theIndex.add(
+                    OIDFactory.newOID(LeaseRecordUtils.unpackId(myData)),
+                    LeaseRecordUtils.unpackExpiry(myData));
+            }
+
+            myCursor.close();
+        } catch (DatabaseException aDbe) {
+            EntryStorage.theLogger.log(Level.SEVERE,
+                                       "Tracker failed to load leases",
+                                       aDbe);
+            throw new IOException();
+        }
+
+        EntryStorage.theLogger.log(Level.FINE, "Tracker loaded: " + theType +
+                                   ", " + theIndex.size());
+    }
+
+    public void bringOutTheDead(EntryReaper aReaper) throws IOException {
         EntryStorage.theLogger.log(Level.INFO,
                                    "LeaseTracker bringing out the dead for: " +
                                    theType);
 
-        // System.err.println("LeaseTracker bringing out the dead for: " +
-        //                            theType);
-        DiskTxn myTxn = null;
-
-        myTxn = DiskTxn.newStandalone();
+        TupleLocator myExpired =
+            theIndex.getExpired(System.currentTimeMillis());
 
         try {
-            Cursor myCursor = theLeasesDb.openCursor(null, null);
-
-            aReaper.clean(new ExpiredLocatorImpl(myCursor));
-
-            myCursor.close();
+            aReaper.clean(myExpired);
         } catch (Throwable aT) {
             EntryStorage.theLogger.log(Level.SEVERE,
                 "Exception during reap",
                 aT);
             throw new IOException("Fatal error in reap");
         } finally {
-            myTxn.commit();
+            myExpired.release();
         }
 
         EntryStorage.theLogger.log(Level.INFO, 
@@ -102,6 +128,7 @@ class LeaseTrackerImpl implements LeaseTracker {
     }
 
     public void delete(PersistentEntry anEntry) throws IOException {
+        long myExpiry = theIndex.remove(anEntry.getOID());
         byte[] myOid = LeaseRecordUtils.getId(anEntry);
         DiskTxn myTxn = DiskTxn.newStandalone();
 
@@ -110,18 +137,32 @@ class LeaseTrackerImpl implements LeaseTracker {
         try {
             DatabaseEntry myKey =
                 new DatabaseEntry(LeaseRecordUtils.getBucketKey(anEntry));
-            DatabaseEntry myValue = new DatabaseEntry();
+            DatabaseEntry myValue;
+            OperationStatus myStatus = OperationStatus.NOTFOUND;
 
             Cursor myCursor = theLeasesDb.openCursor(myTxn.getDbTxn(), null);
-            OperationStatus myStatus = 
-                myCursor.getSearchKey(myKey, myValue, LockMode.RMW);
-            
-            while ((! myStatus.equals(OperationStatus.NOTFOUND)) &&
-                   (! LeaseRecordUtils.isKey(myValue.getData(), myOid))) {
-                // System.err.println("Skipping for del");
 
+            /*
+              The index gives us the expiry (or FOREVER for leases it doesn't
+              track) so we can construct the exact record and go straight to
+              it.  Should that fail, scan the bucket.
+             */
+            myValue = new DatabaseEntry(
+                LeaseRecordUtils.getLeaseEntry(myExpiry, myOid));
+            myStatus = myCursor.getSearchBoth(myKey, myValue, LockMode.RMW);
+
+            if (myStatus.equals(OperationStatus.NOTFOUND)) {
                 myValue = new DatabaseEntry();
-                myStatus = myCursor.getNextDup(myKey, myValue, LockMode.RMW);
+                myStatus = myCursor.getSearchKey(myKey, myValue, LockMode.RMW);
+
+                while ((! myStatus.equals(OperationStatus.NOTFOUND)) &&
+                       (! LeaseRecordUtils.isKey(myValue.getData(), myOid))) {
+                    // System.err.println("Skipping for del");
+
+                    myValue = new DatabaseEntry();
+                    myStatus = myCursor.getNextDup(myKey, myValue,
+                                                   LockMode.RMW);
+                }
             }
 
             if (! myStatus.equals(OperationStatus.NOTFOUND)) {
@@ -163,6 +204,8 @@ class LeaseTrackerImpl implements LeaseTracker {
         } finally {
             myTxn.commit();
         }
+
+        theIndex.add(anEntry.getOID(), anEntry.getExpiry());
     }
 
     public void close() throws IOException {
@@ -0,0 +1,104 @@
+package org.dancres.blitz.entry;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+import org.dancres.blitz.mangler.FlatEntry;
+
+import org.dancres.blitz.oid.OID;
+import org.dancres.blitz.oid.OIDFactory;
+
+/**
+   Writes and reads the OpInfo's of Entry operations in a compact form for
+   the transaction log, avoiding serialization.  Entry's are written in the
+   <code>FlatEntry</code> format.
+ */
+public final class OpInfoCodec {
+    private static final byte FIND = 1;
+    private static final byte WRITE = 2;
+
+    private OpInfoCodec() {
+    }
+
+    public static boolean canWrite(OpInfo anInfo) {
+        return ((anInfo instanceof FindEntryOpInfo) ||
+                (anInfo instanceof WriteEntryOpInfo));
+    }
+
+    /**
+       @return <code>true</code> if the OpInfo was written,
+       <code>false</code> if it's not of a type we handle in which case
+       nothing has been written.
+     */
+    public static boolean write(OpInfo anInfo, DataOutput anOut)
+        throws IOException {
+
+        if (anInfo instanceof FindEntryOpInfo) {
+            FindEntryOpInfo myInfo = (FindEntryOpInfo) anInfo;
+
+            anOut.writeByte(FIND);
+            anOut.writeBoolean(myInfo.isTake());
+            anOut.writeUTF(myInfo.getType());
+            writeOID(myInfo.getOID(), anOut);
+
+            return true;
+        } else if (anInfo instanceof WriteEntryOpInfo) {
+            WriteEntryOpInfo myInfo = (WriteEntryOpInfo) anInfo;
+
+            anOut.writeByte(WRITE);
+            writeOID(myInfo.getOID(), anOut);
+            anOut.writeLong(myInfo.getInitialExpiry());
+
+            byte[] myEntry = FlatEntry.flatten(myInfo.getEntry());
+            anOut.writeInt(myEntry.length);
+            anOut.write(myEntry);
+
+            return true;
+        }
+
+        return false;
+    }
+
+    public static OpInfo read(DataInput anIn) throws IOException {
+        byte myKind = anIn.readByte();
+
+        switch (myKind) {
+            case FIND : {
+                boolean isTake = anIn.readBoolean();
+                String myType = anIn.readUTF();
+
+                return new FindEntryOpInfo(myType, readOID(anIn), isTake);
+            }
+
+            case WRITE : {
+                OID myOID = readOID(anIn);
+                long myExpiry = anIn.readLong();
+
+                byte[] myBytes = new byte[anIn.readInt()];
+                anIn.readFully(myBytes);
+
+                return new WriteEntryOpInfo(myOID,
+                                            FlatEntry.unflatten(myBytes, 0),
+                                            myExpiry);
+            }
+
+            default :
+                throw new StreamCorruptedException("Unknown OpInfo: " +
+                                                   myKind);
+        }
+    }
+
+    private static void writeOID(OID anOID, DataOutput anOut)
+        throws IOException {
+        anOut.write(OIDFactory.getKey(anOID));
+    }
+
+    private static OID readOID(DataInput anIn) throws IOException {
+        byte[] myKey = new byte[OIDFactory.KEY_SIZE];
+        anIn.readFully(myKey);
+
+        return OIDFactory.newOID(myKey);
+    }
+}
@@ -0,0 +1,207 @@
+package org.dancres.blitz.entry;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+import java.nio.ByteBuffer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import java.util.logging.Level;
+
+import net.jini.config.ConfigurationException;
+
+import org.dancres.blitz.config.ConfigurationFactory;
+
+/**
+   <p>Allocates space for off heap Entry records from shared direct buffers
+   (slabs) of <code>entryPayloadSlabSize</code> bytes rather than a direct
+   buffer per record.  Direct buffers are costly to allocate and each
+   carries its own heap object and cleaner which for small records is much
+   of what we're trying to save.</p>
+
+   <p>Slabs are carved into chunks of a fixed set of size classes, each
+   roughly a third or a quarter larger than the one before, and a record is
+   given a slice of a chunk of the smallest class that fits it.  Records
+   aren't released explicitly as they may be shared by several readers.
+   Instead, once a record has become unreachable its chunk is put on the
+   free list for its class to be handed out again.  Thus off heap memory is
+   bounded by the peak size of the records held rather than growing with
+   every record ever written and a long-lived record pins only its own
+   chunk.  Records larger than an eighth of a slab are given a buffer of
+   their own.</p>
+
+   <p>A chunk can be re-used as soon as the slice handed out is unreachable
+   so anything reading a record must hold a reference to that slice, not
+   just a duplicate of it, for the duration (PersistentEntry reads whilst
+   holding its own lock).</p>
+ */
+class PayloadSlabs {
+    private static int SLAB_SIZE = 1024 * 1024;
+
+    private static final int MIN_CHUNK_SIZE = 64;
+
+    static {
+        try {
+            SLAB_SIZE = ((Integer)
+                ConfigurationFactory.getEntry("entryPayloadSlabSize",
+                                              int.class,
+                                              new Integer(SLAB_SIZE))).intValue();
+        } catch (ConfigurationException aCE) {
+            EntrySleeveImpl.theLogger.log(Level.SEVERE,
+                "Failed to load entryPayloadSlabSize setting", aCE);
+        }
+    }
+
+    /*
+      Chunk size of each class, ascending: 64, 96, 128, 192, 256...
+     */
+    private static final int[] CLASS_SIZES;
+
+    static {
+        ArrayList<Integer> mySizes = new ArrayList<Integer>();
+
+        for (int mySize = MIN_CHUNK_SIZE; mySize <= (SLAB_SIZE / 8);
+             mySize *= 2) {
+            mySizes.add(new Integer(mySize));
+
+            if ((mySize + (mySize / 2)) <= (SLAB_SIZE / 8))
+                mySizes.add(new Integer(mySize + (mySize / 2)));
+        }
+
+        CLASS_SIZES = new int[mySizes.size()];
+
+        for (int i = 0; i < CLASS_SIZES.length; i++) {
+            CLASS_SIZES[i] = mySizes.get(i).intValue();
+        }
+    }
+
+    /**
+       Tracks a slice that's been handed out.  When the slice is collected
+       we're enqueued and the chunk it came from is returned to its free
+       list.
+     */
+    private static class Chunk extends WeakReference<ByteBuffer> {
+        private final ByteBuffer theSpace;
+        private final int theClass;
+
+        Chunk(ByteBuffer aRecord, ByteBuffer aSpace, int aClass) {
+            super(aRecord, theReleased);
+
+            theSpace = aSpace;
+            theClass = aClass;
+        }
+    }
+
+    /*
+      All the following are only accessed whilst holding the class lock
+     */
+    private static ByteBuffer theSlab;
+
+    private static ArrayList<ArrayList<ByteBuffer>> theFree =
+        new ArrayList<ArrayList<ByteBuffer>>();
+
+    /*
+      Holds the Chunk's for slices in use, otherwise they'd be collected
+      along with the slices and never enqueued
+     */
+    private static HashSet<Chunk> theInUse = new HashSet<Chunk>();
+
+    private static ReferenceQueue<ByteBuffer> theReleased =
+        new ReferenceQueue<ByteBuffer>();
+
+    static {
+        for (int i = 0; i < CLASS_SIZES.length; i++) {
+            theFree.add(new ArrayList<ByteBuffer>());
+        }
+    }
+
+    /**
+       @return a buffer of exactly <code>aSize</code> bytes with position
+       zero
+     */
+    static ByteBuffer allocate(int aSize) {
+        int myClass = classFor(aSize);
+
+        if (myClass == -1)
+            return ByteBuffer.allocateDirect(aSize);
+
+        synchronized(PayloadSlabs.class) {
+            reclaim();
+
+            ArrayList<ByteBuffer> myFree = theFree.get(myClass);
+
+            ByteBuffer mySpace = (myFree.isEmpty()) ?
+                carve(CLASS_SIZES[myClass]) :
+                myFree.remove(myFree.size() - 1);
+
+            ByteBuffer myRecord = mySpace.duplicate();
+            myRecord.limit(aSize);
+            myRecord = myRecord.slice();
+
+            theInUse.add(new Chunk(myRecord, mySpace, myClass));
+
+            return myRecord;
+        }
+    }
+
+    /**
+       @return the index of the smallest class that will hold
+       <code>aSize</code> bytes or <code>-1</code> if it's too large for
+       all of them
+     */
+    private static int classFor(int aSize) {
+        for (int i = 0; i < CLASS_SIZES.length; i++) {
+            if (CLASS_SIZES[i] >= aSize)
+                return i;
+        }
+
+        return -1;
+    }
+
+    /**
+       Return the chunks of all collected slices to their free lists
+     */
+    private static void reclaim() {
+        Chunk myChunk;
+
+        while ((myChunk = (Chunk) theReleased.poll()) != null) {
+            theInUse.remove(myChunk);
+            theFree.get(myChunk.theClass).add(myChunk.theSpace);
+        }
+    }
+
+    /**
+       Cut a new chunk from the current slab.  If the slab can't hold it,
+       what's left is carved into free chunks of smaller classes before
+       starting a new one.
+     */
+    private static ByteBuffer carve(int aSize) {
+        if ((theSlab == null) || (theSlab.remaining() < aSize)) {
+            if (theSlab != null) {
+                for (int i = CLASS_SIZES.length - 1; i >= 0; i--) {
+                    while (theSlab.remaining() >= CLASS_SIZES[i]) {
+                        theFree.get(i).add(cut(CLASS_SIZES[i]));
+                    }
+                }
+            }
+
+            theSlab = ByteBuffer.allocateDirect(SLAB_SIZE);
+        }
+
+        return cut(aSize);
+    }
+
+    private static ByteBuffer cut(int aSize) {
+        int myEnd = theSlab.position() + aSize;
+
+        theSlab.limit(myEnd);
+        ByteBuffer mySlice = theSlab.slice();
+
+        theSlab.limit(theSlab.capacity());
+        theSlab.position(myEnd);
+
+        return mySlice;
+    }
+}
@@ -1,29 +1,91 @@
 package org.dancres.blitz.entry;
 
+import java.nio.ByteBuffer;
+
 import java.util.logging.Level;
 
+import net.jini.config.ConfigurationException;
+
+import org.dancres.blitz.config.ConfigurationFactory;
+import org.dancres.blitz.mangler.FlatEntry;
 import org.dancres.blitz.mangler.MangledEntry;
+import org.dancres.blitz.mangler.MangledField;
 import org.dancres.blitz.oid.OIDFactory;
 import org.dancres.blitz.oid.OID;
 import org.dancres.util.ObjectTransformer;
 import org.dancres.util.BytePacker;
 
 /**
+   <p>The persistent form of an Entry.  On disk this is the expiry, the key,
+   the field hashcodes and the Entry itself which is held in the
+   <code>FlatEntry</code> format (records written by earlier versions hold a
+   serialized MangledEntry which we can still read).</p>
+
+   <p>When loaded from disk we keep a reference to the bytes rather than
+   copying them out and only unpack the MangledEntry when it's requested.
+   Templates can be matched against the flattened Entry directly via
+   <code>matches</code>.</p>
+
+   <p>If <code>entryPayloadsOffHeap</code> is set, once an Entry has been
+   flattened (written to or loaded from disk) the record is moved into a
+   slice of a shared direct buffer (see <code>PayloadSlabs</code>) and the
+   on-heap MangledEntry is discarded.  Only the expiry, key, type and a few
+   references remain on the heap which allows for much larger caches
+   (<code>entryReposCacheSize</code>) without the garbage collection
+   penalty.  Matching checks field hashcodes directly in the buffer and only
+   copies the record out for those Entry's that pass.  The MangledEntry is
+   decoded afresh each time it's requested.</p>
  */
 public class PersistentEntry {
     private static final int EXPIRY_LENGTH = 8;
 
     private static final int HASH_COUNT_LENGTH = 4;
 
+    private static final int HASH_CODES_OFFSET =
+        EXPIRY_LENGTH + OIDFactory.KEY_SIZE + HASH_COUNT_LENGTH;
+
+    private static boolean OFF_HEAP = false;
+
+    static {
+        try {
+            OFF_HEAP = ((Boolean)
+                ConfigurationFactory.getEntry("entryPayloadsOffHeap",
+                                              Boolean.class,
+                                              new Boolean(false))).booleanValue();
+
+            EntrySleeveImpl.theLogger.log(Level.INFO,
+                "Entry payloads off heap: " + OFF_HEAP);
+        } catch (ConfigurationException aCE) {
+            EntrySleeveImpl.theLogger.log(Level.SEVERE,
+                "Failed to load entryPayloadsOffHeap setting", aCE);
+        }
+    }
+
     /*
       All disk-structures are kept "simple" - this removes the need for
-      costly (in terms of time to do it and space on disk) serialization
+      costly (in terms of time to do it and space on disk) serialization.
+      theRecord is never modified once assigned.
      */
-    private byte[] theEntryBytes;
+    private byte[] theRecord;
+    private int theEntryOffset;
+
     private long theExpiry;
     private byte[] theKey;
     private byte[] theHashCodes;
 
+    /*
+      Holds theRecord when it's been moved off heap, never modified once
+      assigned.  It's shared so is only ever read via absolute gets or a
+      duplicate to leave its position alone.
+     */
+    private ByteBuffer theOffHeap;
+
+    /*
+      Type of the Entry held off heap, interned as every Entry in a
+      repository has the same one.
+     */
+    private String theType;
+
     private transient MangledEntry theEntry;
     private transient OID theId;
 
@@ -36,64 +98,125 @@ public class PersistentEntry {
     PersistentEntry(byte[] aBytes) {
         BytePacker myPacker = BytePacker.getMSBPacker(aBytes);
 
+        theRecord = aBytes;
         theExpiry = myPacker.getLong(0);
         theKey = myPacker.getArray(EXPIRY_LENGTH, OIDFactory.KEY_SIZE);
-
-        int myHashCodesLength =
+        theEntryOffset = HASH_CODES_OFFSET +
             myPacker.getInt(EXPIRY_LENGTH + OIDFactory.KEY_SIZE);
 
-        theHashCodes = myPacker.getArray(EXPIRY_LENGTH + OIDFactory.KEY_SIZE +
-            HASH_COUNT_LENGTH, myHashCodesLength);
+        moveOffHeap();
+    }
 
-        int myRemainder = aBytes.length - EXPIRY_LENGTH - OIDFactory.KEY_SIZE -
-            myHashCodesLength - HASH_COUNT_LENGTH;
+    /**
+       Move a flat record off heap, discarding all on heap copies of the
+       Entry.
+     */
+    private void moveOffHeap() {
+        if ((! OFF_HEAP) || (theRecord == null) ||
+            (! FlatEntry.isFlat(theRecord, theEntryOffset)))
+            return;
+
+        try {
+            theType = FlatEntry.getType(theRecord, theEntryOffset).intern();
+        } catch (Exception anE) {
+            EntrySleeveImpl.theLogger.log(
+                Level.SEVERE, "Couldn't recover type, leaving on heap", anE);
+            return;
+        }
+
+        theOffHeap = PayloadSlabs.allocate(theRecord.length);
+        theOffHeap.duplicate().put(theRecord);
 
-        theEntryBytes = myPacker.getArray(EXPIRY_LENGTH + OIDFactory.KEY_SIZE +
-            myHashCodesLength +
-            HASH_COUNT_LENGTH,
-            myRemainder);
+        theRecord = null;
+        theEntry = null;
+        theHashCodes = null;
+    }
+
+    /**
+       @return the record, if it's held off heap this is a copy
+     */
+    private byte[] getRecord() {
+        if (theOffHeap == null)
+            return theRecord;
+
+        byte[] myRecord = new byte[theOffHeap.capacity()];
+
+        theOffHeap.duplicate().get(myRecord);
+
+        return myRecord;
     }
 
     /**
      * Convert EntrySleeveImpl into a byte representation suitable for
      * saving to disk.
      */
-    byte[] flatten() {
-        if (theEntryBytes == null) {
+    synchronized byte[] flatten() {
+        if (theOffHeap != null) {
+            byte[] myRecord = getRecord();
+
+            BytePacker.getMSBPacker(myRecord).putLong(theExpiry, 0);
+
+            return myRecord;
+        }
+
+        // Convert records from earlier versions
+        if ((theRecord != null) &&
+            (! FlatEntry.isFlat(theRecord, theEntryOffset))) {
+            getEntry();
+            theRecord = null;
+        }
+
+        if (theRecord == null) {
+            byte[] myEntryBytes;
+
             try {
-                theEntryBytes = ObjectTransformer.toByte(theEntry);
+                myEntryBytes = FlatEntry.flatten(theEntry);
             } catch (Exception anE) {
                 EntrySleeveImpl.theLogger.log(
                     Level.SEVERE, "Couldn't flatten entry!", anE);
+                return null;
             }
+
+            byte[] myHashCodes = getHashCodes();
+            byte[] myRecord = new byte[myEntryBytes.length +
+                HASH_CODES_OFFSET + myHashCodes.length];
+
+            BytePacker myPacker = BytePacker.getMSBPacker(myRecord);
+            myPacker.putArray(getKey(), EXPIRY_LENGTH);
+            myPacker.putInt(myHashCodes.length, EXPIRY_LENGTH +
+                OIDFactory.KEY_SIZE);
+            myPacker.putArray(myHashCodes, HASH_CODES_OFFSET);
+            myPacker.putArray(myEntryBytes,
+                HASH_CODES_OFFSET + myHashCodes.length);
+
+            theRecord = myRecord;
+            theEntryOffset = HASH_CODES_OFFSET + myHashCodes.length;
+            theHashCodes = null;
         }
 
-        byte[] myArray = new byte[theEntryBytes.length + OIDFactory.KEY_SIZE
-            + EXPIRY_LENGTH + HASH_COUNT_LENGTH +
-            getHashCodes().length];
+        // Only the expiry can have changed
+        byte[] myArray = new byte[theRecord.length];
+
+        System.arraycopy(theRecord, 0, myArray, 0, theRecord.length);
+        BytePacker.getMSBPacker(myArray).putLong(theExpiry, 0);
 
-        BytePacker myPacker = BytePacker.getMSBPacker(myArray);
-        myPacker.putLong(theExpiry, 0);
-        myPacker.putArray(getKey(), EXPIRY_LENGTH);
-        myPacker.putInt(getHashCodes().length, EXPIRY_LENGTH +
-            OIDFactory.KEY_SIZE);
-        myPacker.putArray(getHashCodes(), EXPIRY_LENGTH + OIDFactory.KEY_SIZE +
-            HASH_COUNT_LENGTH);
-        myPacker.putArray(theEntryBytes, EXPIRY_LENGTH + OIDFactory.KEY_SIZE +
-            HASH_COUNT_LENGTH + getHashCodes().length);
+        moveOffHeap();
 
         return myArray;
     }
 
-    PersistentEntry duplicate() {
-        return new PersistentEntry(getOID(), getEntry(), getExpiry());
+    synchronized PersistentEntry duplicate() {
+        if (theEntry == null)
+            return new PersistentEntry(flatten());
+        else
+            return new PersistentEntry(getOID(), getEntry(), getExpiry());
     }
 
-    private synchronized byte[] getHashCodes() {
-        /*
-          Should only happen if we've been newly created and never been
-          flattened
-         */
+    /**
+       Should only be called if we've been newly created and never been
+       flattened
+     */
+    private byte[] getHashCodes() {
         if (theHashCodes == null) {
             MangledEntry myEntry = getEntry();
 
@@ -109,24 +232,145 @@ public class PersistentEntry {
         return theHashCodes;
     }
 
+    /**
+       @return the field hashcodes held in a record as returned by
+       <code>flatten</code>, without unpacking the Entry.
+     */
+    static int[] getFieldHashes(byte[] aRecord) {
+        BytePacker myPacker = BytePacker.getMSBPacker(aRecord);
+        int[] myHashes =
+            new int[myPacker.getInt(EXPIRY_LENGTH + OIDFactory.KEY_SIZE) / 4];
+
+        for (int i = 0; i < myHashes.length; i++) {
+            myHashes[i] = myPacker.getInt(HASH_CODES_OFFSET + (i * 4));
+        }
+
+        return myHashes;
+    }
+
+    /**
+       @return the field hashcodes, unpacking the Entry only if it's never
+       been flattened.
+     */
+    synchronized int[] getFieldHashes() {
+        int myCount = ((theRecord == null) && (theOffHeap == null)) ?
+            (getHashCodes().length / 4) :
+            ((theEntryOffset - HASH_CODES_OFFSET) / 4);
+
+        int[] myHashes = new int[myCount];
+
+        for (int i = 0; i < myCount; i++) {
+            myHashes[i] = getHashCodeForField(i);
+        }
+
+        return myHashes;
+    }
+
     synchronized int getHashCodeForField(int anOffset) {
+        if (theOffHeap != null)
+            return theOffHeap.getInt(HASH_CODES_OFFSET + (anOffset * 4));
+
+        if (theRecord != null)
+            return BytePacker.getMSBPacker(theRecord).getInt(
+                HASH_CODES_OFFSET + (anOffset * 4));
+
         BytePacker myPacker = BytePacker.getMSBPacker(getHashCodes());
 
         return myPacker.getInt(anOffset * 4);
     }
 
     synchronized MangledEntry getEntry() {
-        if (theEntry == null) {
+        // Off heap, we decode on demand and don't hold on to the result
+        if (theOffHeap != null)
+            return unpack(getRecord());
+
+        if (theEntry == null)
+            theEntry = unpack(theRecord);
+
+        return theEntry;
+    }
+
+    private MangledEntry unpack(byte[] aRecord) {
+        try {
+            if (FlatEntry.isFlat(aRecord, theEntryOffset))
+                return FlatEntry.unflatten(aRecord, theEntryOffset);
+            else
+                return (MangledEntry) ObjectTransformer.toObject(
+                    BytePacker.getMSBPacker(aRecord).getArray(
+                        theEntryOffset,
+                        aRecord.length - theEntryOffset));
+        } catch (Exception anE) {
+            EntrySleeveImpl.theLogger.log(
+                Level.SEVERE, "Couldn't recover entry", anE);
+            return null;
+        }
+    }
+
+    /**
+       @return <code>true</code> if <code>matches</code> will work against
+       the flattened form rather than an unpacked Entry.
+     */
+    synchronized boolean isPacked() {
+        return ((theOffHeap != null) ||
+                ((theEntry == null) &&
+                 (FlatEntry.isFlat(theRecord, theEntryOffset))));
+    }
+
+    /**
+       @return <code>true</code> if the template matches this Entry.  If the
+       Entry hasn't been unpacked, the match is done against the flattened
+       form.
+     */
+    synchronized boolean matches(MangledEntry aTemplate) {
+        if (theOffHeap != null) {
+            if ((! aTemplate.isWildcard()) && (! hashesMatch(aTemplate)))
+                return false;
+
+            return FlatEntry.matches(aTemplate, getRecord(), theEntryOffset);
+        }
+
+        if ((theEntry == null) &&
+            (FlatEntry.isFlat(theRecord, theEntryOffset)))
+            return FlatEntry.matches(aTemplate, theRecord, theEntryOffset);
+
+        return aTemplate.match(getEntry());
+    }
+
+    /**
+       Check the template's field hashcodes against those held off heap to
+       avoid copying out the records of Entry's that can't match.
+     */
+    private boolean hashesMatch(MangledEntry aTemplate) {
+        MangledField[] myFields = aTemplate.getFields();
+        int myCount = (theEntryOffset - HASH_CODES_OFFSET) / 4;
+
+        if (myFields.length > myCount)
+            return false;
+
+        for (int i = 0; i < myFields.length; i++) {
+            if ((! myFields[i].isNull()) &&
+                (myFields[i].hashCode() != getHashCodeForField(i)))
+                return false;
+        }
+
+        return true;
+    }
+
+    synchronized String getType() {
+        if (theType != null)
+            return theType;
+
+        if ((theEntry == null) &&
+            (FlatEntry.isFlat(theRecord, theEntryOffset))) {
             try {
-                theEntry =
-                    (MangledEntry) ObjectTransformer.toObject(theEntryBytes);
+                return FlatEntry.getType(theRecord, theEntryOffset);
             } catch (Exception anE) {
                 EntrySleeveImpl.theLogger.log(
-                    Level.SEVERE, "Couldn't recover entry", anE);
+                    Level.SEVERE, "Couldn't recover type", anE);
             }
         }
 
-        return theEntry;
+        return getEntry().getType();
     }
 
     synchronized byte[] getKey() {
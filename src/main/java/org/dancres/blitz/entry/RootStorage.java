@@ -180,6 +180,10 @@ class RootStorage implements Storage {
         theMetaData.close();
     }
 
+    public void sync() throws IOException {
+        // Nothing to do
+    }
+
     public OID getNextId() throws IOException {
         throw new IOException("Shouldn't be called");
     }
@@ -244,4 +248,8 @@ class RootStorage implements Storage {
     public TupleLocator find(MangledEntry anEntry) throws IOException {
         return null;
     }
+
+    public int[] getHashCodes(OID anId) throws IOException {
+        return null;
+    }
 }
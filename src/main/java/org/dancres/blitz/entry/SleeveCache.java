@@ -21,7 +21,9 @@ import org.dancres.blitz.stats.StatsBoard;
 import org.dancres.blitz.oid.OID;
 
 import org.dancres.blitz.arc.ArcCache;
+import org.dancres.blitz.arc.BlockCache;
 import org.dancres.blitz.arc.CacheBlockDescriptor;
+import org.dancres.blitz.arc.ClockCache;
 import org.dancres.blitz.arc.RecoverySummary;
 
 import org.dancres.blitz.txn.TxnDispatcher;
@@ -29,6 +31,7 @@ import org.dancres.blitz.txn.TxnDispatcher;
 import org.dancres.blitz.entry.ci.CacheIndexer;
 
 import org.dancres.blitz.config.CacheSize;
+import org.dancres.blitz.config.ConcurrentCache;
 import org.dancres.blitz.config.Fifo;
 import org.dancres.blitz.config.EntryConstraints;
 
@@ -43,9 +46,11 @@ import org.dancres.blitz.config.ConfigurationFactory;
    demand itself. <P>
 
    Is responsible for indexing and caching of unpacked EntrySleeveImpls. 
-   Implemented using an ArcCache.<P>
+   Implemented using an ArcCache or, where the type is constrained with
+   ConcurrentCache, a ClockCache.<P>
 
    @see org.dancres.blitz.arc.ArcCache
+   @see org.dancres.blitz.arc.ClockCache
 
    @todo One way to split caches down further in the face of concurrency
    demands would be to start maintaining multiple caches scoped or hashed on
@@ -72,7 +77,7 @@ class SleeveCache implements StatGenerator {
         }
     }
 
-    private final ArcCache[] theStoreCaches;
+    private final BlockCache[] theStoreCaches;
     private final CacheSize theCacheSize;
     private final int theNumPartitions;
     private final int thePartitionsMask;
@@ -82,6 +87,11 @@ class SleeveCache implements StatGenerator {
     private EntryConstraints theConstraints;
     private CacheIndexer theIndexer;
 
+    /*
+      Only present for types with the Fifo constraint
+     */
+    private FifoQueue theQueue;
+
     private long theId = StatGenerator.UNSET_ID;
 
     private static class OfferTracker {
@@ -132,7 +142,7 @@ class SleeveCache implements StatGenerator {
         } catch (ConfigurationException aCE) {
             thePartitionsMask = 0;
             theNumPartitions = 0;
-            theStoreCaches = new ArcCache[0];
+            theStoreCaches = new BlockCache[0];
             theLogger.log(Level.SEVERE,
                 "Couldn't load constraints for type " +
                     theStore.getType(), aCE);
@@ -168,10 +178,20 @@ class SleeveCache implements StatGenerator {
                       + theCacheSize.getSize() + " partitions = " + theNumPartitions +
                       " mask = " + Integer.toHexString(thePartitionsMask) + " partition size = " + myEntriesPerCache);
 
-        theStoreCaches = new ArcCache[theNumPartitions];
+        boolean isConcurrent =
+            (theConstraints.get(ConcurrentCache.class) != null);
+
+        if (isConcurrent)
+            theLogger.log(Level.INFO, aStore.getType() +
+                          " using concurrent cache");
+
+        theStoreCaches = new BlockCache[theNumPartitions];
 
         for (int i = 0; i < theNumPartitions; i++) {
-            theStoreCaches[i] = new ArcCache(aStore, myEntriesPerCache);
+            if (isConcurrent)
+                theStoreCaches[i] = new ClockCache(aStore, myEntriesPerCache);
+            else
+                theStoreCaches[i] = new ArcCache(aStore, myEntriesPerCache);
 
             theIndexer = CacheIndexer.getIndexer(theStore.getType());
 
@@ -190,9 +210,92 @@ class SleeveCache implements StatGenerator {
             theCounters = new CountersImpl(theStore.getType(), 0);
         }
 
+        if (theConstraints.get(Fifo.class) != null)
+            loadQueue();
+
         StatsBoard.get().add(this);
     }
 
+    /**
+       Create the FifoQueue which pages its head in from storage, the
+       cache and the CacheIndexer as required.
+     */
+    private void loadQueue() {
+        theQueue = FifoQueue.newQueue(theStore.getType(),
+                                      new FifoQueue.Source() {
+            public TupleLocator[] findAll(MangledEntry aTemplate)
+                throws IOException {
+                return fifoSources(aTemplate);
+            }
+
+            public int[] hashesFor(OID anId) throws IOException {
+                return liveHashes(anId);
+            }
+        });
+    }
+
+    /**
+       @return the locators, each in FIFO order, that between them cover
+       every Entry of a Fifo type which might match the template
+     */
+    private TupleLocator[] fifoSources(MangledEntry aTemplate)
+        throws IOException {
+
+        ArrayList<TupleLocator> myLocators = new ArrayList<TupleLocator>();
+
+        TupleLocator myLocator = theStore.find(aTemplate);
+
+        if (myLocator != null)
+            myLocators.add(myLocator);
+
+        myLocator = theStore.findCached(aTemplate);
+
+        if (myLocator != null)
+            myLocators.add(myLocator);
+
+        myLocator = theIndexer.find(aTemplate);
+
+        if (myLocator != null)
+            myLocators.add(myLocator);
+
+        return myLocators.toArray(new TupleLocator[myLocators.size()]);
+    }
+
+    /**
+       Storage is consulted first as it can supply the hashcodes without
+       loading the Entry through the cache.  If it doesn't hold the Entry,
+       it can only be a new one that's still in the cache (and finding it
+       there won't cause a load).  A deleted Entry that storage still holds
+       may be reported as live, it's removed from the FifoQueue when a
+       search finds it deleted.
+
+       @return the field hashcodes of the Entry if it's present and not
+       deleted, <code>null</code> otherwise
+     */
+    private int[] liveHashes(OID anId) throws IOException {
+        int[] myHashes = theStore.getHashCodes(anId);
+
+        if (myHashes != null)
+            return myHashes;
+
+        CacheBlockDescriptor myCBD =
+            theStoreCaches[getPartition(anId)].find(anId);
+
+        if (myCBD == null)
+            return null;
+
+        try {
+            EntrySleeveImpl mySleeve = (EntrySleeveImpl) myCBD.getContent();
+
+            if (mySleeve.getState().test(SleeveState.DELETED))
+                return null;
+
+            return mySleeve.getPersistentRep().getFieldHashes();
+        } finally {
+            myCBD.release();
+        }
+    }
+
     public void setId(long anId) {
         theId = anId;
     }
@@ -244,12 +347,29 @@ class SleeveCache implements StatGenerator {
     }
 
     CacheBlockDescriptor add(EntrySleeveImpl aSleeve) throws IOException {
-        return theStoreCaches[getPartition(aSleeve)].insert(aSleeve);
+        CacheBlockDescriptor myCBD =
+            theStoreCaches[getPartition(aSleeve)].insert(aSleeve);
+
+        if (theQueue != null)
+            theQueue.add(aSleeve.getOID(), aSleeve.getEntry());
+
+        return myCBD;
     }
 
+    /**
+       If the recovered Entry is subsequently deleted by recovery, it'll be
+       removed from the FifoQueue (if any) by the first search to find it
+       deleted.
+     */
     RecoverySummary recover(EntrySleeveImpl aSleeve)
         throws IOException {
-        return theStoreCaches[getPartition(aSleeve)].recover(aSleeve);
+        RecoverySummary mySummary =
+            theStoreCaches[getPartition(aSleeve)].recover(aSleeve);
+
+        if (theQueue != null)
+            theQueue.add(aSleeve.getOID(), aSleeve.getEntry());
+
+        return mySummary;
     }
 
     boolean renew(OID aOID, long anExpiry) throws IOException {
@@ -330,6 +450,9 @@ class SleeveCache implements StatGenerator {
         CacheBlockDescriptor myCBD = theStoreCaches[getPartition(mySleeve)].insert(mySleeve);
         myCBD.release();
 
+        if (theQueue != null)
+            theQueue.add(myID, anEntry);
+
         if (theLogger.isLoggable(Level.FINE))
             theLogger.log(Level.FINE, "Unwritten: " + mySleeve.getOID());
     }
@@ -344,49 +467,23 @@ class SleeveCache implements StatGenerator {
     }
 
     /**
-       <p>If we're in FIFO mode, we know that each TupleLocator is sorted into
-       FIFO order.  Thus we can merge across all locators on the fly
-       and obtain a fully ordered, non-duplicate set of tuple id's for
-       matching using a simply algorithm.</p>
-
-       <p>By sorting across all locators and applying global FIFO order
-       we can maximize use of the cache and avoid excessive disk hits if
-       we have sufficient of the FIFO ordering in cache.  Thus we get
-       graceful degradation rather than consulting disk for the definitive
-       ordering regardless.</p>
+       <p>If we're in FIFO mode, the FifoQueue holds the OIDs of the oldest
+       Entry's in FIFO order so we needn't consult storage or the
+       CacheIndexer to establish the ordering.  Anything beyond the head of
+       the queue is merged in from storage only if the search gets that
+       far.</p>
      */
     private void fifoFind(MangledEntry anEntry, SearchVisitor aVisitor)
         throws IOException {
 
         long mySearchStart = System.currentTimeMillis();
 
-        ArrayList myLocators = new ArrayList();
+        TupleLocator myLocator = theQueue.find(anEntry);
 
-        TupleLocator myLocator = theStore.find(anEntry);
-
-        if (myLocator != null)
-            myLocators.add(myLocator);
-
-        myLocator = theStore.findCached(anEntry);
-
-        if (myLocator != null)
-            myLocators.add(myLocator);
-
-        myLocator = theIndexer.find(anEntry);
-
-        if (myLocator != null)
-            myLocators.add(myLocator);
-
-        if (myLocators.size() == 0)
+        if (myLocator == null)
             return;
 
-        TupleLocator[] mySortedSources = new TupleLocator[myLocators.size()];
-
-        mySortedSources = (TupleLocator[]) myLocators.toArray(mySortedSources);
-
-        myLocator = new SortingLocator(mySortedSources);
-
-        offerAndReleaseLocator(myLocator, aVisitor, mySearchStart,
+        offerAndReleaseLocator(myLocator, anEntry, aVisitor, mySearchStart,
             theTrackers[CACHED_TRACKER]);
     }
 
@@ -415,7 +512,7 @@ class SleeveCache implements StatGenerator {
             theLogger.log(Level.FINE, "Searching[cache]: " + myLocator);
 
         if (myLocator != null) {
-            if (offerAndReleaseLocator(myLocator, aVisitor, mySearchStart,
+            if (offerAndReleaseLocator(myLocator, anEntry, aVisitor, mySearchStart,
                 theTrackers[CACHED_TRACKER])) {
                 /*
                   System.err.println("Cache search time: " +
@@ -432,7 +529,7 @@ class SleeveCache implements StatGenerator {
         myLocator = theStore.findCached(anEntry);
 
         if (myLocator != null) {
-            if (offerAndReleaseLocator(myLocator, aVisitor, mySearchStart,
+            if (offerAndReleaseLocator(myLocator, anEntry, aVisitor, mySearchStart,
                 theTrackers[DIRTY_TRACKER]))
                 return;
         }
@@ -445,7 +542,7 @@ class SleeveCache implements StatGenerator {
             return;
         }
 
-        offerAndReleaseLocator(myLocator, aVisitor, mySearchStart,
+        offerAndReleaseLocator(myLocator, anEntry, aVisitor, mySearchStart,
             theTrackers[STORAGE_TRACKER]);
     }
 
@@ -548,13 +645,14 @@ class SleeveCache implements StatGenerator {
     }
 
     private boolean offerAndReleaseLocator(TupleLocator aLocator,
+                                           MangledEntry aTemplate,
                                            SearchVisitor aVisitor,
                                            long aStartTime,
                                            OfferTracker aTracker)
         throws IOException {
 
         try {
-            return offer(aLocator, aVisitor, aStartTime, aTracker);
+            return offer(aLocator, aTemplate, aVisitor, aStartTime, aTracker);
         } finally {
             aLocator.release();
         }
@@ -565,8 +663,9 @@ class SleeveCache implements StatGenerator {
        <code>false</code> indicates that the search should continue if there
        are other sources of offers.
      */
-    private boolean offer(TupleLocator aLocator, SearchVisitor aVisitor,
-                          long aStartTime, OfferTracker aTracker)
+    private boolean offer(TupleLocator aLocator, MangledEntry aTemplate,
+                          SearchVisitor aVisitor, long aStartTime,
+                          OfferTracker aTracker)
         throws IOException {
 
         int myVisitorResponse = SearchVisitor.TRY_AGAIN;
@@ -599,8 +698,14 @@ class SleeveCache implements StatGenerator {
                             // Update stats
                             theCounters.didPurge();
                         }
-                    } else {
-
+                    } else if ((! mySleeve.isPacked()) ||
+                               (mySleeve.matches(aTemplate))) {
+                        /*
+                          Visitors do their own matching.  If the Entry is
+                          still packed, checking it here first means we
+                          needn't unpack an Entry that will only be
+                          rejected.  Otherwise we'd be matching twice.
+                         */
                         OpInfo myInfo =
                             new FindEntryOpInfo(myType, mySleeve.getOID(),
                                 isDeletion);
@@ -613,6 +718,9 @@ class SleeveCache implements StatGenerator {
                     }
                 } else {
                     aTracker.incDeld();;
+
+                    if (theQueue != null)
+                        FifoQueue.deleted(myType, myId);
                 }
 
                 myCBD.release();
@@ -641,6 +749,9 @@ class SleeveCache implements StatGenerator {
     void deleteAll() throws IOException {
         theCounters.destroy();
 
+        if (theQueue != null)
+            theQueue.clear();
+
         /*
           Basic approach is to send the template to the CacheIndexer and
           ask it to return suitable IDs which we will then pin and try.
@@ -51,6 +51,12 @@ public interface Storage extends BackingStore {
 
     public void close() throws IOException;
 
+    /**
+       Save any in-memory state required to avoid recomputation at restart.
+       Invoked at checkpoint.
+     */
+    public void sync() throws IOException;
+
     /**
        Storage instances support the concepts of:
 
@@ -82,6 +88,15 @@ public interface Storage extends BackingStore {
      */
     public TupleLocator find(MangledEntry anEntry) throws IOException;
 
+    /**
+       Read the field hashcodes of an Entry as held by storage without
+       loading it into the cache or unpacking it.
+
+       @return the hashcodes or <code>null</code> if storage doesn't hold
+       the Entry or knows it to be deleted.
+     */
+    public int[] getHashCodes(OID anId) throws IOException;
+
     /**
        Tells this Repository about a subtype which has just been created
        and would need to be searched if this type were the specified template.
@@ -1,9 +1,13 @@
 package org.dancres.blitz.entry;
 
+import org.dancres.blitz.disk.Disk;
+
 class StorageFactory {
     static Storage getStorage(String aType) {
         if (aType.equals(EntryRepository.ROOT_TYPE))
             return new RootStorage();
+        else if (Disk.isTransient())
+            return new TransientStorage(aType);
         else
             return new EntryStorage(aType);
     }
@@ -0,0 +1,608 @@
+package org.dancres.blitz.entry;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.util.logging.Level;
+
+import net.jini.config.ConfigurationException;
+
+import org.dancres.blitz.mangler.MangledField;
+import org.dancres.blitz.mangler.MangledEntry;
+
+import org.dancres.blitz.entry.ci.CacheIndexer;
+
+import org.dancres.blitz.oid.OID;
+import org.dancres.blitz.oid.OIDFactory;
+
+import org.dancres.blitz.cache.Identifiable;
+import org.dancres.blitz.cache.Identifier;
+
+import org.dancres.blitz.config.Fifo;
+import org.dancres.blitz.config.Indexes;
+import org.dancres.blitz.config.EntryConstraints;
+
+import org.dancres.blitz.stats.StatsBoard;
+import org.dancres.blitz.stats.FieldsStat;
+
+/**
+   <p>Storage for Entry instances of a particular type when running with the
+   <code>Transient</code> storage model.  Nothing survives a restart so
+   rather than pushing evicted sleeves through the WriteBuffer into a
+   database we hold everything in memory.</p>
+
+   <p>Entry's are held in a concurrent map keyed by OID.  Sleeves flushed
+   from the cache are applied to the map synchronously, there's no write
+   behind.  Indexes are hash tables from field hashcode(s) to OIDs and are
+   chosen in the same way as for EntryStorage, one per field unless the type
+   has an <code>Indexes</code> constraint.  Leases are tracked in an
+   ExpiryIndex.  Whether the stored Entry's are held on or off heap is
+   determined by <code>entryPayloadsOffHeap</code> as per the cache.</p>
+
+   @see org.dancres.blitz.entry.EntryStorage
+   @see org.dancres.blitz.config.Transient
+ */
+class TransientStorage implements Storage {
+    private String theType;
+
+    private ConcurrentHashMap<OID, PersistentEntry> theEntries =
+        new ConcurrentHashMap<OID, PersistentEntry>();
+
+    /*
+      Sleeves which were flushed from the cache whilst pinned, they must be
+      handed back on the next load as the pinning thread may yet change them.
+     */
+    private Map<OID, EntrySleeveImpl> thePinned =
+        new HashMap<OID, EntrySleeveImpl>();
+
+    private ArrayList theSubtypes = new ArrayList();
+    private Set<String> theCurrentSubtypes = new HashSet<String>();
+
+    private HashIndex[] theIndexes;
+
+    private boolean noSchemaDefined = true;
+
+    private boolean isFifo;
+
+    private AtomicLong theNextId = new AtomicLong();
+
+    private volatile ExpiryIndex theExpiries = new ExpiryIndex();
+
+    private EntryConstraints theConstraints;
+
+    TransientStorage(String aType) {
+        theType = aType;
+    }
+
+    public String getType() {
+        return theType;
+    }
+
+    public String getName() {
+        return theType;
+    }
+
+    /**
+       Used for debug purposes
+     */
+    public String toString() {
+        return theType;
+    }
+
+    public TupleLocator findCached(MangledEntry anEntry) {
+        return null;
+    }
+
+    /**
+       As nothing survives a restart, a type exists only if it's been
+       created during this run in which case EntryRepositoryFactory will
+       already hold it.
+     */
+    public boolean init(boolean mustExist) throws IOException {
+        if (mustExist)
+            return false;
+
+        try {
+            theConstraints = EntryConstraints.getConstraints(theType);
+        } catch (ConfigurationException aCE) {
+            IOException myIOE = new IOException("Failed to load constraints");
+            myIOE.initCause(aCE);
+            throw myIOE;
+        }
+
+        isFifo = (theConstraints.get(Fifo.class) != null);
+
+        CacheIndexer.newIndexer(theType, theConstraints);
+
+        return true;
+    }
+
+    public int getNumEntries() throws IOException {
+        return theEntries.size();
+    }
+
+    public synchronized void addSubtype(String aType) throws IOException {
+        if (! theSubtypes.contains(aType)) {
+            theSubtypes.add(aType);
+            theCurrentSubtypes = new HashSet<String>(theSubtypes);
+        }
+    }
+
+    public synchronized Set<String> getSubtypes() {
+        return theCurrentSubtypes;
+    }
+
+    public synchronized void setFields(MangledField[] aSetOfFields)
+        throws IOException {
+
+        // See EntryStorage.setFields
+        if (noSchemaDefined == false)
+            return;
+
+        ArrayList myFields = new ArrayList();
+
+        for (int i = 0; i < aSetOfFields.length; i++) {
+            myFields.add(aSetOfFields[i].getName());
+        }
+
+        Indexes myDeclared = (Indexes) theConstraints.get(Indexes.class);
+
+        if (myDeclared == null) {
+            theIndexes = new HashIndex[aSetOfFields.length];
+
+            for (int i = 0; i < aSetOfFields.length; i++) {
+                theIndexes[i] = new HashIndex(new int[] {i});
+            }
+        } else {
+            theIndexes = newIndexes(myDeclared, myFields);
+        }
+
+        noSchemaDefined = false;
+
+        StatsBoard.get().add(new FieldsStat(theType, myFields));
+    }
+
+    /**
+       Create the indexes declared by an Indexes constraint, ignoring (with
+       a warning) any which refer to fields the type doesn't have.
+     */
+    private HashIndex[] newIndexes(Indexes aDeclared, ArrayList aFields) {
+        ArrayList myIndexes = new ArrayList();
+        String[] myDeclared = aDeclared.getIndexes();
+
+        for (int i = 0; i < myDeclared.length; i++) {
+            String[] myNames = Indexes.getFieldNames(myDeclared[i]);
+            int[] myOffsets = new int[myNames.length];
+
+            for (int j = 0; j < myNames.length; j++) {
+                myOffsets[j] = aFields.indexOf(myNames[j]);
+
+                if (myOffsets[j] == -1) {
+                    myOffsets = null;
+                    break;
+                }
+            }
+
+            if (myOffsets == null) {
+                EntryStorage.theLogger.log(Level.WARNING, "Ignoring index: " +
+                              myDeclared[i] + " no such field in " + theType);
+                continue;
+            }
+
+            myIndexes.add(new HashIndex(myOffsets));
+        }
+
+        HashIndex[] myResult = new HashIndex[myIndexes.size()];
+        return (HashIndex[]) myIndexes.toArray(myResult);
+    }
+
+    private synchronized HashIndex[] getIndexes() {
+        return theIndexes;
+    }
+
+    public synchronized boolean noSchemaDefined() {
+        return noSchemaDefined;
+    }
+
+    public void close() throws IOException {
+        // Nothing to do
+    }
+
+    public void sync() throws IOException {
+        // Nothing to do
+    }
+
+    public void delete() throws IOException {
+        theEntries.clear();
+
+        synchronized(thePinned) {
+            thePinned.clear();
+        }
+
+        theExpiries = new ExpiryIndex();
+
+        HashIndex[] myIndexes = getIndexes();
+
+        if (myIndexes != null) {
+            for (int i = 0; i < myIndexes.length; i++) {
+                myIndexes[i].clear();
+            }
+        }
+    }
+
+    public OID getNextId() throws IOException {
+        return OIDFactory.newOID(0, theNextId.incrementAndGet());
+    }
+
+    public void bringOutTheDead(EntryReaper aReaper) throws IOException {
+        TupleLocator myExpired =
+            theExpiries.getExpired(System.currentTimeMillis());
+
+        try {
+            aReaper.clean(myExpired);
+        } finally {
+            myExpired.release();
+        }
+    }
+
+    /* *******************************************************************
+     * BackingStore impl
+     * *******************************************************************/
+
+    /**
+       Applies the same rules as WriteScheduler and WriteBuffer but
+       synchronously against memory.
+     */
+    public void save(Identifiable anIdentifiable) throws IOException {
+        EntrySleeveImpl mySleeve = (EntrySleeveImpl) anIdentifiable;
+
+        if (mySleeve == null)
+            return;
+
+        SleeveState myState = mySleeve.getState();
+        OID myId = mySleeve.getOID();
+
+        if (myState.test(SleeveState.PINNED)) {
+            synchronized(thePinned) {
+                thePinned.put(myId, mySleeve);
+            }
+
+            return;
+        }
+
+        if (! mySleeve.isDirty())
+            return;
+
+        PersistentEntry myEntry = mySleeve.getPersistentRep();
+
+        /*
+          As for WriteScheduler and theTransients, the sleeve must leave
+          thePinned and theEntries must change atomically with respect to
+          load or it could see neither.
+         */
+        synchronized(thePinned) {
+            thePinned.remove(myId);
+
+            if (myState.test(SleeveState.DELETED)) {
+                if (! myState.test(SleeveState.NOT_ON_DISK))
+                    delete(myEntry);
+            } else if (myState.test(SleeveState.NOT_ON_DISK)) {
+                write(myEntry.duplicate());
+            } else {
+                update(myEntry.duplicate());
+            }
+        }
+
+        /*
+          Now we hold it, the CacheIndexer needn't, see WriteBuffer.update
+         */
+        if ((! myState.test(SleeveState.DELETED)) &&
+            (myState.test(SleeveState.NOT_ON_DISK)))
+            CacheIndexer.getIndexer(theType).flushed(mySleeve);
+
+        myState.clear(SleeveState.NOT_ON_DISK);
+        mySleeve.clearDirty();
+    }
+
+    public Identifiable load(Identifier anId) throws IOException {
+        synchronized(thePinned) {
+            EntrySleeveImpl mySleeve = thePinned.get(anId);
+
+            if (mySleeve != null)
+                return mySleeve;
+        }
+
+        PersistentEntry myEntry = theEntries.get(anId);
+
+        if (myEntry == null)
+            return null;
+
+        // The cache will modify the expiry, don't let it touch our copy
+        return new EntrySleeveImpl(myEntry.duplicate());
+    }
+
+    public int[] getHashCodes(OID anId) throws IOException {
+        synchronized(thePinned) {
+            EntrySleeveImpl mySleeve = thePinned.get(anId);
+
+            if (mySleeve != null)
+                return (mySleeve.isDeleted()) ? null :
+                    mySleeve.getPersistentRep().getFieldHashes();
+        }
+
+        PersistentEntry myEntry = theEntries.get(anId);
+
+        return (myEntry == null) ? null : myEntry.getFieldHashes();
+    }
+
+    private void write(PersistentEntry anEntry) {
+        OID myId = anEntry.getOID();
+        MangledField[] myKeys = anEntry.getEntry().getFields();
+
+        if (EntryStorage.theLogger.isLoggable(Level.FINEST))
+            EntryStorage.theLogger.log(Level.FINEST, "Twrite: " + myId);
+
+        theEntries.put(myId, anEntry);
+        theExpiries.add(myId, anEntry.getExpiry());
+
+        HashIndex[] myIndexes = getIndexes();
+
+        for (int i = 0; i < myIndexes.length; i++) {
+            myIndexes[i].index(myId, myKeys);
+        }
+    }
+
+    private void update(PersistentEntry anEntry) {
+        OID myId = anEntry.getOID();
+
+        if (EntryStorage.theLogger.isLoggable(Level.FINEST))
+            EntryStorage.theLogger.log(Level.FINEST, "Tupdate: " + myId);
+
+        // Only the expiry can have changed, indexes stand
+        theEntries.put(myId, anEntry);
+        theExpiries.add(myId, anEntry.getExpiry());
+    }
+
+    private void delete(PersistentEntry anEntry) {
+        OID myId = anEntry.getOID();
+        MangledField[] myKeys = anEntry.getEntry().getFields();
+
+        if (EntryStorage.theLogger.isLoggable(Level.FINEST))
+            EntryStorage.theLogger.log(Level.FINEST, "Tdelete: " + myId);
+
+        theExpiries.remove(myId);
+
+        HashIndex[] myIndexes = getIndexes();
+
+        for (int i = 0; i < myIndexes.length; i++) {
+            myIndexes[i].unIndex(myId, myKeys);
+        }
+
+        theEntries.remove(myId);
+    }
+
+    /* *********************************************************************
+       Search code starts here
+    *********************************************************************/
+
+    /**
+       As for EntryStorage, matches are speculative and must be checked by
+       the caller.
+     */
+    public TupleLocator find(MangledEntry anEntry) throws IOException {
+        if (noSchemaDefined())
+            return null;
+
+        if ((anEntry == null) || (anEntry.isWildcard()))
+            return scan();
+
+        MangledField[] myFields = anEntry.getFields();
+        HashIndex[] myIndexes = getIndexes();
+        OID[] mySmallest = null;
+
+        /*
+          Unlike EntryStorage we can afford to consult each index for the
+          exact size of its result and choose the smallest.
+         */
+        for (int i = 0; i < myIndexes.length; i++) {
+            if (! myIndexes[i].covers(myFields))
+                continue;
+
+            OID[] myMatches = myIndexes[i].get(myFields);
+
+            if (myMatches.length == 0)
+                return null;
+
+            if ((mySmallest == null) || (myMatches.length < mySmallest.length))
+                mySmallest = myMatches;
+        }
+
+        // None of the non-null fields of the template is indexed
+        if (mySmallest == null)
+            return scan();
+
+        return newLocator(mySmallest);
+    }
+
+    /**
+       @return a TupleLocator over every Entry of this type or
+       <code>null</code> if there are none.
+     */
+    private TupleLocator scan() {
+        if (theEntries.isEmpty())
+            return null;
+
+        if (isFifo) {
+            Set<OID> myIds = theEntries.keySet();
+
+            return newLocator(myIds.toArray(new OID[myIds.size()]));
+        } else
+            return new ScanLocatorImpl(theEntries.keySet().iterator());
+    }
+
+    /**
+       SleeveCache expects the locators for a FIFO type to be in FIFO (OID)
+       order
+     */
+    private TupleLocator newLocator(OID[] anOIDs) {
+        if (isFifo)
+            Arrays.sort(anOIDs);
+
+        return new ArrayLocatorImpl(anOIDs);
+    }
+
+    /**
+       Maps the hashcode of one or more fields (as per
+       <code>KeyIndex.hashFor</code>) to the OIDs of the Entry's that have
+       them.
+     */
+    private static class HashIndex {
+        private int[] theOffsets;
+
+        private HashMap<Integer, Set<OID>> theBuckets =
+            new HashMap<Integer, Set<OID>>();
+
+        HashIndex(int[] anOffsets) {
+            theOffsets = anOffsets;
+        }
+
+        /**
+           @see org.dancres.blitz.entry.KeyIndex#covers
+         */
+        boolean covers(MangledField[] aFields) {
+            for (int i = 0; i < theOffsets.length; i++) {
+                if ((theOffsets[i] >= aFields.length) ||
+                    (aFields[theOffsets[i]].isNull()))
+                    return false;
+            }
+
+            return true;
+        }
+
+        /**
+           @see org.dancres.blitz.entry.KeyIndex#hashFor
+         */
+        private Integer hashFor(MangledField[] aFields) {
+            int myHash = 0;
+
+            for (int i = 0; i < theOffsets.length; i++) {
+                myHash = (myHash * 31) + aFields[theOffsets[i]].hashCode();
+            }
+
+            return new Integer(myHash);
+        }
+
+        synchronized void index(OID anId, MangledField[] aFields) {
+            if (! covers(aFields))
+                return;
+
+            Integer myHash = hashFor(aFields);
+            Set<OID> myOIDs = theBuckets.get(myHash);
+
+            if (myOIDs == null) {
+                myOIDs = new HashSet<OID>();
+                theBuckets.put(myHash, myOIDs);
+            }
+
+            myOIDs.add(anId);
+        }
+
+        synchronized void unIndex(OID anId, MangledField[] aFields) {
+            if (! covers(aFields))
+                return;
+
+            Integer myHash = hashFor(aFields);
+            Set<OID> myOIDs = theBuckets.get(myHash);
+
+            if (myOIDs != null) {
+                myOIDs.remove(anId);
+
+                if (myOIDs.isEmpty())
+                    theBuckets.remove(myHash);
+            }
+        }
+
+        /**
+           @return a snapshot of the OIDs held under the hash of the
+           template's fields which must be covered by this index
+         */
+        synchronized OID[] get(MangledField[] aFields) {
+            Set<OID> myOIDs = theBuckets.get(hashFor(aFields));
+
+            if (myOIDs == null)
+                return new OID[0];
+
+            return myOIDs.toArray(new OID[myOIDs.size()]);
+        }
+
+        synchronized void clear() {
+            theBuckets.clear();
+        }
+    }
+
+    private static class ArrayLocatorImpl implements TupleLocator {
+        private OID[] theOIDs;
+        private int theIndex = -1;
+
+        ArrayLocatorImpl(OID[] anOIDs) {
+            theOIDs = anOIDs;
+        }
+
+        public boolean fetchNext() throws IOException {
+            if (theIndex < theOIDs.length)
+                ++theIndex;
+
+            return (theIndex < theOIDs.length);
+        }
+
+        public OID getOID() {
+            return theOIDs[theIndex];
+        }
+
+        public void release() throws IOException {
+            // Nothing to do
+        }
+    }
+
+    /**
+       Walks the live map, it's weakly consistent so may or may not see
+       changes made during the walk which is fine as all matches are
+       speculative.
+     */
+    private static class ScanLocatorImpl implements TupleLocator {
+        private Iterator<OID> theOIDs;
+        private OID theCurrent;
+
+        ScanLocatorImpl(Iterator<OID> anOIDs) {
+            theOIDs = anOIDs;
+        }
+
+        public boolean fetchNext() throws IOException {
+            if (! theOIDs.hasNext())
+                return false;
+
+            theCurrent = theOIDs.next();
+
+            return true;
+        }
+
+        public OID getOID() {
+            return theCurrent;
+        }
+
+        public void release() throws IOException {
+            // Nothing to do
+        }
+    }
+}
@@ -68,13 +68,6 @@ class WriteBuffer {
                 // Queue exists?
                 if (myUpdates == null) {
 
-                    /*
-                      MULTI-THREAD WRITING:
-
-                      At this point, go to WriteDaemon and ask for a queue
-                      to dispatch to.  Stamp this onto the myUpdates
-                      (which can therefore no longer be a simple ArrayList)
-                     */
                     myUpdates = new ArrayList();
                     theJobInfo.put(myUid, myUpdates);
                 }
@@ -133,16 +126,11 @@ class WriteBuffer {
                     Job myJob = new Job(myUid, this);
 
                     /*
-                      MULTI-THREAD WRITING:
-
-                      Use the queue id gathered from the list of updates
-                      above as an argument to this method.
-
-                      In this way, we can ensure all updates for one
-                      UID are dispatched in the same queue which ensures
+                      Key the job on the UID so that all updates for one
+                      UID are dispatched in the same lane which ensures
                       FIFO ordering.
                      */
-                    WriteDaemon.get().queue(myJob);
+                    WriteDaemon.get().queue(myUid, myJob);
                 }
             }
 
@@ -32,6 +32,23 @@ class WriteEntryOpInfo implements OpInfo {
         theEntry = aSleeve.getEntry();
     }
 
+    /**
+       Used by OpInfoCodec when reading from the log
+     */
+    WriteEntryOpInfo(OID anOID, MangledEntry anEntry, long anInitialExpiry) {
+        theOID = anOID;
+        theEntry = anEntry;
+        theInitialExpiry = anInitialExpiry;
+    }
+
+    MangledEntry getEntry() {
+        return theEntry;
+    }
+
+    long getInitialExpiry() {
+        return theInitialExpiry;
+    }
+
     public boolean isDebugOp() {
         // Write's are never false though they can be aborted
         //
@@ -24,6 +24,7 @@ import org.dancres.blitz.Logging;
 import org.dancres.blitz.config.ConfigurationFactory;
 import org.dancres.blitz.config.EntryConstraints;
 import org.dancres.blitz.config.Fifo;
+import org.dancres.blitz.config.Indexes;
 
 /**
    CacheIndexer is responsible for indexing EntrySleeves held in any
@@ -63,16 +64,17 @@ public abstract class CacheIndexer {
 
         synchronized(_indexers) {
             CacheIndexer myIndexer;
+            Indexes myIndexes = (Indexes) aConstraints.get(Indexes.class);
 
             if (aConstraints.get(Fifo.class) != null) {
                 theLogger.log(Level.INFO, "Using FIFO indexer: " + aType);
-                myIndexer = new FifoIndexer(aType);
+                myIndexer = new FifoIndexer(aType, myIndexes);
             } else if (aConstraints.get(NoIndex.class) != null) {
                 myIndexer = new NullIndexer(aType);
                 theLogger.log(Level.INFO, "Using NULL indexer: " + aType);
             } else {
                 theLogger.log(Level.INFO, "Using HASHMAP indexer: " + aType);
-                myIndexer = new HashMapIndexer(aType);
+                myIndexer = new HashMapIndexer(aType, myIndexes);
             }
 
             _indexers.put(aType, myIndexer);
@@ -2,6 +2,8 @@ package org.dancres.blitz.entry.ci;
 
 import java.util.Set;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import java.util.logging.*;
 
 import org.dancres.blitz.entry.EntrySleeve;
@@ -12,20 +14,36 @@ import org.dancres.blitz.mangler.MangledEntry;
 
 import org.dancres.blitz.cache.Identifiable;
 
+import org.dancres.blitz.config.Indexes;
+
 import org.dancres.blitz.oid.OID;
 
+import org.dancres.blitz.stats.IndexStat;
+import org.dancres.blitz.stats.Stat;
+import org.dancres.blitz.stats.StatGenerator;
+import org.dancres.blitz.stats.StatsBoard;
+
 /**
  * A skeleton implementation of a cache indexer.
  * Requires that the underlying index mechanism can support the CacheLines interface.
+ * Templates with more than one non-null field are resolved by intersecting
+ * the ids held under each field with those of the most selective field.
+ * Effectiveness is reported via an IndexStat.
+ * If the type has an Indexes constraint, only fields which are part of one
+ * of the declared indexes are held in CacheLines, composite indexes being
+ * resolved by the same intersection.
  *
  * @see org.dancres.blitz.entry.ci.CacheLines
+ * @see org.dancres.blitz.stats.IndexStat
  *
 */
-public abstract class CacheIndexerImpl extends CacheIndexer {
+public abstract class CacheIndexerImpl extends CacheIndexer
+    implements StatGenerator {
 
     /**
        Because fields are ordered and always present, even if they are null
-       we don't need to use a HashMap here.
+       we don't need to use a HashMap here.  Fields which aren't indexed
+       have a <code>null</code> entry.
     */
     private CacheLines[] theCacheLines;
 
@@ -40,9 +58,23 @@ public abstract class CacheIndexerImpl extends CacheIndexer {
 
     private String theType;
 
-    CacheIndexerImpl(String aType) {
+    /**
+       Declared indexes or <code>null</code> if all fields are indexed
+     */
+    private Indexes theIndexes;
+
+    private long theId = StatGenerator.UNSET_ID;
+
+    private AtomicLong theSearches = new AtomicLong();
+    private AtomicLong theCandidates = new AtomicLong();
+    private AtomicLong theOffered = new AtomicLong();
+
+    CacheIndexerImpl(String aType, Indexes anIndexes) {
         theType = aType;
+        theIndexes = anIndexes;
         theAllIds = newIds();
+
+        StatsBoard.get().add(this);
     }
 
     abstract Set newIds();
@@ -107,6 +139,9 @@ public abstract class CacheIndexerImpl extends CacheIndexer {
             theLogger.log(Level.SEVERE, "Cachelines size:" +
                           theCacheLines.length);
             for (int i = 0; i < theCacheLines.length; i++) {
+                if (theCacheLines[i] == null)
+                    continue;
+
                 theLogger.log(Level.SEVERE, "Name: " +
                               theCacheLines[i].getName() +
                               " Offset: " + i +
@@ -135,16 +170,7 @@ public abstract class CacheIndexerImpl extends CacheIndexer {
             if (theLogger.isLoggable(Level.FINE))
                 theLogger.log(Level.FINE, "Wildcard match");
 
-            synchronized(theAllIds) {
-                if (theAllIds.size() == 0)
-                    return ArrayLocatorImpl.EMPTY_LOCATOR;
-                else {
-                    OID[] myUids = new OID[theAllIds.size()];
-                    myUids = (OID[]) theAllIds.toArray(myUids);
-
-                    return new ArrayLocatorImpl(myUids);
-                }
-            }
+            return getAllIds();
         } else {
             // Proper indexing effort
             //
@@ -155,6 +181,10 @@ public abstract class CacheIndexerImpl extends CacheIndexer {
             int myChoicesSize = 0;
             int myChoicesOffset = 0;
 
+            // Offsets of all searchable fields, for intersection
+            int[] mySearchable = new int[anEntry.getFields().length];
+            int myNumSearchable = 0;
+
             if ((anEntry.getType().equals(theType)) &&
                     (anEntry.getFields().length != theCacheLines.length))
                     theLogger.log(Level.WARNING, "Possible schema change detected - matching may fail" + theType);
@@ -167,8 +197,8 @@ public abstract class CacheIndexerImpl extends CacheIndexer {
                 if (theLogger.isLoggable(Level.FINE))
                     theLogger.log(Level.FINE, "Consider: " + myField.getName());
 
-                // If field is empty, we can't search on it
-                if (myField.isNull())
+                // If field is empty or not indexed, we can't search on it
+                if ((myField.isNull()) || (getCacheLines(i) == null))
                     continue;
 
                 mySize = getSize(myField, i);
@@ -193,6 +223,8 @@ public abstract class CacheIndexerImpl extends CacheIndexer {
                 if (theLogger.isLoggable(Level.FINE))
                     theLogger.log(Level.FINE, "Available size: " + mySize);
 
+                mySearchable[myNumSearchable++] = i;
+
                 if (myChoice == null) {
                     myChoice = myField;
                     myChoicesSize = mySize;
@@ -207,15 +239,94 @@ public abstract class CacheIndexerImpl extends CacheIndexer {
             }
 
             if (myChoice == null) {
-                return ArrayLocatorImpl.EMPTY_LOCATOR;
+                /*
+                  None of the non-null fields of the template are indexed
+                  so we must offer up everything we have
+                 */
+                if (theLogger.isLoggable(Level.FINE))
+                    theLogger.log(Level.FINE, "No indexed fields");
+
+                return getAllIds();
             } else {
                 if (theLogger.isLoggable(Level.FINE))
                     theLogger.log(Level.FINE, "Chose: " + myChoicesSize +
                                   myChoice.getName());
-                return getIds(myChoice, myChoicesOffset);
+
+                theSearches.incrementAndGet();
+
+                if (myNumSearchable == 1) {
+                    theCandidates.addAndGet(myChoicesSize);
+                    theOffered.addAndGet(myChoicesSize);
+                    return getIds(myChoice, myChoicesOffset);
+                } else {
+                    return intersect(anEntry, myChoice, myChoicesOffset,
+                                     mySearchable, myNumSearchable);
+                }
             }
         }
     }
+
+    /**
+       <p>Filter the ids under the chosen (smallest) field down to those that
+       are also held under the hashcodes of all the other searchable fields
+       of the template.  Anything that fails this test cannot possibly match
+       so there's no point in having SleeveCache pin it and do a full
+       match.</p>
+
+       <p>Filtering is done lazily as SleeveCache walks the locator so a
+       search satisfied by one of the first ids doesn't pay for
+       intersecting the rest.  Order of the chosen field's ids is preserved
+       which is required for FIFO.  As with a single field search, anything
+       indexed whilst we're doing this will be caught as a recent write.</p>
+     */
+    private TupleLocator intersect(MangledEntry anEntry, MangledField aChoice,
+                                   int aChoiceOffset, int[] aSearchable,
+                                   int aNumSearchable) {
+        CacheLines[] myOthers = new CacheLines[aNumSearchable - 1];
+        int[] myHashcodes = new int[aNumSearchable - 1];
+        int myNumOthers = 0;
+
+        for (int i = 0; i < aNumSearchable; i++) {
+            int myOffset = aSearchable[i];
+
+            if (myOffset == aChoiceOffset)
+                continue;
+
+            myOthers[myNumOthers] = getCacheLines(myOffset);
+            myHashcodes[myNumOthers] = anEntry.getField(myOffset).hashCode();
+            ++myNumOthers;
+        }
+
+        return new IntersectingLocator(getIds(aChoice, aChoiceOffset),
+                                       myOthers, myHashcodes, theCandidates,
+                                       theOffered);
+    }
+
+    private TupleLocator getAllIds() {
+        synchronized(theAllIds) {
+            if (theAllIds.size() == 0)
+                return ArrayLocatorImpl.EMPTY_LOCATOR;
+            else {
+                OID[] myUids = new OID[theAllIds.size()];
+                myUids = (OID[]) theAllIds.toArray(myUids);
+
+                return new ArrayLocatorImpl(myUids);
+            }
+        }
+    }
+
+    public void setId(long anId) {
+        theId = anId;
+    }
+
+    public long getId() {
+        return theId;
+    }
+
+    public Stat generate() {
+        return new IndexStat(theId, theType, theSearches.get(),
+                             theCandidates.get(), theOffered.get());
+    }
     
     private TupleLocator getIds(MangledField aField, int anOffset) {
         CacheLines myLine = getCacheLines(anOffset);
@@ -270,7 +381,9 @@ public abstract class CacheIndexerImpl extends CacheIndexer {
                 theCacheLines = newLinesArray(myFields.length);
 
                 for (int i = 0; i < myFields.length; i++) {
-                    theCacheLines[i] = newLines(i, myFields[i].getName());
+                    if ((theIndexes == null) ||
+                        (theIndexes.isIndexed(myFields[i].getName())))
+                        theCacheLines[i] = newLines(i, myFields[i].getName());
                 }
             }
             
@@ -294,7 +407,8 @@ public abstract class CacheIndexerImpl extends CacheIndexer {
 
             if (theAllIds.add(aSleeve.getOID())) {
                 for (int i = 0; i < theCacheLines.length; i++) {
-                    theCacheLines[i].insert(aSleeve);
+                    if (theCacheLines[i] != null)
+                        theCacheLines[i].insert(aSleeve);
                 }
             } else {
                 // System.err.println("Already added");
@@ -310,7 +424,8 @@ public abstract class CacheIndexerImpl extends CacheIndexer {
 
             if (theAllIds.remove(aSleeve.getOID())) {
                 for (int i = 0; i < theCacheLines.length; i++) {
-                    theCacheLines[i].remove(aSleeve);
+                    if (theCacheLines[i] != null)
+                        theCacheLines[i].remove(aSleeve);
                 }
                 /*
                 new RuntimeException(
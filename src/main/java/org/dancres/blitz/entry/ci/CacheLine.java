@@ -41,6 +41,10 @@ class CacheLine {
         theIds.remove(aSleeve.getOID());
     }
 
+    boolean contains(OID anId) {
+        return theIds.contains(anId);
+    }
+
     int getSize() {
         return theIds.size();
     }
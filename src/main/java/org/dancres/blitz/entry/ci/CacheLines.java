@@ -3,10 +3,18 @@ package org.dancres.blitz.entry.ci;
 import org.dancres.blitz.entry.TupleLocator;
 import org.dancres.blitz.entry.EntrySleeve;
 
+import org.dancres.blitz.oid.OID;
+
 public interface CacheLines {
     public String getName();
     public TupleLocator getIds(int aHashcode);
     public int getSize(int aHashcode);
+
+    /**
+       @return <code>true</code> if the id is held under the hashcode
+     */
+    public boolean contains(int aHashcode, OID anId);
+
     public int getSize();
     public void insert(EntrySleeve aSleeve);
     public void remove(EntrySleeve aSleeve);
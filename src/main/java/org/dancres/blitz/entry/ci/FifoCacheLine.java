@@ -42,6 +42,10 @@ class FifoCacheLine {
         theIds.remove(aSleeve.getOID());
     }
 
+    boolean contains(OID anId) {
+        return theIds.contains(anId);
+    }
+
     int getSize() {
         return theIds.size();
     }
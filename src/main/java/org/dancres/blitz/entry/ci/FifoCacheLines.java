@@ -7,6 +7,8 @@ import com.go.trove.util.IntHashMap;
 import org.dancres.blitz.entry.TupleLocator;
 import org.dancres.blitz.entry.EntrySleeve;
 
+import org.dancres.blitz.oid.OID;
+
 /**
    Maintains a set of cache lines (key'd by hashcode) for a particular
    field of one type of Entry.
@@ -50,6 +52,17 @@ class FifoCacheLines implements CacheLines {
         }
     }
 
+    public boolean contains(int aHashcode, OID anId) {
+        FifoCacheLine myEntries = getLine(aHashcode, false);
+
+        if (myEntries == null)
+            return false;
+
+        synchronized(myEntries) {
+            return myEntries.contains(anId);
+        }
+    }
+
     /**
        @return the number of different hashcodes we know about
     */
@@ -16,6 +16,8 @@ import org.dancres.blitz.cache.Identifiable;
 
 import org.dancres.blitz.oid.OID;
 
+import org.dancres.blitz.config.Indexes;
+
 import org.dancres.blitz.Logging;
 
 /**
@@ -33,8 +35,8 @@ import org.dancres.blitz.Logging;
 */
 public class FifoIndexer extends CacheIndexerImpl {
 
-    FifoIndexer(String aType) {
-        super(aType);
+    FifoIndexer(String aType, Indexes anIndexes) {
+        super(aType, anIndexes);
     }
 
     Set newIds() {
@@ -17,13 +17,15 @@ import org.dancres.blitz.cache.Identifiable;
 
 import org.dancres.blitz.oid.OID;
 
+import org.dancres.blitz.config.Indexes;
+
 /**
    Basic simple cache indexer that uses hashmaps
 */
 public class HashMapIndexer extends CacheIndexerImpl {
 
-    HashMapIndexer(String aType) {
-        super(aType);
+    HashMapIndexer(String aType, Indexes anIndexes) {
+        super(aType, anIndexes);
     }
 
     Set newIds() {
@@ -0,0 +1,71 @@
+package org.dancres.blitz.entry.ci;
+
+import java.io.IOException;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dancres.blitz.oid.OID;
+
+import org.dancres.blitz.entry.TupleLocator;
+
+/**
+   Walks the ids of the most selective field of a template, lazily skipping
+   any that aren't also held under the hashcodes of the template's other
+   searchable fields.  Order of the underlying locator is preserved which
+   is required for FIFO.  Used by CacheIndexerImpl.
+ */
+class IntersectingLocator implements TupleLocator {
+    private TupleLocator theIds;
+    private CacheLines[] theOthers;
+    private int[] theHashcodes;
+    private AtomicLong theCandidates;
+    private AtomicLong theOffered;
+
+    /**
+       @param anIds the ids of the most selective field
+       @param anOthers the lines of the other searchable fields
+       @param aHashcodes the template's hashcode for each of
+       <code>anOthers</code>
+       @param aCandidates incremented for each id examined
+       @param anOffered incremented for each id that survives
+     */
+    IntersectingLocator(TupleLocator anIds, CacheLines[] anOthers,
+                        int[] aHashcodes, AtomicLong aCandidates,
+                        AtomicLong anOffered) {
+        theIds = anIds;
+        theOthers = anOthers;
+        theHashcodes = aHashcodes;
+        theCandidates = aCandidates;
+        theOffered = anOffered;
+    }
+
+    public boolean fetchNext() throws IOException {
+        while (theIds.fetchNext()) {
+            theCandidates.incrementAndGet();
+
+            if (heldByOthers(theIds.getOID())) {
+                theOffered.incrementAndGet();
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean heldByOthers(OID anId) {
+        for (int i = 0; i < theOthers.length; i++) {
+            if (! theOthers[i].contains(theHashcodes[i], anId))
+                return false;
+        }
+
+        return true;
+    }
+
+    public OID getOID() {
+        return theIds.getOID();
+    }
+
+    public void release() throws IOException {
+        theIds.release();
+    }
+}
@@ -48,6 +48,22 @@ public class EntryMangler {
 
     private static EntryMangler theMangler = new EntryMangler();
 
+    /**
+       Decides which Entry types are mangled by-reference.  Only useful for
+       clients colocated with the space.
+
+       @see org.dancres.blitz.config.ByReference
+     */
+    public interface ReferencePolicy {
+        public boolean isByReference(String aType);
+    }
+
+    private static volatile ReferencePolicy thePolicy;
+
+    public static void setReferencePolicy(ReferencePolicy aPolicy) {
+        thePolicy = aPolicy;
+    }
+
     public static EntryMangler getMangler() {
         return theMangler;
     }
@@ -71,7 +87,11 @@ public class EntryMangler {
         String myClassName = myEntryClass.getName();
         String myCodebase = RMIClassLoader.getClassAnnotation(myEntryClass);
 
-        MangledField[] myEntryFields = getFields(anEntry);
+        ReferencePolicy myPolicy = thePolicy;
+        boolean byReference = (myPolicy != null) &&
+            myPolicy.isByReference(myClassName);
+
+        MangledField[] myEntryFields = getFields(anEntry, byReference);
         String[] myParents = getParents(myEntryClass);
 
         // Is it wildcard - i.e. all fields are null
@@ -210,7 +230,7 @@ public class EntryMangler {
         }
     }
 
-    private MangledField[] getFields(Entry anEntry) {
+    private MangledField[] getFields(Entry anEntry, boolean byReference) {
         Field[] myFields = getFields(anEntry.getClass());
 
         MangledField[] myValidFields =
@@ -227,7 +247,8 @@ public class EntryMangler {
                         new MangledField(myFieldName);
                 else
                     myValidFields[i] =
-                        new MangledField(myFieldName, myFieldValue);
+                        new MangledField(myFieldName, myFieldValue,
+                                         byReference);
             }
         } catch (IllegalAccessException anIAE) {
             theLogger.log(Level.SEVERE, "Problem accessing field", anIAE);
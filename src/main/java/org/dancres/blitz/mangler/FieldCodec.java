@@ -0,0 +1,336 @@
+package org.dancres.blitz.mangler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.WeakHashMap;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.dancres.io.AnnotatingObjectOutputStream;
+
+/**
+   <p>Produces and reads the serialized form of the common immutable JDK
+   types found in Entry fields (boxed primitives, String, UUID, byte[] and
+   enums) without the cost of an AnnotatingObjectOutputStream or
+   AnnotatingObjectInputStream.  Any other type is left to MangledField's
+   serialization path.</p>
+
+   <p>Matching is done on the hash and bytes of a field so the bytes produced
+   here are exactly those serialization would produce.  Whether a field was
+   mangled by the codec or by serialization, on a client or in the server,
+   makes no difference to its hash or what it matches and previously stored
+   Entry's continue to match.</p>
+
+   <p>For each type, the serialized form is a constant prefix (stream
+   header and class descriptors) followed by the value's fields in the
+   format of <code>DataOutput</code>.  The prefix and annotations are taken
+   from serializing a sample value when the class loads and a second sample
+   is checked against them.  Types that fail the check are left to
+   serialization.  Enum's are serialized once per constant and cached.</p>
+ */
+class FieldCodec {
+    private static final Logger theLogger =
+        Logger.getLogger("org.dancres.blitz.mangler.FieldCodec");
+
+    /**
+       The serialized form of a type up to the value's fields.  The arrays
+       are shared between fields and must never be modified.
+     */
+    private static class Layout {
+        private final Class theType;
+        private final byte[] thePrefix;
+        private final byte[] theAnnotation;
+
+        Layout(Class aType, byte[] aPrefix, byte[] anAnnotation) {
+            theType = aType;
+            thePrefix = aPrefix;
+            theAnnotation = anAnnotation;
+        }
+    }
+
+    private static final Map<Class, Layout> theLayouts =
+        new HashMap<Class, Layout>();
+
+    private static final Map<Enum, byte[][]> theEnums =
+        new WeakHashMap<Enum, byte[][]>();
+
+    static {
+        addLayout("a", "\u0000\u20ac");
+        addLayout(new Integer(1), new Integer(-2));
+        addLayout(new Long(1), new Long(Long.MIN_VALUE));
+        addLayout(new Short((short) 1), new Short((short) -2));
+        addLayout(new Byte((byte) 1), new Byte((byte) -2));
+        addLayout(new Character('a'), new Character('\u20ac'));
+        addLayout(Boolean.TRUE, Boolean.FALSE);
+        addLayout(new Float(1.5f), new Float(Float.NaN));
+        addLayout(new Double(1.5d), new Double(Double.NaN));
+        addLayout(new UUID(1, 2), new UUID(-1, Long.MAX_VALUE));
+        addLayout(new byte[] {1}, new byte[] {-1, 0, 2});
+    }
+
+    /**
+       Derive the layout for a type from one sample and check it against
+       another.
+     */
+    private static void addLayout(Object aSample, Object aCheck) {
+        Class myType = aSample.getClass();
+
+        try {
+            byte[][] mySample = serialize(aSample);
+            byte[] myTail = tail(aSample);
+            int myPrefixLength = mySample[0].length - myTail.length;
+
+            if ((myPrefixLength > 0) && endsWith(mySample[0], myTail)) {
+                byte[] myPrefix = new byte[myPrefixLength];
+                System.arraycopy(mySample[0], 0, myPrefix, 0, myPrefixLength);
+
+                Layout myLayout = new Layout(myType, myPrefix, mySample[1]);
+                byte[][] myCheck = serialize(aCheck);
+                byte[][] myEncoded = encode(myLayout, aCheck);
+
+                if ((Arrays.equals(myCheck[0], myEncoded[0])) &&
+                    (Arrays.equals(myCheck[1], myEncoded[1])) &&
+                    (aCheck.getClass() == myType)) {
+                    theLayouts.put(myType, myLayout);
+                    return;
+                }
+            }
+        } catch (IOException anIOE) {
+            theLogger.log(Level.FINE, "Layout failed for: " + myType, anIOE);
+        }
+
+        theLogger.log(Level.WARNING, "Serialized form of " + myType.getName() +
+                      " isn't as expected, it won't use the field codec");
+    }
+
+    /**
+       @return the object and annotation bytes serialization would produce
+       for the passed object or <code>null</code> if it's not a type we
+       handle.
+     */
+    static byte[][] encode(Object anObject) throws IOException {
+        if (anObject instanceof Enum)
+            return encodeEnum((Enum) anObject);
+
+        Layout myLayout = theLayouts.get(anObject.getClass());
+
+        if (myLayout == null)
+            return null;
+
+        return encode(myLayout, anObject);
+    }
+
+    private static byte[][] encode(Layout aLayout, Object anObject)
+        throws IOException {
+
+        byte[] myTail = tail(anObject);
+
+        // Too long for the short string form
+        if (myTail == null)
+            return null;
+
+        byte[] myResult = new byte[aLayout.thePrefix.length + myTail.length];
+
+        System.arraycopy(aLayout.thePrefix, 0, myResult, 0,
+                         aLayout.thePrefix.length);
+        System.arraycopy(myTail, 0, myResult, aLayout.thePrefix.length,
+                         myTail.length);
+
+        return new byte[][] {myResult, aLayout.theAnnotation};
+    }
+
+    /**
+       Enum's are serialized by class and constant name so there are only
+       ever as many encodings as constants.
+     */
+    private static byte[][] encodeEnum(Enum anEnum) throws IOException {
+        byte[][] myResult;
+
+        synchronized(theEnums) {
+            myResult = theEnums.get(anEnum);
+        }
+
+        if (myResult == null) {
+            myResult = serialize(anEnum);
+
+            synchronized(theEnums) {
+                theEnums.put(anEnum, myResult);
+            }
+        }
+
+        return myResult;
+    }
+
+    /**
+       @return the value held in the serialized bytes or <code>null</code>
+       if they're not of a form we handle (including enums which require
+       class loading).
+     */
+    static Object decode(byte[] aBytes) throws IOException {
+        for (Layout myLayout : theLayouts.values()) {
+            if (startsWith(aBytes, myLayout.thePrefix))
+                return decode(myLayout, aBytes);
+        }
+
+        return null;
+    }
+
+    private static Object decode(Layout aLayout, byte[] aBytes)
+        throws IOException {
+
+        int myOffset = aLayout.thePrefix.length;
+        int myLength = aBytes.length - myOffset;
+        Class myType = aLayout.theType;
+
+        DataInputStream myIn =
+            new DataInputStream(
+                new ByteArrayInputStream(aBytes, myOffset, myLength));
+
+        Object myResult;
+
+        if (myType == String.class) {
+            myResult = myIn.readUTF();
+        } else if (myType == Integer.class) {
+            myResult = new Integer(myIn.readInt());
+        } else if (myType == Long.class) {
+            myResult = new Long(myIn.readLong());
+        } else if (myType == Short.class) {
+            myResult = new Short(myIn.readShort());
+        } else if (myType == Byte.class) {
+            myResult = new Byte(myIn.readByte());
+        } else if (myType == Character.class) {
+            myResult = new Character(myIn.readChar());
+        } else if (myType == Boolean.class) {
+            myResult = Boolean.valueOf(myIn.readBoolean());
+        } else if (myType == Float.class) {
+            myResult = new Float(myIn.readFloat());
+        } else if (myType == Double.class) {
+            myResult = new Double(myIn.readDouble());
+        } else if (myType == UUID.class) {
+            long myLeast = myIn.readLong();
+
+            myResult = new UUID(myIn.readLong(), myLeast);
+        } else if (myType == byte[].class) {
+            int myArrayLength = myIn.readInt();
+
+            if ((myArrayLength < 0) || (myArrayLength > myIn.available()))
+                return null;
+
+            byte[] myArray = new byte[myArrayLength];
+            myIn.readFully(myArray);
+
+            myResult = myArray;
+        } else
+            return null;
+
+        // Trailing bytes mean this isn't one of ours, leave to serialization
+        if (myIn.available() != 0)
+            return null;
+
+        return myResult;
+    }
+
+    /**
+       @return the value's fields as serialization writes them or
+       <code>null</code> if the value can't be handled.
+     */
+    private static byte[] tail(Object anObject) throws IOException {
+        ByteArrayOutputStream myBytes = new ByteArrayOutputStream(16);
+        DataOutputStream myOut = new DataOutputStream(myBytes);
+        Class myType = anObject.getClass();
+
+        if (myType == String.class) {
+            try {
+                myOut.writeUTF((String) anObject);
+            } catch (UTFDataFormatException aUDFE) {
+                return null;
+            }
+        } else if (myType == Integer.class) {
+            myOut.writeInt(((Integer) anObject).intValue());
+        } else if (myType == Long.class) {
+            myOut.writeLong(((Long) anObject).longValue());
+        } else if (myType == Short.class) {
+            myOut.writeShort(((Short) anObject).shortValue());
+        } else if (myType == Byte.class) {
+            myOut.writeByte(((Byte) anObject).byteValue());
+        } else if (myType == Character.class) {
+            myOut.writeChar(((Character) anObject).charValue());
+        } else if (myType == Boolean.class) {
+            myOut.writeBoolean(((Boolean) anObject).booleanValue());
+        } else if (myType == Float.class) {
+            myOut.writeFloat(((Float) anObject).floatValue());
+        } else if (myType == Double.class) {
+            myOut.writeDouble(((Double) anObject).doubleValue());
+        } else if (myType == UUID.class) {
+            // Serialization orders primitive fields by name
+            UUID myUUID = (UUID) anObject;
+
+            myOut.writeLong(myUUID.getLeastSignificantBits());
+            myOut.writeLong(myUUID.getMostSignificantBits());
+        } else if (myType == byte[].class) {
+            byte[] myArray = (byte[]) anObject;
+
+            myOut.writeInt(myArray.length);
+            myOut.write(myArray);
+        } else
+            return null;
+
+        myOut.flush();
+
+        return myBytes.toByteArray();
+    }
+
+    /**
+       @return object and annotation bytes as produced by MangledField's
+       serialization path.
+     */
+    static byte[][] serialize(Object anObject) throws IOException {
+        ByteArrayOutputStream myObjectBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream myAnnotBytes = new ByteArrayOutputStream();
+
+        AnnotatingObjectOutputStream myStream =
+            new AnnotatingObjectOutputStream(myObjectBytes, myAnnotBytes);
+
+        myStream.writeObject(anObject);
+        myStream.close();
+
+        return new byte[][] {myObjectBytes.toByteArray(),
+                             myAnnotBytes.toByteArray()};
+    }
+
+    private static boolean startsWith(byte[] aBytes, byte[] aPrefix) {
+        if (aBytes.length < aPrefix.length)
+            return false;
+
+        for (int i = 0; i < aPrefix.length; i++) {
+            if (aBytes[i] != aPrefix[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    private static boolean endsWith(byte[] aBytes, byte[] aSuffix) {
+        int myOffset = aBytes.length - aSuffix.length;
+
+        if (myOffset < 0)
+            return false;
+
+        for (int i = 0; i < aSuffix.length; i++) {
+            if (aBytes[myOffset + i] != aSuffix[i])
+                return false;
+        }
+
+        return true;
+    }
+}
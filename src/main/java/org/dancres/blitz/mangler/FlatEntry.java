@@ -0,0 +1,274 @@
+package org.dancres.blitz.mangler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.dancres.util.BytePacker;
+
+/**
+   <p>A versioned, flat binary layout for MangledEntry's held on disk.
+   Unlike the serialized form, a template can be matched directly against
+   the bytes without unpacking the Entry and the Entry need only be
+   materialized when it's handed to a client.</p>
+
+   <p>Layout (all integers are big-endian, all offsets are from the start of
+   the flattened form):</p>
+
+   <pre>
+   format(1) version(1) flags(1) field count(4) metadata length(4)
+   offset table: field count * [content offset(4) content length(4)
+                                annotation length(4)]
+   hash array: field count * hash(4)
+   metadata: type, codebase, parent count, parents, field names (UTF)
+   field bytes: content followed by annotation for each field
+   </pre>
+
+   <p>The first byte can never be mistaken for the start of a serialization
+   stream (0xACED) allowing storage to tell the two formats apart.</p>
+ */
+public class FlatEntry {
+    private static final byte FORMAT = 0x01;
+    private static final byte VERSION = 1;
+
+    private static final int WILDCARD_FLAG = 1;
+    private static final int SNAPSHOT_FLAG = 2;
+
+    private static final int FLAGS_OFFSET = 2;
+    private static final int COUNT_OFFSET = 3;
+    private static final int METADATA_LENGTH_OFFSET = 7;
+    private static final int HEADER_LENGTH = 11;
+
+    private static final int OFFSET_ENTRY_LENGTH = 12;
+
+    /**
+       @return <code>true</code> if the bytes at the specified offset are
+       a flattened MangledEntry.
+     */
+    public static boolean isFlat(byte[] aBytes, int anOffset) {
+        return ((aBytes.length > anOffset + 1) &&
+                (aBytes[anOffset] == FORMAT) &&
+                (aBytes[anOffset + 1] == VERSION));
+    }
+
+    public static byte[] flatten(MangledEntry anEntry) throws IOException {
+        MangledField[] myFields = anEntry.getFields();
+        String[] myParents = anEntry.tearOffParents();
+
+        ByteArrayOutputStream myMetadata = new ByteArrayOutputStream();
+        DataOutputStream myStream = new DataOutputStream(myMetadata);
+
+        myStream.writeUTF(anEntry.getType());
+        myStream.writeUTF((anEntry.getCodebase() == null) ? "" :
+                          anEntry.getCodebase());
+        myStream.writeInt(myParents.length);
+
+        for (int i = 0; i < myParents.length; i++) {
+            myStream.writeUTF(myParents[i]);
+        }
+
+        for (int i = 0; i < myFields.length; i++) {
+            myStream.writeUTF(myFields[i].getName());
+        }
+
+        myStream.close();
+
+        byte[] myMetadataBytes = myMetadata.toByteArray();
+
+        int myFieldStart = getHashBase(myFields.length) +
+            (myFields.length * 4) + myMetadataBytes.length;
+        int myLength = myFieldStart;
+
+        for (int i = 0; i < myFields.length; i++) {
+            myLength += myFields[i].getContent().length +
+                myFields[i].getAnnotations().length;
+        }
+
+        byte[] myResult = new byte[myLength];
+        BytePacker myPacker = BytePacker.getMSBPacker(myResult);
+
+        int myFlags = 0;
+
+        if (anEntry.isWildcard())
+            myFlags |= WILDCARD_FLAG;
+
+        if (anEntry.isSnapshot())
+            myFlags |= SNAPSHOT_FLAG;
+
+        myResult[0] = FORMAT;
+        myResult[1] = VERSION;
+        myResult[FLAGS_OFFSET] = (byte) myFlags;
+        myPacker.putInt(myFields.length, COUNT_OFFSET);
+        myPacker.putInt(myMetadataBytes.length, METADATA_LENGTH_OFFSET);
+
+        int myHashBase = getHashBase(myFields.length);
+        int myFieldOffset = myFieldStart;
+
+        for (int i = 0; i < myFields.length; i++) {
+            byte[] myContent = myFields[i].getContent();
+            byte[] myAnnotations = myFields[i].getAnnotations();
+            int myEntryOffset = HEADER_LENGTH + (i * OFFSET_ENTRY_LENGTH);
+
+            myPacker.putInt(myFieldOffset, myEntryOffset);
+            myPacker.putInt(myContent.length, myEntryOffset + 4);
+            myPacker.putInt(myAnnotations.length, myEntryOffset + 8);
+            myPacker.putInt(myFields[i].hashCode(), myHashBase + (i * 4));
+
+            System.arraycopy(myContent, 0, myResult, myFieldOffset,
+                             myContent.length);
+            myFieldOffset += myContent.length;
+
+            System.arraycopy(myAnnotations, 0, myResult, myFieldOffset,
+                             myAnnotations.length);
+            myFieldOffset += myAnnotations.length;
+        }
+
+        System.arraycopy(myMetadataBytes, 0, myResult,
+                         myHashBase + (myFields.length * 4),
+                         myMetadataBytes.length);
+
+        return myResult;
+    }
+
+    public static MangledEntry unflatten(byte[] aBytes, int anOffset)
+        throws IOException {
+
+        BytePacker myPacker = BytePacker.getMSBPacker(aBytes);
+
+        int myCount = myPacker.getInt(anOffset + COUNT_OFFSET);
+        int myFlags = aBytes[anOffset + FLAGS_OFFSET];
+        int myHashBase = anOffset + getHashBase(myCount);
+
+        DataInputStream myStream =
+            new DataInputStream(new ByteArrayInputStream(aBytes,
+                myHashBase + (myCount * 4),
+                myPacker.getInt(anOffset + METADATA_LENGTH_OFFSET)));
+
+        String myType = myStream.readUTF();
+        String myCodebase = myStream.readUTF();
+        String[] myParents = new String[myStream.readInt()];
+
+        for (int i = 0; i < myParents.length; i++) {
+            myParents[i] = myStream.readUTF();
+        }
+
+        MangledField[] myFields = new MangledField[myCount];
+
+        for (int i = 0; i < myCount; i++) {
+            int myEntryOffset = anOffset + HEADER_LENGTH +
+                (i * OFFSET_ENTRY_LENGTH);
+            int myFieldOffset = anOffset + myPacker.getInt(myEntryOffset);
+            int myContentLength = myPacker.getInt(myEntryOffset + 4);
+            int myAnnotLength = myPacker.getInt(myEntryOffset + 8);
+
+            byte[] myContent = new byte[myContentLength];
+            byte[] myAnnot = new byte[myAnnotLength];
+
+            System.arraycopy(aBytes, myFieldOffset, myContent, 0,
+                             myContentLength);
+            System.arraycopy(aBytes, myFieldOffset + myContentLength, myAnnot,
+                             0, myAnnotLength);
+
+            myFields[i] = new MangledField(myStream.readUTF(), myContent,
+                myAnnot, myPacker.getInt(myHashBase + (i * 4)));
+        }
+
+        return new MangledEntry(myType,
+                                (myCodebase.length() == 0) ? null : myCodebase,
+                                myFields, myParents,
+                                ((myFlags & WILDCARD_FLAG) != 0),
+                                ((myFlags & SNAPSHOT_FLAG) != 0));
+    }
+
+    /**
+       Equivalent to <code>aTemplate.match(anEntry)</code> but performed
+       against the flattened form of the Entry.
+     */
+    public static boolean matches(MangledEntry aTemplate, byte[] aBytes,
+                                  int anOffset) {
+        if (aTemplate.isWildcard())
+            return true;
+
+        TemplateMatcher myMatcher = aTemplate.getMatcher();
+
+        if (myMatcher != null)
+            return myMatcher.matches(aBytes, anOffset);
+
+        int myCount = getFieldCount(aBytes, anOffset);
+
+        MangledField[] myFields = aTemplate.getFields();
+
+        if (myFields.length > myCount)
+            return false;
+
+        for (int i = 0; i < myFields.length; i++) {
+            if (myFields[i].isNull())
+                continue;
+
+            if (getFieldHash(aBytes, anOffset, myCount, i) !=
+                myFields[i].hashCode())
+                return false;
+
+            if (! contentEquals(aBytes, anOffset, i, myFields[i].getContent()))
+                return false;
+        }
+
+        return true;
+    }
+
+    static int getFieldCount(byte[] aBytes, int anOffset) {
+        return BytePacker.getMSBPacker(aBytes).getInt(anOffset + COUNT_OFFSET);
+    }
+
+    static int getFieldHash(byte[] aBytes, int anOffset, int aCount,
+                            int anIndex) {
+        return BytePacker.getMSBPacker(aBytes).getInt(
+            anOffset + getHashBase(aCount) + (anIndex * 4));
+    }
+
+    /**
+       @return <code>true</code> if the content of the field at the specified
+       index is the same as <code>aContent</code>
+     */
+    static boolean contentEquals(byte[] aBytes, int anOffset, int anIndex,
+                                 byte[] aContent) {
+        BytePacker myPacker = BytePacker.getMSBPacker(aBytes);
+        int myEntryOffset = anOffset + HEADER_LENGTH +
+            (anIndex * OFFSET_ENTRY_LENGTH);
+
+        if (myPacker.getInt(myEntryOffset + 4) != aContent.length)
+            return false;
+
+        int myFieldOffset = anOffset + myPacker.getInt(myEntryOffset);
+
+        for (int j = 0; j < aContent.length; j++) {
+            if (aBytes[myFieldOffset + j] != aContent[j])
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+       @return the type of the flattened Entry without unpacking it.
+     */
+    public static String getType(byte[] aBytes, int anOffset)
+        throws IOException {
+
+        BytePacker myPacker = BytePacker.getMSBPacker(aBytes);
+        int myCount = myPacker.getInt(anOffset + COUNT_OFFSET);
+
+        DataInputStream myStream =
+            new DataInputStream(new ByteArrayInputStream(aBytes,
+                anOffset + getHashBase(myCount) + (myCount * 4),
+                myPacker.getInt(anOffset + METADATA_LENGTH_OFFSET)));
+
+        return myStream.readUTF();
+    }
+
+    private static int getHashBase(int aCount) {
+        return HEADER_LENGTH + (aCount * OFFSET_ENTRY_LENGTH);
+    }
+}
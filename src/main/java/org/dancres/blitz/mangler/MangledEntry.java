@@ -42,6 +42,15 @@ public class MangledEntry implements Externalizable, net.jini.core.entry.Entry {
      */
     private transient boolean checkIntegrity = false;
 
+    /**
+     * Number of matches this instance has performed as a template, once
+     * this reaches <code>MatcherCompiler.THRESHOLD</code> we attempt to
+     * obtain a compiled matcher.
+     */
+    private transient int theMatchCount = 0;
+    private transient boolean isCompiled = false;
+    private transient TemplateMatcher theMatcher;
+
     /**
      * As all entry instances are ultimately rooted at java.lang.Object we
      * can simply search from java.lang.Object downwards when we receive
@@ -201,6 +210,11 @@ public class MangledEntry implements Externalizable, net.jini.core.entry.Entry {
         if (isWildcard)
             return true;
 
+        TemplateMatcher myMatcher = getMatcher();
+
+        if (myMatcher != null)
+            return myMatcher.matches(anEntry);
+
         MangledField[] myEntryFields = anEntry.getFields();
 
         for (int i = 0; i < theFields.length; i++) {
@@ -213,6 +227,26 @@ public class MangledEntry implements Externalizable, net.jini.core.entry.Entry {
         return true;
     }
 
+    /**
+     * @return a compiled matcher for this template or <code>null</code> if
+     * the template isn't yet hot or couldn't be compiled.  Concurrent
+     * callers may race to compile which is harmless as compiled classes are
+     * shared by all templates of the same shape.
+     */
+    TemplateMatcher getMatcher() {
+        if (isCompiled)
+            return theMatcher;
+
+        if ((! MatcherCompiler.ENABLED) ||
+            (++theMatchCount < MatcherCompiler.THRESHOLD))
+            return null;
+
+        theMatcher = MatcherCompiler.compile(this);
+        isCompiled = true;
+
+        return theMatcher;
+    }
+
     public int hashCode() {
         int myHash = 0;
 
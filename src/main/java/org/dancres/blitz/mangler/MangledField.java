@@ -5,6 +5,8 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.Serializable;
 
+import java.util.UUID;
+
 import org.dancres.io.AnnotatingObjectOutputStream;
 import org.dancres.io.AnnotatingObjectInputStream;
 
@@ -12,6 +14,17 @@ import org.dancres.io.AnnotatingObjectInputStream;
    Each field within an Entry is held in a MangledField.  We require the
    field's name for indexing purposes.  We also use our own hashing
    algorithm which is known not to "funnel" in the vast majority of cases.
+
+   <p>A field mangled by-reference also holds its immutable value directly
+   so that it can be handed back without decoding and compared against
+   other by-reference fields using <code>equals</code>.  Its bytes and
+   hashcode are still produced when it's mangled (FieldCodec handles these
+   types without serialization) and are identical to those of the same
+   value mangled normally so fields match the same way whichever path
+   produced them, in memory, on disk or from a remote client.</p>
+
+   @see org.dancres.blitz.config.ByReference
+   @see org.dancres.blitz.mangler.FieldCodec
  */
 public class MangledField implements Serializable {
     static final long serialVersionUID = -6256197142057463399L;
@@ -21,6 +34,11 @@ public class MangledField implements Serializable {
     private byte[] theAnnotationBytes;
     private int theHashCode;
 
+    /**
+       Value of a by-reference field, <code>null</code> otherwise.
+     */
+    private transient Object theValue;
+
     MangledField(String aName) {
         theName = aName;
         theObjectBytes = new byte[0];
@@ -34,6 +52,20 @@ public class MangledField implements Serializable {
         mangle(anObject);
     }
 
+    /**
+       Create a by-reference field if the value is of an immutable type
+       otherwise mangle it as normal.
+     */
+    MangledField(String aName, Object anObject, boolean byReference)
+        throws IOException {
+        theName = aName;
+
+        mangle(anObject);
+
+        if (byReference && isImmutable(anObject))
+            theValue = anObject;
+    }
+
     MangledField(String aName, byte[] anObject, byte[] aAnnotation, int aHash) {
         theName = aName;
         theObjectBytes = anObject;
@@ -45,13 +77,21 @@ public class MangledField implements Serializable {
         if (isNull())
             return 0;
         else
-            return theName.length() + theObjectBytes.length +
-                theAnnotationBytes.length + 4 + 4;
+            return theName.length() + getContent().length +
+                getAnnotations().length + 4 + 4;
     }
 
     public Object unMangle(ClassLoader aDefault, boolean checkIntegrity)
         throws IOException, ClassNotFoundException {
 
+        if (theValue != null)
+            return theValue;
+
+        Object myDecoded = FieldCodec.decode(theObjectBytes);
+
+        if (myDecoded != null)
+            return myDecoded;
+
         ByteArrayInputStream myObjStream =
             new ByteArrayInputStream(theObjectBytes);
         ByteArrayInputStream myAnnoStream =
@@ -72,21 +112,50 @@ public class MangledField implements Serializable {
         // System.err.println("isNull: " + theName);
         // System.err.println("OLength: " + theObjectBytes.length);
         // System.err.println("ALength: " + theAnnotationBytes.length);
-        return (theObjectBytes.length == 0);
+        return (theValue == null) && (theObjectBytes.length == 0);
+    }
+
+    /**
+       @return <code>true</code> if this field holds its value by-reference
+     */
+    public boolean isReference() {
+        return (theValue != null);
+    }
+
+    /**
+       Only immutable values can be shared between writer, space and
+       readers without a defensive copy.
+     */
+    private static boolean isImmutable(Object anObject) {
+        Class myClass = anObject.getClass();
+
+        return (myClass == String.class) || (myClass == Integer.class) ||
+            (myClass == Long.class) || (myClass == Short.class) ||
+            (myClass == Byte.class) || (myClass == Character.class) ||
+            (myClass == Boolean.class) || (myClass == Float.class) ||
+            (myClass == Double.class) || (myClass == UUID.class) ||
+            (anObject instanceof Enum);
     }
 
     private void mangle(Object anObject) throws IOException {
-        ByteArrayOutputStream myObjectBytes = new ByteArrayOutputStream();
-        ByteArrayOutputStream myAnnotBytes = new ByteArrayOutputStream();
-        
-        AnnotatingObjectOutputStream myStream = 
-            new AnnotatingObjectOutputStream(myObjectBytes, myAnnotBytes);
+        byte[][] myEncoded = FieldCodec.encode(anObject);
 
-        myStream.writeObject(anObject);
-        myStream.close();
+        if (myEncoded != null) {
+            theObjectBytes = myEncoded[0];
+            theAnnotationBytes = myEncoded[1];
+        } else {
+            ByteArrayOutputStream myObjectBytes = new ByteArrayOutputStream();
+            ByteArrayOutputStream myAnnotBytes = new ByteArrayOutputStream();
 
-        theObjectBytes = myObjectBytes.toByteArray();
-        theAnnotationBytes = myAnnotBytes.toByteArray();
+            AnnotatingObjectOutputStream myStream =
+                new AnnotatingObjectOutputStream(myObjectBytes, myAnnotBytes);
+
+            myStream.writeObject(anObject);
+            myStream.close();
+
+            theObjectBytes = myObjectBytes.toByteArray();
+            theAnnotationBytes = myAnnotBytes.toByteArray();
+        }
 
         theHashCode = buildHash(theObjectBytes);
     }
@@ -116,9 +185,15 @@ public class MangledField implements Serializable {
 
     public boolean matches(MangledField aField) {
         if (aField.theHashCode == theHashCode) {
-            if (aField.theObjectBytes.length == theObjectBytes.length) {
-                for (int i = 0; i < theObjectBytes.length; i++) {
-                    if (aField.theObjectBytes[i] != theObjectBytes[i])
+            if ((theValue != null) && (aField.theValue != null))
+                return theValue.equals(aField.theValue);
+
+            byte[] myBytes = getContent();
+            byte[] myOtherBytes = aField.getContent();
+
+            if (myOtherBytes.length == myBytes.length) {
+                for (int i = 0; i < myBytes.length; i++) {
+                    if (myOtherBytes[i] != myBytes[i])
                         return false;
                 }
 
@@ -0,0 +1,382 @@
+package org.dancres.blitz.mangler;
+
+import java.io.OutputStream;
+
+import java.lang.reflect.Constructor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.go.trove.classfile.AccessFlags;
+import com.go.trove.classfile.ClassFile;
+import com.go.trove.classfile.CodeBuilder;
+import com.go.trove.classfile.Label;
+import com.go.trove.classfile.LocalVariable;
+import com.go.trove.classfile.MethodInfo;
+import com.go.trove.classfile.TypeDescriptor;
+
+import com.go.trove.util.ClassInjector;
+
+/**
+   <p>Generates a TemplateMatcher class for each template "shape" (the number
+   of fields and the offsets of those that are non-null).  The generated
+   <code>matches</code> methods test only the non-null offsets, one after
+   another, against the hashcodes and contents held in final fields of the
+   matcher.  Each template that becomes hot is given its own instance of the
+   class for its shape.</p>
+
+   <p>Templates are only compiled once they've been used for
+   <code>org.dancres.blitz.mangler.matcherThreshold</code> matches (default
+   100), setting this to zero or less disables compilation.  If generation
+   fails for any reason, the template falls back to
+   <code>MangledEntry.match</code>.</p>
+
+   <p>A template with n fields can have 2^n shapes and each generated class
+   is held for the life of the VM so at most
+   <code>org.dancres.blitz.mangler.maxCompiledShapes</code> (default 256)
+   shapes are compiled.  Templates of any further shapes fall back to
+   <code>MangledEntry.match</code>.</p>
+ */
+class MatcherCompiler {
+    static final int THRESHOLD =
+        Integer.getInteger("org.dancres.blitz.mangler.matcherThreshold",
+                           100).intValue();
+
+    static final boolean ENABLED = (THRESHOLD > 0);
+
+    /*
+      Not final so tests can lower it
+     */
+    static int MAX_SHAPES =
+        Integer.getInteger("org.dancres.blitz.mangler.maxCompiledShapes",
+                           256).intValue();
+
+    private static final Logger theLogger =
+        Logger.getLogger("org.dancres.blitz.mangler.MatcherCompiler");
+
+    private static final String CLASS_PREFIX =
+        "org.dancres.blitz.mangler.CompiledMatcher";
+
+    private static final TypeDescriptor INT_TYPE =
+        new TypeDescriptor(int.class);
+    private static final TypeDescriptor BOOLEAN_TYPE =
+        new TypeDescriptor(boolean.class);
+    private static final TypeDescriptor BYTES_TYPE =
+        new TypeDescriptor(byte[].class);
+    private static final TypeDescriptor FIELD_TYPE =
+        new TypeDescriptor(MangledField.class);
+    private static final TypeDescriptor FIELDS_TYPE =
+        new TypeDescriptor(MangledField[].class);
+    private static final TypeDescriptor ENTRY_TYPE =
+        new TypeDescriptor(MangledEntry.class);
+
+    /**
+       Used to mark a shape for which generation has failed
+     */
+    private static final Object FAILED = new Object();
+
+    private static final Map theShapes = new HashMap();
+
+    private static ClassInjector theInjector =
+        new ClassInjector(MatcherCompiler.class.getClassLoader());
+
+    private static int theNextId = 0;
+
+    /**
+       @return a matcher for the template or <code>null</code> if one cannot
+       be generated.
+     */
+    static TemplateMatcher compile(MangledEntry aTemplate) {
+        MangledField[] myFields = aTemplate.getFields();
+        int[] myOffsets = getOffsets(myFields);
+
+        Constructor myConstructor =
+            getConstructor(myFields.length, myOffsets);
+
+        if (myConstructor == null)
+            return null;
+
+        int[] myHashes = new int[myOffsets.length];
+        byte[][] myContents = new byte[myOffsets.length][];
+
+        for (int i = 0; i < myOffsets.length; i++) {
+            myHashes[i] = myFields[myOffsets[i]].hashCode();
+            myContents[i] = myFields[myOffsets[i]].getContent();
+        }
+
+        try {
+            return (TemplateMatcher)
+                myConstructor.newInstance(new Object[] {myHashes, myContents});
+        } catch (Exception anE) {
+            theLogger.log(Level.SEVERE, "Couldn't instantiate matcher", anE);
+            return null;
+        }
+    }
+
+    private static int[] getOffsets(MangledField[] aFields) {
+        int myCount = 0;
+
+        for (int i = 0; i < aFields.length; i++) {
+            if (! aFields[i].isNull())
+                ++myCount;
+        }
+
+        int[] myOffsets = new int[myCount];
+        myCount = 0;
+
+        for (int i = 0; i < aFields.length; i++) {
+            if (! aFields[i].isNull())
+                myOffsets[myCount++] = i;
+        }
+
+        return myOffsets;
+    }
+
+    private static Constructor getConstructor(int aNumFields,
+                                              int[] anOffsets) {
+        StringBuffer myKey = new StringBuffer();
+        myKey.append(aNumFields);
+
+        for (int i = 0; i < anOffsets.length; i++) {
+            myKey.append(",");
+            myKey.append(anOffsets[i]);
+        }
+
+        String myShape = myKey.toString();
+
+        synchronized(theShapes) {
+            Object myResult = theShapes.get(myShape);
+
+            if (myResult == null) {
+                if (theShapes.size() >= MAX_SHAPES) {
+                    if (theLogger.isLoggable(Level.FINE))
+                        theLogger.log(Level.FINE, "Too many shapes, not " +
+                                      "compiling matcher for: " + myShape);
+
+                    return null;
+                }
+
+                try {
+                    myResult = generate(aNumFields, anOffsets).getConstructor(
+                        new Class[] {int[].class, byte[][].class});
+
+                    if (theLogger.isLoggable(Level.FINE))
+                        theLogger.log(Level.FINE, "Compiled matcher for: " +
+                                      myShape);
+                } catch (Throwable aT) {
+                    theLogger.log(Level.SEVERE,
+                                  "Couldn't compile matcher for: " + myShape,
+                                  aT);
+                    myResult = FAILED;
+                }
+
+                theShapes.put(myShape, myResult);
+            }
+
+            return (myResult == FAILED) ? null : (Constructor) myResult;
+        }
+    }
+
+    /**
+       @return the number of shapes compiled or which failed to compile
+     */
+    static int getShapeCount() {
+        synchronized(theShapes) {
+            return theShapes.size();
+        }
+    }
+
+    private static Class generate(int aNumFields, int[] anOffsets)
+        throws Exception {
+
+        String myName = CLASS_PREFIX + (theNextId++);
+
+        ClassFile myClass =
+            new ClassFile(myName, TemplateMatcher.class);
+        myClass.getAccessFlags().setFinal(true);
+        myClass.markSynthetic();
+
+        AccessFlags myFieldAccess = new AccessFlags();
+        myFieldAccess.setPrivate(true);
+        myFieldAccess.setFinal(true);
+
+        for (int i = 0; i < anOffsets.length; i++) {
+            myClass.addField(myFieldAccess, hashField(i), INT_TYPE);
+            myClass.addField(myFieldAccess, contentField(i), BYTES_TYPE);
+        }
+
+        AccessFlags myPublic = new AccessFlags();
+        myPublic.setPublic(true);
+
+        generateConstructor(myClass, myPublic, anOffsets);
+        generateEntryMatch(myClass, myPublic, aNumFields, anOffsets);
+        generateFlatMatch(myClass, myPublic, aNumFields, anOffsets);
+
+        OutputStream myStream = theInjector.getStream(myName);
+        myClass.writeTo(myStream);
+        myStream.close();
+
+        return theInjector.loadClass(myName);
+    }
+
+    private static void generateConstructor(ClassFile aClass,
+                                            AccessFlags anAccess,
+                                            int[] anOffsets) {
+        MethodInfo myMethod = aClass.addConstructor(anAccess,
+            new TypeDescriptor[] {new TypeDescriptor(int[].class),
+                                  new TypeDescriptor(byte[][].class)});
+
+        CodeBuilder myBuilder = new CodeBuilder(myMethod);
+        LocalVariable[] myParams = myBuilder.getParameters();
+
+        myBuilder.loadThis();
+        myBuilder.invokeSuperConstructor(null);
+
+        for (int i = 0; i < anOffsets.length; i++) {
+            myBuilder.loadThis();
+            myBuilder.loadLocal(myParams[0]);
+            myBuilder.loadConstant(i);
+            myBuilder.loadFromArray(int.class);
+            myBuilder.storeField(hashField(i), INT_TYPE);
+
+            myBuilder.loadThis();
+            myBuilder.loadLocal(myParams[1]);
+            myBuilder.loadConstant(i);
+            myBuilder.loadFromArray(byte[].class);
+            myBuilder.storeField(contentField(i), BYTES_TYPE);
+        }
+
+        myBuilder.returnVoid();
+    }
+
+    /**
+       Generates the equivalent of <code>MangledEntry.match</code>
+     */
+    private static void generateEntryMatch(ClassFile aClass,
+                                           AccessFlags anAccess,
+                                           int aNumFields,
+                                           int[] anOffsets) {
+        MethodInfo myMethod = aClass.addMethod(anAccess, "matches",
+            BOOLEAN_TYPE, new TypeDescriptor[] {ENTRY_TYPE});
+
+        CodeBuilder myBuilder = new CodeBuilder(myMethod);
+        LocalVariable myEntry = myBuilder.getParameters()[0];
+        LocalVariable myFields =
+            myBuilder.createLocalVariable("myFields", FIELDS_TYPE);
+        LocalVariable myField =
+            myBuilder.createLocalVariable("myField", FIELD_TYPE);
+        Label myFail = myBuilder.createLabel();
+
+        myBuilder.loadLocal(myEntry);
+        myBuilder.invokeVirtual(MangledEntry.class.getName(), "getFields",
+                                FIELDS_TYPE, null);
+        myBuilder.storeLocal(myFields);
+
+        myBuilder.loadLocal(myFields);
+        myBuilder.arrayLength();
+        myBuilder.loadConstant(aNumFields);
+        myBuilder.ifComparisonBranch(myFail, "<");
+
+        for (int i = 0; i < anOffsets.length; i++) {
+            myBuilder.loadLocal(myFields);
+            myBuilder.loadConstant(anOffsets[i]);
+            myBuilder.loadFromArray(MangledField.class);
+            myBuilder.storeLocal(myField);
+
+            myBuilder.loadLocal(myField);
+            myBuilder.invokeVirtual(MangledField.class.getName(), "hashCode",
+                                    INT_TYPE, null);
+            myBuilder.loadThis();
+            myBuilder.loadField(hashField(i), INT_TYPE);
+            myBuilder.ifComparisonBranch(myFail, "!=");
+
+            myBuilder.loadLocal(myField);
+            myBuilder.loadThis();
+            myBuilder.loadField(contentField(i), BYTES_TYPE);
+            myBuilder.invokeStatic(TemplateMatcher.class.getName(),
+                                   "sameContent", BOOLEAN_TYPE,
+                                   new TypeDescriptor[] {FIELD_TYPE,
+                                                         BYTES_TYPE});
+            myBuilder.ifZeroComparisonBranch(myFail, "==");
+        }
+
+        myBuilder.loadConstant(true);
+        myBuilder.returnValue(boolean.class);
+
+        myFail.setLocation();
+        myBuilder.loadConstant(false);
+        myBuilder.returnValue(boolean.class);
+    }
+
+    /**
+       Generates the equivalent of <code>FlatEntry.matches</code>
+     */
+    private static void generateFlatMatch(ClassFile aClass,
+                                          AccessFlags anAccess,
+                                          int aNumFields,
+                                          int[] anOffsets) {
+        MethodInfo myMethod = aClass.addMethod(anAccess, "matches",
+            BOOLEAN_TYPE, new TypeDescriptor[] {BYTES_TYPE, INT_TYPE});
+
+        CodeBuilder myBuilder = new CodeBuilder(myMethod);
+        LocalVariable[] myParams = myBuilder.getParameters();
+        LocalVariable myCount =
+            myBuilder.createLocalVariable("myCount", INT_TYPE);
+        Label myFail = myBuilder.createLabel();
+
+        myBuilder.loadLocal(myParams[0]);
+        myBuilder.loadLocal(myParams[1]);
+        myBuilder.invokeStatic(TemplateMatcher.class.getName(),
+                               "getFieldCount", INT_TYPE,
+                               new TypeDescriptor[] {BYTES_TYPE, INT_TYPE});
+        myBuilder.storeLocal(myCount);
+
+        myBuilder.loadLocal(myCount);
+        myBuilder.loadConstant(aNumFields);
+        myBuilder.ifComparisonBranch(myFail, "<");
+
+        for (int i = 0; i < anOffsets.length; i++) {
+            myBuilder.loadLocal(myParams[0]);
+            myBuilder.loadLocal(myParams[1]);
+            myBuilder.loadLocal(myCount);
+            myBuilder.loadConstant(anOffsets[i]);
+            myBuilder.invokeStatic(TemplateMatcher.class.getName(),
+                                   "getFieldHash", INT_TYPE,
+                                   new TypeDescriptor[] {BYTES_TYPE, INT_TYPE,
+                                                         INT_TYPE, INT_TYPE});
+            myBuilder.loadThis();
+            myBuilder.loadField(hashField(i), INT_TYPE);
+            myBuilder.ifComparisonBranch(myFail, "!=");
+
+            myBuilder.loadLocal(myParams[0]);
+            myBuilder.loadLocal(myParams[1]);
+            myBuilder.loadConstant(anOffsets[i]);
+            myBuilder.loadThis();
+            myBuilder.loadField(contentField(i), BYTES_TYPE);
+            myBuilder.invokeStatic(TemplateMatcher.class.getName(),
+                                   "sameContent", BOOLEAN_TYPE,
+                                   new TypeDescriptor[] {BYTES_TYPE, INT_TYPE,
+                                                         INT_TYPE,
+                                                         BYTES_TYPE});
+            myBuilder.ifZeroComparisonBranch(myFail, "==");
+        }
+
+        myBuilder.loadConstant(true);
+        myBuilder.returnValue(boolean.class);
+
+        myFail.setLocation();
+        myBuilder.loadConstant(false);
+        myBuilder.returnValue(boolean.class);
+    }
+
+    private static String hashField(int anIndex) {
+        return "theHash" + anIndex;
+    }
+
+    private static String contentField(int anIndex) {
+        return "theContent" + anIndex;
+    }
+}
@@ -0,0 +1,59 @@
+package org.dancres.blitz.mangler;
+
+/**
+   <p>Base class for matchers generated by MatcherCompiler.  A matcher is
+   equivalent to <code>MangledEntry.match</code> for a particular template
+   but tests only the template's non-null fields with no loop or null checks
+   at runtime.</p>
+
+   <p>Generated classes are defined in their own ClassLoader and thus can
+   only reach the package's internals via the protected methods here.</p>
+
+   @see org.dancres.blitz.mangler.MatcherCompiler
+ */
+public abstract class TemplateMatcher {
+    protected TemplateMatcher() {
+    }
+
+    /**
+       @return <code>true</code> if the template this matcher was compiled
+       for matches the Entry
+     */
+    public abstract boolean matches(MangledEntry anEntry);
+
+    /**
+       @return <code>true</code> if the template this matcher was compiled
+       for matches the Entry held in <code>FlatEntry</code> format at the
+       specified offset.
+     */
+    public abstract boolean matches(byte[] aBytes, int anOffset);
+
+    protected static boolean sameContent(MangledField aField,
+                                         byte[] aContent) {
+        byte[] myContent = aField.getContent();
+
+        if (myContent.length != aContent.length)
+            return false;
+
+        for (int i = 0; i < aContent.length; i++) {
+            if (myContent[i] != aContent[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    protected static int getFieldCount(byte[] aBytes, int anOffset) {
+        return FlatEntry.getFieldCount(aBytes, anOffset);
+    }
+
+    protected static int getFieldHash(byte[] aBytes, int anOffset,
+                                      int aCount, int anIndex) {
+        return FlatEntry.getFieldHash(aBytes, anOffset, aCount, anIndex);
+    }
+
+    protected static boolean sameContent(byte[] aBytes, int anOffset,
+                                         int anIndex, byte[] aContent) {
+        return FlatEntry.contentEquals(aBytes, anOffset, anIndex, aContent);
+    }
+}
@@ -0,0 +1,36 @@
+package org.dancres.blitz.notify;
+
+import java.rmi.MarshalledObject;
+
+import net.jini.core.event.RemoteEvent;
+
+/**
+   <p>Delivered in place of a run of RemoteEvents to listeners which
+   implement <code>BatchEventListener</code>.  The batch covers the sequence
+   numbers from <code>getFirstSequenceNumber</code> to
+   <code>getSequenceNumber</code> inclusive, one for each matching write.</p>
+
+   @see org.dancres.blitz.notify.BatchEventListener
+ */
+public class BatchEvent extends RemoteEvent {
+    static final long serialVersionUID = -2935470221736451876L;
+
+    private int theCount;
+
+    BatchEvent(Object aSource, long aSourceId, long aFirstSeqNum, int aCount,
+               MarshalledObject aHandback) {
+        super(aSource, aSourceId, aFirstSeqNum + aCount - 1, aHandback);
+        theCount = aCount;
+    }
+
+    /**
+       @return the number of events this batch represents
+     */
+    public int getCount() {
+        return theCount;
+    }
+
+    public long getFirstSequenceNumber() {
+        return getSequenceNumber() - theCount + 1;
+    }
+}
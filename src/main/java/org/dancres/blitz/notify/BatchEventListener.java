@@ -0,0 +1,13 @@
+package org.dancres.blitz.notify;
+
+import net.jini.core.event.RemoteEventListener;
+
+/**
+   Marker for notify listeners which accept a <code>BatchEvent</code> in
+   place of several RemoteEvents.  Where a listener falls behind, the
+   events queued for it are then delivered with a single remote call.
+
+   @see org.dancres.blitz.notify.BatchEvent
+ */
+public interface BatchEventListener extends RemoteEventListener {
+}
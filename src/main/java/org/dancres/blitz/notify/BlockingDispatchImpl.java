@@ -8,7 +8,7 @@ import java.util.concurrent.locks.ReentrantLock;
 
 class BlockingDispatchImpl implements DispatchTask {
     private EventQueue _queue;
-    private QueueEvent _event;
+    private QueueEvent[] _events;
 
     private Lock _lock = new ReentrantLock();
     private Condition _condition = _lock.newCondition();
@@ -16,17 +16,17 @@ class BlockingDispatchImpl implements DispatchTask {
     private AtomicBoolean _resolvable = new AtomicBoolean(false);
     private AtomicInteger _remainingDispatches = new AtomicInteger(0);
 
-    BlockingDispatchImpl(EventQueue aQueue, QueueEvent anEvent) {
+    BlockingDispatchImpl(EventQueue aQueue, QueueEvent[] anEvents) {
         _queue = aQueue;
-        _event = anEvent;
+        _events = anEvents;
     }
 
     public void run() {
         _queue.dispatchImpl(this);
     }
 
-    public QueueEvent getEvent() {
-        return _event;
+    public QueueEvent[] getEvents() {
+        return _events;
     }
 
     public void block() throws InterruptedException {
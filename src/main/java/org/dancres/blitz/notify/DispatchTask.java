@@ -2,6 +2,8 @@ package org.dancres.blitz.notify;
 
 /**
  * DispatchTask represents an event processing task for the event queue.
+ * A task carries one or more events, the latter being a batch resulting from
+ * a bulk write or the completion of a transaction.
  * The lifecycle of this event is as follows:
  *
  * <ol>
@@ -21,7 +23,7 @@ package org.dancres.blitz.notify;
  * </ol>
  */
 public interface DispatchTask extends Runnable {
-    public QueueEvent getEvent();
+    public QueueEvent[] getEvents();
     public void block() throws InterruptedException;
     public void newDispatch();
     public void dispatched();
@@ -36,6 +36,14 @@ public interface EventGenerator extends Comparable {
     public OID getId();
 
     public boolean isPersistent();
+
+    /**
+       @return <code>true</code> if events are delivered to a remote listener
+       in which case they may be batched and, should the listener fall too far
+       behind, discarded.  Internal generators (e.g. those waking blocked
+       searches) must be offered every event.
+     */
+    public boolean isRemote();
     
     public long getSourceId();
 
@@ -61,12 +69,30 @@ public interface EventGenerator extends Comparable {
      */
     public boolean matches(MangledEntry anEntry);
 
+    /**
+       Used to index this generator such that it need only be considered
+       for Entry's which might match.
+
+       @return the templates this generator will match against or
+       <code>null</code> if it should be offered all events.
+     */
+    public MangledEntry[] getTemplates();
+
     /* ********************************************************************
        Lease management starts here
      **********************************************************************/
 
     public boolean renew(long aTime);
 
+    /**
+       Used to reap registrations whose lease has run out but which haven't
+       been offered an event since (and thus haven't noticed).
+
+       @return <code>true</code> if this generator's lease expired before
+       the specified time.
+     */
+    public boolean hasExpired(long aTime);
+
     /* ********************************************************************
        Recovery starts here
      **********************************************************************/
@@ -93,6 +119,19 @@ public interface EventGenerator extends Comparable {
      */
     public void ping(QueueEvent anEvent, JavaSpace aSource);
 
+    /**
+       Dispatches a batch of remote events to a client, in order, using the
+       passed source.  Implementations may deliver the batch as a single
+       <code>BatchEvent</code> to listeners that accept them.
+     */
+    public void ping(QueueEvent[] anEvents, JavaSpace aSource);
+
+    /**
+       Advances the sequence number over events that were discarded rather
+       than delivered so that the client can detect the gap.
+     */
+    public void skip(int aCount);
+
     /* ********************************************************************
        State save/recovery starts here
      **********************************************************************/
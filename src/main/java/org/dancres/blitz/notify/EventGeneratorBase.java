@@ -1,5 +1,7 @@
 package org.dancres.blitz.notify;
 
+import net.jini.space.JavaSpace;
+
 import org.dancres.blitz.oid.OID;
 
 public abstract class EventGeneratorBase implements EventGenerator {
@@ -13,6 +15,37 @@ public abstract class EventGeneratorBase implements EventGenerator {
         return theOID;
     }
 
+    /**
+       Default is to ping each event in turn
+     */
+    public void ping(QueueEvent[] anEvents, JavaSpace aSource) {
+        for (int i = 0; i < anEvents.length; i++) {
+            ping(anEvents[i], aSource);
+        }
+    }
+
+    /**
+       Default is for internal generators which don't deliver to a remote
+       listener
+     */
+    public boolean isRemote() {
+        return false;
+    }
+
+    /**
+       Default is for internal generators which aren't leased and are
+       removed by their owners
+     */
+    public boolean hasExpired(long aTime) {
+        return false;
+    }
+
+    /**
+       Default is for generators that have no sequence number
+     */
+    public void skip(int aCount) {
+    }
+
     public int hashCode() {
         return theOID.hashCode();
     }
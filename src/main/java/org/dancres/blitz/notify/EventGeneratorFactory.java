@@ -11,14 +11,22 @@ import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
+import net.jini.config.ConfigurationException;
+
 import net.jini.core.event.RemoteEventListener;
 
 import net.jini.core.transaction.TransactionException;
 
+import org.dancres.blitz.config.ConfigurationFactory;
+
 import org.dancres.blitz.disk.DiskTxn;
 import org.dancres.blitz.disk.Disk;
 import org.dancres.blitz.disk.Syncable;
 
+import org.dancres.blitz.lease.LeaseReaper;
+import org.dancres.blitz.lease.Reapable;
+import org.dancres.blitz.lease.ReapFilter;
+
 import org.dancres.blitz.meta.Registry;
 import org.dancres.blitz.meta.RegistryAccessor;
 import org.dancres.blitz.meta.RegistryFactory;
@@ -47,8 +55,14 @@ import org.dancres.blitz.stats.EventQueueStat;
    saved) or persistent as required by the caller.  Transient EventGenerators
    are used for transaction related notify requests whilst persistent
    EventGenerators have no associated transaction.
+
+   <p>A registration normally notices its lease has expired when it's next
+   offered an event but, as events are only offered to those registrations
+   that might match, some may never be offered another.  Thus expired
+   registrations are also reaped periodically
+   (<code>notifyReapInterval</code>).</p>
  */
-class EventGeneratorFactory implements Syncable {
+class EventGeneratorFactory implements Syncable, Reapable {
     static final String STORE_NAME = "BlitzEventGens";
 
     private static EventGeneratorFactory theFactory
@@ -71,12 +85,46 @@ class EventGeneratorFactory implements Syncable {
      */
     private AtomicInteger theNumGens = new AtomicInteger();
 
+    /**
+     * Allows us to narrow the generators considered for an Entry down to
+     * those that might match.
+     */
+    private GeneratorIndex theIndex = new GeneratorIndex();
+
+    private LeaseReaper theReaper;
+
     static EventGeneratorFactory get() {
         return theFactory;
     }
 
     private EventGeneratorFactory() {
         StatsBoard.get().add(new GeneratorImpl());
+
+        try {
+            long myReapInterval =
+                ((Long) ConfigurationFactory.getEntry("notifyReapInterval",
+                                                      long.class,
+                                                      new Long(5 * 60 * 1000))).longValue();
+            theReaper = new LeaseReaper("Notify", null, myReapInterval);
+
+            theReaper.add(this);
+        } catch (ConfigurationException aCE) {
+            EventQueue.theLogger.log(Level.SEVERE,
+                                     "Failed to load config", aCE);
+        }
+    }
+
+    /**
+       No reap filters are configured so we ignore those - see constructor
+     */
+    public void reap(ReapFilter aFilter) {
+        long myTime = System.currentTimeMillis();
+
+        for (EventGenerator myGen: theGens) {
+            // Stops further events and schedules the cleanup
+            if (myGen.hasExpired(myTime))
+                myGen.taint();
+        }
     }
 
     private class GeneratorImpl implements StatGenerator {
@@ -118,6 +166,16 @@ class EventGeneratorFactory implements Syncable {
         return theGens.iterator();
     }
 
+    /**
+     * @return an iterator over only those generators that may match the
+     * passed Entry
+     */
+    Iterator getGenerators(MangledEntry anEntry) throws IOException {
+        loadBarrier();
+
+        return theIndex.getCandidates(anEntry);
+    }
+
     int getCount() {
         return theNumGens.get();
     }
@@ -142,6 +200,7 @@ class EventGeneratorFactory implements Syncable {
                 EventGenerator myGenerator = myGenState.getGenerator();
                     
                 theGens.add(myGenerator);
+                theIndex.add(myGenerator);
                 theNumGens.incrementAndGet();
             }
 
@@ -270,6 +329,7 @@ class EventGeneratorFactory implements Syncable {
     private void insert(EventGenerator aGen) {
         // synchronized (this) {
             theGens.add(aGen);
+            theIndex.add(aGen);
             theNumGens.incrementAndGet();
         // }
     }
@@ -405,6 +465,7 @@ class EventGeneratorFactory implements Syncable {
         boolean removed = (aGen != null) ? theGens.remove(aGen) : false;
 
         if (removed) {
+            theIndex.remove(aGen);
             theNumGens.decrementAndGet();
 
             if (aGen.isPersistent()) {
@@ -455,5 +516,6 @@ class EventGeneratorFactory implements Syncable {
 
         theStore = null;
         theGens.clear();
+        theIndex.clear();
     }
 }
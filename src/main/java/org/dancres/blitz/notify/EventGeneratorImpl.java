@@ -139,6 +139,10 @@ public class EventGeneratorImpl extends EventGeneratorBase {
         return (theTxnId == null);
     }
 
+    public boolean isRemote() {
+        return true;
+    }
+
     public long getSourceId() {
         return theSourceId;
     }
@@ -212,6 +216,10 @@ public class EventGeneratorImpl extends EventGeneratorBase {
             theTemplate.match(anEntry);
     }
 
+    public MangledEntry[] getTemplates() {
+        return new MangledEntry[] {theTemplate};
+    }
+
     /* ********************************************************************
        Lease management starts here
      **********************************************************************/
@@ -229,6 +237,10 @@ public class EventGeneratorImpl extends EventGeneratorBase {
         }
     }
 
+    public synchronized boolean hasExpired(long aTime) {
+        return (aTime > theLeaseTime);
+    }
+
     /* ********************************************************************
        Recovery starts here
      **********************************************************************/
@@ -327,6 +339,94 @@ public class EventGeneratorImpl extends EventGeneratorBase {
         }
     }
 
+    /**
+       Dispatches a batch of remote events to a client under a single
+       acquisition of the generator lock.  Listeners implementing
+       <code>BatchEventListener</code> receive one <code>BatchEvent</code>
+       for the whole batch.
+     */
+    public void ping(QueueEvent[] anEvents, JavaSpace aSource) {
+        if (anEvents.length == 1) {
+            ping(anEvents[0], aSource);
+            return;
+        }
+
+        SeqNumInterval mySnapshot = null;
+
+        if (isTainted.get())
+            return;
+
+        synchronized(this) {
+            RemoteEventListener myTarget = null;
+
+            try {
+                myTarget = getDest();
+
+                if (myTarget instanceof BatchEventListener) {
+                    RemoteEvent myEvent = newBatch(aSource, anEvents.length);
+
+                    myTarget.notify(myEvent);
+                } else {
+                    for (int i = 0; i < anEvents.length; i++) {
+                        RemoteEvent myEvent = newEvent(aSource);
+
+                        try {
+                            myTarget.notify(myEvent);
+                        } catch (NoSuchObjectException anNSOE) {
+                            throw anNSOE;
+                        } catch (RemoteException anRE) {
+                            RemoteEventDispatcher.theLogger.log(Level.SEVERE,
+                                "Couldn't send event " +
+                                    myTarget, anRE);
+                        }
+                    }
+                }
+
+                mySnapshot = shouldLog();
+
+            } catch (UnknownEventException aUEE) {
+                RemoteEventDispatcher.theLogger.log(Level.SEVERE,
+                    "Couldn't send event [Trash]" +
+                        myTarget, aUEE);
+                taint();
+            } catch (NoSuchObjectException anNSOE) {
+                RemoteEventDispatcher.theLogger.log(Level.SEVERE,
+                    "Couldn't send event [Trash]" +
+                        myTarget, anNSOE);
+                taint();
+            } catch (RemoteException anRE) {
+                RemoteEventDispatcher.theLogger.log(Level.SEVERE,
+                    "Couldn't send event " +
+                        myTarget, anRE);
+            }
+        }
+
+        try {
+            if (mySnapshot != null)
+                TxnDispatcher.get().log(mySnapshot);
+        } catch (TransactionException aTE) {
+            RemoteEventDispatcher.theLogger.log(Level.SEVERE,
+                "Couldn't update EventGenerator", aTE);
+        }
+    }
+
+    public void skip(int aCount) {
+        synchronized(this) {
+            theSeqNum += aCount;
+            thePingCount += aCount;
+        }
+    }
+
+    private RemoteEvent newBatch(Object aSource, int aCount) {
+        long myFirst = theSeqNum;
+
+        thePingCount += aCount;
+        theSeqNum += aCount;
+
+        return new BatchEvent(aSource, theSourceId, myFirst, aCount,
+                              theHandback);
+    }
+
     private RemoteEvent newEvent(Object aSource) {
         ++thePingCount;
 
@@ -383,7 +483,7 @@ public class EventGeneratorImpl extends EventGeneratorBase {
             return null;
         }
 
-        if (thePingCount == GeneratorConfig.getSaveInterval()) {
+        if (thePingCount >= GeneratorConfig.getSaveInterval()) {
             thePingCount = 0;
             return new SeqNumInterval(theOID, theSeqNum);
         } else
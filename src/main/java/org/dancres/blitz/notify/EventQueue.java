@@ -10,7 +10,11 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import net.jini.config.ConfigurationException;
 import net.jini.core.event.RemoteEventListener;
@@ -31,6 +35,11 @@ import org.dancres.blitz.util.QueueStatGenerator;
 
    <p>For a transaction end event, we remove any associated registrations held
    in EventGeneratorFactory.</p>
+
+   <p>Events may be posted in batches (e.g. for a bulk write or the
+   completion of a transaction).  A batch is processed by a single dispatch
+   task and all the events of the batch that match a particular generator are
+   passed to it in a single SendTask.</p>
  */
 public class EventQueue implements ActiveObject {
     static Logger theLogger =
@@ -108,6 +117,27 @@ public class EventQueue implements ActiveObject {
      * write method only returns to user-code once all blocking *IfExists have seen the event.
      */
     public void add(QueueEvent anEvent, boolean aWaitIndicator) {
+        add(new QueueEvent[] {anEvent}, aWaitIndicator);
+    }
+
+    public void add(QueueEvent[] anEvents) {
+        add(anEvents, false);
+    }
+
+    /**
+     * Post a batch of events which will be processed (in order) by a single
+     * dispatch task.
+     *
+     * @param anEvents - the events to post
+     * @param aWaitIndicator - whether or not to wait for all of the events to
+     * pass through the queue.
+     *
+     * @see #add(QueueEvent, boolean)
+     */
+    public void add(QueueEvent[] anEvents, boolean aWaitIndicator) {
+        if (anEvents.length == 0)
+            return;
+
         if (TxnDispatcher.get().isRecovery())
             return;
 
@@ -116,9 +146,15 @@ public class EventQueue implements ActiveObject {
         if (EventGeneratorFactory.get().getCount() == 0)
             return;
 
-        if (theLogger.isLoggable(Level.FINEST))
-            theLogger.log(Level.FINEST, "Event: " + anEvent.getType() + ", " +
-                          anEvent.getTxn() + ", " + anEvent.getContext());
+        if (theLogger.isLoggable(Level.FINEST)) {
+            for (int i = 0; i < anEvents.length; i++) {
+                theLogger.log(Level.FINEST, "Event: " +
+                              anEvents[i].getType() + ", " +
+                              anEvents[i].getTxn() + ", " +
+                              anEvents[i].getContext());
+            }
+        }
+
         try {
             /*
              * WTF?  For some reason, javac can't resolve the two types below to
@@ -126,8 +162,8 @@ public class EventQueue implements ActiveObject {
              * and type reasoning grrrrr
              */
             DispatchTask aTask = (aWaitIndicator == true) ?
-                    (DispatchTask) new BlockingDispatchImpl(this, anEvent) :
-                    (DispatchTask) new NonblockingDispatchImpl(this, anEvent);
+                    (DispatchTask) new BlockingDispatchImpl(this, anEvents) :
+                    (DispatchTask) new NonblockingDispatchImpl(this, anEvents);
 
             theProcessors.execute(aTask);
 
@@ -249,47 +285,89 @@ public class EventQueue implements ActiveObject {
     }
 
     void dispatchImpl(DispatchTask aTask) {
-        theEventCount.incrementAndGet();
-
-        switch (aTask.getEvent().getType()) {
-            case QueueEvent.TRANSACTION_ENDED :
-            case QueueEvent.ENTRY_WRITE :
-            case QueueEvent.ENTRY_WRITTEN :
-            case QueueEvent.ENTRY_VISIBLE :
-            case QueueEvent.ENTRY_NOT_CONFLICTED : {
-                iterateMatches(aTask);
-                break;
-            }
-        }
+        theEventCount.addAndGet(aTask.getEvents().length);
+
+        iterateMatches(aTask);
     }
     
     private void iterateMatches(DispatchTask aTask) {
-        QueueEvent myEvent = aTask.getEvent();
+        QueueEvent[] myEvents = aTask.getEvents();
         long myCurrentTime = System.currentTimeMillis();
-        QueueEvent.Context myContext = myEvent.getContext();
-        MangledEntry myEntry = null;
-        
-        if (myContext != null)
-            myEntry = myEvent.getContext().getEntry();
-        
-        try {
-            Iterator myGenerators =
-                EventGeneratorFactory.get().getGenerators();
 
-            while (myGenerators.hasNext()) {
-                EventGenerator myGenerator = (EventGenerator) myGenerators.next();
+        /*
+         * Matches are accumulated per generator (in the order the generators
+         * first match) such that each generator receives all its events
+         * from this task in order and in one send
+         */
+        Map myMatches = new LinkedHashMap();
 
-                if ((myGenerator.canSee(myEvent, myCurrentTime)) &&
-                    (myGenerator.matches(myEntry))) {
-                    theDispatcher.sendEvent(aTask, myGenerator);
+        try {
+            for (int i = 0; i < myEvents.length; i++) {
+                QueueEvent myEvent = myEvents[i];
+
+                switch (myEvent.getType()) {
+                    case QueueEvent.TRANSACTION_ENDED :
+                    case QueueEvent.ENTRY_WRITE :
+                    case QueueEvent.ENTRY_WRITTEN :
+                    case QueueEvent.ENTRY_VISIBLE :
+                    case QueueEvent.ENTRY_NOT_CONFLICTED : {
+                        collectMatches(myEvent, myCurrentTime, myMatches);
+                        break;
+                    }
                 }
             }
         } catch (IOException anIOE) {
             theLogger.log(Level.SEVERE, "Couldn't recover generators from factory");
         } finally {
+            Iterator myGenerators = myMatches.entrySet().iterator();
+
+            while (myGenerators.hasNext()) {
+                Map.Entry myMatch = (Map.Entry) myGenerators.next();
+                List myGenEvents = (List) myMatch.getValue();
+
+                theDispatcher.sendEvents(aTask,
+                    (EventGenerator) myMatch.getKey(),
+                    (QueueEvent[]) myGenEvents.toArray(
+                        new QueueEvent[myGenEvents.size()]));
+            }
+
             aTask.enableResolve();
         }
     }
+
+    private void collectMatches(QueueEvent anEvent, long aCurrentTime,
+                                Map aMatches) throws IOException {
+        QueueEvent.Context myContext = anEvent.getContext();
+        MangledEntry myEntry = null;
+        
+        if (myContext != null)
+            myEntry = myContext.getEntry();
+        
+        /*
+         * Transaction ended events carry no Entry and must be seen by
+         * all generators, everything else need only visit those
+         * generators which might match the Entry
+         */
+        Iterator myGenerators = (myEntry == null) ?
+            EventGeneratorFactory.get().getGenerators() :
+            EventGeneratorFactory.get().getGenerators(myEntry);
+
+        while (myGenerators.hasNext()) {
+            EventGenerator myGenerator = (EventGenerator) myGenerators.next();
+
+            if ((myGenerator.canSee(anEvent, aCurrentTime)) &&
+                (myGenerator.matches(myEntry))) {
+                List myGenEvents = (List) aMatches.get(myGenerator);
+
+                if (myGenEvents == null) {
+                    myGenEvents = new ArrayList();
+                    aMatches.put(myGenerator, myGenEvents);
+                }
+
+                myGenEvents.add(anEvent);
+            }
+        }
+    }
     
     
     public boolean renew(OID aOID, long anExpiry)
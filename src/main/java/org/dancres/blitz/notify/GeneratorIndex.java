@@ -0,0 +1,286 @@
+package org.dancres.blitz.notify;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.dancres.blitz.mangler.MangledEntry;
+import org.dancres.blitz.mangler.MangledField;
+
+/**
+   <p>Indexes EventGenerators by the templates they are interested in such
+   that a newly written Entry need only be offered to those generators which
+   could possibly match it rather than every registered generator.</p>
+
+   <p>Each template is filed under its type and, if it has one, the offset
+   and hash of its first non-null field.  Wildcard templates are filed under
+   type only.  An Entry is then resolved to candidates by walking its own type
+   plus all its parents (as per <code>MangledEntry.tearOffParents</code>) and,
+   for each type present in the index, checking the wildcard bucket and the
+   field buckets keyed by the Entry's own field hashes.  Generators which
+   report no templates are offered every event, they're merged in as the
+   candidates are iterated rather than copied for each Entry.</p>
+
+   <p>The index only narrows the set of generators to be considered, final
+   decisions are still made via <code>canSee</code> and
+   <code>matches</code>.</p>
+
+   <p>Lookups are lock-free, insertions and removals are serialized such that
+   empty buckets can be discarded safely.</p>
+ */
+class GeneratorIndex {
+    private ConcurrentHashMap<String, TypeBucket> theTypes =
+        new ConcurrentHashMap<String, TypeBucket>();
+
+    private ConcurrentSkipListSet<EventGenerator> theUnindexed =
+        new ConcurrentSkipListSet<EventGenerator>();
+
+    synchronized void add(EventGenerator aGen) {
+        MangledEntry[] myTemplates = aGen.getTemplates();
+
+        if (myTemplates == null) {
+            theUnindexed.add(aGen);
+            return;
+        }
+
+        for (int i = 0; i < myTemplates.length; i++) {
+            MangledEntry myTemplate = myTemplates[i];
+
+            TypeBucket myBucket = theTypes.get(myTemplate.getType());
+
+            if (myBucket == null) {
+                myBucket = new TypeBucket(myTemplate.getNumFields());
+                theTypes.put(myTemplate.getType(), myBucket);
+            }
+
+            myBucket.add(myTemplate, aGen);
+        }
+    }
+
+    synchronized void remove(EventGenerator aGen) {
+        MangledEntry[] myTemplates = aGen.getTemplates();
+
+        if (myTemplates == null) {
+            theUnindexed.remove(aGen);
+            return;
+        }
+
+        for (int i = 0; i < myTemplates.length; i++) {
+            MangledEntry myTemplate = myTemplates[i];
+
+            TypeBucket myBucket = theTypes.get(myTemplate.getType());
+
+            if (myBucket == null)
+                continue;
+
+            myBucket.remove(myTemplate, aGen);
+
+            if (myBucket.isEmpty())
+                theTypes.remove(myTemplate.getType());
+        }
+    }
+
+    synchronized void clear() {
+        theTypes.clear();
+        theUnindexed.clear();
+    }
+
+    /**
+       @return the generators which might match the passed Entry in
+       registration (OID) order.
+     */
+    Iterator<EventGenerator> getCandidates(MangledEntry anEntry) {
+        TreeSet<EventGenerator> myCandidates = new TreeSet<EventGenerator>();
+
+        gather(anEntry.getType(), anEntry, myCandidates);
+
+        String[] myParents = anEntry.tearOffParents();
+
+        for (int i = 0; i < myParents.length; i++) {
+            gather(myParents[i], anEntry, myCandidates);
+        }
+
+        if (myCandidates.isEmpty())
+            return theUnindexed.iterator();
+
+        if (theUnindexed.isEmpty())
+            return myCandidates.iterator();
+
+        return new MergeIterator(myCandidates.iterator(),
+                                 theUnindexed.iterator());
+    }
+
+    private void gather(String aType, MangledEntry anEntry,
+                        Set<EventGenerator> aCandidates) {
+        TypeBucket myBucket = theTypes.get(aType);
+
+        if (myBucket != null)
+            myBucket.gather(anEntry, aCandidates);
+    }
+
+    private static long getKey(int anOffset, int aHash) {
+        return (((long) anOffset) << 32) | (aHash & 0xFFFFFFFFL);
+    }
+
+    /**
+       Merges two iterators, each in registration order, into one.  A
+       generator is either indexed or unindexed so there's nothing to
+       de-duplicate.
+     */
+    private static class MergeIterator implements Iterator<EventGenerator> {
+        private Iterator<EventGenerator> theLeft;
+        private Iterator<EventGenerator> theRight;
+
+        private EventGenerator theNextLeft;
+        private EventGenerator theNextRight;
+
+        MergeIterator(Iterator<EventGenerator> aLeft,
+                      Iterator<EventGenerator> aRight) {
+            theLeft = aLeft;
+            theRight = aRight;
+
+            theNextLeft = advance(theLeft);
+            theNextRight = advance(theRight);
+        }
+
+        public boolean hasNext() {
+            return ((theNextLeft != null) || (theNextRight != null));
+        }
+
+        public EventGenerator next() {
+            EventGenerator myNext;
+
+            if (theNextLeft == null) {
+                if (theNextRight == null)
+                    throw new NoSuchElementException();
+
+                myNext = theNextRight;
+                theNextRight = advance(theRight);
+            } else if ((theNextRight == null) ||
+                       (theNextLeft.compareTo(theNextRight) < 0)) {
+                myNext = theNextLeft;
+                theNextLeft = advance(theLeft);
+            } else {
+                myNext = theNextRight;
+                theNextRight = advance(theRight);
+            }
+
+            return myNext;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private static EventGenerator advance(Iterator<EventGenerator> anIt) {
+            return (anIt.hasNext()) ? anIt.next() : null;
+        }
+    }
+
+    /**
+       Holds all generators for templates of a single type.  All templates of
+       a given type have the same number of fields which determines how many
+       of an Entry's fields we need to consider.
+     */
+    private static class TypeBucket {
+        private int theNumFields;
+
+        private ConcurrentSkipListSet<EventGenerator> theWildcards =
+            new ConcurrentSkipListSet<EventGenerator>();
+
+        private ConcurrentHashMap<Long, ConcurrentSkipListSet<EventGenerator>>
+            theFields =
+            new ConcurrentHashMap<Long, ConcurrentSkipListSet<EventGenerator>>();
+
+        TypeBucket(int aNumFields) {
+            theNumFields = aNumFields;
+        }
+
+        void add(MangledEntry aTemplate, EventGenerator aGen) {
+            Long myKey = getKey(aTemplate);
+
+            if (myKey == null) {
+                theWildcards.add(aGen);
+            } else {
+                ConcurrentSkipListSet<EventGenerator> myGens =
+                    theFields.get(myKey);
+
+                if (myGens == null) {
+                    myGens = new ConcurrentSkipListSet<EventGenerator>();
+                    theFields.put(myKey, myGens);
+                }
+
+                myGens.add(aGen);
+            }
+        }
+
+        void remove(MangledEntry aTemplate, EventGenerator aGen) {
+            Long myKey = getKey(aTemplate);
+
+            if (myKey == null) {
+                theWildcards.remove(aGen);
+            } else {
+                ConcurrentSkipListSet<EventGenerator> myGens =
+                    theFields.get(myKey);
+
+                if (myGens != null) {
+                    myGens.remove(aGen);
+
+                    if (myGens.isEmpty())
+                        theFields.remove(myKey);
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return theWildcards.isEmpty() && theFields.isEmpty();
+        }
+
+        void gather(MangledEntry anEntry, Set<EventGenerator> aCandidates) {
+            aCandidates.addAll(theWildcards);
+
+            if (theFields.isEmpty())
+                return;
+
+            int myLimit = Math.min(theNumFields, anEntry.getNumFields());
+
+            for (int i = 0; i < myLimit; i++) {
+                MangledField myField = anEntry.getField(i);
+
+                // A null field can never satisfy a non-null template field
+                if (myField.isNull())
+                    continue;
+
+                ConcurrentSkipListSet<EventGenerator> myGens =
+                    theFields.get(new Long(GeneratorIndex.getKey(i,
+                        myField.hashCode())));
+
+                if (myGens != null)
+                    aCandidates.addAll(myGens);
+            }
+        }
+
+        /**
+           @return the key for the first non-null field of the template or
+           <code>null</code> if the template is a wildcard
+         */
+        private Long getKey(MangledEntry aTemplate) {
+            if (aTemplate.isWildcard())
+                return null;
+
+            MangledField[] myFields = aTemplate.getFields();
+
+            for (int i = 0; i < myFields.length; i++) {
+                if (!myFields[i].isNull())
+                    return new Long(GeneratorIndex.getKey(i,
+                        myFields[i].hashCode()));
+            }
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package org.dancres.blitz.notify;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+import java.util.concurrent.ConcurrentMap;
+
+import net.jini.space.JavaSpace;
+
+/**
+   <p>Holds the events awaiting delivery to a single remote EventGenerator
+   (see <code>EventGenerator.isRemote</code>).  At most one SendTask drains
+   a queue at any time so a slow listener ties up one dispatch thread
+   rather than the whole pool and events that arrive whilst a delivery is
+   in progress are sent together as the next batch.</p>
+
+   <p>If a backlog is configured and a listener falls further behind than
+   that, the oldest events are discarded.  The generator's sequence number
+   is advanced over them so the client can detect the gap.</p>
+
+   <p>A queue retires when it's found empty after a delivery at which point
+   it's removed from the dispatcher and a fresh one will be created for the
+   next event.  It also retires, releasing anything pending, if delivery
+   fails with an unexpected exception.</p>
+ */
+class ListenerQueue {
+    static final int ACCEPTED = 0;
+    static final int SCHEDULE = 1;
+    static final int RETIRED = 2;
+
+    private EventGenerator theGenerator;
+    private ConcurrentMap theQueues;
+    private int theBacklog;
+
+    private LinkedList thePending = new LinkedList();
+    private int thePendingEvents;
+    private int theDiscarded;
+
+    private boolean isActive;
+    private boolean isRetired;
+
+    /**
+       @param aBacklog the maximum number of events to hold for the
+       listener, <code>0</code> for no limit.
+     */
+    ListenerQueue(EventGenerator aGenerator, ConcurrentMap aQueues,
+                  int aBacklog) {
+        theGenerator = aGenerator;
+        theQueues = aQueues;
+        theBacklog = aBacklog;
+    }
+
+    EventGenerator getGenerator() {
+        return theGenerator;
+    }
+
+    /**
+       @return <code>SCHEDULE</code> if a SendTask must be queued to drain
+       this queue, <code>RETIRED</code> if the caller should obtain a new
+       queue from the dispatcher.
+     */
+    synchronized int offer(DispatchTask aTask, QueueEvent[] anEvents) {
+        if (isRetired)
+            return RETIRED;
+
+        thePending.add(new Dispatch(aTask, anEvents));
+        thePendingEvents += anEvents.length;
+
+        if (theBacklog > 0) {
+            while ((thePendingEvents > theBacklog) &&
+                   (thePending.size() > 1)) {
+                Dispatch myOldest = (Dispatch) thePending.removeFirst();
+
+                thePendingEvents -= myOldest.theEvents.length;
+                theDiscarded += myOldest.theEvents.length;
+                myOldest.theTask.dispatched();
+            }
+        }
+
+        if (isActive)
+            return ACCEPTED;
+
+        isActive = true;
+        return SCHEDULE;
+    }
+
+    /**
+       Deliver everything that's pending as a single batch.
+
+       @return <code>true</code> if further events arrived during delivery
+       and the caller should schedule another drain.
+     */
+    boolean drain(JavaSpace aSource) {
+        Dispatch[] myDispatches;
+        int myDiscarded;
+
+        synchronized(this) {
+            myDispatches = new Dispatch[thePending.size()];
+            myDispatches = (Dispatch[]) thePending.toArray(myDispatches);
+            myDiscarded = theDiscarded;
+
+            thePending.clear();
+            thePendingEvents = 0;
+            theDiscarded = 0;
+        }
+
+        if (myDiscarded != 0) {
+            RemoteEventDispatcher.theLogger.warning(
+                "Discarded " + myDiscarded + " events for slow listener: " +
+                theGenerator.getId());
+
+            theGenerator.skip(myDiscarded);
+        }
+
+        ArrayList myEvents = new ArrayList();
+
+        for (int i = 0; i < myDispatches.length; i++) {
+            for (int j = 0; j < myDispatches[i].theEvents.length; j++) {
+                myEvents.add(myDispatches[i].theEvents[j]);
+            }
+        }
+
+        boolean isDelivered = false;
+
+        try {
+            if (myEvents.size() != 0)
+                theGenerator.ping((QueueEvent[]) myEvents.toArray(
+                    new QueueEvent[myEvents.size()]), aSource);
+
+            isDelivered = true;
+        } finally {
+            for (int i = 0; i < myDispatches.length; i++) {
+                myDispatches[i].theTask.dispatched();
+            }
+
+            /*
+              ping failed unexpectedly, no-one will schedule another drain
+              so retire now or offer would keep accepting events forever.
+             */
+            if (! isDelivered)
+                retire();
+        }
+
+        synchronized(this) {
+            if (thePending.size() != 0)
+                return true;
+
+            isActive = false;
+            isRetired = true;
+            theQueues.remove(theGenerator, this);
+
+            return false;
+        }
+    }
+
+    /**
+       Stop accepting events and release anything still pending, the next
+       event for the generator will create a fresh queue.
+     */
+    private void retire() {
+        Dispatch[] myDispatches;
+
+        synchronized(this) {
+            isActive = false;
+            isRetired = true;
+            theQueues.remove(theGenerator, this);
+
+            myDispatches = new Dispatch[thePending.size()];
+            myDispatches = (Dispatch[]) thePending.toArray(myDispatches);
+
+            thePending.clear();
+            thePendingEvents = 0;
+            theDiscarded = 0;
+        }
+
+        if (myDispatches.length != 0)
+            RemoteEventDispatcher.theLogger.warning(
+                "Dropped " + myDispatches.length +
+                " pending dispatches after failed delivery to: " +
+                theGenerator.getId());
+
+        for (int i = 0; i < myDispatches.length; i++) {
+            myDispatches[i].theTask.dispatched();
+        }
+    }
+
+    private static class Dispatch {
+        private DispatchTask theTask;
+        private QueueEvent[] theEvents;
+
+        Dispatch(DispatchTask aTask, QueueEvent[] anEvents) {
+            theTask = aTask;
+            theEvents = anEvents;
+        }
+    }
+}
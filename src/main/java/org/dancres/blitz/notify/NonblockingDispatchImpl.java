@@ -2,19 +2,19 @@ package org.dancres.blitz.notify;
 
 class NonblockingDispatchImpl implements DispatchTask {
     private EventQueue theQueue;
-    private QueueEvent theEvent;
+    private QueueEvent[] theEvents;
 
-    NonblockingDispatchImpl(EventQueue aQueue, QueueEvent anEvent) {
+    NonblockingDispatchImpl(EventQueue aQueue, QueueEvent[] anEvents) {
         theQueue = aQueue;
-        theEvent = anEvent;
+        theEvents = anEvents;
     }
 
     public void run() {
         theQueue.dispatchImpl(this);
     }
 
-    public QueueEvent getEvent() {
-        return theEvent;
+    public QueueEvent[] getEvents() {
+        return theEvents;
     }
 
     public void block() throws InterruptedException {
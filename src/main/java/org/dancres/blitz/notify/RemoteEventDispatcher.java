@@ -1,23 +1,53 @@
 package org.dancres.blitz.notify;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import java.util.logging.*;
 
+import net.jini.config.ConfigurationException;
+
 import net.jini.space.JavaSpace;
 
 import org.dancres.blitz.task.Tasks;
 
 import org.dancres.blitz.Logging;
 
+import org.dancres.blitz.config.ConfigurationFactory;
+
 import org.dancres.blitz.remote.NullJavaSpace;
 
 /**
    Converts internal events into external RemoteEvents and arranges for
-   their dispatch.
+   their dispatch.  Events for remote listeners are queued per
+   EventGenerator (and thus per listener) so that delivery to one slow
+   listener doesn't hold up delivery to the others.  Events for internal
+   generators, such as those of blocked searches, are dispatched directly
+   and never discarded.
+
+   @see org.dancres.blitz.notify.ListenerQueue
 */
 public class RemoteEventDispatcher {
     static Logger theLogger =
         Logging.newLogger("org.dancres.blitz.notify.RemoteEventDispatcher");
 
+    static final String SEND_QUEUE = "RemoteEvent";
+
+    private static int LISTENER_BACKLOG = 0;
+
+    static {
+        try {
+            LISTENER_BACKLOG = ((Integer)
+                ConfigurationFactory.getEntry("notifyListenerBacklog",
+                                              int.class,
+                                              new Integer(0))).intValue();
+
+            theLogger.log(Level.INFO, "Notify listener backlog: " +
+                          LISTENER_BACKLOG);
+        } catch (ConfigurationException aCE) {
+            theLogger.log(Level.SEVERE, "Failed to load config", aCE);
+        }
+    }
 
     private static JavaSpace theSource = new NullJavaSpace();
 
@@ -29,17 +59,68 @@ public class RemoteEventDispatcher {
         theSource = aSource;
     }
 
+    private ConcurrentMap theQueues = new ConcurrentHashMap();
+
     RemoteEventDispatcher() {
     }
 
-    void sendEvent(DispatchTask aTask, EventGenerator aGenerator) {
-        try {
-            aTask.newDispatch();
-            Tasks.queue("RemoteEvent",
-                    new SendTask(theSource, aTask, aGenerator));
-        } catch (InterruptedException anIE) {
-            theLogger.log(Level.SEVERE, "Failed to add event to queue",
-                          anIE);
+    /**
+       Dispatch the events from a DispatchTask that matched a generator.
+     */
+    void sendEvents(DispatchTask aTask, EventGenerator aGenerator,
+                    QueueEvent[] anEvents) {
+        aTask.newDispatch();
+
+        // Internal waiters get every event, unbatched
+        if (! aGenerator.isRemote()) {
+            try {
+                Tasks.queue(Tasks.WAKEUP_QUEUE,
+                            new WakeTask(getSource(), aTask, aGenerator,
+                                         anEvents));
+            } catch (InterruptedException anIE) {
+                theLogger.log(Level.SEVERE, "Failed to add event to queue",
+                              anIE);
+            }
+
+            return;
         }
+
+        while (true) {
+            ListenerQueue myQueue =
+                (ListenerQueue) theQueues.get(aGenerator);
+
+            if (myQueue == null) {
+                ListenerQueue myNew =
+                    new ListenerQueue(aGenerator, theQueues, LISTENER_BACKLOG);
+
+                myQueue = (ListenerQueue)
+                    theQueues.putIfAbsent(aGenerator, myNew);
+
+                if (myQueue == null)
+                    myQueue = myNew;
+            }
+
+            switch (myQueue.offer(aTask, anEvents)) {
+                case ListenerQueue.RETIRED : continue;
+
+                case ListenerQueue.SCHEDULE : {
+                    try {
+                        Tasks.queue(SEND_QUEUE,
+                                    new SendTask(getSource(), myQueue));
+                    } catch (InterruptedException anIE) {
+                        theLogger.log(Level.SEVERE,
+                                      "Failed to add event to queue", anIE);
+                    }
+
+                    return;
+                }
+
+                default : return;
+            }
+        }
+    }
+
+    private static synchronized JavaSpace getSource() {
+        return theSource;
     }
 }
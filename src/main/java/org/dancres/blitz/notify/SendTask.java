@@ -1,41 +1,43 @@
 package org.dancres.blitz.notify;
 
-import java.io.IOException;
-
 import java.util.logging.*;
 
 import net.jini.space.JavaSpace;
 
 import org.dancres.blitz.task.Task;
-
-import org.dancres.blitz.disk.DiskTxn;
-
-import org.dancres.blitz.mangler.MangledEntry;
+import org.dancres.blitz.task.Tasks;
 
 /**
    <p> RemoteEvent dispatch occurs here.  The generator is locked during
    generation of the RemoteEvent and any logging that may be required. </p>
 
+   <p> A SendTask delivers all the events pending on a ListenerQueue, in
+   order, as a single batch.  If more events have arrived by the time it
+   completes it re-queues itself rather than looping so that other
+   listeners get a turn on the dispatch threads. </p>
+
    <p> If we fail to deliver the event to the client we take some special
    action.  First we "taint" the generator to prevent further events being
    processed/dispatched, then we schedule a cleanup task to remove the
    registration associated with the generator. </p>
  */
 class SendTask implements Task {
-    private EventGenerator theGenerator;
     private JavaSpace theSource;
-    private DispatchTask theTask;
-
-    SendTask(JavaSpace aSource, DispatchTask aTask,
-             EventGenerator aGenerator) {
+    private ListenerQueue theQueue;
 
+    SendTask(JavaSpace aSource, ListenerQueue aQueue) {
         theSource = aSource;
-        theGenerator = aGenerator;
-        theTask = aTask;
+        theQueue = aQueue;
     }
 
     public void run() {
-        theGenerator.ping(theTask.getEvent(), theSource);
-        theTask.dispatched();
+        if (theQueue.drain(theSource)) {
+            try {
+                Tasks.queue(RemoteEventDispatcher.SEND_QUEUE, this);
+            } catch (InterruptedException anIE) {
+                RemoteEventDispatcher.theLogger.log(Level.SEVERE,
+                    "Failed to requeue send", anIE);
+            }
+        }
     }
 }
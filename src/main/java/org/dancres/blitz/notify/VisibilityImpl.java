@@ -153,6 +153,10 @@ public class VisibilityImpl extends EventGeneratorBase {
         return (theTxnId == null);
     }
 
+    public boolean isRemote() {
+        return true;
+    }
+
     public long getSourceId() {
         return theSourceId;
     }
@@ -238,6 +242,10 @@ public class VisibilityImpl extends EventGeneratorBase {
         return false;
     }
 
+    public MangledEntry[] getTemplates() {
+        return theTemplates;
+    }
+
     /* ********************************************************************
        Lease management starts here
      **********************************************************************/
@@ -255,6 +263,10 @@ public class VisibilityImpl extends EventGeneratorBase {
         }
     }
 
+    public synchronized boolean hasExpired(long aTime) {
+        return (aTime > theLeaseTime);
+    }
+
     /* ********************************************************************
        Recovery starts here
      **********************************************************************/
@@ -349,6 +361,13 @@ public class VisibilityImpl extends EventGeneratorBase {
         }
     }
 
+    public void skip(int aCount) {
+        synchronized(this) {
+            theSeqNum += aCount;
+            thePingCount += aCount;
+        }
+    }
+
     private RemoteEvent newEvent(JavaSpace aSource, MangledEntry anEntry,
                                  boolean isVisible) {
         ++thePingCount;
@@ -406,7 +425,7 @@ public class VisibilityImpl extends EventGeneratorBase {
             return null;
         }
 
-        if (thePingCount == GeneratorConfig.getSaveInterval()) {
+        if (thePingCount >= GeneratorConfig.getSaveInterval()) {
             thePingCount = 0;
             return new SeqNumInterval(theOID, theSeqNum);
         } else
@@ -0,0 +1,39 @@
+package org.dancres.blitz.notify;
+
+import net.jini.space.JavaSpace;
+
+import org.dancres.blitz.task.Task;
+
+/**
+   <p> Delivers the events from a single DispatchTask to an internal
+   EventGenerator such as one waiting on behalf of a blocked take or read.
+   Unlike remote listeners, these events are never batched through a
+   ListenerQueue or discarded as any one of them might be the write the
+   waiter needs to see.  They're run from <code>Tasks.WAKEUP_QUEUE</code>
+   so they aren't held up behind deliveries to slow remote listeners. </p>
+ */
+class WakeTask implements Task {
+    private EventGenerator theGenerator;
+    private JavaSpace theSource;
+    private DispatchTask theTask;
+    private QueueEvent[] theEvents;
+
+    WakeTask(JavaSpace aSource, DispatchTask aTask,
+             EventGenerator aGenerator, QueueEvent[] anEvents) {
+
+        theSource = aSource;
+        theGenerator = aGenerator;
+        theTask = aTask;
+        theEvents = anEvents;
+    }
+
+    public void run() {
+        try {
+            for (int i = 0; i < theEvents.length; i++) {
+                theGenerator.ping(theEvents[i], theSource);
+            }
+        } finally {
+            theTask.dispatched();
+        }
+    }
+}
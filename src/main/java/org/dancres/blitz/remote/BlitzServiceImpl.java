@@ -72,6 +72,7 @@ import net.jini.space.JavaSpace;
 
 import com.sun.jini.start.LifeCycle;
 
+import org.dancres.blitz.mangler.EntryMangler;
 import org.dancres.blitz.mangler.MangledEntry;
 
 import org.dancres.blitz.lease.SpaceUID;
@@ -407,6 +408,9 @@ public class BlitzServiceImpl implements ServerProxyTrust,
                                     "agents", ColocatedAgent[].class,
                                     new ColocatedAgent[0]);
 
+            if (myInitializers.length != 0)
+                EntryMangler.setReferencePolicy(new ByReferencePolicy());
+
             for (int i = 0; i < myInitializers.length; i++) {
                 myInitializers[i].init(theSpaceProxy);
             }
@@ -0,0 +1,29 @@
+package org.dancres.blitz.remote;
+
+import java.util.logging.Level;
+
+import net.jini.config.ConfigurationException;
+
+import org.dancres.blitz.config.ByReference;
+import org.dancres.blitz.config.EntryConstraints;
+
+import org.dancres.blitz.mangler.EntryMangler;
+
+/**
+   Installed by spaces with colocated clients so that Entry types with the
+   <code>ByReference</code> constraint are mangled by-reference.
+
+   @see org.dancres.blitz.config.ByReference
+ */
+class ByReferencePolicy implements EntryMangler.ReferencePolicy {
+    public boolean isByReference(String aType) {
+        try {
+            return (EntryConstraints.getConstraints(aType).get(
+                ByReference.class) != null);
+        } catch (ConfigurationException aCE) {
+            LocalSpace.theLogger.log(Level.WARNING,
+                "Couldn't load constraints for: " + aType, aCE);
+            return false;
+        }
+    }
+}
@@ -45,6 +45,7 @@ import org.dancres.blitz.lease.SpaceUID;
 import org.dancres.blitz.lease.LeaseBounds;
 import org.dancres.blitz.notify.RemoteEventDispatcher;
 
+import org.dancres.blitz.mangler.EntryMangler;
 import org.dancres.blitz.mangler.MangledEntry;
 
 import org.dancres.blitz.txn.TxnGateway;
@@ -101,6 +102,8 @@ public class LocalSpace implements BlitzServer {
 
         StoragePersonalityFactory.getPersonality();
 
+        EntryMangler.setReferencePolicy(new ByReferencePolicy());
+
         theAdminProxy =
             ProxyFactory.newAdminProxy(this, theUuid);
 
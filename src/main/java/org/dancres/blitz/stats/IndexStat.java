@@ -0,0 +1,69 @@
+package org.dancres.blitz.stats;
+
+/**
+   <p>Reports on the effectiveness of the in-memory index for a particular
+   type.  <code>candidates</code> is the number of ids held under the most
+   selective field of each template searched on whilst <code>offered</code>
+   is the number of those ids that survived intersection with the other
+   non-null fields of the template and were thus offered for matching.
+   Where intersection is required it's done lazily and ids a search never
+   reached are in neither count.  Whether an offered id actually matched
+   is not recorded here.</p>
+
+   <p>A high candidates to offered ratio indicates templates with several
+   fields which would, without intersection, have caused many wasted
+   match attempts.</p>
+ */
+public class IndexStat implements Stat {
+    private long theId;
+    private String theType;
+    private long theSearches;
+    private long theCandidates;
+    private long theOffered;
+
+    public IndexStat(long anId, String aType, long aSearches,
+                     long aCandidates, long anOffered) {
+        theId = anId;
+        theType = aType;
+        theSearches = aSearches;
+        theCandidates = aCandidates;
+        theOffered = anOffered;
+    }
+
+    public long getId() {
+        return theId;
+    }
+
+    public String getType() {
+        return theType;
+    }
+
+    public long getSearches() {
+        return theSearches;
+    }
+
+    public long getCandidates() {
+        return theCandidates;
+    }
+
+    public long getOffered() {
+        return theOffered;
+    }
+
+    /**
+       @return the average number of candidates per offered id or
+       <code>0</code> if none have been offered.
+     */
+    public double getRatio() {
+        if (theOffered == 0)
+            return 0;
+
+        return (double) theCandidates / (double) theOffered;
+    }
+
+    public String toString() {
+        return "Index: " + theType + " searches: " + theSearches +
+            " candidates: " + theCandidates + " offered: " + theOffered +
+            " ratio: " + getRatio();
+    }
+}
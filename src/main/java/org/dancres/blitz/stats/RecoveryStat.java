@@ -0,0 +1,63 @@
+package org.dancres.blitz.stats;
+
+/**
+   <p>Tracks the progress of replaying the command log at startup when logs
+   are decoded in parallel.  This stat is permanently enabled and cannot be
+   switched on or off.</p>
+ */
+public class RecoveryStat implements Stat {
+    private long theId;
+
+    private int theLogCount;
+    private int theLogsReplayed;
+    private long theCommandCount;
+    private long theElapsed;
+    private boolean isComplete;
+
+    public RecoveryStat(long anId, int aLogCount, int aLogsReplayed,
+                        long aCommandCount, long anElapsed,
+                        boolean complete) {
+        theId = anId;
+        theLogCount = aLogCount;
+        theLogsReplayed = aLogsReplayed;
+        theCommandCount = aCommandCount;
+        theElapsed = anElapsed;
+        isComplete = complete;
+    }
+
+    public long getId() {
+        return theId;
+    }
+
+    /**
+       @return the number of log files to be replayed
+     */
+    public int getLogCount() {
+        return theLogCount;
+    }
+
+    public int getLogsReplayed() {
+        return theLogsReplayed;
+    }
+
+    public long getCommandCount() {
+        return theCommandCount;
+    }
+
+    /**
+       @return time in ms spent replaying so far or in total once complete
+     */
+    public long getElapsed() {
+        return theElapsed;
+    }
+
+    public boolean isComplete() {
+        return isComplete;
+    }
+
+    public String toString() {
+        return "Recovery: " + theLogsReplayed + " of " + theLogCount +
+            " logs, commands: " + theCommandCount + " in " + theElapsed +
+            "ms" + ((isComplete) ? " complete" : "");
+    }
+}
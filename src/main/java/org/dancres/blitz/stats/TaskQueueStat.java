@@ -6,11 +6,20 @@ public class TaskQueueStat implements Stat {
     private long _id;
     private String _queueName;
     private int _size;
+    private int _active;
+    private long _completed;
 
     public TaskQueueStat(long anId, String aQueueName, int aSize) {
+        this(anId, aQueueName, aSize, 0, 0);
+    }
+
+    public TaskQueueStat(long anId, String aQueueName, int aSize,
+                         int anActive, long aCompleted) {
         _id = anId;
         _queueName = aQueueName;
         _size = aSize;
+        _active = anActive;
+        _completed = aCompleted;
     }
 
     public long getId() {
@@ -25,7 +34,22 @@ public class TaskQueueStat implements Stat {
         return _size;
     }
 
+    /**
+       @return the number of tasks from this queue currently running
+     */
+    public int getActive() {
+        return _active;
+    }
+
+    /**
+       @return the number of tasks from this queue run to completion
+     */
+    public long getCompleted() {
+        return _completed;
+    }
+
     public String toString() {
-        return "Queue: " + _queueName + " size: " + _size; 
+        return "Queue: " + _queueName + " size: " + _size + " active: " +
+            _active + " completed: " + _completed;
     }
 }
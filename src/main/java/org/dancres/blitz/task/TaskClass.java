@@ -0,0 +1,58 @@
+package org.dancres.blitz.task;
+
+/**
+   <p>Configures the scheduling of one class of task (identified by the queue
+   name passed to <code>Tasks.queue</code>).  All classes share the one pool
+   of <code>maxTaskThreads</code> threads.  When several classes have work
+   waiting, each receives threads in proportion to its weight.  A class can
+   also be restricted to a maximum number of threads such that the remainder
+   are always available to other classes (e.g. so that wake-ups of blocked
+   takes aren't held up by slow remote notify calls).</p>
+
+   <pre>
+   taskClasses = new TaskClass[] {
+       new TaskClass("Wakeup", 16, 0),
+       new TaskClass("DefaultTask", 8, 0),
+       new TaskClass("RemoteEvent", 1, 8)};
+   </pre>
+
+   @see org.dancres.blitz.task.Tasks
+ */
+public class TaskClass {
+    private String theName;
+    private int theWeight;
+    private int theMaxThreads;
+
+    /**
+       @param aName the name of the queue
+       @param aWeight the share of threads this class receives relative to
+       other classes with work waiting.
+       @param aMaxThreads the maximum number of threads that may be running
+       tasks of this class at once, <code>0</code> for no limit.
+     */
+    public TaskClass(String aName, int aWeight, int aMaxThreads) {
+        if (aWeight < 1)
+            throw new IllegalArgumentException("Weight must be at least 1");
+
+        theName = aName;
+        theWeight = aWeight;
+        theMaxThreads = aMaxThreads;
+    }
+
+    public String getName() {
+        return theName;
+    }
+
+    public int getWeight() {
+        return theWeight;
+    }
+
+    public int getMaxThreads() {
+        return theMaxThreads;
+    }
+
+    public String toString() {
+        return "TaskClass: " + theName + " weight: " + theWeight +
+            " max threads: " + theMaxThreads;
+    }
+}
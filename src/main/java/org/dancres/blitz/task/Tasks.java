@@ -1,8 +1,12 @@
 package org.dancres.blitz.task;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 
 import java.util.concurrent.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -11,10 +15,12 @@ import net.jini.config.ConfigurationException;
 import org.dancres.blitz.ActiveObject;
 import org.dancres.blitz.ActiveObjectRegistry;
 import org.dancres.blitz.Logging;
+import org.dancres.blitz.stats.Stat;
+import org.dancres.blitz.stats.StatGenerator;
 import org.dancres.blitz.stats.StatsBoard;
+import org.dancres.blitz.stats.TaskQueueStat;
 
 import org.dancres.blitz.config.ConfigurationFactory;
-import org.dancres.blitz.util.QueueStatGenerator;
 
 /**
    Various operations within the space must be handled in background.
@@ -32,7 +38,23 @@ import org.dancres.blitz.util.QueueStatGenerator;
    to truly balance, say, notification rate against search wakeups, one
    must assign differing priorities to these <I>tasks</I> as opposed to
    <I>threads</I> to ensure CPU consumption is bounded and that, whichever
-   tasks have priority, get to use the CPU first.
+   tasks have priority, get to use the CPU first. <P>
+
+   Thus each queue name identifies a class of task and all classes share a
+   single pool of <code>maxTaskThreads</code> threads.  Whenever a thread
+   becomes free it takes a task from the class with work waiting that has
+   received the least service relative to its weight (stride scheduling).
+   Classes can also be limited in the number of threads they may occupy at
+   once, see <code>TaskClass</code>. <P>
+
+   By default, wake-ups of blocked searches and of those waiting on
+   transaction locks (WAKEUP_QUEUE) are favoured over everything else and
+   RemoteEvent dispatch (which can block on slow clients) may occupy all but
+   one thread.  When <code>maxTaskThreads</code> is 1 there's
+   no thread to hold back so RemoteEvents share it with all other tasks and
+   a slow listener will delay them. <P>
+
+   @see org.dancres.blitz.task.TaskClass
  */
 public class Tasks implements ActiveObject {
     private static Logger theLogger =
@@ -40,12 +62,25 @@ public class Tasks implements ActiveObject {
     
     private static final String DEFAULT_QUEUE = "DefaultTask";
 
-    private static Tasks theTasks = new Tasks();
+    /**
+       Queue for tasks that wake internal waiters such as blocked reads and
+       takes, these are short and latency sensitive.
+     */
+    public static final String WAKEUP_QUEUE = "Wakeup";
+
+    /**
+       Scheduling for any class not explicitly configured
+     */
+    private static final int DEFAULT_WEIGHT = 4;
+
+    private static final long STRIDE = 1L << 20;
 
     private static int MAX_TASK_THREADS;
 
     private static int TASK_QUEUE_BOUND;
 
+    private static TaskClass[] TASK_CLASSES;
+
     static {
         try {
             MAX_TASK_THREADS = ((Integer)
@@ -57,83 +92,323 @@ public class Tasks implements ActiveObject {
                                               int.class,
                                               new Integer(0))).intValue();
 
+            /*
+              By default, search and lock wakeups are favoured, then
+              cleanups (DefaultTask), and remote event dispatch, which can
+              block on slow clients, is kept from occupying the last
+              thread.  That's not
+              possible with only one thread so, in that case, remote events
+              are allowed to use it.
+             */
+            int myEventThreads = MAX_TASK_THREADS - 1;
+
+            if (myEventThreads < 1) {
+                theLogger.log(Level.WARNING, "Only one task thread, " +
+                              "RemoteEvents will share it with other tasks");
+                myEventThreads = 1;
+            }
+
+            TASK_CLASSES = (TaskClass[])
+                ConfigurationFactory.getEntry("taskClasses",
+                    TaskClass[].class,
+                    new TaskClass[] {
+                        new TaskClass(WAKEUP_QUEUE, 16, 0),
+                        new TaskClass(DEFAULT_QUEUE, 8, 0),
+                        new TaskClass("RemoteEvent", 1, myEventThreads)});
+
             theLogger.log(Level.INFO, "Maximum task threads: " +
                           MAX_TASK_THREADS);
             theLogger.log(Level.INFO, "Task queue bound: " +
                           TASK_QUEUE_BOUND);
 
+            for (int i = 0; i < TASK_CLASSES.length; i++) {
+                theLogger.log(Level.INFO, TASK_CLASSES[i].toString());
+            }
+
         } catch (ConfigurationException aCE) {
             theLogger.log(Level.SEVERE, "Failed to load config", aCE);
+            TASK_CLASSES = new TaskClass[0];
         }
     }
 
-    private ConcurrentMap<String, ExecutorService> theExecutors = new ConcurrentHashMap();
+    private static Tasks theTasks = new Tasks();
+
+    private int theMaxThreads;
+    private int theQueueBound;
+    private TaskClass[] theClasses;
+
+    private ConcurrentMap<String, Channel> theChannels =
+        new ConcurrentHashMap();
+
+    /*
+      Guards the selection of channels by workers and the worker list
+     */
+    private Lock theLock = new ReentrantLock();
+    private Condition theWorkAvailable = theLock.newCondition();
+
+    private ArrayList theWorkers = new ArrayList();
+
+    /*
+      The smallest pass of any channel that's been selected, used to stop
+      channels that have been idle from building up credit
+     */
+    private long thePass;
 
     private Tasks() {
+        this(MAX_TASK_THREADS, TASK_QUEUE_BOUND, TASK_CLASSES);
+
         ActiveObjectRegistry.add(this);
     }
 
+    /**
+       @param aMaxThreads the number of threads shared by all queues
+       @param aQueueBound the maximum number of tasks waiting in each queue,
+       <code>0</code> for no limit.
+       @param aClasses scheduling for the named queues, all others get the
+       default weight and no thread limit.
+     */
+    Tasks(int aMaxThreads, int aQueueBound, TaskClass[] aClasses) {
+        theMaxThreads = aMaxThreads;
+        theQueueBound = aQueueBound;
+        theClasses = aClasses;
+    }
+
     public static void queue(Task aTask) throws InterruptedException {
         queue(DEFAULT_QUEUE, aTask);
     }
 
+    /**
+       Queue a task for execution.  If <code>taskQueueBound</code> is set and
+       the named queue is full, this call blocks until there is space.
+     */
     public static void queue(String aQueue, 
                              Task aTask) throws InterruptedException {
         theTasks.execute(aQueue, aTask);
     }
 
-    private void execute(String aQueue, Task aTask)
+    void execute(String aQueue, Task aTask)
         throws InterruptedException {
 
-        getExecutor(aQueue).execute(aTask);
+        getChannel(aQueue).theTasks.put(aTask);
+
+        theLock.lock();
+        try {
+            if (theWorkers.size() == 0)
+                startWorkers();
+
+            theWorkAvailable.signal();
+        } finally {
+            theLock.unlock();
+        }
     }
 
     public void begin() {
     }
 
     public void halt() {
-        for (ExecutorService e: theExecutors.values()) {
-            e.shutdownNow();
+        theLock.lock();
+        try {
+            for (Iterator i = theWorkers.iterator(); i.hasNext(); ) {
+                ((Worker) i.next()).halt();
+            }
+
+            theWorkers.clear();
+        } finally {
+            theLock.unlock();
         }
 
-        theExecutors.clear();
+        theChannels.clear();
     }
 
-    private ExecutorService getExecutor(String aName) {
-        ExecutorService myExec = theExecutors.get(aName);
+    /**
+       Must be called with theLock held
+     */
+    private void startWorkers() {
+        for (int i = 0; i < theMaxThreads; i++) {
+            Worker myWorker = new Worker(i);
 
-        if (myExec == null) {
+            theWorkers.add(myWorker);
+            myWorker.start();
+        }
+    }
 
-            LinkedBlockingQueue myQueue;
+    private Channel getChannel(String aName) {
+        Channel myChannel = theChannels.get(aName);
 
-            if (TASK_QUEUE_BOUND == 0) {
-                theLogger.log(Level.INFO,
-                        "Creating task pool with no bounds [ " + aName + " ]");
+        if (myChannel == null) {
+            TaskClass myClass = new TaskClass(aName, DEFAULT_WEIGHT, 0);
 
+            for (int i = 0; i < theClasses.length; i++) {
+                if (theClasses[i].getName().equals(aName)) {
+                    myClass = theClasses[i];
+                    break;
+                }
+            }
 
-                myQueue = new LinkedBlockingQueue(Integer.MAX_VALUE);
-                myExec = new ThreadPoolExecutor(MAX_TASK_THREADS, MAX_TASK_THREADS, 0, TimeUnit.MILLISECONDS,
-                        myQueue);
-            } else {
+            if (theQueueBound == 0) {
                 theLogger.log(Level.INFO,
-                        "Creating task pool with bounds: " +
-                                TASK_QUEUE_BOUND);
+                        "Creating task queue with no bounds [ " + aName +
+                        " ]");
 
-                myQueue = new LinkedBlockingQueue(TASK_QUEUE_BOUND);
-                myExec = new ThreadPoolExecutor(MAX_TASK_THREADS, MAX_TASK_THREADS, 0, TimeUnit.MILLISECONDS,
-                        myQueue);
+                myChannel = new Channel(myClass, Integer.MAX_VALUE);
+            } else {
+                theLogger.log(Level.INFO,
+                        "Creating task queue with bounds: " +
+                                theQueueBound + " [ " + aName + " ]");
 
+                myChannel = new Channel(myClass, theQueueBound);
             }
 
-            ExecutorService myCollision = theExecutors.putIfAbsent(aName, myExec);
+            Channel myCollision = theChannels.putIfAbsent(aName, myChannel);
             if (myCollision == null)
-                StatsBoard.get().add(new QueueStatGenerator(aName, myQueue));
-            else {
-                myExec.shutdownNow();
-                myExec = myCollision;
-            }
+                StatsBoard.get().add(myChannel);
+            else
+                myChannel = myCollision;
+        }
+
+        return myChannel;
+    }
+
+    /**
+       Must be called with theLock held.
+
+       @return the eligible channel with the lowest pass or
+       <code>null</code> if there is no work that can be run.
+     */
+    private Channel select() {
+        Channel mySelected = null;
+
+        for (Channel myChannel: theChannels.values()) {
+            if (! myChannel.isEligible())
+                continue;
+
+            if ((mySelected == null) ||
+                (myChannel.thePass < mySelected.thePass))
+                mySelected = myChannel;
+        }
+
+        return mySelected;
+    }
+
+    private Dispatch next() throws InterruptedException {
+        theLock.lock();
+        try {
+            Channel myChannel;
+
+            while ((myChannel = select()) == null)
+                theWorkAvailable.await();
+
+            if (myChannel.thePass < thePass)
+                myChannel.thePass = thePass;
+            else
+                thePass = myChannel.thePass;
+
+            myChannel.thePass += myChannel.theStride;
+            myChannel.theActive++;
+
+            return new Dispatch(myChannel, (Task) myChannel.theTasks.poll());
+        } finally {
+            theLock.unlock();
+        }
+    }
+
+    private void done(Channel aChannel) {
+        theLock.lock();
+        try {
+            aChannel.theActive--;
+            aChannel.theCompleted++;
+
+            // Releasing a thread may have made a capped channel eligible
+            theWorkAvailable.signal();
+        } finally {
+            theLock.unlock();
+        }
+    }
+
+    /**
+       The runtime state of a TaskClass
+     */
+    private static class Channel implements StatGenerator {
+        private long theId = StatGenerator.UNSET_ID;
+
+        private String theName;
+        private LinkedBlockingQueue theTasks;
+        private int theMaxThreads;
+        private long theStride;
+
+        private long thePass;
+        private volatile int theActive;
+        private volatile long theCompleted;
+
+        Channel(TaskClass aClass, int aBound) {
+            theName = aClass.getName();
+            theMaxThreads = aClass.getMaxThreads();
+            theStride = STRIDE / aClass.getWeight();
+            theTasks = new LinkedBlockingQueue(aBound);
         }
 
-        return myExec;
+        boolean isEligible() {
+            if (theTasks.isEmpty())
+                return false;
+
+            return ((theMaxThreads == 0) || (theActive < theMaxThreads));
+        }
+
+        public long getId() {
+            return theId;
+        }
+
+        public void setId(long anId) {
+            theId = anId;
+        }
+
+        public Stat generate() {
+            return new TaskQueueStat(theId, theName, theTasks.size(),
+                                     theActive, theCompleted);
+        }
+    }
+
+    private static class Dispatch {
+        private Channel theChannel;
+        private Task theTask;
+
+        Dispatch(Channel aChannel, Task aTask) {
+            theChannel = aChannel;
+            theTask = aTask;
+        }
+    }
+
+    private class Worker extends Thread {
+        private volatile boolean isHalted;
+
+        Worker(int anId) {
+            super("Tasks-" + anId);
+        }
+
+        void halt() {
+            isHalted = true;
+            interrupt();
+        }
+
+        public void run() {
+            while (! isHalted) {
+                Dispatch myDispatch;
+
+                try {
+                    myDispatch = next();
+                } catch (InterruptedException anIE) {
+                    continue;
+                }
+
+                try {
+                    myDispatch.theTask.run();
+                } catch (Throwable aT) {
+                    theLogger.log(Level.SEVERE, "Task failed: " +
+                                  myDispatch.theTask, aT);
+                } finally {
+                    done(myDispatch.theChannel);
+                }
+            }
+        }
     }
 }
@@ -159,7 +159,8 @@ public class CondensedStats extends MonitorStats {
             // Queues, internal notify queue, remote notify queue and other tasks
             int queueEvents = getTaskQueue(stats, "Events");
             int queueRemote = getTaskQueue(stats, "RemoteEvent");
-            int queueOther = getTaskQueue(stats, "DefaultTask");
+            int queueOther = getTaskQueue(stats, "DefaultTask") +
+                getTaskQueue(stats, "Wakeup");
             
             // Writer I/O if persistent storage model in use
             double ioRatio = 0;
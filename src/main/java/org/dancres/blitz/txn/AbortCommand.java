@@ -21,6 +21,10 @@ class AbortCommand implements Command {
         theId = anId;
     }
 
+    TxnId getId() {
+        return theId;
+    }
+
     public Serializable execute(PrevalentSystem aSystem) throws Exception {
         TxnDispatcherState mySystem = (TxnDispatcherState) aSystem;
 
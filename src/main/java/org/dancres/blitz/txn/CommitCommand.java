@@ -17,6 +17,10 @@ class CommitCommand implements Command {
         theId = anId;
     }
 
+    TxnId getId() {
+        return theId;
+    }
+
     public Serializable execute(PrevalentSystem aSystem) throws Exception {
         TxnDispatcherState mySystem = (TxnDispatcherState) aSystem;
 
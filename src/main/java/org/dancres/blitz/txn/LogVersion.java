@@ -5,7 +5,12 @@ import java.io.Serializable;
 class LogVersion implements Serializable {
     static final long serialVersionUID = -6949591955686028824L;
 
-    static final LogVersion VERSION = new LogVersion(1, 1);
+    static final LogVersion VERSION = new LogVersion(1, 2);
+
+    /**
+       Snapshots prior to the introduction of checksummed sections
+     */
+    static final LogVersion UNSECTIONED = new LogVersion(1, 1);
 
     private int theMajor;
     private int theMinor;
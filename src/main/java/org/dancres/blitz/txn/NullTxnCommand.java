@@ -0,0 +1,52 @@
+package org.dancres.blitz.txn;
+
+import java.io.Serializable;
+
+import org.prevayler.Command;
+import org.prevayler.PrevalentSystem;
+
+/**
+   Command to prepare and commit a null transaction in one step.  Null
+   transactions aren't registered with TxnDispatcherState so, unlike
+   PrepCommitCommand, this command carries whether or not the transaction's
+   operations must be restored: a command created live is marked as such,
+   one recovered from the log isn't.
+ */
+class NullTxnCommand implements Command {
+    static final long serialVersionUID = -4915320563542187722L;
+
+    private TxnState theTxn;
+
+    private transient boolean isLive;
+
+    NullTxnCommand(TxnState aTxn) {
+        this(aTxn, false);
+    }
+
+    NullTxnCommand(TxnState aTxn, boolean live) {
+        theTxn = aTxn;
+        isLive = live;
+    }
+
+    TxnState getTxn() {
+        return theTxn;
+    }
+
+    public Serializable execute(PrevalentSystem aSystem) throws Exception {
+        TxnDispatcherState mySystem = (TxnDispatcherState) aSystem;
+
+        // Recovered from the log, allocate the id as we apply
+        theTxn.assignNullId();
+
+        return new Integer(mySystem.prepareAndCommitNull(theTxn, !isLive));
+    }
+
+    public String toString() {
+        StringBuffer myString = new StringBuffer();
+
+        myString.append(theTxn.toString());
+        myString.append("- : NC : " + theTxn.getId());
+
+        return myString.toString();
+    }
+}
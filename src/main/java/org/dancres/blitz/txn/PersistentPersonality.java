@@ -2,11 +2,14 @@ package org.dancres.blitz.txn;
 
 import java.util.logging.Level;
 
+import net.jini.config.ConfigurationException;
+
 import org.prevayler.implementation.SnapshotPrevayler;
 import org.prevayler.implementation.PrevaylerCore;
 
 import org.prevayler.PrevalentSystem;
 
+import org.dancres.blitz.config.ConfigurationFactory;
 import org.dancres.blitz.config.Persistent;
 
 import org.dancres.blitz.disk.Disk;
@@ -19,6 +22,33 @@ import org.dancres.blitz.txn.batch.*;
    @see org.dancres.blitz.config.Persistent
  */
 class PersistentPersonality implements StoragePersonality {
+    private static boolean USE_GROUP_COMMIT;
+
+    /*
+      Number of log files decoded in parallel during recovery, each decoded
+      file is held in memory until it's been replayed.
+     */
+    private static int LOG_REPLAY_DECODERS = 2;
+
+    static {
+        try {
+            USE_GROUP_COMMIT =
+                ((Boolean)
+                 ConfigurationFactory.getEntry("groupCommitLog",
+                                               Boolean.class,
+                                               new Boolean(false))).booleanValue();
+
+            LOG_REPLAY_DECODERS =
+                ((Integer)
+                 ConfigurationFactory.getEntry("logReplayDecoders",
+                                               int.class,
+                                               new Integer(2))).intValue();
+        } catch (ConfigurationException aCE) {
+            TxnDispatcher.theLogger.log(Level.SEVERE,
+                                        "Couldn't load config", aCE);
+        }
+    }
+
     private Persistent theModel;
     private String theLogDir;
 
@@ -34,10 +64,16 @@ class PersistentPersonality implements StoragePersonality {
         TxnDispatcher.theLogger.log(Level.INFO, "Write barrier window: " +
                           theModel.getBatchWriteWindowSizeMs() + ", " + theModel.getBatchWriteWindowSizeNs());
 
-        if (!theModel.dontUseExperimentalBatcher())
+        if (USE_GROUP_COMMIT)
+            TxnDispatcher.theLogger.log(Level.INFO,
+                                     "Group commit enabled - write barrier window ignored");
+        else if (!theModel.dontUseExperimentalBatcher())
                 TxnDispatcher.theLogger.log(Level.INFO,
                                          "*** Experimental batcher enabled ***");
 
+        TxnDispatcher.theLogger.log(Level.INFO, "Log replay decoders: " +
+                                    LOG_REPLAY_DECODERS);
+
         if (theModel.shouldCleanLogs()) {
             TxnDispatcher.theLogger.log(Level.WARNING,
                                      "*** Automatically cleaning logs *** [EXPERIMENTAL]");
@@ -63,7 +99,12 @@ class PersistentPersonality implements StoragePersonality {
                                       theLogDir,
                                       theModel.shouldResetLogStream(),
                                       theModel.shouldCleanLogs(),
-                                      theModel.getLogBufferSize());
+                                      theModel.getLogBufferSize(),
+                                      LOG_REPLAY_DECODERS,
+                                      new TxnCommandCodec());
+
+        if (USE_GROUP_COMMIT)
+            return new GroupCommitBatcher(myPrevayler);
 
         if ((theModel.getBatchWriteWindowSizeMs() != 0) ||
             (theModel.getBatchWriteWindowSizeNs() != 0)) {
@@ -15,6 +15,10 @@ class PrepCommand implements Command {
         theTxn = aTxn;
     }
 
+    TxnState getTxn() {
+        return theTxn;
+    }
+
     public Serializable execute(PrevalentSystem aSystem) throws Exception {
         TxnDispatcherState mySystem = (TxnDispatcherState) aSystem;
 
@@ -21,6 +21,10 @@ class PrepCommitCommand implements Command {
         theTxn = aTxn;
     }
 
+    TxnState getTxn() {
+        return theTxn;
+    }
+
     public Serializable execute(PrevalentSystem aSystem) throws Exception {
         TxnDispatcherState mySystem = (TxnDispatcherState) aSystem;
 
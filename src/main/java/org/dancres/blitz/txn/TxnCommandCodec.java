@@ -0,0 +1,117 @@
+package org.dancres.blitz.txn;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+import org.prevayler.Command;
+import org.prevayler.CommandCodec;
+
+import org.dancres.blitz.EntryTxnOpCodec;
+
+import org.dancres.util.ObjectTransformer;
+
+/**
+   <p>Writes the transaction commands to the log in a compact, hand-written
+   form rather than serializing them.  Each command is a tag followed by the
+   TxnId or TxnState it carries, null transactions carry only their
+   operations.  A TxnState's operations are written by the
+   first TxnOpCodec that handles them, anything else (registrations, lease
+   renewals etc) is serialized individually.</p>
+
+   <p>Tags and the order of <code>OP_CODECS</code> are part of the log
+   format, only append to them.</p>
+ */
+public class TxnCommandCodec implements CommandCodec {
+    private static final byte PREPARE = 1;
+    private static final byte PREPARE_COMMIT = 2;
+    private static final byte COMMIT = 3;
+    private static final byte ABORT = 4;
+    private static final byte ABORT_ALL = 5;
+    private static final byte NULL_TXN = 6;
+
+    private static final byte SERIALIZED_OP = 0;
+
+    private static final TxnOpCodec[] OP_CODECS = {
+        new EntryTxnOpCodec()
+    };
+
+    public boolean encode(Command aCommand, DataOutput anOut)
+        throws IOException {
+
+        if (aCommand instanceof NullTxnCommand) {
+            anOut.writeByte(NULL_TXN);
+            ((NullTxnCommand) aCommand).getTxn().writeOpsTo(anOut);
+        } else if (aCommand instanceof PrepCommand) {
+            anOut.writeByte(PREPARE);
+            ((PrepCommand) aCommand).getTxn().writeTo(anOut);
+        } else if (aCommand instanceof PrepCommitCommand) {
+            anOut.writeByte(PREPARE_COMMIT);
+            ((PrepCommitCommand) aCommand).getTxn().writeTo(anOut);
+        } else if (aCommand instanceof CommitCommand) {
+            anOut.writeByte(COMMIT);
+            ((CommitCommand) aCommand).getId().writeTo(anOut);
+        } else if (aCommand instanceof AbortCommand) {
+            anOut.writeByte(ABORT);
+            ((AbortCommand) aCommand).getId().writeTo(anOut);
+        } else if (aCommand instanceof AbortAllCommand) {
+            anOut.writeByte(ABORT_ALL);
+        } else
+            return false;
+
+        return true;
+    }
+
+    public Command decode(DataInput anIn)
+        throws IOException, ClassNotFoundException {
+
+        byte myTag = anIn.readByte();
+
+        switch (myTag) {
+            case PREPARE : return new PrepCommand(TxnState.readFrom(anIn));
+            case PREPARE_COMMIT :
+                return new PrepCommitCommand(TxnState.readFrom(anIn));
+            case COMMIT : return new CommitCommand(TxnId.readFrom(anIn));
+            case ABORT : return new AbortCommand(TxnId.readFrom(anIn));
+            case ABORT_ALL : return new AbortAllCommand();
+            case NULL_TXN :
+                return new NullTxnCommand(TxnState.readNullFrom(anIn));
+            default :
+                throw new StreamCorruptedException("Unknown command: " +
+                                                   myTag);
+        }
+    }
+
+    static void writeOp(TxnOp anOp, DataOutput anOut) throws IOException {
+        for (int i = 0; i < OP_CODECS.length; i++) {
+            if (OP_CODECS[i].handles(anOp)) {
+                anOut.writeByte(i + 1);
+                OP_CODECS[i].write(anOp, anOut);
+                return;
+            }
+        }
+
+        byte[] myBytes = ObjectTransformer.toByte(anOp);
+
+        anOut.writeByte(SERIALIZED_OP);
+        anOut.writeInt(myBytes.length);
+        anOut.write(myBytes);
+    }
+
+    static TxnOp readOp(DataInput anIn) throws IOException {
+        int myTag = anIn.readByte();
+
+        if (myTag == SERIALIZED_OP) {
+            byte[] myBytes = new byte[anIn.readInt()];
+            anIn.readFully(myBytes);
+
+            return (TxnOp) ObjectTransformer.toObject(myBytes);
+        }
+
+        if ((myTag < 1) || (myTag > OP_CODECS.length))
+            throw new StreamCorruptedException("Unknown op codec: " + myTag);
+
+        return OP_CODECS[myTag - 1].read(anIn);
+    }
+}
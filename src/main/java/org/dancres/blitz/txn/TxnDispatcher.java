@@ -313,6 +313,11 @@ public class TxnDispatcher {
 
     public void abort(TxnState aState) throws UnknownTransactionException {
 
+        if (aState.isNull()) {
+            abortNull(aState);
+            return;
+        }
+
         try {
             theLock.readLock().lock();
 
@@ -348,6 +353,34 @@ public class TxnDispatcher {
         }
     }
 
+    /**
+       Null transactions aren't registered and are never logged as prepared
+       so we abort them directly.
+     */
+    private void abortNull(TxnState aState)
+        throws UnknownTransactionException {
+
+        try {
+            theLock.readLock().lock();
+
+            theManagerState.abortNull(aState);
+
+            theLock.readLock().unlock();
+
+            aState.doFinalize();
+
+        } catch (Exception anE) {
+            theLock.readLock().unlock();
+            theLogger.log(Level.SEVERE, "Failed to abort null txn", anE);
+            throw new UnknownTransactionException();
+        }
+    }
+
+    /**
+       Null transactions are prepared and committed by a single
+       NullTxnCommand which avoids any lookup in TxnDispatcherState and is
+       logged as one compact record.
+     */
     public int prepareAndCommit(TxnState aState)
         throws UnknownTransactionException {
 
@@ -358,8 +391,11 @@ public class TxnDispatcher {
 
             boolean dontLog = ((aState.isIdentity()) || (aState.hasNoOps()));
 
-            Integer myResult = (Integer)
-                execute(new PrepCommitCommand(aState), dontLog);
+            Command myCommand = (aState.isNull()) ?
+                (Command) new NullTxnCommand(aState, true) :
+                (Command) new PrepCommitCommand(aState);
+
+            Integer myResult = (Integer) execute(myCommand, dontLog);
 
             theLock.readLock().unlock();
 
@@ -408,8 +444,8 @@ public class TxnDispatcher {
                 myEnclosing.vote();
                 
                 // Given the contract of timeout, we can make this loss'y'
-                thePrevayler.executeCommand(new PrepCommitCommand(myEnclosing),
-                        false);
+                thePrevayler.executeCommand(
+                        new NullTxnCommand(myEnclosing, true), false);
                 theLock.readLock().unlock();
                 theCheckpointTrigger.loggedCommand();
                 return true;
@@ -1,5 +1,7 @@
 package org.dancres.blitz.txn;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -10,6 +12,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
+import java.util.zip.CRC32;
 
 import net.jini.core.transaction.TransactionException;
 import net.jini.core.transaction.UnknownTransactionException;
@@ -19,11 +22,18 @@ import org.prevayler.AlarmClock;
 import org.prevayler.PrevalentSystem;
 import org.prevayler.SnapshotContributor;
 
+import org.dancres.util.ObjectTransformer;
+
 /**
  * Responsible for tracking/managing transactions.  This responsiblity is split
  * across two classes.  TxnDispatcher handles control aspects whilst
  * TxnDispatcherState tracks the transactional information. <P>
  *
+ * From LogVersion 1.2, each prepared transaction and each snapshot
+ * contribution is saved as a separate section carrying a CRC32 so that
+ * corruption is detected on recovery.  Contributions are only decoded
+ * when they're requested via <code>getSnapshotContributions</code>. <P>
+ *
  * @see TxnDispatcher
  */
 class TxnDispatcherState implements PrevalentSystem {
@@ -42,8 +52,15 @@ class TxnDispatcherState implements PrevalentSystem {
 
     private Serializable[] theSnapshotContributions = new Serializable[0];
 
+    /*
+      Undecoded contributions recovered from a snapshot, null once decoded
+     */
+    private byte[][] theContributionSections;
+
     private ArrayList theSnapshotContributors = new ArrayList();
 
+    private static final int SECTION_CHUNK = 64 * 1024;
+
     static void enableUpgrade() {
         UPGRADE = true;
     }
@@ -82,10 +99,88 @@ class TxnDispatcherState implements PrevalentSystem {
         }
     }
 
-    public Serializable[] getSnapshotContributions() {
+    public synchronized Serializable[] getSnapshotContributions() {
+        if (theContributionSections != null) {
+            ArrayList myContributions = new ArrayList();
+
+            for (int i = 0; i < theContributionSections.length; i++) {
+                try {
+                    myContributions.add(
+                        ObjectTransformer.toObject(theContributionSections[i]));
+                } catch (Exception anE) {
+                    TxnDispatcher.theLogger.log(Level.SEVERE,
+                        "Couldn't decode snapshot contribution " + i +
+                        " of " + theContributionSections.length +
+                        " (" + theContributionSections[i].length +
+                        " bytes), it's been dropped", anE);
+                }
+            }
+
+            theSnapshotContributions =
+                new Serializable[myContributions.size()];
+            theSnapshotContributions = (Serializable[])
+                myContributions.toArray(theSnapshotContributions);
+            theContributionSections = null;
+        }
+
         return theSnapshotContributions;
     }
 
+    private static void writeSection(ObjectOutputStream anOut,
+                                     Serializable anObject)
+        throws IOException {
+        byte[] myBytes = ObjectTransformer.toByte(anObject);
+        CRC32 myChecksum = new CRC32();
+
+        myChecksum.update(myBytes);
+
+        anOut.writeInt(myBytes.length);
+        anOut.write(myBytes);
+        anOut.writeLong(myChecksum.getValue());
+    }
+
+    /**
+       The length is read from the snapshot and can't be trusted to allocate
+       in one go.  A corrupt length is caught by reading the section in
+       chunks and running out of bytes before we run out of memory.
+     */
+    private static byte[] readSection(ObjectInputStream anIn)
+        throws IOException {
+        int myLength = anIn.readInt();
+
+        if (myLength < 0)
+            throw new IOException("Snapshot section has bad length: " +
+                                  myLength);
+
+        ByteArrayOutputStream mySection =
+            new ByteArrayOutputStream(Math.min(myLength, SECTION_CHUNK));
+        byte[] myChunk = new byte[Math.min(myLength, SECTION_CHUNK)];
+        int myRemaining = myLength;
+
+        try {
+            while (myRemaining > 0) {
+                int myRead = Math.min(myRemaining, myChunk.length);
+
+                anIn.readFully(myChunk, 0, myRead);
+                mySection.write(myChunk, 0, myRead);
+                myRemaining -= myRead;
+            }
+        } catch (EOFException anEOFE) {
+            throw new IOException("Snapshot section length " + myLength +
+                                  " exceeds the bytes remaining");
+        }
+
+        byte[] myBytes = mySection.toByteArray();
+
+        CRC32 myChecksum = new CRC32();
+        myChecksum.update(myBytes);
+
+        if (myChecksum.getValue() != anIn.readLong())
+            throw new IOException("Snapshot section failed checksum");
+
+        return myBytes;
+    }
+
     private void writeObject(ObjectOutputStream anOut) throws IOException {
         anOut.writeObject(LogVersion.VERSION);
 
@@ -128,7 +223,7 @@ class TxnDispatcherState implements PrevalentSystem {
         anOut.writeInt(myPrepared.size());
 
         for (int i = 0; i < myPrepared.size(); i++) {
-            anOut.writeObject(myPrepared.get(i));
+            writeSection(anOut, (Serializable) myPrepared.get(i));
         }
 
         /*
@@ -142,16 +237,18 @@ class TxnDispatcherState implements PrevalentSystem {
             }
         }
 
-        Serializable[] myUserData = new Serializable[myContributions.size()];
-        myUserData = (Serializable[]) myContributions.toArray(myUserData);
+        anOut.writeInt(myContributions.size());
 
-        anOut.writeObject(myUserData);
+        for (int i = 0; i < myContributions.size(); i++) {
+            writeSection(anOut, (Serializable) myContributions.get(i));
+        }
     }
 
     private void readObject(ObjectInputStream anIn)
             throws IOException, ClassNotFoundException {
 
         boolean isUpgrade = false;
+        boolean isSectioned = false;
 
         theTxns = new ConcurrentHashMap();
         theSnapshotContributors = new ArrayList();
@@ -170,7 +267,9 @@ class TxnDispatcherState implements PrevalentSystem {
         } else {
             LogVersion myVersion = (LogVersion) myFirst;
 
-            if (!myVersion.equals(LogVersion.VERSION))
+            if (myVersion.equals(LogVersion.VERSION))
+                isSectioned = true;
+            else if (!myVersion.equals(LogVersion.UNSECTIONED))
                 throw new IOException("Yikes - log versions don't match - upgrade?" + myVersion);
 
             theClock = (AlarmClock) anIn.readObject();
@@ -179,7 +278,9 @@ class TxnDispatcherState implements PrevalentSystem {
         int myNumRecords = anIn.readInt();
 
         for (int i = 0; i < myNumRecords; i++) {
-            TxnState myState = (TxnState) anIn.readObject();
+            TxnState myState = (TxnState) ((isSectioned) ?
+                ObjectTransformer.toObject(readSection(anIn)) :
+                anIn.readObject());
 
             try {
                 myState.prepare(true);
@@ -194,7 +295,13 @@ class TxnDispatcherState implements PrevalentSystem {
 
         if (isUpgrade)
             theSnapshotContributions = new Serializable[0];
-        else
+        else if (isSectioned) {
+            theContributionSections = new byte[anIn.readInt()][];
+
+            for (int i = 0; i < theContributionSections.length; i++) {
+                theContributionSections[i] = readSection(anIn);
+            }
+        } else
             theSnapshotContributions = (Serializable[]) anIn.readObject();
     }
 
@@ -277,29 +384,53 @@ class TxnDispatcherState implements PrevalentSystem {
      * In cases where no explicit transaction has been passed in by a caller,
      * create a null transaction which is an internal, fully transactional
      * replacement which can be used for the duration of the operation
-     * in question.
+     * in question.  Null transactions are only ever resolved by the thread
+     * that created them so they aren't registered, see
+     * <code>prepareAndCommitNull</code> and <code>abortNull</code>.
      */
     TxnState newNullTxn() throws RemoteException {
-        TxnId myId = TxnId.newNullTxn();
-        TxnState myState = new TxnState(myId);
-
-        theTxns.put(myId, myState);
-
-        return myState;
+        return new TxnState(TxnId.newNullTxn());
     }
 
     /**
      * In cases where no state will be changed (no Entry's taken or written),
      * create an instance of this transaction which, when commited or aborted
-     * will be undone but not logged.
+     * will be undone but not logged.  As for null transactions, these aren't
+     * registered.
      */
     TxnState newIdentityTxn() throws RemoteException {
-        TxnId myId = TxnId.newNullTxn();
-        TxnState myState = new TxnState(myId, true);
+        return new TxnState(TxnId.newNullTxn(), true);
+    }
+
+    /**
+     * Do not call this method directly - it should only be invoked from
+     * a Prevayler command.
+     *
+     * @param needsRestore <code>true</code> if we're doing recovery and
+     * the transaction's operations must be restored before commit.
+     */
+    int prepareAndCommitNull(TxnState aState, boolean needsRestore)
+            throws UnknownTransactionException, IOException {
+
+        int myResult = aState.prepare(needsRestore);
 
-        theTxns.put(myId, myState);
+        if (myResult != TransactionConstants.PREPARED)
+            return myResult;
+
+        aState.commit();
+
+        return TransactionConstants.COMMITTED;
+    }
+
+    /**
+     * Abort a null transaction, these are never logged as prepared so there's
+     * nothing to log.
+     */
+    void abortNull(TxnState aState)
+            throws TransactionException, IOException {
 
-        return myState;
+        aState.vote();
+        aState.abort();
     }
 
     /**
@@ -1,5 +1,7 @@
 package org.dancres.blitz.txn;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.Serializable;
 import java.io.IOException;
 
@@ -27,6 +29,8 @@ import org.dancres.blitz.LifecycleRegistry;
 
 import org.dancres.blitz.config.ConfigurationFactory;
 
+import org.dancres.util.ObjectTransformer;
+
 /**
    <p> A reference to transactional state being held within the transaction
    manager. </p>
@@ -215,6 +219,16 @@ public final class TxnId implements Serializable {
         theId = anId;
     }
 
+    /**
+       Recreates a remote transaction from the log, the manager is
+       unmarshalled and prepared on first use as for a de-serialized TxnId.
+     */
+    private TxnId(long anId, MarshalledObject aMarshalledMgr) {
+        theId = anId;
+        theMarshalledMgr = aMarshalledMgr;
+        isPrepared = false;
+    }
+
     /**
        Use this for transactions which have a remote transaction manager
      */
@@ -224,6 +238,44 @@ public final class TxnId implements Serializable {
         isPrepared = true;
     }
 
+    /**
+       Writes this TxnId in a compact form for the log, see TxnCommandCodec.
+       The manager is only recorded if it's remote.
+     */
+    synchronized void writeTo(DataOutput anOut) throws IOException {
+        anOut.writeLong(theId);
+
+        MarshalledObject myMgr;
+
+        if (isPrepared)
+            myMgr = (theManager == LOCAL_TXN_MGR) ? null :
+                getMarshalledMgr(theManager);
+        else
+            myMgr = theMarshalledMgr;
+
+        anOut.writeBoolean(myMgr != null);
+
+        if (myMgr != null) {
+            byte[] myBytes = ObjectTransformer.toByte(myMgr);
+
+            anOut.writeInt(myBytes.length);
+            anOut.write(myBytes);
+        }
+    }
+
+    static TxnId readFrom(DataInput anIn) throws IOException {
+        long myId = anIn.readLong();
+
+        if (! anIn.readBoolean())
+            return new TxnId(myId);
+
+        byte[] myBytes = new byte[anIn.readInt()];
+        anIn.readFully(myBytes);
+
+        return new TxnId(myId,
+                         (MarshalledObject) ObjectTransformer.toObject(myBytes));
+    }
+
     boolean isNull() {
         try {
             return (getManager() instanceof LocalTxnManager);
@@ -0,0 +1,22 @@
+package org.dancres.blitz.txn;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+   Writes and reads TxnOp's of a particular kind in a compact form for the
+   transaction log.  TxnOp's no codec handles are serialized.
+
+   @see TxnCommandCodec
+ */
+public interface TxnOpCodec {
+    /**
+       @return <code>true</code> if this codec can write the op
+     */
+    public boolean handles(TxnOp anOp);
+
+    public void write(TxnOp anOp, DataOutput anOut) throws IOException;
+
+    public TxnOp read(DataInput anIn) throws IOException;
+}
@@ -1,6 +1,9 @@
 package org.dancres.blitz.txn;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.logging.Level;
@@ -58,6 +61,13 @@ public class TxnState implements java.io.Serializable {
      */
     private ArrayList theOperations = new ArrayList(5);
 
+    /**
+       Events posted by operations whilst we commit or abort.  These are
+       handed to the EventQueue as a single batch once all operations have
+       been processed.
+     */
+    private transient ArrayList theEvents;
+
     TxnState(TxnId anId) {
         theId = anId;
     }
@@ -190,11 +200,17 @@ public class TxnState implements java.io.Serializable {
 
          // StringBuffer myTxn = new StringBuffer(theId + " ");
 
-        for (int i = (theOperations.size() - 1); i > -1; i--) {
-            TxnOp myOp = (TxnOp) theOperations.get(i);
-            myOp.commit(this);
+        theEvents = new ArrayList();
 
-            // myTxn = myTxn.append(myOp.toString() + " ");
+        try {
+            for (int i = (theOperations.size() - 1); i > -1; i--) {
+                TxnOp myOp = (TxnOp) theOperations.get(i);
+                myOp.commit(this);
+
+                // myTxn = myTxn.append(myOp.toString() + " ");
+            }
+        } finally {
+            flushEvents();
         }
 
         // TxnDispatcher.theLogger.log(Level.INFO, myTxn.toString());
@@ -233,13 +249,40 @@ public class TxnState implements java.io.Serializable {
 
         Iterator myOps = theOperations.iterator();
 
+        theEvents = new ArrayList();
+
         // No events generated so we can use whatever order we like
-        while (myOps.hasNext()) {
-            TxnOp myOp = (TxnOp) myOps.next();
-            myOp.abort(this);
+        try {
+            while (myOps.hasNext()) {
+                TxnOp myOp = (TxnOp) myOps.next();
+                myOp.abort(this);
+            }
+        } finally {
+            flushEvents();
         }
     }
 
+    /**
+       Operations should post events via this method during commit or abort
+       such that they can be batched.  At other times, the event is posted
+       immediately.
+     */
+    public void postEvent(QueueEvent anEvent) {
+        if (theEvents != null)
+            theEvents.add(anEvent);
+        else
+            EventQueue.get().add(anEvent);
+    }
+
+    private void flushEvents() {
+        ArrayList myEvents = theEvents;
+        theEvents = null;
+
+        if (myEvents.size() != 0)
+            EventQueue.get().add((QueueEvent[]) myEvents.toArray(
+                new QueueEvent[myEvents.size()]));
+    }
+
     public boolean isIdentity() {
         return nonDestructive;
     }
@@ -248,6 +291,74 @@ public class TxnState implements java.io.Serializable {
         return theId.isNull();
     }
 
+    /**
+       Writes this TxnState in a compact form for the log, see
+       TxnCommandCodec.
+     */
+    synchronized void writeTo(DataOutput anOut) throws IOException {
+        theId.writeTo(anOut);
+        anOut.writeInt(theState);
+        anOut.writeBoolean(nonDestructive);
+
+        writeOpsTo(anOut);
+    }
+
+    /**
+       Null transactions are local and always voting when logged so only
+       their operations are written.
+     */
+    synchronized void writeOpsTo(DataOutput anOut) throws IOException {
+        anOut.writeInt(theOperations.size());
+
+        for (int i = 0; i < theOperations.size(); i++) {
+            TxnCommandCodec.writeOp((TxnOp) theOperations.get(i), anOut);
+        }
+    }
+
+    static TxnState readFrom(DataInput anIn) throws IOException {
+
+        TxnState myState =
+            new TxnState(TxnId.readFrom(anIn), false);
+
+        myState.theState = anIn.readInt();
+        myState.nonDestructive = anIn.readBoolean();
+        myState.readOpsFrom(anIn);
+
+        return myState;
+    }
+
+    /**
+       The id is left unset until the command is applied, see
+       <code>assignNullId</code>.  Allocating one here would advance the
+       local id counter from whichever thread is decoding the log.
+     */
+    static TxnState readNullFrom(DataInput anIn) throws IOException {
+        TxnState myState = new TxnState(null);
+
+        myState.theState = TransactionConstants.VOTING;
+        myState.readOpsFrom(anIn);
+
+        return myState;
+    }
+
+    /**
+       Give a null transaction recovered from the log its id
+     */
+    synchronized void assignNullId() throws RemoteException {
+        if (theId == null)
+            theId = TxnId.newNullTxn();
+    }
+
+    private void readOpsFrom(DataInput anIn) throws IOException {
+        int myCount = anIn.readInt();
+
+        theOperations = new ArrayList(myCount);
+
+        for (int i = 0; i < myCount; i++) {
+            theOperations.add(TxnCommandCodec.readOp(anIn));
+        }
+    }
+
     public boolean hasNoOps() {
         return (theOperations.size() == 0);
     }
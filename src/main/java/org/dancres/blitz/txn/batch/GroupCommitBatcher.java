@@ -0,0 +1,228 @@
+package org.dancres.blitz.txn.batch;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+import java.util.ArrayList;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import java.util.logging.Level;
+
+import org.prevayler.PrevalentSystem;
+import org.prevayler.Command;
+
+import org.prevayler.implementation.SnapshotPrevayler;
+import org.prevayler.implementation.PrevaylerCore;
+import org.prevayler.implementation.Snapshotter;
+
+import org.dancres.blitz.ActiveObject;
+import org.dancres.blitz.ActiveObjectRegistry;
+
+/**
+   <p>Group-commits commands to the log via a single, dedicated flusher
+   thread.</p>
+
+   <p>Writers place their command on a lock-free queue and wait.  The
+   flusher drains everything queued, renders each command into the log
+   buffer and then issues one flush (and thus one forced write to disk) for
+   the whole batch before releasing the writers.</p>
+
+   <p>Batching is adaptive, there is no window.  When idle, a command is
+   written as soon as it arrives.  Under load, commands arriving whilst the
+   flusher is writing accumulate on the queue and form the next batch, thus
+   batches grow with concurrency.  Batches are most efficient when the log
+   buffer size is large enough to hold a batch as a single block.</p>
+
+   <p>A writer that doesn't require a sync still waits for its command to
+   be written to the log, only the forced flush is skipped (a batch made up
+   entirely of such commands isn't flushed).  Callers execute the command
+   and release their checkpoint lock once we return, were the command still
+   queued at that point a checkpoint could snapshot its effects and roll the
+   log before it was written and it would then be applied again at
+   recovery.</p>
+
+   <p>The flusher is started immediately so that commands logged during
+   recovery are handled.  Once halted, any outstanding commands are written
+   and further commands are written by the calling thread.</p>
+ */
+public class GroupCommitBatcher implements SnapshotPrevayler, ActiveObject,
+                                           Runnable {
+    private PrevaylerCore thePrevayler;
+
+    private ConcurrentLinkedQueue<WriteRequest> theQueue =
+        new ConcurrentLinkedQueue<WriteRequest>();
+
+    private Thread theFlusher;
+
+    private volatile boolean isActive = true;
+
+    public GroupCommitBatcher(PrevaylerCore aPrevayler) {
+        thePrevayler = aPrevayler;
+
+        theFlusher = new Thread(this, "LogFlusher");
+        theFlusher.setDaemon(true);
+        theFlusher.start();
+
+        ActiveObjectRegistry.add(this);
+    }
+
+    /**
+     * Returns the underlying PrevalentSystem.
+     */
+    public PrevalentSystem system() {
+        return thePrevayler.system();
+    }
+
+    public Serializable executeCommand(Command aCommand) throws Exception {
+        return write(aCommand, true);
+    }
+
+    public Serializable executeCommand(Command aCommand, boolean sync)
+        throws Exception {
+        return write(aCommand, sync);
+    }
+
+    private Serializable write(Command aComm, boolean sync) throws Exception {
+        if (! isActive) {
+            synchronized(this) {
+                thePrevayler.logCommand(aComm, sync);
+            }
+
+            return aComm.execute(system());
+        }
+
+        WriteRequest myReq = new WriteRequest(aComm, sync);
+
+        theQueue.add(myReq);
+        LockSupport.unpark(theFlusher);
+
+        /*
+          Flusher may have exited between our check and the add in which
+          case we must see our own request written
+         */
+        if (! isActive)
+            flushBatch();
+
+        myReq.await();
+
+        return aComm.execute(system());
+    }
+
+    public Snapshotter takeSnapshot() throws IOException {
+        return thePrevayler.takeSnapshot();
+    }
+
+    public void begin() {
+        // Flusher is already running
+    }
+
+    public void halt() {
+        isActive = false;
+        LockSupport.unpark(theFlusher);
+
+        try {
+            theFlusher.join();
+        } catch (InterruptedException anIE) {
+            WriteBatcher.theLogger.log(Level.SEVERE,
+                "Couldn't wait for log flusher", anIE);
+        }
+
+        flushBatch();
+    }
+
+    public void run() {
+        while (true) {
+            if (flushBatch() == 0) {
+                if (! isActive)
+                    break;
+
+                LockSupport.park(this);
+            }
+        }
+
+        WriteBatcher.theLogger.log(Level.INFO, "Log flusher exited");
+    }
+
+    /**
+       Write all currently queued commands with a single flush.
+
+       @return the number of commands written
+     */
+    private synchronized int flushBatch() {
+        ArrayList<WriteRequest> myBatch = new ArrayList<WriteRequest>();
+        WriteRequest myReq;
+
+        while ((myReq = theQueue.poll()) != null)
+            myBatch.add(myReq);
+
+        if (myBatch.size() == 0)
+            return 0;
+
+        if (WriteBatcher.theLogger.isLoggable(Level.FINE))
+            WriteBatcher.theLogger.log(Level.FINE,
+                                       "Flushing " +
+                                       myBatch.size() + " to log");
+
+        Exception myFailure = null;
+        boolean needsSync = false;
+
+        try {
+            for (int i = 0; i < myBatch.size(); i++) {
+                thePrevayler.logCommand(myBatch.get(i).getCommand(), false);
+                needsSync |= myBatch.get(i).isSync();
+            }
+
+            if (needsSync)
+                thePrevayler.flush();
+        } catch (Exception anE) {
+            WriteBatcher.theLogger.log(Level.SEVERE,
+                "Failed to write batch to log", anE);
+            myFailure = anE;
+        }
+
+        for (int i = 0; i < myBatch.size(); i++)
+            myBatch.get(i).dispatch(myFailure);
+
+        return myBatch.size();
+    }
+
+    private static class WriteRequest {
+        private Command theCommand;
+        private boolean isSync;
+        private Exception theException;
+        private boolean isDone;
+
+        WriteRequest(Command aCommand, boolean sync) {
+            theCommand = aCommand;
+            isSync = sync;
+        }
+
+        Command getCommand() {
+            return theCommand;
+        }
+
+        boolean isSync() {
+            return isSync;
+        }
+
+        synchronized void dispatch(Exception aFailure) {
+            theException = aFailure;
+            isDone = true;
+            notify();
+        }
+
+        synchronized void await() throws Exception {
+            while (! isDone) {
+                try {
+                    wait();
+                } catch (InterruptedException anIE) {
+                }
+            }
+
+            if (theException != null)
+                throw theException;
+        }
+    }
+}
@@ -2,84 +2,241 @@ package org.dancres.blitz.txnlock;
 
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.dancres.blitz.oid.OID;
 
+/**
+   <p>Holds the TxnLock for each OID for as long as something references it.
+   Locks are held weakly because callers retain locks (e.g. in EntryTxnOp)
+   independently of the cache and there's no explicit release protocol.</p>
+
+   <p>The cache is divided into stripes, each an open-addressed table keyed
+   on the primitive zone id and id of an OID.  Holders don't reference the
+   OID and there are no per-mapping table nodes so a lookup allocates
+   nothing.  Cleared holders are purged only when inserting into the
+   relevant stripe.</p>
+ */
 class LockCache {
-    private ConcurrentHashMap<OID, LockHolder> theLocks = new ConcurrentHashMap();
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPES = 1 << STRIPE_BITS;
 
-    private ReferenceQueue theDeadLocks = new ReferenceQueue();
+    private Stripe[] theStripes = new Stripe[STRIPES];
 
     LockCache() {
+        for (int i = 0; i < theStripes.length; i++) {
+            theStripes[i] = new Stripe();
+        }
     }
 
     TxnLock getOrInsert(OID aOID) {
-        cleanQueue();
+        int myHash = hash(aOID);
+
+        return getStripe(myHash).getOrInsert(aOID.getZoneId(), aOID.getId(),
+                                             myHash);
+    }
+
+    TxnLock get(OID aOID) {
+        int myHash = hash(aOID);
+
+        return getStripe(myHash).get(aOID.getZoneId(), aOID.getId(), myHash);
+    }
+
+    void put(OID aOID, TxnLock aLock) {
+        int myHash = hash(aOID);
+
+        getStripe(myHash).put(aOID.getZoneId(), aOID.getId(), myHash, aLock);
+    }
+
+    private Stripe getStripe(int aHash) {
+        return theStripes[aHash & (STRIPES - 1)];
+    }
+
+    private static int hash(OID aOID) {
+        long myId = aOID.getId();
+        int myHash = aOID.getZoneId() ^ ((int) (myId ^ (myId >>> 32)));
+
+        // Spread the bits so that stripe and slot selection use different ones
+        myHash ^= (myHash >>> 20) ^ (myHash >>> 12);
+        return myHash ^ (myHash >>> 7) ^ (myHash >>> 4);
+    }
+
+    /**
+       Linear probing table with backward-shift deletion.
+     */
+    private static class Stripe {
+        private static final int INITIAL_CAPACITY = 64;
 
-        TxnLock myLock = getImpl(aOID);
+        private LockHolder[] theHolders = new LockHolder[INITIAL_CAPACITY];
+        private int theSize;
+
+        private ReferenceQueue theDeadLocks = new ReferenceQueue();
+
+        synchronized TxnLock get(int aZoneId, long anId, int aHash) {
+            int mySlot = find(aZoneId, anId, aHash);
+
+            return (mySlot == -1) ? null : (TxnLock) theHolders[mySlot].get();
+        }
+
+        synchronized TxnLock getOrInsert(int aZoneId, long anId, int aHash) {
+            int mySlot = find(aZoneId, anId, aHash);
+
+            if (mySlot != -1) {
+                TxnLock myLock = (TxnLock) theHolders[mySlot].get();
+
+                if (myLock != null)
+                    return myLock;
+            }
 
-        if (myLock != null) {
-            return myLock;
-        } else {
             TxnLock myNewLock = new TxnLock();
-            LockHolder myNewHolder = new LockHolder(aOID, myNewLock, theDeadLocks);
 
-            do {
-                LockHolder myCurrentHolder = theLocks.putIfAbsent(aOID, myNewHolder);
+            insert(aZoneId, anId, aHash, myNewLock);
+
+            return myNewLock;
+        }
+
+        synchronized void put(int aZoneId, long anId, int aHash,
+                              TxnLock aLock) {
+            insert(aZoneId, anId, aHash, aLock);
+        }
+
+        private void insert(int aZoneId, long anId, int aHash,
+                            TxnLock aLock) {
+            cleanQueue();
+
+            int mySlot = find(aZoneId, anId, aHash);
+
+            if (mySlot != -1) {
+                theHolders[mySlot] = newHolder(aZoneId, anId, aHash, aLock);
+                return;
+            }
+
+            if ((theSize + 1) * 2 > theHolders.length)
+                resize();
+
+            mySlot = slotFor(aHash, theHolders.length);
 
-                if (myCurrentHolder != null) {
-                    TxnLock myCurrentLock = (TxnLock) myCurrentHolder.get();
+            while (theHolders[mySlot] != null)
+                mySlot = (mySlot + 1) & (theHolders.length - 1);
 
-                    if (myCurrentLock == null) {
-                        theLocks.remove(aOID, myCurrentHolder);
-                    } else {
-                        myLock = myCurrentLock;
-                    }
-                } else {
-                    myLock = myNewLock;
+            theHolders[mySlot] = newHolder(aZoneId, anId, aHash, aLock);
+            ++theSize;
+        }
+
+        private LockHolder newHolder(int aZoneId, long anId, int aHash,
+                                     TxnLock aLock) {
+            return new LockHolder(aZoneId, anId, aHash, aLock, theDeadLocks);
+        }
+
+        private int find(int aZoneId, long anId, int aHash) {
+            int myMask = theHolders.length - 1;
+            int mySlot = slotFor(aHash, theHolders.length);
+
+            LockHolder myHolder;
+
+            while ((myHolder = theHolders[mySlot]) != null) {
+                if ((myHolder.getId() == anId) &&
+                    (myHolder.getZoneId() == aZoneId))
+                    return mySlot;
+
+                mySlot = (mySlot + 1) & myMask;
+            }
+
+            return -1;
+        }
+
+        private void cleanQueue() {
+            LockHolder myRef;
+
+            while ((myRef = (LockHolder) theDeadLocks.poll()) != null) {
+                remove(myRef);
+            }
+        }
+
+        private void remove(LockHolder aHolder) {
+            int myMask = theHolders.length - 1;
+            int mySlot = slotFor(aHolder.getHash(), theHolders.length);
+
+            while (theHolders[mySlot] != aHolder) {
+                // Holder was replaced by a put
+                if (theHolders[mySlot] == null)
+                    return;
+
+                mySlot = (mySlot + 1) & myMask;
+            }
+
+            theHolders[mySlot] = null;
+            --theSize;
+
+            /*
+              Shift back any subsequent holders in the run which would
+              otherwise become unreachable
+             */
+            int myNext = (mySlot + 1) & myMask;
+
+            while (theHolders[myNext] != null) {
+                int myHome = slotFor(theHolders[myNext].getHash(),
+                                     theHolders.length);
+
+                if (((myNext - myHome) & myMask) >=
+                    ((myNext - mySlot) & myMask)) {
+                    theHolders[mySlot] = theHolders[myNext];
+                    theHolders[myNext] = null;
+                    mySlot = myNext;
                 }
-            } while (myLock == null);
 
-            return myLock;
+                myNext = (myNext + 1) & myMask;
+            }
         }
-    }
-    
-    TxnLock get(OID aOID) {
-        cleanQueue();
-        return getImpl(aOID);
-    }
 
-    private TxnLock getImpl(OID anOID) {
-        LockHolder myHolder = theLocks.get(anOID);
-        return (myHolder == null) ? null : (TxnLock) myHolder.get();
-    }
+        private void resize() {
+            LockHolder[] myOld = theHolders;
+            LockHolder[] myNew = new LockHolder[myOld.length * 2];
+            int myMask = myNew.length - 1;
 
-    void put(OID aOID, TxnLock aLock) {
-        cleanQueue();
+            for (int i = 0; i < myOld.length; i++) {
+                if (myOld[i] == null)
+                    continue;
 
-        LockHolder myHolder = new LockHolder(aOID, aLock, theDeadLocks);
-        theLocks.put(aOID, myHolder);
-    }
+                int mySlot = slotFor(myOld[i].getHash(), myNew.length);
 
-    private void cleanQueue() {
-        LockHolder myRef;
-        
-        while ((myRef = (LockHolder) theDeadLocks.poll()) != null) {
-            theLocks.remove(myRef.getOID(), myRef);
+                while (myNew[mySlot] != null)
+                    mySlot = (mySlot + 1) & myMask;
+
+                myNew[mySlot] = myOld[i];
+            }
+
+            theHolders = myNew;
+        }
+
+        private static int slotFor(int aHash, int aLength) {
+            // Low bits select the stripe
+            return (aHash >>> STRIPE_BITS) & (aLength - 1);
         }
     }
 
-    private class LockHolder extends WeakReference {
-        private OID theOID;
+    private static class LockHolder extends WeakReference {
+        private int theZoneId;
+        private long theId;
+        private int theHash;
 
-        LockHolder(OID aOID, TxnLock aLock, ReferenceQueue aQueue) {
+        LockHolder(int aZoneId, long anId, int aHash, TxnLock aLock,
+                   ReferenceQueue aQueue) {
             super(aLock, aQueue);
-            theOID = aOID;
+            theZoneId = aZoneId;
+            theId = anId;
+            theHash = aHash;
+        }
+
+        int getZoneId() {
+            return theZoneId;
+        }
+
+        long getId() {
+            return theId;
         }
 
-        OID getOID() {
-            return theOID;
+        int getHash() {
+            return theHash;
         }
     }
 }
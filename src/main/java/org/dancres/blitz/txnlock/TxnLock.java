@@ -39,7 +39,15 @@ public class TxnLock {
 
     private List theConflicts;
 
-    private ArrayList theLockStates = new ArrayList();
+    /*
+      The overwhelmingly common case is a single lock state which we hold
+      directly to avoid allocation.  theLockStates is only used when there
+      are two or more states in which case theSoleOwner is null.
+     */
+    private int theSoleType;
+    private TxnId theSoleOwner;
+
+    private ArrayList theLockStates;
 
     /*
       DEBUG BITS
@@ -80,7 +88,62 @@ public class TxnLock {
     }
 
     public boolean isActive() {
-        return (theLockStates.size() != 0);
+        return (getStateCount() != 0);
+    }
+
+    private int getStateCount() {
+        if (theLockStates != null)
+            return theLockStates.size();
+
+        return (theSoleOwner == null) ? 0 : 1;
+    }
+
+    private int getTypeAt(int anIndex) {
+        if (theLockStates == null)
+            return theSoleType;
+
+        return ((LockState) theLockStates.get(anIndex)).getType();
+    }
+
+    private TxnId getOwnerAt(int anIndex) {
+        if (theLockStates == null)
+            return theSoleOwner;
+
+        return ((LockState) theLockStates.get(anIndex)).getOwner();
+    }
+
+    private void addState(int aType, TxnId anOwner) {
+        if (theLockStates == null) {
+            if (theSoleOwner == null) {
+                theSoleType = aType;
+                theSoleOwner = anOwner;
+                return;
+            }
+
+            theLockStates = new ArrayList();
+            theLockStates.add(new LockState(theSoleType, theSoleOwner));
+            theSoleOwner = null;
+        }
+
+        theLockStates.add(new LockState(aType, anOwner));
+    }
+
+    private void removeStateAt(int anIndex) {
+        if (theLockStates == null) {
+            theSoleOwner = null;
+            return;
+        }
+
+        theLockStates.remove(anIndex);
+
+        // Back to the fast path
+        if (theLockStates.size() == 1) {
+            LockState myState = (LockState) theLockStates.get(0);
+
+            theSoleType = myState.getType();
+            theSoleOwner = myState.getOwner();
+            theLockStates = null;
+        }
     }
 
     public int test(TxnState anAcquirer, int aDesiredOp) {
@@ -160,18 +223,18 @@ public class TxnLock {
 
         if (aDesiredOp == WRITE) {
             // Always succeeds
-            theLockStates.add(new LockState(WRITE, myTxnId));
+            addState(WRITE, myTxnId);
             return SUCCESS;
         }
 
         if (isRecovery) {
             switch (aDesiredOp) {
                 case READ : {
-                    theLockStates.add(new LockState(READ, myTxnId));
+                    addState(READ, myTxnId);
                     break;
                 }
                 case DELETE: {
-                    theLockStates.add(new LockState(DELETE, myTxnId));
+                    addState(DELETE, myTxnId);
                     break;
                 }
             }
@@ -192,7 +255,7 @@ public class TxnLock {
                                 (aDeleter == null) ? aWriter : aDeleter);
                     return CONFLICT;
                 } else {
-                    theLockStates.add(new LockState(READ, myTxnId));
+                    addState(READ, myTxnId);
                     return SUCCESS;
                 }
             }
@@ -214,8 +277,7 @@ public class TxnLock {
                                     (aReader == null) ? aWriter : aReader);
                     return CONFLICT;
                 } else {
-                    theLockStates.add(new LockState(DELETE,
-                                                    myTxnId));
+                    addState(DELETE, myTxnId);
                     return SUCCESS;
                 }
             }
@@ -276,22 +338,20 @@ public class TxnLock {
           (2) Take note of any other lock states associated with this
           transaction.
         */
-        ArrayList myDispatches = new ArrayList();
+        ArrayList myDispatches = null;
 
         synchronized(this) {
-            while (myIndex < theLockStates.size()) {
-                LockState myState = (LockState) theLockStates.get(myIndex);
-
+            while (myIndex < getStateCount()) {
                 // If the lock state is associated with this transaction...
-                if (myState.getOwner().equals(myId)) {
+                if (getOwnerAt(myIndex).equals(myId)) {
                     /*
                       If we've already released a lock of this type for this
                       transaction just note that we've found another lock held
                       by the transaction.  Otherwise, release the lock and note
                       we did that.
                     */
-                    if ((myState.getType() == anOp) && (! haveReleasedLock)) {
-                        theLockStates.remove(myIndex);
+                    if ((getTypeAt(myIndex) == anOp) && (! haveReleasedLock)) {
+                        removeStateAt(myIndex);
                         haveReleasedLock = true;
                         continue;
                     } else {
@@ -319,6 +379,9 @@ public class TxnLock {
                     theConflicts.remove(myCallback);
 
                     // System.err.println("Dispatching callback");
+                    if (myDispatches == null)
+                        myDispatches = new ArrayList();
+
                     myDispatches.add(myCallback);
                 } else {
                     ++myIndex;
@@ -326,9 +389,10 @@ public class TxnLock {
             }
         }
 
-        if (myDispatches.size() > 0) {
+        if (myDispatches != null) {
             try {
-                Tasks.queue(new DispatchTask(myDispatches));
+                Tasks.queue(Tasks.WAKEUP_QUEUE,
+                            new DispatchTask(myDispatches));
             } catch (InterruptedException anIE) {
                 theLogger.log(Level.SEVERE,
                               "Failed to queue Txn callback", anIE);
@@ -351,11 +415,9 @@ public class TxnLock {
     }
 
     public TxnId getWriter() {
-        for (int i = 0; i < theLockStates.size(); i++) {
-            LockState myState = (LockState) theLockStates.get(i);
-
-            if (myState.getType() == WRITE) {
-                return myState.getOwner();
+        for (int i = 0; i < getStateCount(); i++) {
+            if (getTypeAt(i) == WRITE) {
+                return getOwnerAt(i);
             }
         }
 
@@ -363,11 +425,9 @@ public class TxnLock {
     }
 
     public synchronized boolean hasWriter(TxnId anId) {
-        for (int i = 0; i < theLockStates.size(); i++) {
-            LockState myState = (LockState) theLockStates.get(i);
-
-            if ((myState.getType() == WRITE) &&
-                (myState.getOwner().equals(anId)))
+        for (int i = 0; i < getStateCount(); i++) {
+            if ((getTypeAt(i) == WRITE) &&
+                (getOwnerAt(i).equals(anId)))
                 return true;
         }
 
@@ -375,56 +435,45 @@ public class TxnLock {
     }
 
     public synchronized boolean hasOnly(TxnId anId, int anOp) {
-        if (theLockStates.size() != 1)
+        if (getStateCount() != 1)
             return false;
 
-        LockState myState = (LockState) theLockStates.get(0);
-
-        return ((myState.getOwner().equals(anId)) &&
-                (myState.getType() == anOp));
+        return ((theSoleOwner.equals(anId)) && (theSoleType == anOp));
     }
 
     private TxnId hasDeleter() {
-        for (int i = 0; i < theLockStates.size(); i++) {
-            LockState myState = (LockState) theLockStates.get(i);
-
-            if (myState.getType() == DELETE)
-                return myState.getOwner();
+        for (int i = 0; i < getStateCount(); i++) {
+            if (getTypeAt(i) == DELETE)
+                return getOwnerAt(i);
         }
 
         return null;
     }
 
     private TxnId hasReaderOtherThan(TxnId anId) {
-        for (int i = 0; i < theLockStates.size(); i++) {
-            LockState myState = (LockState) theLockStates.get(i);
-
-            if ((myState.getType() == READ) &&
-                (! myState.getOwner().equals(anId)))
-                return myState.getOwner();
+        for (int i = 0; i < getStateCount(); i++) {
+            if ((getTypeAt(i) == READ) &&
+                (! getOwnerAt(i).equals(anId)))
+                return getOwnerAt(i);
         }
 
         return null;
     }
 
     private TxnId hasWriterOtherThan(TxnId anId) {
-        for (int i = 0; i < theLockStates.size(); i++) {
-            LockState myState = (LockState) theLockStates.get(i);
-
-            if ((myState.getType() == WRITE) &&
-                (! myState.getOwner().equals(anId)))
-                return myState.getOwner();
+        for (int i = 0; i < getStateCount(); i++) {
+            if ((getTypeAt(i) == WRITE) &&
+                (! getOwnerAt(i).equals(anId)))
+                return getOwnerAt(i);
         }
 
         return null;
     }
 
     private boolean hasDeleterThatsMe(TxnId anId) {
-        for (int i = 0; i < theLockStates.size(); i++) {
-            LockState myState = (LockState) theLockStates.get(i);
-
-            if ((myState.getType() == DELETE) &&
-                (myState.getOwner().equals(anId)))
+        for (int i = 0; i < getStateCount(); i++) {
+            if ((getTypeAt(i) == DELETE) &&
+                (getOwnerAt(i).equals(anId)))
                 return true;
         }
 
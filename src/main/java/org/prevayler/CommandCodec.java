@@ -0,0 +1,29 @@
+package org.prevayler;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+   Writes and reads Commands in a compact, hand-written form for the command
+   log.  Commands a codec doesn't handle are logged using serialization.
+
+   <p>The codec's class name is recorded in each log file so a log can be
+   read back without the reader being told which codec was used.
+   Implementations must thus have a public no-arg constructor.</p>
+ */
+public interface CommandCodec {
+    /**
+       @return <code>true</code> if the command was written,
+       <code>false</code> if this codec doesn't handle commands of this type
+       in which case nothing must have been written.
+     */
+    public boolean encode(Command aCommand, DataOutput anOut)
+        throws IOException;
+
+    /**
+       Reads a command previously written by <code>encode</code>.
+     */
+    public Command decode(DataInput anIn)
+        throws IOException, ClassNotFoundException;
+}
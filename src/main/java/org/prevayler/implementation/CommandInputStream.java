@@ -37,14 +37,60 @@
 package org.prevayler.implementation;
 
 import java.io.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
 import org.prevayler.*;
 
+import org.dancres.blitz.Logging;
+
+import org.dancres.blitz.stats.RecoveryStat;
+import org.dancres.blitz.stats.Stat;
+import org.dancres.blitz.stats.StatGenerator;
+import org.dancres.blitz.stats.StatsBoard;
+
 /** Provides an easy API for reading commands and snapshots.
+ *
+ * <p>When constructed with more than one decoder, the pending log files are
+ * deserialized in parallel ahead of the caller, up to one file per decoder.
+ * Commands are still returned in log order.  Decoding has no side-effects so
+ * this is equivalent to reading the files serially but recovery is then
+ * limited by the rate at which commands can be applied rather than by
+ * deserialization.  Progress is published to the StatsBoard as a
+ * RecoveryStat.</p>
 */
 class CommandInputStream {
 
+    private static final Logger theLogger =
+        Logging.newLogger("org.prevayler.implementation.CommandInputStream",
+                          Level.INFO);
+
     public CommandInputStream(String directory) throws IOException {
+        this(directory, 1);
+    }
+
+    /**
+     * @param aDecoders the number of log files to decode in parallel
+     */
+    public CommandInputStream(String directory, int aDecoders)
+        throws IOException {
 	fileFinder = new NumberFileFinder(directory);
+        theDecoders = aDecoders;
     }
 
     public PrevalentSystem readLastSnapshot() throws IOException, ClassNotFoundException {
@@ -52,19 +98,68 @@ class CommandInputStream {
 	if (snapshotFile == null) return null;
 	out(snapshotFile);
 
-	ObjectInputStream ois = new ObjectInputStream(new FileInputStream(snapshotFile));
+	DataInputStream dis = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(snapshotFile)));
 	try {
-	    return (PrevalentSystem)ois.readObject();
+	    return load(snapshotFile, dis);
 	} finally {
-	    ois.close();
+	    dis.close();
 	}
     }
 
+    /**
+       Deserializes the system straight from the snapshot file, verifying
+       the checksum if the snapshot has a header.  The checksum is computed
+       as the system is read so a corrupt snapshot may instead fail during
+       deserialization, either way it's rejected.
+
+       @see SnapshotterImpl
+     */
+    private PrevalentSystem load(File aSnapshot, DataInputStream anInput)
+        throws IOException, ClassNotFoundException {
+
+        long mySize = aSnapshot.length();
+
+        anInput.mark(SnapshotterImpl.HEADER_SIZE);
+
+        if ((mySize < SnapshotterImpl.HEADER_SIZE) ||
+            (anInput.readInt() != SnapshotterImpl.MAGIC)) {
+            anInput.reset();
+
+            return (PrevalentSystem) new ObjectInputStream(anInput).readObject();
+        }
+
+        int myLength = anInput.readInt();
+        long myChecksum = anInput.readLong();
+
+        if (myLength != (mySize - SnapshotterImpl.HEADER_SIZE))
+            throw new IOException("Snapshot is truncated: " + aSnapshot);
+
+        CheckedInputStream myChecked =
+            new CheckedInputStream(anInput, new CRC32());
+
+        PrevalentSystem mySystem =
+            (PrevalentSystem) new ObjectInputStream(myChecked).readObject();
+
+        // Include anything deserialization didn't consume in the checksum
+        byte[] myRest = new byte[512];
+        while (myChecked.read(myRest) != -1)
+            ;
+
+        if (myChecked.getChecksum().getValue() != myChecksum)
+            throw new IOException("Snapshot checksum failed: " + aSnapshot);
+
+        return mySystem;
+    }
+
     public Command readCommand() throws IOException, ClassNotFoundException {
+        if (theDecoders > 1)
+            return readDecodedCommand();
+
 	if (currentLogStream == null) currentLogStream = newLogStream();  //Throws EOFException if there are no more log streams.
 
 	try {
-	    return (Command)currentLogStream.readObject();
+	    return currentLogStream.readCommand();
 	} catch (EOFException eof) {
 	    //No more commands in this file.
 	} catch (ObjectStreamException osx) {
@@ -78,20 +173,199 @@ class CommandInputStream {
 	return readCommand();
     }
 
+    /**
+     * The decoder pool is shut down once there are no more commands or
+     * decoding fails.
+     */
+    private Command readDecodedCommand()
+        throws IOException, ClassNotFoundException {
+
+        boolean isFinished = true;
+
+        try {
+            Command myCommand = nextDecodedCommand();
+            isFinished = false;
+
+            return myCommand;
+        } finally {
+            if (isFinished)
+                stopDecoders();
+        }
+    }
+
+    private Command nextDecodedCommand()
+        throws IOException, ClassNotFoundException {
+
+        while (true) {
+            if ((theDecoded != null) && (theDecoded.hasNext())) {
+                ++theCommandCount;
+                return (Command) theDecoded.next();
+            }
+
+            if (theDecodes == null)
+                startDecoders();
+
+            if (theDecodes.isEmpty())
+                throw new EOFException();
+
+            Future myNext = (Future) theDecodes.removeFirst();
+            submitDecode();
+
+            try {
+                theDecoded = ((List) myNext.get()).iterator();
+            } catch (InterruptedException anIE) {
+                throw new InterruptedIOException("Log decode interrupted");
+            } catch (ExecutionException anEE) {
+                Throwable myCause = anEE.getCause();
+
+                if (myCause instanceof IOException)
+                    throw (IOException) myCause;
+                else if (myCause instanceof ClassNotFoundException)
+                    throw (ClassNotFoundException) myCause;
+                else if (myCause instanceof Error)
+                    throw (Error) myCause;
+                else
+                    throw (RuntimeException) myCause;
+            }
+
+            ++theLogsReplayed;
+
+            if (theLogger.isLoggable(Level.INFO))
+                theLogger.log(Level.INFO, "Replaying log " + theLogsReplayed +
+                              " of " + theLogCount + " (" + theCommandCount +
+                              " commands so far)");
+        }
+    }
+
+    private void startDecoders() {
+        theStartTime = System.currentTimeMillis();
+
+        while (true) {
+            try {
+                thePendingLogs.add(fileFinder.nextPendingLog());
+            } catch (EOFException anEOF) {
+                break;
+            }
+        }
+
+        theLogCount = thePendingLogs.size();
+        theDecodes = new LinkedList();
+        theDecoderPool = Executors.newFixedThreadPool(theDecoders);
+
+        StatsBoard.get().add(new RecoveryStatGenerator());
+
+        for (int i = 0; i < theDecoders; i++) {
+            submitDecode();
+        }
+    }
+
+    /**
+     * Any decodes still outstanding (because we've failed) are abandoned.
+     */
+    private void stopDecoders() {
+        if ((theDecoderPool == null) || (theDecoderPool.isShutdown()))
+            return;
+
+        theDecoderPool.shutdownNow();
+        theEndTime = System.currentTimeMillis();
+
+        if (theLogger.isLoggable(Level.INFO))
+            theLogger.log(Level.INFO, "Replayed " + theCommandCount +
+                          " commands from " + theLogsReplayed + " of " +
+                          theLogCount + " logs in " +
+                          (theEndTime - theStartTime) + "ms");
+    }
+
+    private class RecoveryStatGenerator implements StatGenerator {
+        private long theId = StatGenerator.UNSET_ID;
+
+        public void setId(long anId) {
+            theId = anId;
+        }
+
+        public long getId() {
+            return theId;
+        }
+
+        public Stat generate() {
+            long myEnd = theEndTime;
+            boolean isComplete = (myEnd != 0);
+
+            if (! isComplete)
+                myEnd = System.currentTimeMillis();
+
+            return new RecoveryStat(theId, theLogCount, theLogsReplayed,
+                                    theCommandCount, myEnd - theStartTime,
+                                    isComplete);
+        }
+    }
+
+    private void submitDecode() {
+        if (thePendingLogs.isEmpty())
+            return;
+
+        final File myLog = (File) thePendingLogs.removeFirst();
+
+        theDecodes.add(theDecoderPool.submit(new Callable() {
+            public Object call() throws Exception {
+                return decode(myLog);
+            }
+        }));
+    }
+
+    /**
+     * Reads all the commands from a log file, stopping at the first sign of
+     * corruption as per <code>readCommand</code>.
+     */
+    private static List decode(File aLog)
+        throws IOException, ClassNotFoundException {
+
+        out(aLog);
+
+        ArrayList myCommands = new ArrayList();
+        LogRecords.Reader myStream = LogRecords.newReader(aLog);
+
+        try {
+            while (true)
+                myCommands.add(myStream.readCommand());
+        } catch (EOFException eof) {
+            //No more commands in this file.
+        } catch (ObjectStreamException osx) {
+            logStreamExceptionMessage(osx);
+        } catch (RuntimeException rx) {
+            logStreamExceptionMessage(rx);
+        } finally {
+            myStream.close();
+        }
+
+        return myCommands;
+    }
+
     public CommandOutputStream commandOutputStream(boolean shouldReset,
                                                    boolean shouldClean,
                                                    int aBufferSize) {
+	return commandOutputStream(shouldReset, shouldClean, aBufferSize, null);
+    }
+
+    /**
+     * @param aCodec used to write commands compactly, may be
+     * <code>null</code>.
+     */
+    public CommandOutputStream commandOutputStream(boolean shouldReset,
+                                                   boolean shouldClean,
+                                                   int aBufferSize,
+                                                   CommandCodec aCodec) {
 	return new CommandOutputStream(fileFinder.fileCreator(), shouldReset,
-                                   shouldClean, aBufferSize);
+                                   shouldClean, aBufferSize, aCodec);
     }
 
-    private ObjectInputStream newLogStream() throws IOException {
+    private LogRecords.Reader newLogStream() throws IOException {
 	File logFile = fileFinder.nextPendingLog();  //Throws EOFException if there are no more pending log files.
 	out(logFile);
-	return new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+	return LogRecords.newReader(logFile);
     }
 
-    private void logStreamExceptionMessage(Exception exception) {
+    private static void logStreamExceptionMessage(Exception exception) {
 	out("   " + exception);
 	out("   Some commands might have been lost. Looking for the next file..." );
     }
@@ -105,5 +379,20 @@ class CommandInputStream {
     }
 
     private NumberFileFinder fileFinder;
-    private ObjectInputStream currentLogStream;
+    private LogRecords.Reader currentLogStream;
+
+    private int theDecoders;
+    private ExecutorService theDecoderPool;
+    private LinkedList thePendingLogs = new LinkedList();
+    private LinkedList theDecodes;
+    private Iterator theDecoded;
+
+    /*
+      Read by RecoveryStatGenerator whilst we're replaying
+     */
+    private volatile int theLogCount;
+    private volatile int theLogsReplayed;
+    private volatile long theCommandCount;
+    private volatile long theStartTime;
+    private volatile long theEndTime;
 }
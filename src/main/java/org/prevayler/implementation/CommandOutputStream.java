@@ -40,6 +40,10 @@ import org.prevayler.*;
 import java.io.*;
 
 /** Provides a simple API for writing commands and snapshots.
+ *
+ * <p>Commands are written as length-prefixed, checksummed records, see
+ * LogRecords.  Each record stands alone so there's no stream state to reset
+ * between commands and <code>shouldReset</code> is no longer significant.</p>
  */
 class CommandOutputStream {
 
@@ -47,10 +51,9 @@ class CommandOutputStream {
      */
     public static final long LOG_FILE_SIZE = 100L * 1024L * 1024L;
     private final NumberFileCreator fileCreator;
-	private ObjectOutputStream logStream;
-    private DelegatingByteCountStream2 fileStream;
-    private boolean doReset;
+    private DelegatingByteCountStream2 logStream;
     private boolean shouldClean;
+    private CommandCodec theCodec;
 
     private int theBufferSize = 0;
 
@@ -62,55 +65,40 @@ class CommandOutputStream {
     public CommandOutputStream(NumberFileCreator fileCreator,
                                boolean shouldReset, boolean doClean,
                                int bufferSize) {
+        this(fileCreator, shouldReset, doClean, bufferSize, null);
+    }
+
+    /**
+       @param aCodec used to write commands compactly, may be
+       <code>null</code> in which case all commands are serialized.
+     */
+    public CommandOutputStream(NumberFileCreator fileCreator,
+                               boolean shouldReset, boolean doClean,
+                               int bufferSize, CommandCodec aCodec) {
         this.fileCreator = fileCreator;
-        doReset = shouldReset;
         theBufferSize = bufferSize;
         shouldClean = doClean;
+        theCodec = aCodec;
     }
 
     public void writeCommand(Command command) throws IOException{
-        ObjectOutputStream oos = logStream();
-        try {
-            // long myStart = System.currentTimeMillis();
-
-            oos.writeObject(command);
-
-            if (doReset)
-                oos.reset();    //You can comment this line if your free RAM is large compared to the size of each commandLog file. If you comment this line, commands will occupy much less space in the log file because their class descriptions will only be written once. Your application will therefore produce much fewer log files. If you comment this line, you must make sure that no command INSTANCE is used more than once in your application with different internal values. "Reset will disregard the state of any objects already written to the stream. The state is reset to be the same as a new ObjectOutputStream. ... Objects previously written to the stream will not be refered to as already being in the stream. They will be written to the stream again." - JDK1.2.2 API documentation.
-            oos.flush();
-
-            // long myEnd = System.currentTimeMillis();
-
-            // System.err.println("Log command time: " + (myEnd - myStart));
-        } catch (IOException iox) {
-            closeLogStream();
-            throw iox;
-        }
+        writeCommand(command, true);
 	}
 
     public void flush() throws IOException {
-        ObjectOutputStream oos = logStream();
-        oos.flush();
+        DelegatingByteCountStream2 dos = logStream();
+        dos.flush();
     }
 
     public void writeCommand(Command command, boolean doSync)
         throws IOException{
 
-        ObjectOutputStream oos = logStream();
+        DelegatingByteCountStream2 dos = logStream();
         try {
-            // long myStart = System.currentTimeMillis();
-
-            oos.writeObject(command);
-
-            if (doReset)
-                oos.reset();    //You can comment this line if your free RAM is large compared to the size of each commandLog file. If you comment this line, commands will occupy much less space in the log file because their class descriptions will only be written once. Your application will therefore produce much fewer log files. If you comment this line, you must make sure that no command INSTANCE is used more than once in your application with different internal values. "Reset will disregard the state of any objects already written to the stream. The state is reset to be the same as a new ObjectOutputStream. ... Objects previously written to the stream will not be refered to as already being in the stream. They will be written to the stream again." - JDK1.2.2 API documentation.
+            LogRecords.writeRecord(dos, command, theCodec);
 
             if (doSync)
-                oos.flush();
-
-            // long myEnd = System.currentTimeMillis();
-
-            // System.err.println("Log command time: " + (myEnd - myStart));
+                dos.flush();
 
         } catch (IOException iox) {
             closeLogStream();
@@ -130,15 +118,15 @@ class CommandOutputStream {
         return mySnapper;
     }
 
-	private ObjectOutputStream logStream() throws IOException{
+	private DelegatingByteCountStream2 logStream() throws IOException{
         if(logStream == null) {
-            fileStream =
+            logStream =
                 new DelegatingByteCountStream2(fileCreator.newLog(),
                                                theBufferSize);
-            logStream = new ObjectOutputStream(fileStream);
+            LogRecords.writeHeader(logStream, theCodec);
 		}
 
-        if(fileStream.bytesWritten() >= LOG_FILE_SIZE) {
+        if(logStream.bytesWritten() >= LOG_FILE_SIZE) {
             closeLogStream();
             return logStream();  //Recursive call.
 		}
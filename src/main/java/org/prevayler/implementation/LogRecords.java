@@ -0,0 +1,271 @@
+package org.prevayler.implementation;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+
+import java.util.zip.CRC32;
+
+import org.prevayler.Command;
+import org.prevayler.CommandCodec;
+
+import org.dancres.util.BytePacker;
+
+/**
+   The format of command log files.
+
+   <p>A log file starts with a header (<code>MAGIC</code>,
+   <code>VERSION</code> and the class name of the CommandCodec used, empty
+   if there was none) and is followed by a sequence of records.  Each record
+   is the length of its payload, a CRC32 of the payload and then the payload.
+   The payload is a single byte stating how the command was written followed
+   by either the output of the codec or the serialized command.</p>
+
+   <p>Each record is self-contained so unlike the earlier format (a single
+   ObjectOutputStream per file, reset after each command) class descriptors
+   are never repeated for commands the codec handles.  Files without the
+   header were written by earlier versions and are still read.</p>
+
+   @see org.prevayler.CommandCodec
+ */
+class LogRecords {
+    static final int MAGIC = 0x424c5a4c;
+    static final int VERSION = 1;
+
+    private static final byte SERIALIZED = 0;
+    private static final byte ENCODED = 1;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final byte[] EMPTY_RECORD_HEADER =
+        new byte[RECORD_HEADER_SIZE];
+
+    /**
+       Sanity limit on the length of a record, a corrupt length will
+       otherwise cause us to attempt a huge allocation.
+     */
+    private static final int MAX_RECORD =
+        (int) CommandOutputStream.LOG_FILE_SIZE;
+
+    /**
+       Reads commands from a single log file.
+     */
+    interface Reader {
+        /**
+           @throws EOFException when there are no more commands.
+           @throws java.io.ObjectStreamException if the file is corrupt.
+         */
+        Command readCommand() throws IOException, ClassNotFoundException;
+
+        void close() throws IOException;
+    }
+
+    /**
+       Header and records are each assembled in memory and written in one go
+       as the underlying stream may go straight to disk on every write.
+     */
+    static void writeHeader(OutputStream anOut, CommandCodec aCodec)
+        throws IOException {
+        ByteArrayOutputStream myBytes = new ByteArrayOutputStream();
+        DataOutputStream myOut = new DataOutputStream(myBytes);
+
+        myOut.writeInt(MAGIC);
+        myOut.writeInt(VERSION);
+        myOut.writeUTF((aCodec == null) ? "" : aCodec.getClass().getName());
+        myOut.flush();
+
+        anOut.write(myBytes.toByteArray());
+    }
+
+    static void writeRecord(OutputStream anOut, Command aCommand,
+                            CommandCodec aCodec) throws IOException {
+        byte[] myRecord = encode(aCommand, aCodec);
+        int myLength = myRecord.length - RECORD_HEADER_SIZE;
+
+        CRC32 myCRC = new CRC32();
+        myCRC.update(myRecord, RECORD_HEADER_SIZE, myLength);
+
+        BytePacker myPacker = BytePacker.getMSBPacker(myRecord);
+        myPacker.putInt(myLength, 0);
+        myPacker.putInt((int) myCRC.getValue(), 4);
+
+        anOut.write(myRecord);
+    }
+
+    /**
+       @return the record with space reserved at the front for length and
+       checksum
+     */
+    private static byte[] encode(Command aCommand, CommandCodec aCodec)
+        throws IOException {
+        ByteArrayOutputStream myBytes = new ByteArrayOutputStream();
+
+        if (aCodec != null) {
+            DataOutputStream myOut = new DataOutputStream(myBytes);
+
+            myOut.write(EMPTY_RECORD_HEADER);
+            myOut.writeByte(ENCODED);
+
+            if (aCodec.encode(aCommand, myOut)) {
+                myOut.flush();
+                return myBytes.toByteArray();
+            }
+
+            myBytes.reset();
+        }
+
+        myBytes.write(EMPTY_RECORD_HEADER);
+        myBytes.write(SERIALIZED);
+
+        ObjectOutputStream myOut = new ObjectOutputStream(myBytes);
+        myOut.writeObject(aCommand);
+        myOut.close();
+
+        return myBytes.toByteArray();
+    }
+
+    /**
+       @return a Reader appropriate to the format of the log file
+     */
+    static Reader newReader(File aLog) throws IOException {
+        DataInputStream myStream =
+            new DataInputStream(new BufferedInputStream(
+                new FileInputStream(aLog)));
+
+        myStream.mark(4);
+
+        int myMagic;
+
+        try {
+            myMagic = myStream.readInt();
+        } catch (EOFException anEOF) {
+            myMagic = 0;
+        }
+
+        myStream.reset();
+
+        if (myMagic != MAGIC)
+            return new LegacyReader(new ObjectInputStream(myStream));
+
+        try {
+            myStream.readInt();
+
+            int myVersion = myStream.readInt();
+
+            if (myVersion != VERSION)
+                throw new IOException("Unsupported log version: " +
+                                      myVersion + " in " + aLog);
+
+            return new RecordReader(myStream, newCodec(myStream.readUTF()));
+        } catch (IOException anIOE) {
+            myStream.close();
+            throw anIOE;
+        }
+    }
+
+    private static CommandCodec newCodec(String aClassName)
+        throws IOException {
+        if (aClassName.length() == 0)
+            return null;
+
+        try {
+            return (CommandCodec) Class.forName(aClassName).newInstance();
+        } catch (Exception anE) {
+            IOException myIOE =
+                new IOException("Couldn't create log codec: " + aClassName);
+            myIOE.initCause(anE);
+            throw myIOE;
+        }
+    }
+
+    private static class LegacyReader implements Reader {
+        private ObjectInputStream theStream;
+
+        LegacyReader(ObjectInputStream aStream) {
+            theStream = aStream;
+        }
+
+        public Command readCommand()
+            throws IOException, ClassNotFoundException {
+            return (Command) theStream.readObject();
+        }
+
+        public void close() throws IOException {
+            theStream.close();
+        }
+    }
+
+    private static class RecordReader implements Reader {
+        private DataInputStream theStream;
+        private CommandCodec theCodec;
+
+        RecordReader(DataInputStream aStream, CommandCodec aCodec) {
+            theStream = aStream;
+            theCodec = aCodec;
+        }
+
+        public Command readCommand()
+            throws IOException, ClassNotFoundException {
+
+            // A clean EOF here is the end of the log
+            int myLength = theStream.readInt();
+
+            byte[] myPayload;
+            int myChecksum;
+
+            try {
+                myChecksum = theStream.readInt();
+
+                if ((myLength < 1) || (myLength > MAX_RECORD))
+                    throw new StreamCorruptedException(
+                        "Bad record length: " + myLength);
+
+                myPayload = new byte[myLength];
+                theStream.readFully(myPayload);
+            } catch (EOFException anEOF) {
+                throw new StreamCorruptedException("Truncated record");
+            }
+
+            CRC32 myCRC = new CRC32();
+            myCRC.update(myPayload);
+
+            if ((int) myCRC.getValue() != myChecksum)
+                throw new StreamCorruptedException("Record checksum failed");
+
+            if (myPayload[0] == ENCODED) {
+                if (theCodec == null)
+                    throw new StreamCorruptedException(
+                        "Encoded record without a codec");
+
+                return theCodec.decode(
+                    new DataInputStream(
+                        new ByteArrayInputStream(myPayload, 1,
+                                                 myLength - 1)));
+            } else {
+                ObjectInputStream myIn =
+                    new ObjectInputStream(
+                        new ByteArrayInputStream(myPayload, 1,
+                                                 myLength - 1));
+
+                try {
+                    return (Command) myIn.readObject();
+                } finally {
+                    myIn.close();
+                }
+            }
+        }
+
+        public void close() throws IOException {
+            theStream.close();
+        }
+    }
+}
@@ -80,8 +80,41 @@ public class PrevaylerCore {
             int aBufferSize)
             throws IOException, ClassNotFoundException {
 
+        this(newSystem, directory, shouldReset, shouldClean, aBufferSize, 1);
+    }
+
+    /** Returns a new Prevayler for the given PrevalentSystem.
+     * @param newSystem The newly started, "empty" PrevalentSystem that will be used as a starting point for every
+     * system startup, until the first snapshot is taken.
+     * @param directory The full path of the directory where the snapshot and log files shall be created and read.
+     * @param shouldReset Whether to issue resets in the underlying OOS
+     * @param aDecoders The number of log files to decode in parallel during recovery
+     */
+    public PrevaylerCore(PrevalentSystem newSystem, String directory,
+            boolean shouldReset, boolean shouldClean,
+            int aBufferSize, int aDecoders)
+            throws IOException, ClassNotFoundException {
+
+        this(newSystem, directory, shouldReset, shouldClean, aBufferSize,
+                aDecoders, null);
+    }
+
+    /** Returns a new Prevayler for the given PrevalentSystem.
+     * @param newSystem The newly started, "empty" PrevalentSystem that will be used as a starting point for every
+     * system startup, until the first snapshot is taken.
+     * @param directory The full path of the directory where the snapshot and log files shall be created and read.
+     * @param shouldReset Whether to issue resets in the underlying OOS
+     * @param aDecoders The number of log files to decode in parallel during recovery
+     * @param aCodec Used to write commands to the log compactly, may be <code>null</code>
+     */
+    public PrevaylerCore(PrevalentSystem newSystem, String directory,
+            boolean shouldReset, boolean shouldClean,
+            int aBufferSize, int aDecoders, CommandCodec aCodec)
+            throws IOException, ClassNotFoundException {
+
         newSystem.clock(new SystemClock());
-        CommandInputStream input = new CommandInputStream(directory);
+        CommandInputStream input =
+            new CommandInputStream(directory, aDecoders);
 
         PrevalentSystem savedSystem = input.readLastSnapshot();
         system = (savedSystem == null)
@@ -91,7 +124,7 @@ public class PrevaylerCore {
         recoverCommands(input);
 
         output = input.commandOutputStream(shouldReset, shouldClean,
-                aBufferSize);
+                aBufferSize, aCodec);
         clock = (SystemClock) system.clock();
         clock.resume();
     }
@@ -6,6 +6,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.ObjectOutputStream;
 import java.io.IOException;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.zip.CRC32;
+
 import org.prevayler.PrevalentSystem;
 
 /**
@@ -13,9 +18,19 @@ import org.prevayler.PrevalentSystem;
    place the snapshot on disk - should only be called once all dirty state
    (if any) has been flushed to disk.
 
+   <p>Snapshot files consist of a header (<code>MAGIC</code>, length of the
+   serialized system and a CRC32 of it) followed by the serialized system.
+   The file is written via a FileChannel and forced to disk before being
+   renamed into place.  Files without the header were written by earlier
+   versions and are still read by CommandInputStream.</p>
+
    @see org.dancres.blitz.txn.TxnDispatcher
  */
 class SnapshotterImpl implements Snapshotter {
+    static final int MAGIC = 0x424c5a53;
+
+    static final int HEADER_SIZE = 4 + 4 + 8;
+
     private File theTemp;
     private File theReal;
     private byte[] theCachedCopy;
@@ -45,9 +60,31 @@ class SnapshotterImpl implements Snapshotter {
     }
 
     public void save() throws IOException {
+        CRC32 myChecksum = new CRC32();
+        myChecksum.update(theCachedCopy);
+
+        ByteBuffer myHeader = ByteBuffer.allocate(HEADER_SIZE);
+        myHeader.putInt(MAGIC);
+        myHeader.putInt(theCachedCopy.length);
+        myHeader.putLong(myChecksum.getValue());
+        myHeader.flip();
+
         FileOutputStream myOutput = new FileOutputStream(theTemp);
-        myOutput.write(theCachedCopy);
-        myOutput.close();
+
+        try {
+            FileChannel myChannel = myOutput.getChannel();
+            ByteBuffer myBody = ByteBuffer.wrap(theCachedCopy);
+
+            while (myHeader.hasRemaining())
+                myChannel.write(myHeader);
+
+            while (myBody.hasRemaining())
+                myChannel.write(myBody);
+
+            myChannel.force(true);
+        } finally {
+            myOutput.close();
+        }
 
         if (!theTemp.renameTo(theReal))
             throw new IOException("Unable to rename " + theTemp +
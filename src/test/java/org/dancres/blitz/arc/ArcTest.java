@@ -11,7 +11,7 @@ import org.dancres.blitz.cache.Identifier;
 public class ArcTest {
     private static Random theRNG = new Random();
     private static int theMaxEntries;
-    private static ArcCache theCache;
+    private static BlockCache theCache;
 
     public static void main(String args[]) {
         BackingStore myStore = new BackingStoreImpl();
@@ -19,7 +19,11 @@ public class ArcTest {
         System.out.println("ArcTest with CacheSize: " + args[0] +
                            " Max Entry:" + args[1]);
 
-        theCache = new ArcCache(myStore, Integer.parseInt(args[0]));
+        // Optional third argument selects the concurrent cache
+        if ((args.length > 2) && (args[2].equals("clock")))
+            theCache = new ClockCache(myStore, Integer.parseInt(args[0]));
+        else
+            theCache = new ArcCache(myStore, Integer.parseInt(args[0]));
 
         theMaxEntries = Integer.parseInt(args[1]);
 
@@ -0,0 +1,190 @@
+package org.dancres.blitz.disk;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.dancres.blitz.task.Task;
+
+/**
+   Runs a WriteDaemon with several lanes (the shipped configurations have
+   just one).  Integer keys hash to themselves so consecutive keys are
+   placed in different lanes.
+ */
+public class WriteDaemonTest {
+    private static final int LANES = 4;
+
+    private WriteDaemon theDaemon;
+
+    @Before public void init() {
+        theDaemon = new WriteDaemon(LANES);
+    }
+
+    @After public void deinit() {
+        theDaemon.halt();
+    }
+
+    @Test public void perKeyOrdering() throws Exception {
+        int myKeys = LANES * 2;
+        int myJobs = 500;
+
+        final List[] myResults = new List[myKeys];
+        final Set myThreads = new HashSet();
+
+        for (int i = 0; i < myKeys; i++) {
+            myResults[i] = new ArrayList();
+        }
+
+        for (int j = 0; j < myJobs; j++) {
+            for (int i = 0; i < myKeys; i++) {
+                final int myKey = i;
+                final Integer mySeq = new Integer(j);
+
+                theDaemon.queue(new Integer(myKey), new Runnable() {
+                        public void run() {
+                            synchronized(myThreads) {
+                                myThreads.add(Thread.currentThread());
+                                myResults[myKey].add(mySeq);
+                            }
+
+                            if ((mySeq.intValue() % 50) == 0)
+                                Thread.yield();
+                        }
+                    });
+            }
+        }
+
+        waitFor(theDaemon);
+
+        synchronized(myThreads) {
+            Assert.assertEquals(LANES, myThreads.size());
+
+            for (int i = 0; i < myKeys; i++) {
+                Assert.assertEquals(myJobs, myResults[i].size());
+
+                for (int j = 0; j < myJobs; j++) {
+                    Assert.assertEquals(new Integer(j), myResults[i].get(j));
+                }
+            }
+        }
+    }
+
+    /**
+       A completion task mustn't run until every job queued before it, in
+       every lane, has completed, even whilst one lane is held up.
+     */
+    @Test public void completionAfterAllLanes() throws Exception {
+        final CountDownLatch myGate = new CountDownLatch(1);
+        final AtomicInteger myDone = new AtomicInteger();
+        final AtomicInteger myDoneAtCompletion = new AtomicInteger(-1);
+        final CountDownLatch myCompleted = new CountDownLatch(1);
+        int myJobs = LANES * 50;
+
+        // Hold up lane zero
+        theDaemon.queue(new Integer(0), new Runnable() {
+                public void run() {
+                    try {
+                        myGate.await();
+                    } catch (InterruptedException anIE) {
+                    }
+
+                    myDone.incrementAndGet();
+                }
+            });
+
+        for (int i = 0; i < myJobs; i++) {
+            theDaemon.queue(new Integer(i), new Runnable() {
+                    public void run() {
+                        myDone.incrementAndGet();
+                    }
+                });
+        }
+
+        theDaemon.push(new Task() {
+                public void run() {
+                    myDoneAtCompletion.set(myDone.get());
+                    myCompleted.countDown();
+                }
+            });
+
+        Assert.assertFalse(myCompleted.await(200, TimeUnit.MILLISECONDS));
+
+        // The other lanes carry on, only lane zero's work is outstanding
+        long myDeadline = System.currentTimeMillis() + 10000;
+
+        while ((myDone.get() < (myJobs - (myJobs / LANES))) &&
+               (System.currentTimeMillis() < myDeadline))
+            Thread.sleep(10);
+
+        Assert.assertEquals(myJobs - (myJobs / LANES), myDone.get());
+        Assert.assertEquals(1, myCompleted.getCount());
+
+        myGate.countDown();
+
+        Assert.assertTrue(myCompleted.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(myJobs + 1, myDoneAtCompletion.get());
+    }
+
+    /**
+       A task <code>queue</code>'d without a key runs after all earlier jobs
+       and before any later ones, in every lane.
+     */
+    @Test public void unkeyedIsABarrier() throws Exception {
+        final AtomicInteger myBefore = new AtomicInteger();
+        final AtomicInteger myBeforeAtBarrier = new AtomicInteger(-1);
+        final AtomicInteger myAfter = new AtomicInteger();
+        final AtomicInteger myAfterAtBarrier = new AtomicInteger(-1);
+        int myJobs = LANES * 50;
+
+        for (int i = 0; i < myJobs; i++) {
+            theDaemon.queue(new Integer(i), new Runnable() {
+                    public void run() {
+                        myBefore.incrementAndGet();
+                    }
+                });
+        }
+
+        theDaemon.queue(new Runnable() {
+                public void run() {
+                    myBeforeAtBarrier.set(myBefore.get());
+                    myAfterAtBarrier.set(myAfter.get());
+                }
+            });
+
+        for (int i = 0; i < myJobs; i++) {
+            theDaemon.queue(new Integer(i), new Runnable() {
+                    public void run() {
+                        myAfter.incrementAndGet();
+                    }
+                });
+        }
+
+        waitFor(theDaemon);
+
+        Assert.assertEquals(myJobs, myBeforeAtBarrier.get());
+        Assert.assertEquals(0, myAfterAtBarrier.get());
+        Assert.assertEquals(myJobs, myAfter.get());
+    }
+
+    private static void waitFor(WriteDaemon aDaemon) throws Exception {
+        final CountDownLatch myLatch = new CountDownLatch(1);
+
+        aDaemon.push(new Task() {
+                public void run() {
+                    myLatch.countDown();
+                }
+            });
+
+        Assert.assertTrue(myLatch.await(10, TimeUnit.SECONDS));
+    }
+}
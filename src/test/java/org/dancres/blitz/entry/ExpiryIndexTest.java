@@ -0,0 +1,170 @@
+package org.dancres.blitz.entry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import net.jini.core.lease.Lease;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.dancres.blitz.oid.OID;
+import org.dancres.blitz.oid.OIDFactory;
+
+/**
+   Zone zero OIDs with small ids hash to their id so those ids which are
+   equal modulo the table size (initially 64) collide.
+ */
+public class ExpiryIndexTest {
+    private ExpiryIndex theIndex;
+
+    @Before public void init() {
+        theIndex = new ExpiryIndex();
+    }
+
+    @Test public void addRenewRemove() throws Exception {
+        OID myFirst = OIDFactory.newOID(0, 1);
+        OID mySecond = OIDFactory.newOID(0, 2);
+
+        theIndex.add(myFirst, 100);
+        theIndex.add(mySecond, 200);
+        Assert.assertEquals(2, theIndex.size());
+
+        // Renewal replaces the expiry, the old heap node must be ignored
+        theIndex.add(myFirst, 300);
+        Assert.assertEquals(2, theIndex.size());
+        Assert.assertEquals(set(new OID[0]), expired(100));
+        Assert.assertEquals(set(new OID[] {mySecond}), expired(250));
+        Assert.assertEquals(set(new OID[] {myFirst, mySecond}), expired(300));
+
+        Assert.assertEquals(300, theIndex.remove(myFirst));
+        Assert.assertEquals(Lease.FOREVER, theIndex.remove(myFirst));
+        Assert.assertEquals(1, theIndex.size());
+        Assert.assertEquals(set(new OID[] {mySecond}), expired(Long.MAX_VALUE));
+
+        Assert.assertEquals(200, theIndex.remove(mySecond));
+        Assert.assertEquals(0, theIndex.size());
+        Assert.assertEquals(set(new OID[0]), expired(Long.MAX_VALUE));
+    }
+
+    @Test public void foreverNotTracked() throws Exception {
+        OID myId = OIDFactory.newOID(0, 1);
+
+        theIndex.add(myId, Lease.FOREVER);
+        Assert.assertEquals(0, theIndex.size());
+        Assert.assertEquals(set(new OID[0]), expired(Long.MAX_VALUE));
+
+        // Renewing to forever stops tracking
+        theIndex.add(myId, 100);
+        theIndex.add(myId, Lease.FOREVER);
+        Assert.assertEquals(0, theIndex.size());
+        Assert.assertEquals(Lease.FOREVER, theIndex.remove(myId));
+        Assert.assertEquals(set(new OID[0]), expired(Long.MAX_VALUE));
+    }
+
+    @Test public void expiryBoundaries() throws Exception {
+        OID myEarly = OIDFactory.newOID(0, 1);
+        OID myLate = OIDFactory.newOID(0, 2);
+
+        theIndex.add(myEarly, 100);
+        theIndex.add(myLate, 101);
+
+        Assert.assertEquals(set(new OID[0]), expired(99));
+        Assert.assertEquals(set(new OID[] {myEarly}), expired(100));
+        Assert.assertEquals(set(new OID[] {myEarly, myLate}), expired(101));
+    }
+
+    /**
+       Deleting from a probe sequence that wraps past the end of the table
+       must leave the rest of the sequence reachable.
+     */
+    @Test public void deleteWrapsAround() throws Exception {
+        OID[] myIds = new OID[4];
+
+        // All home at slot 62 so occupy 62, 63, 0 and 1
+        for (int i = 0; i < myIds.length; i++) {
+            myIds[i] = OIDFactory.newOID(0, 62 + (i * 64));
+            theIndex.add(myIds[i], 1000 + i);
+        }
+
+        // Homes at 0 and 1, pushed along behind the wrapped entries
+        OID myZero = OIDFactory.newOID(0, 0);
+        OID myOne = OIDFactory.newOID(0, 1);
+
+        theIndex.add(myZero, 2000);
+        theIndex.add(myOne, 2001);
+
+        Assert.assertEquals(1000, theIndex.remove(myIds[0]));
+        Assert.assertEquals(2000, theIndex.remove(myZero));
+        Assert.assertEquals(4, theIndex.size());
+
+        Assert.assertEquals(1003, theIndex.remove(myIds[3]));
+        Assert.assertEquals(2001, theIndex.remove(myOne));
+        Assert.assertEquals(1001, theIndex.remove(myIds[1]));
+        Assert.assertEquals(1002, theIndex.remove(myIds[2]));
+        Assert.assertEquals(0, theIndex.size());
+
+        for (int i = 0; i < myIds.length; i++) {
+            Assert.assertEquals(Lease.FOREVER, theIndex.remove(myIds[i]));
+        }
+    }
+
+    @Test public void survivesResizeAndCompaction() throws Exception {
+        Set<OID> myLive = new HashSet<OID>();
+
+        for (int i = 0; i < 1000; i++) {
+            OID myId = OIDFactory.newOID(0, i);
+
+            theIndex.add(myId, i);
+            myLive.add(myId);
+        }
+
+        // Enough removals and renewals that stale nodes dominate the heap
+        for (int i = 0; i < 1000; i++) {
+            OID myId = OIDFactory.newOID(0, i);
+
+            if ((i % 10) == 0) {
+                theIndex.add(myId, 5000 + i);
+            } else {
+                Assert.assertEquals(i, theIndex.remove(myId));
+                myLive.remove(myId);
+            }
+        }
+
+        Assert.assertEquals(100, theIndex.size());
+        Assert.assertEquals(set(new OID[0]), expired(4999));
+        Assert.assertEquals(myLive, expired(Long.MAX_VALUE));
+
+        Set<OID> myHalf = new HashSet<OID>();
+
+        for (int i = 0; i < 500; i += 10) {
+            myHalf.add(OIDFactory.newOID(0, i));
+        }
+
+        Assert.assertEquals(myHalf, expired(5490));
+    }
+
+    private Set<OID> expired(long aTime) throws Exception {
+        TupleLocator myLocator = theIndex.getExpired(aTime);
+        Set<OID> myResult = new HashSet<OID>();
+
+        while (myLocator.fetchNext()) {
+            Assert.assertTrue(myResult.add(myLocator.getOID()));
+        }
+
+        myLocator.release();
+
+        return myResult;
+    }
+
+    private static Set<OID> set(OID[] anIds) {
+        Set<OID> mySet = new HashSet<OID>();
+
+        for (int i = 0; i < anIds.length; i++) {
+            mySet.add(anIds[i]);
+        }
+
+        return mySet;
+    }
+}
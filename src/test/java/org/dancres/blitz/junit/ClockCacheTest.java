@@ -0,0 +1,181 @@
+package org.dancres.blitz.junit;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.dancres.blitz.arc.BackingStore;
+import org.dancres.blitz.arc.CacheBlockDescriptor;
+import org.dancres.blitz.arc.ClockCache;
+
+import org.dancres.blitz.cache.Identifiable;
+import org.dancres.blitz.cache.Identifier;
+
+/**
+   Checks the order in which ClockCache evicts.  No ClockEvictor is running
+   so eviction happens synchronously in the thread that overflows the cache.
+ */
+public class ClockCacheTest {
+    private static final int CACHE_SIZE = 3;
+
+    private StoreImpl theStore;
+    private ClockCache theCache;
+
+    @Before
+    public void init() {
+        theStore = new StoreImpl();
+        theCache = new ClockCache(theStore, CACHE_SIZE);
+    }
+
+    @Test
+    public void unreferencedInLoadOrder() throws Exception {
+        for (int i = 0; i < 6; i++)
+            insert(i);
+
+        assertSaved(new int[] {0, 1, 2});
+        Assert.assertEquals(CACHE_SIZE, theCache.getActiveSize());
+    }
+
+    @Test
+    public void referencedGetSecondChance() throws Exception {
+        insert(0);
+        insert(1);
+        insert(2);
+
+        find(0);
+
+        // 0 is passed over, losing its reference, and goes behind 3
+        insert(3);
+        assertSaved(new int[] {1});
+
+        insert(4);
+        insert(5);
+        assertSaved(new int[] {1, 2, 3});
+
+        insert(6);
+        assertSaved(new int[] {1, 2, 3, 0});
+    }
+
+    @Test
+    public void pinnedAreSkipped() throws Exception {
+        insert(0);
+        CacheBlockDescriptor myPinned = theCache.insert(new Element(1));
+        insert(2);
+
+        insert(3);
+        assertSaved(new int[] {0});
+
+        // 1 is held so it's passed over and 2 goes instead
+        insert(4);
+        assertSaved(new int[] {0, 2});
+
+        myPinned.release();
+
+        insert(5);
+        insert(6);
+        insert(7);
+        assertSaved(new int[] {0, 2, 3, 4, 1});
+    }
+
+    @Test
+    public void evictedAreReloaded() throws Exception {
+        for (int i = 0; i < 4; i++)
+            insert(i);
+
+        assertSaved(new int[] {0});
+
+        CacheBlockDescriptor myCBD = theCache.find(new IdImpl(0));
+
+        Assert.assertNotNull(myCBD);
+        Assert.assertEquals(new IdImpl(0), myCBD.getContent().getId());
+        myCBD.release();
+
+        Assert.assertEquals(1, theStore.theLoads);
+        assertSaved(new int[] {0, 1});
+    }
+
+    private void insert(int anId) throws IOException {
+        theCache.insert(new Element(anId)).release();
+    }
+
+    private void find(int anId) throws IOException {
+        CacheBlockDescriptor myCBD = theCache.find(new IdImpl(anId));
+
+        Assert.assertNotNull(myCBD);
+        myCBD.release();
+    }
+
+    private void assertSaved(int[] anIds) {
+        List myExpected = new ArrayList();
+
+        for (int i = 0; i < anIds.length; i++)
+            myExpected.add(new IdImpl(anIds[i]));
+
+        Assert.assertEquals(myExpected, theStore.theSaved);
+    }
+
+    private static class IdImpl implements Identifier {
+        private int theId;
+
+        IdImpl(int anId) {
+            theId = anId;
+        }
+
+        public boolean equals(Object anObject) {
+            return ((anObject instanceof IdImpl) &&
+                    (((IdImpl) anObject).theId == theId));
+        }
+
+        public int hashCode() {
+            return theId;
+        }
+
+        public int compareTo(Object anObject) {
+            return theId - ((IdImpl) anObject).theId;
+        }
+
+        public String toString() {
+            return "Id: " + theId;
+        }
+    }
+
+    private static class Element implements Identifiable {
+        private IdImpl theId;
+
+        Element(int anId) {
+            theId = new IdImpl(anId);
+        }
+
+        public Identifier getId() {
+            return theId;
+        }
+    }
+
+    private static class StoreImpl implements BackingStore {
+        private List theSaved = new ArrayList();
+        private Map theStored = new HashMap();
+        private int theLoads;
+
+        public Identifiable load(Identifier anId) {
+            ++theLoads;
+
+            return (Identifiable) theStored.get(anId);
+        }
+
+        public void save(Identifiable anIdentifiable) {
+            theSaved.add(anIdentifiable.getId());
+            theStored.put(anIdentifiable.getId(), anIdentifiable);
+        }
+
+        public String getName() {
+            return "ClockCacheTest";
+        }
+    }
+}
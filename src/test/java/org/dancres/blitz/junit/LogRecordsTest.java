@@ -0,0 +1,186 @@
+package org.dancres.blitz.junit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.prevayler.Command;
+import org.prevayler.CommandCodec;
+import org.prevayler.PrevalentSystem;
+import org.prevayler.SnapshotContributor;
+
+import org.prevayler.implementation.AbstractPrevalentSystem;
+import org.prevayler.implementation.PrevaylerCore;
+
+/**
+   Writes commands to the log and recovers them via PrevaylerCore, with and
+   without a CommandCodec, and checks that logs written before records were
+   introduced are still recovered.
+ */
+public class LogRecordsTest {
+    private File theDir;
+
+    @Before
+    public void init() throws Exception {
+        theDir = File.createTempFile("logRecords", "test");
+        theDir.delete();
+        theDir.mkdirs();
+    }
+
+    @After
+    public void deinit() throws Exception {
+        File[] myFiles = theDir.listFiles();
+
+        for (int i = 0; i < myFiles.length; i++)
+            myFiles[i].delete();
+
+        theDir.delete();
+    }
+
+    @Test
+    public void encodedAndSerialized() throws Exception {
+        // AddCodec leaves negative values to serialization
+        log(new AddCodec(), new int[] {1, -2, 3, -4, 5});
+
+        assertRecovered(new int[] {1, -2, 3, -4, 5}, 1, new AddCodec());
+    }
+
+    @Test
+    public void withoutCodec() throws Exception {
+        log(null, new int[] {7, 8, 9});
+
+        assertRecovered(new int[] {7, 8, 9}, 1, null);
+    }
+
+    @Test
+    public void parallelDecode() throws Exception {
+        // Each PrevaylerCore starts a new log file
+        log(new AddCodec(), new int[] {1, 2});
+        log(null, new int[] {3, -4});
+        log(new AddCodec(), new int[] {5});
+
+        assertRecovered(new int[] {1, 2, 3, -4, 5}, 2, new AddCodec());
+        assertRecovered(new int[] {1, 2, 3, -4, 5}, 1, new AddCodec());
+    }
+
+    @Test
+    public void legacyLog() throws Exception {
+        File myLog = new File(theDir, "000000000000000000001.commandLog");
+        ObjectOutputStream myOut =
+            new ObjectOutputStream(new FileOutputStream(myLog));
+
+        myOut.writeObject(new Add(1));
+        myOut.reset();
+        myOut.writeObject(new Add(-2));
+        myOut.reset();
+        myOut.close();
+
+        assertRecovered(new int[] {1, -2}, 1, new AddCodec());
+    }
+
+    @Test
+    public void corruptRecord() throws Exception {
+        log(new AddCodec(), new int[] {1, 2, 3});
+
+        File myLog = new File(theDir, "000000000000000000001.commandLog");
+        RandomAccessFile myFile = new RandomAccessFile(myLog, "rw");
+        long myLast = myFile.length() - 1;
+
+        myFile.seek(myLast);
+        int myByte = myFile.read();
+        myFile.seek(myLast);
+        myFile.write(myByte ^ 0xff);
+        myFile.close();
+
+        assertRecovered(new int[] {1, 2}, 1, new AddCodec());
+    }
+
+    private void log(CommandCodec aCodec, int[] aValues) throws Exception {
+        PrevaylerCore myCore =
+            new PrevaylerCore(new Total(), theDir.getPath(), false, false, 0,
+                              1, aCodec);
+
+        for (int i = 0; i < aValues.length; i++)
+            myCore.logCommand(new Add(aValues[i]));
+
+        myCore.flush();
+    }
+
+    private void assertRecovered(int[] anExpected, int aDecoders,
+                                 CommandCodec aCodec) throws Exception {
+        PrevaylerCore myCore =
+            new PrevaylerCore(new Total(), theDir.getPath(), false, false, 0,
+                              aDecoders, aCodec);
+
+        List myValues = ((Total) myCore.system()).theValues;
+        int[] myRecovered = new int[myValues.size()];
+
+        for (int i = 0; i < myRecovered.length; i++)
+            myRecovered[i] = ((Integer) myValues.get(i)).intValue();
+
+        Assert.assertTrue(Arrays.toString(myRecovered),
+                          Arrays.equals(anExpected, myRecovered));
+    }
+
+    public static class Total extends AbstractPrevalentSystem {
+        private List theValues = new ArrayList();
+
+        public void add(SnapshotContributor aContributor) {
+        }
+
+        public void remove(SnapshotContributor aContributor) {
+        }
+
+        public Serializable[] getSnapshotContributions() {
+            return new Serializable[0];
+        }
+    }
+
+    public static class Add implements Command {
+        private int theValue;
+
+        Add(int aValue) {
+            theValue = aValue;
+        }
+
+        public Serializable execute(PrevalentSystem aSystem) {
+            ((Total) aSystem).theValues.add(new Integer(theValue));
+            return null;
+        }
+    }
+
+    /**
+       Must be public with a public no-arg constructor as it's instantiated
+       by name when the log is read.
+     */
+    public static class AddCodec implements CommandCodec {
+        public boolean encode(Command aCommand, DataOutput anOut)
+            throws IOException {
+
+            if ((! (aCommand instanceof Add)) ||
+                (((Add) aCommand).theValue < 0))
+                return false;
+
+            anOut.writeInt(((Add) aCommand).theValue);
+            return true;
+        }
+
+        public Command decode(DataInput anIn) throws IOException {
+            return new Add(anIn.readInt());
+        }
+    }
+}
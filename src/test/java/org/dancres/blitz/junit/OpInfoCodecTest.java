@@ -0,0 +1,158 @@
+package org.dancres.blitz.junit;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.StreamCorruptedException;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.dancres.blitz.entry.OpInfo;
+import org.dancres.blitz.entry.OpInfoCodec;
+
+import org.dancres.blitz.mangler.EntryMangler;
+import org.dancres.blitz.mangler.FlatEntry;
+import org.dancres.blitz.mangler.MangledEntry;
+
+import org.dancres.blitz.oid.OID;
+import org.dancres.blitz.oid.OIDFactory;
+
+import org.dancres.blitz.test.DummyEntry;
+
+import org.dancres.blitz.txn.TxnState;
+
+/**
+   Each kind of OpInfo OpInfoCodec handles is built in its logged form, read
+   and must write back to exactly the same bytes.
+ */
+public class OpInfoCodecTest {
+    /*
+      OpInfo kinds, see OpInfoCodec
+     */
+    private static final int FIND = 1;
+    private static final int WRITE = 2;
+
+    private static final String TYPE = DummyEntry.class.getName();
+
+    private static final OID THE_OID = OIDFactory.newOID(3, 1234567L);
+
+    @Test
+    public void findForRead() throws Exception {
+        OpInfo myInfo = assertRoundTrip(find(false));
+
+        Assert.assertEquals(TYPE, myInfo.getType());
+        Assert.assertEquals(THE_OID, myInfo.getOID());
+    }
+
+    @Test
+    public void findForTake() throws Exception {
+        OpInfo myInfo = assertRoundTrip(find(true));
+
+        Assert.assertEquals(TYPE, myInfo.getType());
+        Assert.assertEquals(THE_OID, myInfo.getOID());
+    }
+
+    @Test
+    public void writeEntry() throws Exception {
+        OpInfo myInfo = assertRoundTrip(write());
+
+        Assert.assertEquals(TYPE, myInfo.getType());
+        Assert.assertEquals(THE_OID, myInfo.getOID());
+    }
+
+    @Test
+    public void otherOpInfosNotWritten() throws Exception {
+        TxnCommandCodecTest.Out myOut = new TxnCommandCodecTest.Out();
+        OpInfo myInfo = new OtherOpInfo();
+
+        Assert.assertFalse(OpInfoCodec.canWrite(myInfo));
+        Assert.assertFalse(OpInfoCodec.write(myInfo, myOut));
+        Assert.assertEquals(0, myOut.toByteArray().length);
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void unknownOpInfo() throws Exception {
+        read(new byte[] {99});
+    }
+
+    /**
+       @return the logged form of a FindEntryOpInfo
+     */
+    static byte[] find(boolean isTake) throws Exception {
+        TxnCommandCodecTest.Out myOut = new TxnCommandCodecTest.Out();
+
+        myOut.writeByte(FIND);
+        myOut.writeBoolean(isTake);
+        myOut.writeUTF(TYPE);
+        myOut.write(OIDFactory.getKey(THE_OID));
+
+        return myOut.toByteArray();
+    }
+
+    /**
+       @return the logged form of a WriteEntryOpInfo
+     */
+    static byte[] write() throws Exception {
+        TxnCommandCodecTest.Out myOut = new TxnCommandCodecTest.Out();
+        MangledEntry myEntry =
+            EntryMangler.getMangler().mangle(new DummyEntry("rhubarb"));
+        byte[] myFlat = FlatEntry.flatten(myEntry);
+
+        myOut.writeByte(WRITE);
+        myOut.write(OIDFactory.getKey(THE_OID));
+        myOut.writeLong(987654321L);
+        myOut.writeInt(myFlat.length);
+        myOut.write(myFlat);
+
+        return myOut.toByteArray();
+    }
+
+    private static OpInfo read(byte[] aBytes) throws Exception {
+        DataInputStream myIn =
+            new DataInputStream(new ByteArrayInputStream(aBytes));
+
+        OpInfo myInfo = OpInfoCodec.read(myIn);
+
+        Assert.assertEquals("Bytes left over", 0, myIn.available());
+
+        return myInfo;
+    }
+
+    private static OpInfo assertRoundTrip(byte[] aBytes) throws Exception {
+        OpInfo myInfo = read(aBytes);
+        TxnCommandCodecTest.Out myOut = new TxnCommandCodecTest.Out();
+
+        Assert.assertTrue(OpInfoCodec.canWrite(myInfo));
+        Assert.assertTrue(OpInfoCodec.write(myInfo, myOut));
+        Assert.assertTrue(Arrays.equals(aBytes, myOut.toByteArray()));
+
+        return myInfo;
+    }
+
+    private static class OtherOpInfo implements OpInfo {
+        public boolean isDebugOp() {
+            return true;
+        }
+
+        public void restore() {
+        }
+
+        public MangledEntry commit(TxnState aState) {
+            return null;
+        }
+
+        public MangledEntry abort(TxnState aState) {
+            return null;
+        }
+
+        public String getType() {
+            return TYPE;
+        }
+
+        public OID getOID() {
+            return THE_OID;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package org.dancres.blitz.junit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+
+import java.rmi.MarshalledObject;
+
+import java.util.Arrays;
+
+import net.jini.core.transaction.server.TransactionConstants;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.prevayler.Command;
+import org.prevayler.PrevalentSystem;
+
+import org.dancres.blitz.txn.TxnCommandCodec;
+import org.dancres.blitz.txn.TxnOp;
+import org.dancres.blitz.txn.TxnState;
+
+import org.dancres.util.ObjectTransformer;
+
+/**
+   Each command, TxnId and TxnOp kind TxnCommandCodec handles is built in its
+   logged form, decoded and must encode back to exactly the same bytes.  This
+   exercises TxnId.writeTo, TxnState.writeTo and OpInfoCodec as used by
+   EntryTxnOpCodec.
+ */
+public class TxnCommandCodecTest {
+    /*
+      Command and op tags, see TxnCommandCodec
+     */
+    private static final int PREPARE = 1;
+    private static final int PREPARE_COMMIT = 2;
+    private static final int COMMIT = 3;
+    private static final int ABORT = 4;
+    private static final int ABORT_ALL = 5;
+    private static final int NULL_TXN = 6;
+
+    private static final int SERIALIZED_OP = 0;
+    private static final int ENTRY_OP = 1;
+
+    @Test
+    public void localTxnIds() throws Exception {
+        assertRoundTrip(txnIdCommand(COMMIT, 42, null));
+        assertRoundTrip(txnIdCommand(ABORT, Long.MAX_VALUE, null));
+    }
+
+    @Test
+    public void remoteTxnIds() throws Exception {
+        MarshalledObject myMgr = new MarshalledObject("txnmgr");
+
+        assertRoundTrip(txnIdCommand(COMMIT, 1, myMgr));
+        assertRoundTrip(txnIdCommand(ABORT, 2, myMgr));
+    }
+
+    @Test
+    public void abortAll() throws Exception {
+        assertRoundTrip(new byte[] {ABORT_ALL});
+    }
+
+    @Test
+    public void prepareWithEveryOp() throws Exception {
+        byte[][] myOps = everyOp();
+
+        assertRoundTrip(txnStateCommand(PREPARE, null, myOps));
+        assertRoundTrip(txnStateCommand(PREPARE_COMMIT, null, myOps));
+        assertRoundTrip(txnStateCommand(PREPARE, new MarshalledObject("m"),
+                                        myOps));
+        assertRoundTrip(txnStateCommand(PREPARE_COMMIT, null, new byte[0][]));
+    }
+
+    @Test
+    public void nullTxnWithEveryOp() throws Exception {
+        byte[][] myOps = everyOp();
+        Out myOut = new Out();
+
+        myOut.writeByte(NULL_TXN);
+        writeOps(myOut, myOps);
+
+        assertRoundTrip(myOut.toByteArray());
+    }
+
+    @Test
+    public void otherCommandsNotEncoded() throws Exception {
+        Out myOut = new Out();
+
+        Assert.assertFalse(new TxnCommandCodec().encode(new OtherCommand(),
+                                                         myOut));
+        Assert.assertEquals(0, myOut.toByteArray().length);
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void unknownCommand() throws Exception {
+        decode(new byte[] {99});
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void unknownOpCodec() throws Exception {
+        Out myOut = new Out();
+
+        myOut.writeByte(NULL_TXN);
+        myOut.writeInt(1);
+        myOut.writeByte(99);
+
+        decode(myOut.toByteArray());
+    }
+
+    /**
+       @return the logged form of an Entry find (read and take) and write
+       plus an op which isn't an EntryTxnOp and is thus serialized
+     */
+    static byte[][] everyOp() throws Exception {
+        Out myRead = new Out();
+        myRead.writeByte(ENTRY_OP);
+        myRead.writeInt(1);
+        myRead.write(OpInfoCodecTest.find(false));
+
+        Out myTake = new Out();
+        myTake.writeByte(ENTRY_OP);
+        myTake.writeInt(2);
+        myTake.write(OpInfoCodecTest.find(true));
+
+        Out myWrite = new Out();
+        myWrite.writeByte(ENTRY_OP);
+        myWrite.writeInt(3);
+        myWrite.write(OpInfoCodecTest.write());
+
+        Out mySerialized = new Out();
+        byte[] myOp = ObjectTransformer.toByte(new OtherOp());
+        mySerialized.writeByte(SERIALIZED_OP);
+        mySerialized.writeInt(myOp.length);
+        mySerialized.write(myOp);
+
+        return new byte[][] {myRead.toByteArray(), myTake.toByteArray(),
+                             myWrite.toByteArray(), mySerialized.toByteArray()};
+    }
+
+    private static byte[] txnIdCommand(int aTag, long anId,
+                                       MarshalledObject aMgr)
+        throws IOException {
+        Out myOut = new Out();
+
+        myOut.writeByte(aTag);
+        writeTxnId(myOut, anId, aMgr);
+
+        return myOut.toByteArray();
+    }
+
+    private static byte[] txnStateCommand(int aTag, MarshalledObject aMgr,
+                                          byte[][] anOps)
+        throws IOException {
+        Out myOut = new Out();
+
+        myOut.writeByte(aTag);
+        writeTxnId(myOut, 7, aMgr);
+        myOut.writeInt(TransactionConstants.PREPARED);
+        myOut.writeBoolean(true);
+        writeOps(myOut, anOps);
+
+        return myOut.toByteArray();
+    }
+
+    private static void writeTxnId(Out anOut, long anId, MarshalledObject aMgr)
+        throws IOException {
+        anOut.writeLong(anId);
+        anOut.writeBoolean(aMgr != null);
+
+        if (aMgr != null) {
+            byte[] myMgr = ObjectTransformer.toByte(aMgr);
+
+            anOut.writeInt(myMgr.length);
+            anOut.write(myMgr);
+        }
+    }
+
+    private static void writeOps(Out anOut, byte[][] anOps)
+        throws IOException {
+        anOut.writeInt(anOps.length);
+
+        for (int i = 0; i < anOps.length; i++)
+            anOut.write(anOps[i]);
+    }
+
+    private static Command decode(byte[] aBytes) throws Exception {
+        DataInputStream myIn =
+            new DataInputStream(new ByteArrayInputStream(aBytes));
+
+        Command myCommand = new TxnCommandCodec().decode(myIn);
+
+        Assert.assertEquals("Bytes left over", 0, myIn.available());
+
+        return myCommand;
+    }
+
+    private static void assertRoundTrip(byte[] aBytes) throws Exception {
+        Out myOut = new Out();
+
+        Assert.assertTrue(new TxnCommandCodec().encode(decode(aBytes), myOut));
+        Assert.assertTrue(Arrays.equals(aBytes, myOut.toByteArray()));
+    }
+
+    static class Out extends DataOutputStream {
+        Out() {
+            super(new ByteArrayOutputStream());
+        }
+
+        byte[] toByteArray() throws IOException {
+            flush();
+            return ((ByteArrayOutputStream) out).toByteArray();
+        }
+    }
+
+    public static class OtherOp implements TxnOp {
+        public void restore(TxnState aState) {
+        }
+
+        public void commit(TxnState aState) {
+        }
+
+        public void abort(TxnState aState) {
+        }
+    }
+
+    private static class OtherCommand implements Command {
+        public Serializable execute(PrevalentSystem aSystem) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.dancres.blitz.mangler;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FieldCodecTest {
+    private enum Colour {RED, GREEN {public String toString() {return "g";}}}
+
+    private static final Object[] VALUES = {
+        "", "hello", "\u0000\u20ac\ud83d\ude00",
+        new Integer(0), new Integer(Integer.MIN_VALUE), new Integer(42),
+        new Long(-1), new Long(Long.MAX_VALUE),
+        new Short(Short.MIN_VALUE), new Byte((byte) -128),
+        new Character('\uffff'), Boolean.TRUE, Boolean.FALSE,
+        new Float(-0.0f), new Float(Float.NaN), new Double(Double.MIN_VALUE),
+        new UUID(0x0123456789abcdefL, 0xfedcba9876543210L),
+        new byte[0], new byte[] {0, -1, 127},
+        Colour.RED, Colour.GREEN
+    };
+
+    @Test public void sameBytesAsSerialization() throws Exception {
+        for (int i = 0; i < VALUES.length; i++) {
+            byte[][] myEncoded = FieldCodec.encode(VALUES[i]);
+            byte[][] mySerialized = FieldCodec.serialize(VALUES[i]);
+
+            Assert.assertNotNull("Not encoded: " + VALUES[i], myEncoded);
+            Assert.assertTrue("Object bytes differ: " + VALUES[i],
+                              Arrays.equals(mySerialized[0], myEncoded[0]));
+            Assert.assertTrue("Annotations differ: " + VALUES[i],
+                              Arrays.equals(mySerialized[1], myEncoded[1]));
+        }
+    }
+
+    @Test public void roundTrip() throws Exception {
+        for (int i = 0; i < VALUES.length; i++) {
+            MangledField myField = new MangledField("f", VALUES[i]);
+
+            assertSameValue(VALUES[i], myField.unMangle(null, false));
+        }
+    }
+
+    @Test public void fallsBackToSerialization() throws Exception {
+        char[] myChars = new char[70000];
+        Arrays.fill(myChars, 'x');
+
+        Object[] myValues = {new String(myChars), new Date(1234)};
+
+        for (int i = 0; i < myValues.length; i++) {
+            Assert.assertNull(FieldCodec.encode(myValues[i]));
+
+            MangledField myField = new MangledField("f", myValues[i]);
+
+            Assert.assertNull(FieldCodec.decode(myField.getContent()));
+            Assert.assertEquals(myValues[i], myField.unMangle(null, false));
+        }
+    }
+
+    /**
+       A field mangled via the codec must have the same hash as, and match
+       in both directions, one mangled via serialization (e.g. by an older
+       client or stored by an older server).
+     */
+    @Test public void crossEncodingMatch() throws Exception {
+        for (int i = 0; i < VALUES.length; i++) {
+            MangledField myEncoded = new MangledField("f", VALUES[i]);
+            MangledField mySerialized = serialized(VALUES[i]);
+
+            Assert.assertEquals(mySerialized.hashCode(), myEncoded.hashCode());
+            Assert.assertTrue(myEncoded.matches(mySerialized));
+            Assert.assertTrue(mySerialized.matches(myEncoded));
+
+            assertSameValue(VALUES[i], mySerialized.unMangle(null, false));
+
+            for (int j = 0; j < VALUES.length; j++) {
+                if (j == i)
+                    continue;
+
+                Assert.assertFalse(VALUES[i] + " matched " + VALUES[j],
+                                   myEncoded.matches(serialized(VALUES[j])));
+            }
+        }
+    }
+
+    /**
+       A by-reference field must hash and match exactly as the same value
+       mangled to bytes (e.g. a template from a remote client or an Entry
+       read back from disk) and carry the same bytes.
+     */
+    @Test public void byReferenceMatchesMangled() throws Exception {
+        for (int i = 0; i < VALUES.length; i++) {
+            if (VALUES[i] instanceof byte[])
+                continue;
+
+            MangledField myReference = new MangledField("f", VALUES[i], true);
+            MangledField mySerialized = serialized(VALUES[i]);
+
+            Assert.assertTrue(myReference.isReference());
+            Assert.assertEquals(mySerialized.hashCode(),
+                                myReference.hashCode());
+            Assert.assertTrue(myReference.matches(mySerialized));
+            Assert.assertTrue(mySerialized.matches(myReference));
+            Assert.assertTrue(myReference.matches(
+                new MangledField("f", VALUES[i], true)));
+            Assert.assertTrue(Arrays.equals(mySerialized.getContent(),
+                                            myReference.getContent()));
+
+            assertSameValue(VALUES[i], myReference.unMangle(null, false));
+        }
+    }
+
+    /**
+       @return a field as MangledField's serialization path produces it
+     */
+    private static MangledField serialized(Object aValue) throws Exception {
+        byte[][] myBytes = FieldCodec.serialize(aValue);
+
+        return new MangledField("f", myBytes[0], myBytes[1],
+                                hashOf(myBytes[0]));
+    }
+
+    /**
+       The "one at a time" hash MangledField computes over the object bytes
+     */
+    private static int hashOf(byte[] aBytes) {
+        int myHash = 0;
+
+        for (int i = 0; i < aBytes.length; i++) {
+            myHash += aBytes[i];
+            myHash += (myHash << 10);
+            myHash ^= (myHash >> 6);
+        }
+
+        myHash += (myHash << 3);
+        myHash ^= (myHash >> 11);
+        myHash += (myHash << 15);
+
+        return myHash;
+    }
+
+    private static void assertSameValue(Object anExpected, Object anActual) {
+        if (anExpected instanceof byte[])
+            Assert.assertTrue(Arrays.equals((byte[]) anExpected,
+                                            (byte[]) anActual));
+        else
+            Assert.assertEquals(anExpected, anActual);
+    }
+}
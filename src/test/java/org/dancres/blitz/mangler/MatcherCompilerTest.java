@@ -0,0 +1,218 @@
+package org.dancres.blitz.mangler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.jini.core.entry.Entry;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+   Compiled matchers must agree with <code>MangledEntry.match</code> and
+   <code>FlatEntry.matches</code> for every combination of null and non-null
+   template fields.  The reference result comes from a freshly mangled
+   template which is below the compilation threshold.
+ */
+public class MatcherCompilerTest {
+    private static final String[] NAMES = {null, "a", "b"};
+    private static final Integer[] COUNTS = {null, new Integer(1),
+                                             new Integer(-1)};
+    private static final Long[] STAMPS = {null, new Long(0),
+                                          new Long(Long.MAX_VALUE)};
+
+    @Test public void agreesWithMatch() throws Exception {
+        List myEntries = entries();
+
+        for (int i = 0; i < myEntries.size(); i++) {
+            Entry myTemplate = (Entry) myEntries.get(i);
+            TemplateMatcher myMatcher =
+                MatcherCompiler.compile(mangle(myTemplate));
+
+            Assert.assertNotNull(myMatcher);
+
+            for (int j = 0; j < myEntries.size(); j++) {
+                MangledEntry myEntry = mangle((Entry) myEntries.get(j));
+                boolean isMatch = mangle(myTemplate).match(myEntry);
+
+                Assert.assertEquals(myTemplate + " vs " + myEntry,
+                                    isMatch, myMatcher.matches(myEntry));
+            }
+        }
+    }
+
+    @Test public void agreesWithFlatMatch() throws Exception {
+        List myEntries = entries();
+
+        for (int i = 0; i < myEntries.size(); i++) {
+            Entry myTemplate = (Entry) myEntries.get(i);
+            TemplateMatcher myMatcher =
+                MatcherCompiler.compile(mangle(myTemplate));
+
+            for (int j = 0; j < myEntries.size(); j++) {
+                MangledEntry myEntry = mangle((Entry) myEntries.get(j));
+                byte[] myFlat = atOffset(FlatEntry.flatten(myEntry), 7);
+                boolean isMatch =
+                    FlatEntry.matches(mangle(myTemplate), myFlat, 7);
+
+                Assert.assertEquals(myTemplate + " vs " + myEntry, isMatch,
+                                    myMatcher.matches(myFlat, 7));
+                Assert.assertEquals(isMatch, mangle(myTemplate).match(myEntry));
+            }
+        }
+    }
+
+    @Test public void subTypeEntries() throws Exception {
+        List myEntries = entries();
+        MangledEntry myEntry =
+            mangle(new SubEntry("a", new Integer(1), new Long(0), "extra"));
+        byte[] myFlat = FlatEntry.flatten(myEntry);
+
+        for (int i = 0; i < myEntries.size(); i++) {
+            MangledEntry myTemplate = mangle((Entry) myEntries.get(i));
+            TemplateMatcher myMatcher = MatcherCompiler.compile(myTemplate);
+            boolean isMatch = mangle((Entry) myEntries.get(i)).match(myEntry);
+
+            Assert.assertEquals(isMatch, myMatcher.matches(myEntry));
+            Assert.assertEquals(isMatch, myMatcher.matches(myFlat, 0));
+        }
+    }
+
+    @Test public void classesSharedByShape() throws Exception {
+        TemplateMatcher myFirst = MatcherCompiler.compile(
+            mangle(new TestEntry("a", null, new Long(0))));
+        TemplateMatcher mySecond = MatcherCompiler.compile(
+            mangle(new TestEntry("b", null, new Long(1))));
+        TemplateMatcher myThird = MatcherCompiler.compile(
+            mangle(new TestEntry("a", new Integer(1), null)));
+
+        Assert.assertSame(myFirst.getClass(), mySecond.getClass());
+        Assert.assertNotSame(myFirst.getClass(), myThird.getClass());
+    }
+
+    @Test public void compiledOnceHot() throws Exception {
+        MangledEntry myTemplate = mangle(new TestEntry("a", null, null));
+        MangledEntry myMatch =
+            mangle(new TestEntry("a", new Integer(1), null));
+        MangledEntry myMiss = mangle(new TestEntry("b", new Integer(1), null));
+
+        for (int i = 0; i < MatcherCompiler.THRESHOLD; i++) {
+            Assert.assertTrue(myTemplate.match(myMatch));
+            Assert.assertFalse(myTemplate.match(myMiss));
+        }
+
+        Assert.assertNotNull(myTemplate.getMatcher());
+        Assert.assertTrue(myTemplate.match(myMatch));
+        Assert.assertFalse(myTemplate.match(myMiss));
+    }
+
+    @Test public void shapesCapped() throws Exception {
+        TemplateMatcher myKnown = MatcherCompiler.compile(
+            mangle(new TestEntry("a", null, null)));
+        int myOldMax = MatcherCompiler.MAX_SHAPES;
+
+        MatcherCompiler.MAX_SHAPES = MatcherCompiler.getShapeCount() + 2;
+
+        try {
+            Assert.assertNotNull(MatcherCompiler.compile(wide(5, 0)));
+            Assert.assertNotNull(MatcherCompiler.compile(wide(5, 1)));
+
+            MangledEntry myTemplate = wide(5, 2);
+            MangledEntry myEntry = wide(5, 2);
+
+            Assert.assertNull(MatcherCompiler.compile(myTemplate));
+            Assert.assertEquals(MatcherCompiler.MAX_SHAPES,
+                                MatcherCompiler.getShapeCount());
+
+            for (int i = 0; i <= MatcherCompiler.THRESHOLD; i++) {
+                Assert.assertTrue(myTemplate.match(myEntry));
+            }
+
+            Assert.assertNull(myTemplate.getMatcher());
+
+            Assert.assertSame(myKnown.getClass(), MatcherCompiler.compile(
+                mangle(new TestEntry("b", null, null))).getClass());
+        } finally {
+            MatcherCompiler.MAX_SHAPES = myOldMax;
+        }
+    }
+
+    /**
+       @return a template of many fields with only the one at
+       <code>anOffset</code> non-null.  Each offset is a different shape.
+     */
+    private static MangledEntry wide(int aNumFields, int anOffset)
+        throws Exception {
+        MangledField[] myFields = new MangledField[aNumFields];
+
+        for (int i = 0; i < aNumFields; i++) {
+            myFields[i] = (i == anOffset) ?
+                new MangledField("f" + i, new Integer(i)) :
+                new MangledField("f" + i);
+        }
+
+        return new MangledEntry("Wide", null, myFields, new String[0],
+                                false);
+    }
+
+    /**
+       @return a TestEntry for every combination of field values
+     */
+    private static List entries() {
+        List myEntries = new ArrayList();
+
+        for (int i = 0; i < NAMES.length; i++) {
+            for (int j = 0; j < COUNTS.length; j++) {
+                for (int k = 0; k < STAMPS.length; k++) {
+                    myEntries.add(new TestEntry(NAMES[i], COUNTS[j],
+                                                STAMPS[k]));
+                }
+            }
+        }
+
+        return myEntries;
+    }
+
+    private static MangledEntry mangle(Entry anEntry) {
+        return EntryMangler.getMangler().mangle(anEntry);
+    }
+
+    private static byte[] atOffset(byte[] aBytes, int anOffset) {
+        byte[] myResult = new byte[aBytes.length + anOffset + 3];
+
+        System.arraycopy(aBytes, 0, myResult, anOffset, aBytes.length);
+
+        return myResult;
+    }
+
+    public static class TestEntry implements Entry {
+        public String name;
+        public Integer count;
+        public Long stamp;
+
+        public TestEntry() {
+        }
+
+        TestEntry(String aName, Integer aCount, Long aStamp) {
+            name = aName;
+            count = aCount;
+            stamp = aStamp;
+        }
+
+        public String toString() {
+            return name + ", " + count + ", " + stamp;
+        }
+    }
+
+    public static class SubEntry extends TestEntry {
+        public String extra;
+
+        public SubEntry() {
+        }
+
+        SubEntry(String aName, Integer aCount, Long aStamp, String anExtra) {
+            super(aName, aCount, aStamp);
+            extra = anExtra;
+        }
+    }
+}
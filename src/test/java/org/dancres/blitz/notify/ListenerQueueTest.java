@@ -0,0 +1,239 @@
+package org.dancres.blitz.notify;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.jini.space.JavaSpace;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.dancres.blitz.mangler.MangledEntry;
+
+import org.dancres.blitz.oid.OID;
+
+public class ListenerQueueTest {
+    private ConcurrentMap theQueues;
+    private GeneratorImpl theGenerator;
+    private ListenerQueue theQueue;
+
+    @Before public void init() {
+        theQueues = new ConcurrentHashMap();
+        theGenerator = new GeneratorImpl();
+        theQueue = new ListenerQueue(theGenerator, theQueues, 0);
+        theQueues.put(theGenerator, theQueue);
+    }
+
+    @Test public void deliverAndRetire() {
+        TaskImpl myTask = new TaskImpl();
+
+        Assert.assertEquals(ListenerQueue.SCHEDULE,
+                            theQueue.offer(myTask, newEvents(2)));
+        Assert.assertEquals(ListenerQueue.ACCEPTED,
+                            theQueue.offer(myTask, newEvents(1)));
+
+        Assert.assertFalse(theQueue.drain(null));
+
+        Assert.assertEquals(3, theGenerator.theDelivered);
+        Assert.assertEquals(2, myTask.theDispatched);
+        Assert.assertNull(theQueues.get(theGenerator));
+        Assert.assertEquals(ListenerQueue.RETIRED,
+                            theQueue.offer(myTask, newEvents(1)));
+    }
+
+    @Test public void failedPingRetires() {
+        TaskImpl myTask = new TaskImpl();
+        TaskImpl myLateTask = new TaskImpl();
+
+        theGenerator.theFailure = new RuntimeException("Listener exploded");
+
+        // Arrives whilst the failing delivery is in progress
+        theGenerator.theLateQueue = theQueue;
+        theGenerator.theLateTask = myLateTask;
+
+        Assert.assertEquals(ListenerQueue.SCHEDULE,
+                            theQueue.offer(myTask, newEvents(1)));
+
+        try {
+            theQueue.drain(null);
+            Assert.fail("Should have thrown");
+        } catch (RuntimeException anRE) {
+            Assert.assertSame(theGenerator.theFailure, anRE);
+        }
+
+        Assert.assertEquals(ListenerQueue.ACCEPTED, theGenerator.theLateResult);
+
+        // Both the delivered and the stranded dispatches must be released
+        Assert.assertEquals(1, myTask.theDispatched);
+        Assert.assertEquals(1, myLateTask.theDispatched);
+
+        Assert.assertNull(theQueues.get(theGenerator));
+        Assert.assertEquals(ListenerQueue.RETIRED,
+                            theQueue.offer(myTask, newEvents(1)));
+
+        // A fresh queue schedules delivery again
+        ListenerQueue myNew = new ListenerQueue(theGenerator, theQueues, 0);
+
+        Assert.assertEquals(ListenerQueue.SCHEDULE,
+                            myNew.offer(myTask, newEvents(1)));
+    }
+
+    @Test public void internalGeneratorsBypassQueues() throws Exception {
+        RemoteEventDispatcher myDispatcher = new RemoteEventDispatcher();
+        GeneratorImpl myGenerator = new GeneratorImpl();
+        TaskImpl myTask = new TaskImpl();
+
+        myGenerator.isRemote = false;
+
+        for (int i = 0; i < 5; i++) {
+            myDispatcher.sendEvents(myTask, myGenerator, newEvents(2));
+        }
+
+        long myDeadline = System.currentTimeMillis() + 5000;
+
+        while ((myTask.getDispatched() < 5) &&
+               (System.currentTimeMillis() < myDeadline))
+            Thread.sleep(10);
+
+        // Every event delivered, one dispatch per send
+        Assert.assertEquals(5, myTask.getDispatched());
+        Assert.assertEquals(10, myGenerator.getDelivered());
+    }
+
+    private static QueueEvent[] newEvents(int aCount) {
+        QueueEvent[] myEvents = new QueueEvent[aCount];
+
+        for (int i = 0; i < aCount; i++) {
+            myEvents[i] = new QueueEvent(QueueEvent.ENTRY_WRITTEN, null, null);
+        }
+
+        return myEvents;
+    }
+
+    private static class TaskImpl implements DispatchTask {
+        private int theDispatched;
+
+        public QueueEvent[] getEvents() {
+            return new QueueEvent[0];
+        }
+
+        public void block() {
+        }
+
+        public void newDispatch() {
+        }
+
+        public synchronized void dispatched() {
+            ++theDispatched;
+        }
+
+        synchronized int getDispatched() {
+            return theDispatched;
+        }
+
+        public void enableResolve() {
+        }
+
+        public void run() {
+        }
+    }
+
+    private static class GeneratorImpl implements EventGenerator {
+        private int theDelivered;
+        private RuntimeException theFailure;
+        private boolean isRemote = true;
+
+        private ListenerQueue theLateQueue;
+        private DispatchTask theLateTask;
+        private int theLateResult = -1;
+
+        public void ping(QueueEvent[] anEvents, JavaSpace aSource) {
+            if (theLateQueue != null)
+                theLateResult = theLateQueue.offer(theLateTask, newEvents(1));
+
+            if (theFailure != null)
+                throw theFailure;
+
+            synchronized(this) {
+                theDelivered += anEvents.length;
+            }
+        }
+
+        synchronized int getDelivered() {
+            return theDelivered;
+        }
+
+        public void ping(QueueEvent anEvent, JavaSpace aSource) {
+            ping(new QueueEvent[] {anEvent}, aSource);
+        }
+
+        public void skip(int aCount) {
+        }
+
+        public void assign(OID anOID) {
+        }
+
+        public long getStartSeqNum() {
+            return 0;
+        }
+
+        public OID getId() {
+            return null;
+        }
+
+        public boolean isPersistent() {
+            return false;
+        }
+
+        public boolean isRemote() {
+            return isRemote;
+        }
+
+        public long getSourceId() {
+            return 0;
+        }
+
+        public void taint() {
+        }
+
+        public boolean canSee(QueueEvent anEvent, long aTime) {
+            return true;
+        }
+
+        public boolean matches(MangledEntry anEntry) {
+            return true;
+        }
+
+        public MangledEntry[] getTemplates() {
+            return new MangledEntry[0];
+        }
+
+        public boolean renew(long aTime) {
+            return true;
+        }
+
+        public boolean hasExpired(long aTime) {
+            return false;
+        }
+
+        public void recover(long aSeqNum) {
+        }
+
+        public long jumpSequenceNumber() {
+            return 0;
+        }
+
+        public long jumpSequenceNumber(long aMin) {
+            return aMin;
+        }
+
+        public EventGeneratorState getMemento() {
+            return null;
+        }
+
+        public int compareTo(Object anObject) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.dancres.blitz.task;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TasksTest {
+    private Tasks theTasks;
+
+    @Before public void init() {
+        // One thread and room for one waiting task per queue
+        theTasks = new Tasks(1, 1, new TaskClass[0]);
+    }
+
+    @After public void deinit() {
+        theTasks.halt();
+    }
+
+    @Test public void fullQueueBlocksSubmitter() throws Exception {
+        CountDownLatch myRelease = new CountDownLatch(1);
+        CountDownLatch myDone = new CountDownLatch(3);
+        TaskImpl myRunning = new TaskImpl(myRelease, myDone);
+
+        theTasks.execute("Test", myRunning);
+        Assert.assertTrue(myRunning.theStarted.await(5, TimeUnit.SECONDS));
+
+        // Fills the queue whilst the only thread is busy
+        theTasks.execute("Test", new TaskImpl(null, myDone));
+
+        Submitter mySubmitter =
+            new Submitter(theTasks, new TaskImpl(null, myDone));
+        mySubmitter.start();
+
+        mySubmitter.join(500);
+        Assert.assertTrue("Submitter should block on a full queue",
+                          mySubmitter.isAlive());
+        Assert.assertEquals(3, myDone.getCount());
+
+        myRelease.countDown();
+
+        mySubmitter.join(5000);
+        Assert.assertFalse(mySubmitter.isAlive());
+        Assert.assertNull(mySubmitter.theFailure);
+
+        // Nothing was rejected
+        Assert.assertTrue(myDone.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test public void otherQueuesUnaffected() throws Exception {
+        CountDownLatch myRelease = new CountDownLatch(1);
+        CountDownLatch myDone = new CountDownLatch(3);
+        TaskImpl myRunning = new TaskImpl(myRelease, myDone);
+
+        theTasks.execute("Test", myRunning);
+        Assert.assertTrue(myRunning.theStarted.await(5, TimeUnit.SECONDS));
+
+        theTasks.execute("Test", new TaskImpl(null, myDone));
+
+        // Bound is per queue so this mustn't block
+        theTasks.execute("Other", new TaskImpl(null, myDone));
+
+        myRelease.countDown();
+
+        Assert.assertTrue(myDone.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test public void wakeupsOvertakeRemoteEvents() throws Exception {
+        Tasks myTasks = new Tasks(1, 0, new TaskClass[] {
+            new TaskClass(Tasks.WAKEUP_QUEUE, 16, 0),
+            new TaskClass("RemoteEvent", 1, 1)});
+
+        try {
+            CountDownLatch myRelease = new CountDownLatch(1);
+            CountDownLatch myDone = new CountDownLatch(5);
+            List myOrder = new ArrayList();
+
+            TaskImpl myRunning = new TaskImpl(myRelease, myDone);
+            myTasks.execute("RemoteEvent", myRunning);
+            Assert.assertTrue(myRunning.theStarted.await(5, TimeUnit.SECONDS));
+
+            for (int i = 0; i < 3; i++)
+                myTasks.execute("RemoteEvent",
+                                new OrderedTask("remote", myOrder, myDone));
+
+            myTasks.execute(Tasks.WAKEUP_QUEUE,
+                            new OrderedTask("wakeup", myOrder, myDone));
+
+            myRelease.countDown();
+            Assert.assertTrue(myDone.await(5, TimeUnit.SECONDS));
+
+            synchronized(myOrder) {
+                Assert.assertEquals("wakeup", myOrder.get(0));
+            }
+        } finally {
+            myTasks.halt();
+        }
+    }
+
+    private static class OrderedTask implements Task {
+        private String theName;
+        private List theOrder;
+        private CountDownLatch theDone;
+
+        OrderedTask(String aName, List anOrder, CountDownLatch aDone) {
+            theName = aName;
+            theOrder = anOrder;
+            theDone = aDone;
+        }
+
+        public void run() {
+            synchronized(theOrder) {
+                theOrder.add(theName);
+            }
+
+            theDone.countDown();
+        }
+    }
+
+    private static class TaskImpl implements Task {
+        private CountDownLatch theStarted = new CountDownLatch(1);
+        private CountDownLatch theRelease;
+        private CountDownLatch theDone;
+
+        TaskImpl(CountDownLatch aRelease, CountDownLatch aDone) {
+            theRelease = aRelease;
+            theDone = aDone;
+        }
+
+        public void run() {
+            theStarted.countDown();
+
+            try {
+                if (theRelease != null)
+                    theRelease.await();
+            } catch (InterruptedException anIE) {
+                return;
+            }
+
+            theDone.countDown();
+        }
+    }
+
+    private static class Submitter extends Thread {
+        private Tasks theTasks;
+        private Task theTask;
+        private volatile Exception theFailure;
+
+        Submitter(Tasks aTasks, Task aTask) {
+            theTasks = aTasks;
+            theTask = aTask;
+        }
+
+        public void run() {
+            try {
+                theTasks.execute("Test", theTask);
+            } catch (Exception anE) {
+                theFailure = anE;
+            }
+        }
+    }
+}
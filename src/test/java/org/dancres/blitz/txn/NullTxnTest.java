@@ -0,0 +1,185 @@
+package org.dancres.blitz.txn;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.jini.core.transaction.server.TransactionConstants;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.prevayler.implementation.PrevaylerCore;
+
+/**
+   Null transactions are resolved without being registered with
+   TxnDispatcherState.  Checks commit and abort of live null transactions
+   and that a logged NullTxnCommand restores and commits its ops on
+   recovery.  Lives in the txn package to drive TxnDispatcherState and
+   NullTxnCommand directly.
+ */
+public class NullTxnTest {
+    private static List theCalls = new ArrayList();
+
+    private File theDir;
+
+    @Before public void init() throws Exception {
+        theDir = File.createTempFile("nullTxn", "test");
+        theDir.delete();
+        theDir.mkdirs();
+
+        synchronized(theCalls) {
+            theCalls.clear();
+        }
+    }
+
+    @After public void deinit() throws Exception {
+        File[] myFiles = theDir.listFiles();
+
+        for (int i = 0; i < myFiles.length; i++)
+            myFiles[i].delete();
+
+        theDir.delete();
+    }
+
+    @Test public void commit() throws Exception {
+        TxnDispatcherState mySystem = new TxnDispatcherState();
+        TxnState myTxn = newTxn(mySystem, new String[] {"a", "b"});
+
+        myTxn.vote();
+
+        Integer myResult = (Integer)
+            new NullTxnCommand(myTxn, true).execute(mySystem);
+
+        Assert.assertEquals(TransactionConstants.COMMITTED,
+                            myResult.intValue());
+
+        // Live so no restore, commit is in reverse order
+        assertCalls(new String[] {"commit b", "commit a"});
+        Assert.assertTrue(mySystem.getActiveTxnIds().isEmpty());
+    }
+
+    @Test public void abort() throws Exception {
+        TxnDispatcherState mySystem = new TxnDispatcherState();
+        TxnState myTxn = newTxn(mySystem, new String[] {"a", "b"});
+
+        mySystem.abortNull(myTxn);
+
+        assertCalls(new String[] {"abort a", "abort b"});
+        Assert.assertEquals(TransactionConstants.ABORTED, myTxn.getStatus());
+        Assert.assertTrue(mySystem.getActiveTxnIds().isEmpty());
+    }
+
+    @Test public void recovery() throws Exception {
+        PrevaylerCore myCore =
+            new PrevaylerCore(new TxnDispatcherState(), theDir.getPath(),
+                              false, false, 0, 1, new TxnCommandCodec());
+        TxnDispatcherState mySystem = (TxnDispatcherState) myCore.system();
+
+        myCore.logCommand(new NullTxnCommand(
+            newTxn(mySystem, new String[] {"a", "b"}), true));
+        myCore.logCommand(new NullTxnCommand(
+            newTxn(mySystem, new String[] {"c"}), true));
+        myCore.flush();
+
+        // Nothing is applied until the log is recovered
+        assertCalls(new String[0]);
+
+        myCore = new PrevaylerCore(new TxnDispatcherState(), theDir.getPath(),
+                                   false, false, 0, 1, new TxnCommandCodec());
+
+        assertCalls(new String[] {"restore b", "restore a", "commit b",
+                                  "commit a", "restore c", "commit c"});
+        Assert.assertTrue(((TxnDispatcherState) myCore.system()).
+                          getActiveTxnIds().isEmpty());
+    }
+
+    /**
+       Log files may be decoded in parallel ahead of recovery so decoding
+       mustn't allocate a null transaction id, that happens when the command
+       is applied.
+     */
+    @Test public void idAssignedWhenApplied() throws Exception {
+        TxnDispatcherState mySystem = new TxnDispatcherState();
+        TxnCommandCodec myCodec = new TxnCommandCodec();
+        ByteArrayOutputStream myBytes = new ByteArrayOutputStream();
+
+        Assert.assertTrue(myCodec.encode(new NullTxnCommand(
+            newTxn(mySystem, new String[] {"a"}), true),
+            new DataOutputStream(myBytes)));
+
+        long myBefore = TxnId.newNullTxn().getId();
+
+        NullTxnCommand myCommand = (NullTxnCommand) myCodec.decode(
+            new DataInputStream(
+                new ByteArrayInputStream(myBytes.toByteArray())));
+
+        Assert.assertNull(myCommand.getTxn().getId());
+        Assert.assertEquals(myBefore + 1, TxnId.newNullTxn().getId());
+
+        myCommand.execute(mySystem);
+
+        Assert.assertEquals(myBefore + 2, myCommand.getTxn().getId().getId());
+        Assert.assertTrue(myCommand.getTxn().isNull());
+        assertCalls(new String[] {"restore a", "commit a"});
+    }
+
+    private static TxnState newTxn(TxnDispatcherState aSystem,
+                                   String[] anOps) throws Exception {
+        TxnState myTxn = aSystem.newNullTxn();
+
+        Assert.assertTrue(myTxn.isNull());
+
+        for (int i = 0; i < anOps.length; i++)
+            myTxn.add(new OpImpl(anOps[i]));
+
+        return myTxn;
+    }
+
+    private static void assertCalls(String[] aCalls) {
+        List myExpected = new ArrayList();
+
+        for (int i = 0; i < aCalls.length; i++)
+            myExpected.add(aCalls[i]);
+
+        synchronized(theCalls) {
+            Assert.assertEquals(myExpected, theCalls);
+        }
+    }
+
+    private static void called(String aCall) {
+        synchronized(theCalls) {
+            theCalls.add(aCall);
+        }
+    }
+
+    /**
+       Not an EntryTxnOp so it's serialized into the log
+     */
+    public static class OpImpl implements TxnOp {
+        private String theName;
+
+        OpImpl(String aName) {
+            theName = aName;
+        }
+
+        public void restore(TxnState aState) {
+            called("restore " + theName);
+        }
+
+        public void commit(TxnState aState) {
+            called("commit " + theName);
+        }
+
+        public void abort(TxnState aState) {
+            called("abort " + theName);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package org.dancres.blitz.txn;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.dancres.blitz.oid.OID;
+import org.dancres.blitz.oid.OIDFactory;
+
+import org.dancres.blitz.txnlock.BaulkedParty;
+import org.dancres.blitz.txnlock.LockMgr;
+import org.dancres.blitz.txnlock.TxnLock;
+
+/**
+   Lives in the txn package to create TxnStates directly.  Wake ups are
+   dispatched via Tasks so are waited for rather than asserted immediately.
+ */
+public class TxnLockTest {
+    private LockMgr theMgr;
+    private TxnState theFirst;
+    private TxnState theSecond;
+
+    @Before public void init() throws Exception {
+        theMgr = new LockMgr();
+        theFirst = new TxnState(TxnId.newNullTxn());
+        theSecond = new TxnState(TxnId.newNullTxn());
+    }
+
+    @Test public void deleteHandOff() throws Exception {
+        TxnLock myLock = theMgr.getLock(OIDFactory.newOID(1, 1));
+        PartyImpl myParty = new PartyImpl();
+
+        synchronized(myLock) {
+            Assert.assertEquals(TxnLock.SUCCESS,
+                myLock.acquire(theFirst, TxnLock.DELETE, null, null, false));
+            Assert.assertEquals(TxnLock.CONFLICT,
+                myLock.acquire(theSecond, TxnLock.DELETE, myParty, "h",
+                               false));
+        }
+
+        Assert.assertEquals(1, myParty.theBlocked);
+
+        myLock.release(theFirst, TxnLock.DELETE);
+
+        Assert.assertTrue(myParty.theUnblocked.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals("h", myParty.theHandback);
+
+        synchronized(myLock) {
+            Assert.assertFalse(myLock.isActive());
+            Assert.assertEquals(TxnLock.SUCCESS,
+                myLock.acquire(theSecond, TxnLock.DELETE, null, null, false));
+            Assert.assertTrue(myLock.hasOnly(theSecond.getId(),
+                                             TxnLock.DELETE));
+        }
+    }
+
+    @Test public void writerBlocksReader() throws Exception {
+        TxnLock myLock = theMgr.getLock(OIDFactory.newOID(1, 2));
+        PartyImpl myParty = new PartyImpl();
+
+        synchronized(myLock) {
+            Assert.assertEquals(TxnLock.SUCCESS,
+                myLock.acquire(theFirst, TxnLock.WRITE, null, null, false));
+            Assert.assertEquals(TxnLock.CONFLICT,
+                myLock.acquire(theSecond, TxnLock.READ, myParty, null, false));
+
+            // The writer can see its own write
+            Assert.assertEquals(TxnLock.SUCCESS,
+                myLock.acquire(theFirst, TxnLock.READ, null, null, false));
+        }
+
+        myLock.release(theFirst, TxnLock.READ);
+
+        // Writer still holds the lock, no wake up
+        Assert.assertFalse(myParty.theUnblocked.await(250,
+                                                      TimeUnit.MILLISECONDS));
+
+        myLock.release(theFirst, TxnLock.WRITE);
+
+        Assert.assertTrue(myParty.theUnblocked.await(5, TimeUnit.SECONDS));
+
+        synchronized(myLock) {
+            Assert.assertEquals(TxnLock.SUCCESS,
+                myLock.acquire(theSecond, TxnLock.READ, null, null, false));
+        }
+    }
+
+    @Test public void sharedReaders() throws Exception {
+        TxnLock myLock = theMgr.getLock(OIDFactory.newOID(1, 3));
+        TxnState myThird = new TxnState(TxnId.newNullTxn());
+        PartyImpl myParty = new PartyImpl();
+
+        synchronized(myLock) {
+            Assert.assertEquals(TxnLock.SUCCESS,
+                myLock.acquire(theFirst, TxnLock.READ, null, null, false));
+            Assert.assertEquals(TxnLock.SUCCESS,
+                myLock.acquire(theSecond, TxnLock.READ, null, null, false));
+            Assert.assertEquals(TxnLock.CONFLICT,
+                myLock.acquire(myThird, TxnLock.DELETE, myParty, null,
+                               false));
+        }
+
+        // Registered against one of the readers
+        myLock.release(theFirst, TxnLock.READ);
+        myLock.release(theSecond, TxnLock.READ);
+
+        Assert.assertTrue(myParty.theUnblocked.await(5, TimeUnit.SECONDS));
+
+        synchronized(myLock) {
+            Assert.assertEquals(TxnLock.SUCCESS,
+                myLock.acquire(myThird, TxnLock.DELETE, null, null, false));
+        }
+    }
+
+    @Test public void ownDeleteFails() throws Exception {
+        TxnLock myLock = theMgr.getLock(OIDFactory.newOID(1, 4));
+
+        synchronized(myLock) {
+            Assert.assertEquals(TxnLock.SUCCESS,
+                myLock.acquire(theFirst, TxnLock.DELETE, null, null, false));
+            Assert.assertEquals(TxnLock.FAIL,
+                myLock.acquire(theFirst, TxnLock.READ, null, null, false));
+            Assert.assertEquals(TxnLock.FAIL,
+                myLock.acquire(theFirst, TxnLock.DELETE, null, null, false));
+        }
+    }
+
+    @Test public void singleToManyAndBack() throws Exception {
+        TxnLock myLock = theMgr.getLock(OIDFactory.newOID(1, 5));
+
+        synchronized(myLock) {
+            myLock.acquire(theFirst, TxnLock.WRITE, null, null, false);
+            Assert.assertTrue(myLock.hasOnly(theFirst.getId(),
+                                             TxnLock.WRITE));
+
+            myLock.acquire(theFirst, TxnLock.DELETE, null, null, false);
+            Assert.assertFalse(myLock.hasOnly(theFirst.getId(),
+                                              TxnLock.WRITE));
+            Assert.assertTrue(myLock.hasWriter(theFirst.getId()));
+        }
+
+        myLock.release(theFirst, TxnLock.WRITE);
+
+        synchronized(myLock) {
+            Assert.assertTrue(myLock.hasOnly(theFirst.getId(),
+                                             TxnLock.DELETE));
+            Assert.assertFalse(myLock.hasWriter(theFirst.getId()));
+        }
+
+        myLock.release(theFirst, TxnLock.DELETE);
+
+        synchronized(myLock) {
+            Assert.assertFalse(myLock.isActive());
+        }
+    }
+
+    @Test public void locksFoundByOID() throws Exception {
+        List myLocks = new ArrayList();
+
+        // Enough to spread across all stripes and force them to grow
+        for (int i = 0; i < 20000; i++) {
+            myLocks.add(theMgr.getLock(OIDFactory.newOID(i % 7, i)));
+        }
+
+        for (int i = 0; i < 20000; i++) {
+            OID myOID = OIDFactory.newOID(i % 7, i);
+
+            Assert.assertSame(myLocks.get(i), theMgr.getLock(myOID));
+        }
+
+        OID myOID = OIDFactory.newOID(0, 0);
+        TxnLock myNew = theMgr.newLock(myOID);
+
+        Assert.assertNotSame(myLocks.get(0), myNew);
+        Assert.assertSame(myNew, theMgr.getLock(myOID));
+
+        Assert.assertFalse(theMgr.hasActiveLock(myOID));
+
+        synchronized(myNew) {
+            myNew.acquire(theFirst, TxnLock.WRITE, null, null, false);
+        }
+
+        Assert.assertTrue(theMgr.hasActiveLock(myOID));
+        Assert.assertFalse(theMgr.hasActiveLock(OIDFactory.newOID(8, 1)));
+    }
+
+    private static class PartyImpl implements BaulkedParty {
+        private volatile int theBlocked;
+        private volatile Object theHandback;
+        private CountDownLatch theUnblocked = new CountDownLatch(1);
+
+        public void blocked(Object aHandback) {
+            ++theBlocked;
+        }
+
+        public void unblocked(Object aHandback) {
+            theHandback = aHandback;
+            theUnblocked.countDown();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package org.dancres.blitz.txn.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.prevayler.AlarmClock;
+import org.prevayler.Command;
+import org.prevayler.PrevalentSystem;
+import org.prevayler.SnapshotContributor;
+
+import org.prevayler.implementation.PrevaylerCore;
+
+/**
+   Checks that a writer is only released once its command is in the log,
+   whether or not it asked for a sync, and that only batches containing a
+   sync'd command are flushed.
+ */
+public class GroupCommitBatcherTest {
+    private File theDir;
+    private CoreImpl theCore;
+    private GroupCommitBatcher theBatcher;
+
+    @Before public void init() throws Exception {
+        theDir = File.createTempFile("groupCommit", "test");
+        theDir.delete();
+        theDir.mkdirs();
+
+        theCore = new CoreImpl(theDir);
+        theBatcher = new GroupCommitBatcher(theCore);
+    }
+
+    @After public void deinit() throws Exception {
+        theCore.release();
+        theBatcher.halt();
+
+        File[] myFiles = theDir.listFiles();
+
+        for (int i = 0; i < myFiles.length; i++)
+            myFiles[i].delete();
+
+        theDir.delete();
+    }
+
+    @Test public void unsyncedWaitsForLog() throws Exception {
+        theCore.block();
+
+        Writer myWriter = new Writer(new CommandImpl("a"), false);
+        myWriter.start();
+
+        theCore.awaitLogging();
+        Thread.sleep(100);
+
+        // Still being written, must not have been executed
+        Assert.assertTrue(myWriter.isAlive());
+        Assert.assertEquals(0, theCore.getCalls().size());
+
+        theCore.release();
+        myWriter.join(5000);
+
+        Assert.assertFalse(myWriter.isAlive());
+        Assert.assertNull(myWriter.getFailure());
+        assertCalls(new String[] {"log a", "execute a"});
+        Assert.assertEquals(0, theCore.getFlushes());
+    }
+
+    @Test public void syncFlushes() throws Exception {
+        theBatcher.executeCommand(new CommandImpl("a"));
+
+        assertCalls(new String[] {"log a", "execute a"});
+        Assert.assertEquals(1, theCore.getFlushes());
+    }
+
+    @Test public void batchesFlushOnce() throws Exception {
+        theCore.block();
+
+        // Occupies the flusher so the rest queue up as one batch
+        Writer myFirst = new Writer(new CommandImpl("a"), false);
+        myFirst.start();
+        theCore.awaitLogging();
+
+        Writer[] myWriters = new Writer[4];
+
+        for (int i = 0; i < myWriters.length; i++) {
+            myWriters[i] =
+                new Writer(new CommandImpl("b" + i), (i == 2));
+            myWriters[i].start();
+        }
+
+        Thread.sleep(100);
+        theCore.release();
+
+        myFirst.join(5000);
+        Assert.assertNull(myFirst.getFailure());
+
+        for (int i = 0; i < myWriters.length; i++) {
+            myWriters[i].join(5000);
+            Assert.assertNull(myWriters[i].getFailure());
+        }
+
+        // First batch is unsync'd, second holds the one sync'd command
+        Assert.assertEquals(1, theCore.getFlushes());
+        Assert.assertEquals(10, theCore.getCalls().size());
+    }
+
+    @Test public void haltedWritesInline() throws Exception {
+        theBatcher.halt();
+
+        theBatcher.executeCommand(new CommandImpl("a"), false);
+        theBatcher.executeCommand(new CommandImpl("b"), true);
+
+        assertCalls(new String[] {"log a", "execute a", "log b", "execute b"});
+    }
+
+    private void assertCalls(String[] anExpected) {
+        List myCalls = theCore.getCalls();
+
+        Assert.assertEquals(anExpected.length, myCalls.size());
+
+        for (int i = 0; i < anExpected.length; i++)
+            Assert.assertEquals(anExpected[i], myCalls.get(i));
+    }
+
+    private class Writer extends Thread {
+        private Command theCommand;
+        private boolean isSync;
+        private Exception theFailure;
+
+        Writer(Command aCommand, boolean sync) {
+            theCommand = aCommand;
+            isSync = sync;
+        }
+
+        public void run() {
+            try {
+                theBatcher.executeCommand(theCommand, isSync);
+            } catch (Exception anE) {
+                theFailure = anE;
+            }
+        }
+
+        Exception getFailure() {
+            return theFailure;
+        }
+    }
+
+    private static class CommandImpl implements Command {
+        private String theName;
+
+        CommandImpl(String aName) {
+            theName = aName;
+        }
+
+        public Serializable execute(PrevalentSystem aSystem) {
+            ((SystemImpl) aSystem).record("execute " + theName);
+            return null;
+        }
+
+        public String toString() {
+            return theName;
+        }
+    }
+
+    /**
+       Records rather than writes commands, logging can be held up to
+       simulate a slow disk.
+     */
+    private static class CoreImpl extends PrevaylerCore {
+        private boolean isBlocked;
+        private boolean isLogging;
+        private int theFlushes;
+
+        CoreImpl(File aDir) throws Exception {
+            super(new SystemImpl(), aDir.getPath(), false, false, 0);
+        }
+
+        public void logCommand(Command aCommand, boolean doSync) {
+            synchronized(this) {
+                isLogging = true;
+                notifyAll();
+
+                while (isBlocked) {
+                    try {
+                        wait();
+                    } catch (InterruptedException anIE) {
+                    }
+                }
+            }
+
+            ((SystemImpl) system()).record("log " + aCommand);
+        }
+
+        public synchronized void flush() throws IOException {
+            ++theFlushes;
+        }
+
+        synchronized void block() {
+            isBlocked = true;
+        }
+
+        synchronized void release() {
+            isBlocked = false;
+            notifyAll();
+        }
+
+        synchronized void awaitLogging() throws InterruptedException {
+            while (! isLogging)
+                wait();
+        }
+
+        synchronized int getFlushes() {
+            return theFlushes;
+        }
+
+        List getCalls() {
+            return ((SystemImpl) system()).getCalls();
+        }
+    }
+
+    private static class SystemImpl implements PrevalentSystem {
+        private AlarmClock theClock;
+        private List theCalls = new ArrayList();
+
+        public void clock(AlarmClock aClock) {
+            theClock = aClock;
+        }
+
+        public AlarmClock clock() {
+            return theClock;
+        }
+
+        public void add(SnapshotContributor aContributor) {
+        }
+
+        public void remove(SnapshotContributor aContributor) {
+        }
+
+        public Serializable[] getSnapshotContributions() {
+            return new Serializable[0];
+        }
+
+        synchronized void record(String aCall) {
+            theCalls.add(aCall);
+        }
+
+        synchronized List getCalls() {
+            return new ArrayList(theCalls);
+        }
+    }
+}